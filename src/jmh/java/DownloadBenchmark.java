@@ -0,0 +1,56 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Download throughput from a local Drive stand-in at several file sizes, over one connection and in parallel
+ * byte ranges
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownloadBenchmark {
+    @Param({"262144", "4194304", "33554432"})
+    public int fileSize;
+
+    @Param({"1", "4"})
+    public int connections;
+
+    private FakeDriveServer server;
+    private DriveClient client;
+    private FakeDriveServer.FakeFile file;
+    private String md5Checksum;
+    private Path target;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new FakeDriveServer();
+        client = new DriveClient(DriveClient.newPooledTransport(connections), null, server.rootUrl(), null);
+        byte[] content = new byte[fileSize];
+        new Random(1).nextBytes(content);
+        file = server.addFile("source.bin", "application/octet-stream", content);
+        md5Checksum = FakeDriveServer.md5(content);
+        target = Files.createTempFile("download-benchmark", ".bin");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.close();
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        new RangedDownload(client.getService().getRequestFactory(), server.mediaUrl(file.id), fileSize, md5Checksum,
+                target.toFile(), connections)
+                .download();
+        return Files.size(target);
+    }
+}
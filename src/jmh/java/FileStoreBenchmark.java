@@ -0,0 +1,110 @@
+import com.google.api.client.util.DateTime;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.value.ObservableValue;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory taken by a million table rows held as DriveFile objects and in a {@link FileStore}, reported as the
+ * bytesPerRow counter of the build benchmark, and the cost of producing the cell values of the visible rows
+ * while scrolling, whose allocations show with '-prof gc'
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class FileStoreBenchmark {
+    private static final int ROWS = 1_000_000;
+    private static final int VISIBLE_ROWS = 40;
+    private static final String[] TYPES = {"application/pdf", "image/jpeg", "text/plain",
+            "application/vnd.google-apps.document", "application/vnd.google-apps.spreadsheet",
+            "application/vnd.google-apps.folder", "video/mp4"};
+
+    @Param({"objects", "columns"})
+    public String layout;
+
+    private List<DriveFile> rows;
+    private int firstVisibleRow;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long bytesPerRow;
+    }
+
+    /**
+     * A file as parsed from a listing, with strings of its own like those of the JSON parser
+     */
+    private static DriveFile file(Random random, int i) {
+        String id = Long.toString(random.nextLong() & Long.MAX_VALUE, 36) + Integer.toString(i, 36);
+        return new DriveFile(id, "Document " + i + " final.pdf", new String(TYPES[random.nextInt(TYPES.length)]),
+                new DateTime(false, 1500000000000L + random.nextInt() * 1000L, 0));
+    }
+
+    private List<DriveFile> build() {
+        List<DriveFile> list = layout.equals("columns") ? new FileStore() : new ArrayList<>();
+        Random random = new Random(1);
+        for (int i = 0; i < ROWS; i++) {
+            list.add(file(random, i));
+        }
+        return list;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    @Setup
+    public void setUp() {
+        rows = build();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public int buildRows(Footprint footprint) {
+        rows = null;
+        long before = usedHeap();
+        List<DriveFile> built = build();
+        footprint.bytesPerRow = (usedHeap() - before) / ROWS;
+        rows = built;
+        return built.size();
+    }
+
+    /**
+     * The cell values of the visible rows after scrolling by one row, as the table's cell value factories
+     * produce them: a new property and a freshly formatted date per cell for objects, cached values for columns
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public int scroll() {
+        firstVisibleRow = (firstVisibleRow + 1) % (ROWS - VISIBLE_ROWS);
+        int length = 0;
+        for (int i = firstVisibleRow; i < firstVisibleRow + VISIBLE_ROWS; i++) {
+            DriveFile file = rows.get(i);
+            if (layout.equals("columns")) {
+                length += length(FileStore.nameValue(file)) + length(FileStore.typeValue(file))
+                        + length(FileStore.modifiedValue(file));
+            } else {
+                length += length(new SimpleStringProperty(file.Name)) + length(new SimpleStringProperty(file.Type))
+                        + length(new SimpleStringProperty(file.LastModifiedDate.toString()));
+            }
+        }
+        return length;
+    }
+
+    private static int length(ObservableValue<String> cell) {
+        return cell.getValue().length();
+    }
+}
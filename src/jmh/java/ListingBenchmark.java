@@ -0,0 +1,69 @@
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.FileList;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a page of the file listing into DriveFile objects, with and without the HTTP round trip to a
+ * local Drive stand-in
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListingBenchmark {
+    private static final int FILES = 1000;
+
+    @Param({"20", "100", "1000"})
+    public int pageSize;
+
+    private FakeDriveServer server;
+    private String pageJson;
+
+    @Setup
+    public void setUp() throws IOException, GeneralSecurityException {
+        server = new FakeDriveServer();
+        List<FakeDriveServer.FakeFile> page = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            FakeDriveServer.FakeFile file = server.addFile("file " + i + ".txt", "text/plain", new byte[0]);
+            if (page.size() < pageSize) {
+                page.add(file);
+            }
+        }
+        pageJson = FakeDriveServer.listingJson(page, String.valueOf(pageSize));
+        DriveMain.initService(server.rootUrl());
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    /**
+     * Parsing and conversion only, as done by getFiles for every page
+     */
+    @Benchmark
+    public List<DriveFile> parsePage() throws IOException {
+        FileList result = DriveClient.JSON_FACTORY.fromString(pageJson, FileList.class);
+        List<DriveFile> files = new ArrayList<>();
+        for (File file : result.getFiles()) {
+            files.add(DriveClient.toDriveFile(file));
+        }
+        return files;
+    }
+
+    /**
+     * A full page request through DriveMain, including the rate limiter and the local HTTP round trip
+     */
+    @Benchmark
+    public ListingPrefetcher.Page listPage() throws IOException {
+        return DriveMain.listPage(null, pageSize);
+    }
+}
@@ -0,0 +1,230 @@
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.util.StreamingContent;
+import com.google.api.services.drive.model.File;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the local file I/O of uploads and downloads with and without {@link FileChannelMedia}. The HTTP side is
+ * an in-process transport which discards request bodies and generates response bodies, so the network and the
+ * fake server's memory do not limit the file sizes and the measured time is spent on the client side.
+ * <p>
+ * The largest size writes two 5 GB files to the temp directory; pass -PjmhArgs="-p fileSize=1048576,104857600"
+ * to leave it out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class LocalIoBenchmark {
+    private static final String UPLOAD_URL = "http://loopback/upload?uploadType=resumable";
+    private static final String SESSION_URL = "http://loopback/session";
+    private static final String MEDIA_URL = "http://loopback/media";
+    private static final byte[] PATTERN = new byte[64 * 1024];
+    static {
+        new Random(1).nextBytes(PATTERN);
+    }
+
+    @Param({"1048576", "104857600", "5368709120"})
+    public long fileSize;
+
+    @Param({"false", "true"})
+    public boolean channelIo;
+
+    private HttpTransport transport;
+    private Path directory;
+    private Path source;
+    private Path target;
+
+    @Setup
+    public void setUp() throws IOException {
+        transport = new LoopbackTransport();
+        directory = Files.createTempDirectory("local-io-benchmark");
+        source = directory.resolve("source.bin");
+        target = directory.resolve("target.bin");
+        try (OutputStream out = Files.newOutputStream(source)) {
+            for (long written = 0; written < fileSize; written += PATTERN.length) {
+                out.write(PATTERN, 0, (int) Math.min(PATTERN.length, fileSize - written));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public String upload() throws IOException {
+        File file = new ResumableUpload(transport.createRequestFactory(), DriveClient.JSON_FACTORY, UPLOAD_URL,
+                source.toFile(), new File().setName("source"), "application/octet-stream",
+                ResumableUpload.DEFAULT_CHUNK_SIZE, directory.resolve("uploads").toFile())
+                .setChannelIo(channelIo)
+                .upload();
+        return file.getId();
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        new RangedDownload(transport.createRequestFactory(), MEDIA_URL, fileSize, null, target.toFile(), 4)
+                .setChannelIo(channelIo)
+                .download();
+        return Files.size(target);
+    }
+
+    /**
+     * Answers upload and download requests in process, as the resumable upload and media endpoints of Drive do
+     */
+    private class LoopbackTransport extends HttpTransport {
+        @Override
+        protected LowLevelHttpRequest buildRequest(String method, String url) {
+            return new LowLevelHttpRequest() {
+                private final Map<String, String> headers = new HashMap<>();
+
+                @Override
+                public void addHeader(String name, String value) {
+                    headers.put(name.toLowerCase(), value);
+                }
+
+                @Override
+                public LowLevelHttpResponse execute() throws IOException {
+                    StreamingContent content = getStreamingContent();
+                    if (content != null) {
+                        content.writeTo(OutputStream.nullOutputStream());
+                    }
+                    if (url.equals(UPLOAD_URL)) {
+                        return new Response(200, List.of("Location", SESSION_URL), null);
+                    }
+                    if (url.equals(SESSION_URL)) {
+                        String range = headers.get("content-range");
+                        long last = range.startsWith("bytes */") ? -1
+                                : Long.parseLong(range.substring(range.indexOf('-') + 1, range.indexOf('/')));
+                        if (last + 1 < fileSize) {
+                            return new Response(308, List.of("Range", "bytes=0-" + last), null);
+                        }
+                        return new Response(200, List.of("Content-Type", "application/json"),
+                                new ByteArrayInputStream("{\"id\":\"uploaded\"}".getBytes(StandardCharsets.UTF_8)));
+                    }
+                    String range = headers.get("range").substring("bytes=".length());
+                    long first = Long.parseLong(range.substring(0, range.indexOf('-')));
+                    long last = Long.parseLong(range.substring(range.indexOf('-') + 1));
+                    return new Response(206, List.of(), new PatternStream(last - first + 1));
+                }
+            };
+        }
+    }
+
+    /**
+     * A response of the loopback transport
+     */
+    private static class Response extends LowLevelHttpResponse {
+        private final int status;
+        private final List<String> headers;   // names and values in turn
+        private final InputStream content;
+
+        Response(int status, List<String> headers, InputStream content) {
+            this.status = status;
+            this.headers = new ArrayList<>(headers);
+            this.content = content;
+        }
+
+        @Override
+        public InputStream getContent() {
+            return content;
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return null;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public String getContentType() {
+            int index = headers.indexOf("Content-Type");
+            return index < 0 ? null : headers.get(index + 1);
+        }
+
+        @Override
+        public String getStatusLine() {
+            return "HTTP/1.1 " + status;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return status;
+        }
+
+        @Override
+        public String getReasonPhrase() {
+            return null;
+        }
+
+        @Override
+        public int getHeaderCount() {
+            return headers.size() / 2;
+        }
+
+        @Override
+        public String getHeaderName(int index) {
+            return headers.get(2 * index);
+        }
+
+        @Override
+        public String getHeaderValue(int index) {
+            return headers.get(2 * index + 1);
+        }
+    }
+
+    /**
+     * Response body of the given length repeating a random pattern
+     */
+    private static class PatternStream extends InputStream {
+        private long remaining;
+
+        PatternStream(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() {
+            if (remaining == 0) {
+                return -1;
+            }
+            return PATTERN[(int) (--remaining % PATTERN.length)] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (remaining == 0) {
+                return -1;
+            }
+            int count = (int) Math.min(Math.min(length, remaining), PATTERN.length);
+            System.arraycopy(PATTERN, 0, buffer, offset, count);
+            remaining -= count;
+            return count;
+        }
+    }
+}
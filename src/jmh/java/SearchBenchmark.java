@@ -0,0 +1,51 @@
+import com.google.api.client.util.DateTime;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of searches in a local search index holding a million files, for the queries typed into the search box
+ * one keystroke at a time
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class SearchBenchmark {
+    private static final int FILES = 1_000_000;
+    private static final String[] WORDS = {"report", "invoice", "photo", "budget", "notes", "draft", "final",
+            "meeting", "project", "summary", "backup", "scan", "contract", "plan", "review", "design"};
+    private static final String[] TYPES = {"application/pdf", "image/jpeg", "text/plain",
+            "application/vnd.google-apps.document", "application/vnd.google-apps.spreadsheet",
+            "application/vnd.google-apps.folder", "video/mp4"};
+
+    @Param({"r", "rep", "report", "report 2023", "type:pdf after:2023-06-01"})
+    public String query;
+
+    private SearchIndex index;
+
+    @Setup
+    public void setUp() {
+        List<DriveFile> files = new ArrayList<>();
+        Random random = new Random(1);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < FILES; i++) {
+            String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " "
+                    + (2015 + random.nextInt(10)) + "-" + i + ".dat";
+            long modified = now - (long) (random.nextDouble() * 10 * 365 * 24 * 3600 * 1000L);
+            files.add(new DriveFile("id-" + i, name, TYPES[random.nextInt(TYPES.length)], new DateTime(modified)));
+        }
+        index = new SearchIndex();
+        index.putAll(files);
+    }
+
+    @Benchmark
+    public List<DriveFile> search() {
+        return index.search(SearchIndex.Query.parse(query));
+    }
+}
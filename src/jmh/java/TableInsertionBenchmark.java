@@ -0,0 +1,98 @@
+import com.google.api.client.util.DateTime;
+import javafx.application.Platform;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cost of inserting rows into the item list of a table set up like the application's, one change per row
+ * versus one change for all rows. Runs on the JavaFX Application Thread, so a display (or Monocle) is needed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TableInsertionBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    private List<DriveFile> files;
+    private TableView<DriveFile> table;
+
+    @Setup
+    public void setUp() throws Exception {
+        try {
+            Platform.startup(() -> { });
+        } catch (IllegalStateException e) {
+            // already started by another benchmark in this JVM
+        }
+        files = new ArrayList<>();
+        DateTime modified = new DateTime(System.currentTimeMillis());
+        for (int i = 0; i < rows; i++) {
+            files.add(new DriveFile("id-" + i, "file " + i + ".txt", "text/plain", modified));
+        }
+        onFxThread(() -> {
+            table = new TableView<>();
+            TableColumn<DriveFile, String> nameColumn = new TableColumn<>("Name");
+            nameColumn.setCellValueFactory(cellData -> new SimpleStringProperty(cellData.getValue().Name));
+            TableColumn<DriveFile, String> typeColumn = new TableColumn<>("Type");
+            typeColumn.setCellValueFactory(cellData -> new SimpleStringProperty(cellData.getValue().Type));
+            TableColumn<DriveFile, String> dateColumn = new TableColumn<>("Last Modified Date");
+            dateColumn.setCellValueFactory(cellData -> new SimpleStringProperty(cellData.getValue().LastModifiedDate.toString()));
+            table.getColumns().add(nameColumn);
+            table.getColumns().add(typeColumn);
+            table.getColumns().add(dateColumn);
+        });
+    }
+
+    @Benchmark
+    public int addAll() throws Exception {
+        ObservableList<DriveFile> items = FXCollections.observableArrayList();
+        onFxThread(() -> {
+            table.setItems(items);
+            items.addAll(files);
+        });
+        return items.size();
+    }
+
+    @Benchmark
+    public int addOneByOne() throws Exception {
+        ObservableList<DriveFile> items = FXCollections.observableArrayList();
+        onFxThread(() -> {
+            table.setItems(items);
+            for (DriveFile file : files) {
+                items.add(file);
+            }
+        });
+        return items.size();
+    }
+
+    private static void onFxThread(Runnable action) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Platform.runLater(() -> {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                failure.set(e);
+            } finally {
+                done.countDown();
+            }
+        });
+        done.await();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+}
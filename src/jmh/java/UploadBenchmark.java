@@ -0,0 +1,57 @@
+import com.google.api.services.drive.model.File;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resumable upload throughput to a local Drive stand-in at several file and chunk sizes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UploadBenchmark {
+    @Param({"262144", "4194304", "33554432"})
+    public int fileSize;
+
+    @Param({"262144", "1048576", "8388608"})
+    public int chunkSize;
+
+    private FakeDriveServer server;
+    private DriveClient client;
+    private Path directory;
+    private Path source;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new FakeDriveServer();
+        directory = Files.createTempDirectory("upload-benchmark");
+        client = new DriveClient(DriveClient.newPooledTransport(4), null, server.rootUrl(),
+                directory.resolve("uploads").toFile());
+        byte[] content = new byte[fileSize];
+        new Random(1).nextBytes(content);
+        source = Files.write(directory.resolve("source.bin"), content);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.close();
+        Files.deleteIfExists(source);
+    }
+
+    @Benchmark
+    public String upload() throws IOException {
+        File file = new ResumableUpload(client.getService().getRequestFactory(), DriveClient.JSON_FACTORY,
+                server.uploadUrl(), source.toFile(), new File().setName("source"), "application/octet-stream",
+                chunkSize, directory.resolve("uploads").toFile())
+                .upload();
+        server.removeFile(file.getId());   // keeps the server's memory flat across invocations
+        return file.getId();
+    }
+}
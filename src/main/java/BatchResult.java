@@ -0,0 +1,23 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-file outcome of a batch of Google Drive operations
+ */
+public class BatchResult {
+    /** Files for which the operation succeeded, as returned by Google Drive when the operation returns metadata */
+    public final List<DriveFile> succeeded = new ArrayList<>();
+    /** Files for which the operation failed, mapped to the error message */
+    public final Map<DriveFile, String> failed = new LinkedHashMap<>();
+
+    public boolean isSuccessful() {
+        return failed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return succeeded.size() + " succeeded, " + failed.size() + " failed";
+    }
+}
@@ -0,0 +1,232 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent local index of the md5Checksum values of the binary files on Google Drive, mapping each checksum to
+ * a file with that content. Drive cannot be queried by checksum, so the index is built once from a full listing
+ * and then updated with the files uploaded and deleted through this application.
+ * <p>
+ * Files changed by other clients are not tracked, so an entry may name a file which is gone or holds other
+ * content by now. Callers fall back to a regular upload when the file of an entry cannot be used, and
+ * {@link #remove(String)} it.
+ */
+public class ChecksumIndex {
+    private static final int FORMAT_VERSION = 1;
+    private static final byte RECORD_PUT = 'P';
+    private static final byte RECORD_REMOVE = 'R';
+    private static final byte RECORD_COMPLETE = 'C';
+
+    private final java.io.File file;
+    private final Map<String, String> idsByChecksum = new HashMap<>();
+    private final Map<String, String> checksumsById = new HashMap<>();
+    private boolean complete;
+    private int records;
+    private DataOutputStream journal;
+
+    private ChecksumIndex(java.io.File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the index stored at the given location, or creates an empty one if there is none
+     *
+     * @param file Location of the index, null to keep it in memory only
+     */
+    public static ChecksumIndex load(java.io.File file) throws IOException {
+        ChecksumIndex index = new ChecksumIndex(file);
+        if (file != null && file.exists()) {
+            boolean truncated = index.replay();
+            if (truncated || index.records > 2 * index.idsByChecksum.size() + 1024) {
+                index.compact();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return True once the index holds every file of a full listing
+     */
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    public synchronized int size() {
+        return idsByChecksum.size();
+    }
+
+    /**
+     * @param md5Checksum Hex encoded MD5 checksum
+     * @return Id of a Google Drive file with the given content, null if none is known
+     */
+    public synchronized String get(String md5Checksum) {
+        return idsByChecksum.get(md5Checksum.toLowerCase());
+    }
+
+    /**
+     * Records the content of a Google Drive file, replacing what was known about the file
+     */
+    public synchronized void put(String md5Checksum, String id) throws IOException {
+        putAll(Map.of(id, md5Checksum));
+    }
+
+    /**
+     * Records the content of several Google Drive files, such as a page of a listing
+     *
+     * @param checksumsById Hex encoded MD5 checksums by file id
+     */
+    public synchronized void putAll(Map<String, String> checksumsById) throws IOException {
+        DataOutputStream out = journal();
+        int written = 0;
+        for (Map.Entry<String, String> entry : checksumsById.entrySet()) {
+            String id = entry.getKey();
+            String checksum = entry.getValue().toLowerCase();
+            if (id.equals(idsByChecksum.get(checksum))) {
+                continue;
+            }
+            forget(id);
+            idsByChecksum.put(checksum, id);
+            this.checksumsById.put(id, checksum);
+            if (out != null) {
+                out.writeByte(RECORD_PUT);
+                out.writeUTF(checksum);
+                out.writeUTF(id);
+                written++;
+            }
+        }
+        if (written > 0) {
+            out.flush();
+            records += written;
+        }
+    }
+
+    /**
+     * Forgets a Google Drive file, for when it was deleted or could not be used
+     */
+    public synchronized void remove(String id) throws IOException {
+        if (!forget(id)) {
+            return;
+        }
+        DataOutputStream out = journal();
+        if (out != null) {
+            out.writeByte(RECORD_REMOVE);
+            out.writeUTF(id);
+            commit();
+        }
+    }
+
+    /**
+     * Marks the index as holding every file of a full listing
+     */
+    public synchronized void markComplete() throws IOException {
+        complete = true;
+        DataOutputStream out = journal();
+        if (out != null) {
+            out.writeByte(RECORD_COMPLETE);
+            commit();
+        }
+    }
+
+    private boolean forget(String id) {
+        String checksum = checksumsById.remove(id);
+        if (checksum == null) {
+            return false;
+        }
+        idsByChecksum.remove(checksum, id);
+        return true;
+    }
+
+    private DataOutputStream journal() throws IOException {
+        if (file == null) {
+            return null;
+        }
+        if (journal == null) {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+            boolean created = !file.exists() || file.length() == 0;
+            journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            if (created) {
+                journal.writeInt(FORMAT_VERSION);
+            }
+        }
+        return journal;
+    }
+
+    private void commit() throws IOException {
+        journal.flush();
+        records++;
+    }
+
+    /**
+     * Reads the stored records in the order they were written
+     *
+     * @return True if the file ended in a torn record or has an unknown format
+     */
+    private boolean replay() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return true;
+            }
+            int type;
+            while ((type = in.read()) != -1) {
+                if (type == RECORD_PUT) {
+                    String checksum = in.readUTF();
+                    String id = in.readUTF();
+                    forget(id);
+                    idsByChecksum.put(checksum, id);
+                    checksumsById.put(id, checksum);
+                } else if (type == RECORD_REMOVE) {
+                    forget(in.readUTF());
+                } else if (type == RECORD_COMPLETE) {
+                    complete = true;
+                } else {
+                    return true;
+                }
+                records++;
+            }
+            return false;
+        } catch (EOFException e) {
+            System.out.println("Ignoring a torn record at the end of " + file);
+            return true;
+        }
+    }
+
+    /**
+     * Rewrites the stored index from the one in memory
+     */
+    private synchronized void compact() throws IOException {
+        close();
+        java.io.File temp = new java.io.File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            for (Map.Entry<String, String> entry : idsByChecksum.entrySet()) {
+                out.writeByte(RECORD_PUT);
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+            if (complete) {
+                out.writeByte(RECORD_COMPLETE);
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = idsByChecksum.size() + 1;
+    }
+
+    /**
+     * Flushes and closes the stored index, later changes reopen it
+     */
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MD5 checksums of local files, in the hex form Google Drive reports as md5Checksum. Large files are hashed
+ * through memory mappings of the file, which spares the read calls but not a copy: the JDK's MD5 digest copies a
+ * mapped buffer through a small heap array of its own. Small files are read into a heap buffer reused by the
+ * calling thread.
+ * <p>
+ * Checksums are cached by path and remembered across restarts in an append-only file. A cached checksum is used
+ * as long as the size and modified time of the file are unchanged, so a backup of mostly unchanged files reads
+ * only their attributes.
+ */
+public class ContentHashes {
+    private static final int FORMAT_VERSION = 1;
+    private static final byte RECORD_HASH = 'H';
+    private static final long MAP_THRESHOLD = 1024 * 1024;   // smaller files are read, mapping them costs more
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;   // bytes mapped at once, bounds the address space
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> READ_BUFFER = ThreadLocal.withInitial(() -> new byte[READ_BUFFER_SIZE]);
+
+    /**
+     * Checksum of a file along with the attributes it was computed for
+     */
+    private static final class Entry {
+        final long size;
+        final long modified;
+        final String md5;
+
+        Entry(long size, long modified, String md5) {
+            this.size = size;
+            this.modified = modified;
+            this.md5 = md5;
+        }
+    }
+
+    private final java.io.File file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private int records;
+    private DataOutputStream journal;
+
+    private ContentHashes(java.io.File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the checksums stored at the given location, or starts an empty cache if there are none
+     *
+     * @param file Location of the cache, null to keep the checksums in memory only
+     */
+    public static ContentHashes load(java.io.File file) throws IOException {
+        ContentHashes hashes = new ContentHashes(file);
+        if (file != null && file.exists()) {
+            boolean truncated = hashes.replay();
+            if (truncated || hashes.records > 2 * hashes.entries.size() + 1024) {
+                hashes.compact();
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * @return The number of cached checksums
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the checksum of a file, computing it only if the file changed since it was last computed
+     *
+     * @return Hex encoded MD5 checksum of the content
+     */
+    public String md5(Path path) throws IOException {
+        String key = path.toAbsolutePath().normalize().toString();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long modified = attributes.lastModifiedTime().toMillis();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.size == attributes.size() && entry.modified == modified) {
+            return entry.md5;
+        }
+        entry = new Entry(attributes.size(), modified, md5Of(path));
+        entries.put(key, entry);
+        if (file != null) {
+            append(key, entry);
+        }
+        return entry.md5;
+    }
+
+    /**
+     * Computes the MD5 checksum of a file without the cache
+     *
+     * @return Hex encoded MD5 checksum of the content
+     */
+    public static String md5Of(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < MAP_THRESHOLD) {
+                ByteBuffer buffer = ByteBuffer.wrap(READ_BUFFER.get());
+                int read;
+                while ((read = channel.read(buffer)) >= 0) {
+                    digest.update(buffer.array(), 0, read);
+                    buffer.clear();
+                }
+            } else {
+                for (long position = 0; position < size; position += MAP_WINDOW) {
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(MAP_WINDOW, size - position));
+                    digest.update(window);
+                }
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private synchronized void append(String key, Entry entry) throws IOException {
+        if (journal == null) {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+            boolean created = !file.exists() || file.length() == 0;
+            journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            if (created) {
+                journal.writeInt(FORMAT_VERSION);
+            }
+        }
+        writeEntry(journal, key, entry);
+        journal.flush();
+        records++;
+    }
+
+    /**
+     * Reads the stored checksums, the last one stored for a path wins
+     *
+     * @return True if the file ended in a torn record or has an unknown format
+     */
+    private boolean replay() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return true;
+            }
+            int type;
+            while ((type = in.read()) == RECORD_HASH) {
+                String key = in.readUTF();
+                entries.put(key, new Entry(in.readLong(), in.readLong(), in.readUTF()));
+                records++;
+            }
+            return type != -1;
+        } catch (EOFException e) {
+            System.out.println("Ignoring a torn record at the end of " + file);
+            return true;
+        }
+    }
+
+    /**
+     * Rewrites the stored checksums without the superseded ones
+     */
+    private synchronized void compact() throws IOException {
+        close();
+        java.io.File temp = new java.io.File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writeEntry(out, entry.getKey(), entry.getValue());
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = entries.size();
+    }
+
+    private static void writeEntry(DataOutputStream out, String key, Entry entry) throws IOException {
+        out.writeByte(RECORD_HASH);
+        out.writeUTF(key);
+        out.writeLong(entry.size);
+        out.writeLong(entry.modified);
+        out.writeUTF(entry.md5);
+    }
+
+    /**
+     * Flushes and closes the stored checksums, later ones reopen them
+     */
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.FXCollections;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.VBox;
+import javafx.util.Duration;
+
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Diagnostics view of the {@link DriveMetrics}: calls, errors, retries, latency percentiles, queue wait and
+ * bytes for each kind of Drive call, followed by the response codes and the transfer totals. Redrawn every
+ * {@value #REFRESH_MILLIS} ms while shown.
+ */
+public class DiagnosticsPanel extends VBox {
+    private static final int REFRESH_MILLIS = 1000;
+
+    private final DriveMetrics metrics;
+    private final TableView<DriveMetrics.Operation> table = new TableView<>();
+    private final Label responses = new Label();
+    private final Label transfers = new Label();
+    private final Timeline refresh;
+
+    public DiagnosticsPanel(DriveMetrics metrics) {
+        super(5);
+        this.metrics = metrics;
+
+        addColumn("Call", operation -> operation.name().charAt(0) + operation.name().substring(1).toLowerCase());
+        addColumn("Calls", operation -> String.valueOf(metrics.get(operation).getCalls()));
+        addColumn("Errors", operation -> String.valueOf(metrics.get(operation).getErrors()));
+        addColumn("Retries", operation -> String.valueOf(metrics.get(operation).getRetries()));
+        addColumn("p50", operation -> formatMillis(metrics.get(operation).getLatency().getPercentileMillis(0.5)));
+        addColumn("p95", operation -> formatMillis(metrics.get(operation).getLatency().getPercentileMillis(0.95)));
+        addColumn("p99", operation -> formatMillis(metrics.get(operation).getLatency().getPercentileMillis(0.99)));
+        addColumn("Queued", operation -> String.format(Locale.ROOT, "%.1f ms",
+                metrics.get(operation).getQueueWait().getMeanMillis()));
+        addColumn("Received", operation -> TransfersPanel.formatBytes(metrics.get(operation).getBytesReceived()));
+        addColumn("Sent", operation -> TransfersPanel.formatBytes(metrics.get(operation).getBytesSent()));
+        table.setItems(FXCollections.observableArrayList(DriveMetrics.Operation.values()));
+        table.setPrefHeight(330);
+
+        getChildren().addAll(table, responses, transfers);
+        update();
+        refresh = new Timeline(new KeyFrame(Duration.millis(REFRESH_MILLIS), event -> update()));
+        refresh.setCycleCount(Animation.INDEFINITE);
+        refresh.play();
+    }
+
+    private void addColumn(String title, Function<DriveMetrics.Operation, String> value) {
+        TableColumn<DriveMetrics.Operation, String> column = new TableColumn<>(title);
+        column.setCellValueFactory(cellData -> new SimpleStringProperty(value.apply(cellData.getValue())));
+        column.setSortable(false);
+        table.getColumns().add(column);
+    }
+
+    /**
+     * Stops redrawing the panel, for when its window is closed
+     */
+    public void stop() {
+        refresh.stop();
+    }
+
+    private void update() {
+        table.refresh();
+        StringBuilder codes = new StringBuilder("Responses:");
+        for (int status = 0; status < 600; status++) {
+            long count = metrics.getStatusCount(status);
+            if (count > 0) {
+                codes.append(' ').append(status == 0 ? "I/O error" : String.valueOf(status)).append(": ")
+                        .append(count);
+            }
+        }
+        responses.setText(codes.toString());
+        DriveMetrics.TransferMetrics uploads = metrics.get(TransferManager.Direction.UPLOAD);
+        DriveMetrics.TransferMetrics downloads = metrics.get(TransferManager.Direction.DOWNLOAD);
+        transfers.setText("Uploads: " + uploads.getCompleted() + " done, " + uploads.getFailed() + " failed, "
+                + TransfersPanel.formatBytes(uploads.getBytes()) + "   Downloads: " + downloads.getCompleted()
+                + " done, " + downloads.getFailed() + " failed, " + TransfersPanel.formatBytes(downloads.getBytes()));
+    }
+
+    private static String formatMillis(long millis) {
+        if (millis < 0) {
+            return "";
+        }
+        long[] bounds = DriveMetrics.BUCKET_BOUNDS_MILLIS;
+        return millis == Long.MAX_VALUE ? "> " + bounds[bounds.length - 1] + " ms" : "<= " + millis + " ms";
+    }
+}
@@ -0,0 +1,247 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local cache of downloaded file content with a byte budget and least recently used eviction. An entry is
+ * addressed by the Drive file id, the format of the content (empty for the stored bytes, the export MIMETYPE for
+ * Google Docs) and a validator: the MD5 checksum or version of a binary file, the modified time of an export. A
+ * changed file gets a new validator and therefore misses, so cached content is never served stale.
+ * <p>
+ * Hits are handed out as copies, never as links to the cached blobs: a downloaded file the user edits must not
+ * change what is served for the Drive file. A blob whose size or modified time changed on disk since it was
+ * cached is discarded.
+ */
+public class DownloadCache {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Size and modified time of a cached blob when it was stored, to detect later changes
+     */
+    private static class Entry {
+        final long size;
+        final long modifiedMillis;
+
+        Entry(long size, long modifiedMillis) {
+            this.size = size;
+            this.modifiedMillis = modifiedMillis;
+        }
+    }
+
+    private final Path directory;
+    private final long budgetBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);   // access order
+    private long totalBytes;
+
+    /**
+     * Opens the cache stored in the given directory, most recently stored blobs are kept longest
+     *
+     * @param directory Directory holding the cached blobs, created if missing
+     * @param budgetBytes Maximum number of bytes kept in the cache
+     */
+    public DownloadCache(Path directory, long budgetBytes) throws IOException {
+        this.directory = directory;
+        this.budgetBytes = budgetBytes;
+        Files.createDirectories(directory);
+        List<Path> blobs = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path blob : stream) {
+                if (blob.getFileName().toString().endsWith(TEMP_SUFFIX)) {   // left by an interrupted download
+                    Files.deleteIfExists(blob);
+                } else {
+                    blobs.add(blob);
+                }
+            }
+        }
+        blobs.sort(Comparator.comparingLong(blob -> blob.toFile().lastModified()));
+        for (Path blob : blobs) {
+            Entry entry = new Entry(Files.size(blob), Files.getLastModifiedTime(blob).toMillis());
+            entries.put(blob.getFileName().toString(), entry);
+            totalBytes += entry.size;
+        }
+        evict();
+    }
+
+    /**
+     * @return True if content of the given size can be cached at all
+     */
+    public boolean fits(long size) {
+        return size <= budgetBytes;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return A new file in the cache directory to download content into before it is stored
+     */
+    public Path newTempFile() throws IOException {
+        return Files.createTempFile(directory, "download-", TEMP_SUFFIX);
+    }
+
+    /**
+     * Copies cached content to the destination
+     *
+     * @param fileId Id of the Drive file
+     * @param format Export MIMETYPE, empty for the stored bytes of the file
+     * @param validator MD5 checksum, version or modified time the content must match
+     * @param destination The desired local file, replaced if it exists
+     * @return True on a hit, false if the content is not cached
+     */
+    public boolean copyTo(String fileId, String format, String validator, Path destination) throws IOException {
+        String name = blobName(fileId, format, validator);
+        Path blob = directory.resolve(name);
+        synchronized (this) {
+            Entry entry = entries.get(name);
+            if (entry == null) {
+                return false;
+            }
+            if (!isIntact(blob, entry)) {
+                System.out.println("Discarding modified cache entry " + name);
+                remove(name);
+                return false;
+            }
+        }
+        try {
+            Files.copy(blob, destination, StandardCopyOption.REPLACE_EXISTING);
+        } catch (NoSuchFileException e) {   // evicted by another thread in the meantime
+            return false;
+        }
+        System.out.println("Served " + destination + " from the download cache");
+        return true;
+    }
+
+    /**
+     * Reads small cached content, such as a thumbnail, into memory
+     *
+     * @param fileId Id of the Drive file
+     * @param format Format of the content
+     * @param validator MD5 checksum, version or modified time the content must match
+     * @return The content, null if it is not cached
+     */
+    public byte[] read(String fileId, String format, String validator) throws IOException {
+        String name = blobName(fileId, format, validator);
+        Path blob = directory.resolve(name);
+        synchronized (this) {
+            Entry entry = entries.get(name);
+            if (entry == null) {
+                return null;
+            }
+            if (!isIntact(blob, entry)) {
+                System.out.println("Discarding modified cache entry " + name);
+                remove(name);
+                return null;
+            }
+        }
+        try {
+            return Files.readAllBytes(blob);
+        } catch (NoSuchFileException e) {   // evicted by another thread in the meantime
+            return null;
+        }
+    }
+
+    /**
+     * Stores small content held in memory, such as a thumbnail, see {@link #put(String, String, String, Path)}
+     */
+    public void put(String fileId, String format, String validator, byte[] content) throws IOException {
+        if (!fits(content.length)) {
+            return;
+        }
+        Path download = newTempFile();
+        try {
+            Files.write(download, content);
+        } catch (IOException e) {
+            Files.deleteIfExists(download);
+            throw e;
+        }
+        put(fileId, format, validator, download);
+    }
+
+    /**
+     * Moves downloaded content into the cache, replacing older versions of the same file and format, and evicts
+     * the least recently used entries which no longer fit the budget
+     *
+     * @param fileId Id of the Drive file
+     * @param format Export MIMETYPE, empty for the stored bytes of the file
+     * @param validator MD5 checksum, version or modified time of the content
+     * @param download The downloaded content, see {@link #newTempFile()}
+     */
+    public void put(String fileId, String format, String validator, Path download) throws IOException {
+        long size = Files.size(download);
+        if (!fits(size)) {
+            Files.deleteIfExists(download);
+            return;
+        }
+        String prefix = blobName(fileId, format, "");
+        String name = blobName(fileId, format, validator);
+        Path blob = directory.resolve(name);
+        synchronized (this) {
+            for (String other : new ArrayList<>(entries.keySet())) {
+                if (other.startsWith(prefix)) {
+                    remove(other);
+                }
+            }
+            Files.move(download, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            entries.put(name, new Entry(size, Files.getLastModifiedTime(blob).toMillis()));
+            totalBytes += size;
+            evict();
+        }
+    }
+
+    private void evict() throws IOException {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (totalBytes > budgetBytes && eldest.hasNext()) {
+            Map.Entry<String, Entry> entry = eldest.next();
+            eldest.remove();
+            totalBytes -= entry.getValue().size;
+            Files.deleteIfExists(directory.resolve(entry.getKey()));
+        }
+    }
+
+    private void remove(String name) throws IOException {
+        Entry entry = entries.remove(name);
+        if (entry != null) {
+            totalBytes -= entry.size;
+            Files.deleteIfExists(directory.resolve(name));
+        }
+    }
+
+    private static boolean isIntact(Path blob, Entry entry) {
+        try {
+            return Files.size(blob) == entry.size && Files.getLastModifiedTime(blob).toMillis() == entry.modifiedMillis;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return Name of the blob, starting with a part shared by every version of the same file and format
+     */
+    private static String blobName(String fileId, String format, String validator) {
+        String name = hash(fileId + "\n" + format) + "-";
+        return validator.isEmpty() ? name : name + hash(validator);
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,6 +1,6 @@
 import javafx.application.Application;
-import javafx.beans.property.SimpleStringProperty;
-import javafx.collections.FXCollections;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -8,39 +8,358 @@ import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.control.skin.TableViewSkin;
 import javafx.scene.control.skin.VirtualFlow;
+import javafx.scene.image.Image;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * Entrypoint of the application
  */
 public class DriveApplication extends Application {
 
+    private static final int THUMBNAIL_SIZE = 32;   // thumbnails of the rows, in pixels
+
+    private static final int PREVIEW_SIZE = 240;   // thumbnail of the selected file, in pixels
+
     public static TableView<DriveFile> table;
 
-    private static ObservableList<DriveFile> fileList;
+    private static FileStore fileList;     // kept compact for tables of millions of files
+
+    private static boolean loadingMore;     // true while a batch requested by scrolling is in flight
+
+    private static ListingPrefetcher prefetcher;
+
+    private static TextField searchField;
+
+    private static SearchIndex searchIndex;   // null until built in the background
+
+    private static CompletableFuture<FileStore> searching;   // results of the search in flight, null if none
+
+    private static FileStore orderedList;   // files in the order of the sorted columns, or null
+
+    private static ListingQuery orderedQuery;
+
+    private static ListingPrefetcher orderedPrefetcher;
+
+    private static boolean loadingOrdered;   // true while a batch of orderedList is in flight
+
+    private static FolderNavigator navigator;
+
+    private static FileStore folderList;   // children of the open folder, or null
+
+    private static Label folderPath;
+
+    private static ThumbnailCache<Image> thumbnails;
 
     /**
-     * Helper method to start over the Google Drive file query
+     * Helper method to bring the table up to date with the changes made on Google Drive since the last refresh
      */
     public static void refreshTable() throws IOException {
-        fileList = FXCollections.observableArrayList(DriveMain.getFiles(true));
-        table.setItems(fileList);
-        table.scrollTo(0);
+        applyDelta(DriveMain.syncIndex());
+    }
+
+    /**
+     * Helper method to bring the table up to date without blocking the JavaFX Application Thread. Only the
+     * changes made since the last refresh are fetched, the rows already loaded are kept.
+     *
+     * @return Future completed once the changes have been fetched
+     */
+    public static CompletableFuture<MetadataIndex.Delta> refreshTableAsync() {
+        CompletableFuture<MetadataIndex.Delta> future = DriveMain.syncIndexAsync();
+        whenDone(future, delta -> {
+            applyDelta(delta);
+            StartupTimer.mark("changes merged");
+        });
+        return future;
+    }
+
+    /**
+     * Helper method to replace the contents of the table with the given files
+     *
+     * @param files The Google Drive files to be shown
+     */
+    private static void showFiles(List<DriveFile> files) {
+        boolean shown = fileList == null || table.getItems() == fileList;   // not if sorted or searching
+        fileList = new FileStore(files);
+        if (shown) {
+            table.setItems(fileList);
+            table.scrollTo(0);
+        }
+    }
+
+    /**
+     * Helper method to apply changes of the local index to the table. Modified rows are replaced in place, new
+     * files are appended and removed files are dropped, finding the rows by id instead of scanning the table.
+     *
+     * @param delta The changes applied to the index
+     */
+    private static void applyDelta(MetadataIndex.Delta delta) {
+        if (delta.isEmpty()) {
+            return;
+        }
+        fileList.removeIds(delta.removed);
+        fileList.putAll(delta.updated);
+        refreshSearch();
+    }
+
+    /**
+     * Helper method to remove files from the table
+     *
+     * @param files The files to be removed
+     */
+    private static void removeFiles(List<DriveFile> files) {
+        Set<String> ids = new HashSet<>();
+        for (DriveFile file : files) {
+            ids.add(file.getId());
+        }
+        fileList.removeIds(ids);
+        if (orderedList != null) {
+            orderedList.removeIds(ids);
+        }
+        if (folderList != null) {
+            folderList.removeIds(ids);
+            navigator.invalidate(navigator.current().getId());
+        }
+        refreshSearch();
+    }
+
+    /**
+     * Helper method to show the children of the folder just opened or gone back to. Cached listings are shown at
+     * once, others once they have been listed, unless another folder has been opened in the meantime.
+     *
+     * @param listing The children of the current folder of the navigator, null if it has no folder open anymore
+     */
+    private static void showFolder(CompletableFuture<List<DriveFile>> listing) {
+        DriveFile folder = navigator.current();
+        folderPath.setText(navigator.path().stream().map(DriveFile::getName)
+                .collect(Collectors.joining(" / ")));
+        folderPath.setVisible(folder != null);
+        folderPath.setManaged(folder != null);
+        Consumer<List<DriveFile>> show = files -> {
+            if (navigator.current() != folder) {
+                return;
+            }
+            folderList = files == null ? null : new FileStore(files);
+            search(searchField.getText());
+            table.scrollTo(0);
+        };
+        if (listing.isDone() && !listing.isCompletedExceptionally()) {   // from the cache, no round trip
+            show.accept(listing.join());
+        } else {
+            whenDone(listing, show);
+        }
+    }
+
+    /**
+     * Helper method to show the indexed files matching the text of the search box, or all loaded files if it is
+     * empty, or the children of the open folder if there is one. The search runs against the local search index,
+     * so no Drive call is made per keystroke, and off the JavaFX Application Thread. Results of a search overtaken
+     * by the next keystroke are dropped. Until the index has been built the table is left as it is, the search runs
+     * once it is ready.
+     *
+     * @param text The text of the search box, see {@link SearchIndex.Query#parse(String)}
+     */
+    private static void search(String text) {
+        if (searching != null) {
+            searching.cancel(false);
+            searching = null;
+        }
+        SearchIndex.Query query = SearchIndex.Query.parse(text);
+        if (query.isEmpty()) {
+            table.setItems(folderList != null ? folderList : orderedList != null ? orderedList : fileList);
+        } else if (searchIndex != null) {
+            CompletableFuture<FileStore> results = DriveMain.searchAsync(query);
+            searching = results;
+            whenDone(results, files -> {
+                if (searching == results) {
+                    searching = null;
+                    table.setItems(files);
+                }
+            });
+        }
+    }
+
+    /**
+     * Helper method to run the search in the search box again after the indexed files changed, as search results
+     * are a snapshot
+     */
+    private static void refreshSearch() {
+        if (searchField != null && !SearchIndex.Query.parse(searchField.getText()).isEmpty()) {
+            search(searchField.getText());
+        }
     }
 
     /**
      * Helper method to add another batch of Google Drive files into the table
      */
     public static void loadMoreItems() throws IOException {
-        fileList.addAll(DriveMain.getFiles(false));
+        fileList.addAll(DriveMain.loadNextIndexPage());
+    }
+
+    /**
+     * Helper method to add another batch of Google Drive files into the table without blocking the
+     * JavaFX Application Thread. The batch is taken from the pages read ahead in the background, so it is
+     * usually available at once. Does nothing if a batch is already being loaded.
+     */
+    public static void loadMoreItemsAsync() {
+        if (loadingMore || prefetcher == null) {   // no prefetcher until the local index has been loaded
+            return;
+        }
+        loadingMore = true;
+        // the page is merged into the index on a worker, as it usually is read ahead and would else be merged here
+        CompletableFuture<List<DriveFile>> future = prefetcher.next().thenCompose(page -> page == null
+                ? CompletableFuture.completedFuture(List.<DriveFile>of()) : DriveMain.addIndexPageAsync(page));
+        future.whenComplete((files, throwable) -> Platform.runLater(() -> {
+            loadingMore = false;
+            if (throwable != null && !(throwable.getCause() instanceof CancellationException)) {
+                restartPrefetch();   // read ahead again from the last page which made it into the index
+            }
+        }));
+        whenDone(future, files -> {
+            fileList.addAll(files);
+            StartupTimer.mark("first page merged");
+            markFirstRows();
+        });
+    }
+
+    /**
+     * Helper method to sort the table. Sorting by columns Google Drive can order by shows the files listed in that
+     * order by the server, page by page, so the order holds for the whole drive and not just the loaded rows.
+     * Search results are complete already, they and columns the server cannot order by are sorted locally.
+     *
+     * @param view The table
+     * @return True once sorted
+     */
+    private static boolean sort(TableView<DriveFile> view) {
+        ObservableList<DriveFile> items = view.getItems();
+        if (items != fileList && items != orderedList) {   // search results
+            return TableView.DEFAULT_SORT_POLICY.call(view);
+        }
+        ListingQuery query = ListingQuery.ALL;
+        for (TableColumn<DriveFile, ?> column : view.getSortOrder()) {
+            String key = (String) column.getUserData();   // order key of Google Drive, null if there is none
+            if (key == null) {
+                showOrdered(null);
+                return TableView.DEFAULT_SORT_POLICY.call(view);
+            }
+            query = query.orderBy(key, column.getSortType() == TableColumn.SortType.DESCENDING);
+        }
+        if (view.getSortOrder().isEmpty()) {
+            showOrdered(null);
+        } else if (items != orderedList || !query.equals(orderedQuery)) {
+            showOrdered(query);
+        }
+        return true;
+    }
+
+    /**
+     * Helper method to show the files of an ordered listing, loaded page by page as the user scrolls
+     *
+     * @param query The ordered listing, null to show the loaded files in index order again
+     */
+    private static void showOrdered(ListingQuery query) {
+        if (orderedPrefetcher != null) {
+            orderedPrefetcher.cancel();
+            orderedPrefetcher = null;
+        }
+        orderedQuery = query;
+        if (query == null) {
+            orderedList = null;
+            if (table.getItems() != fileList) {
+                table.setItems(fileList);
+            }
+            return;
+        }
+        orderedList = new FileStore();
+        orderedPrefetcher = DriveMain.newListingPrefetcher(query);
+        loadingOrdered = false;
+        table.setItems(orderedList);
+        loadMoreOrderedAsync();
+    }
+
+    /**
+     * Helper method to add the next page of the ordered listing into the table. Does nothing if a page is already
+     * being loaded.
+     */
+    private static void loadMoreOrderedAsync() {
+        if (loadingOrdered || orderedPrefetcher == null) {
+            return;
+        }
+        loadingOrdered = true;
+        ListingPrefetcher source = orderedPrefetcher;
+        CompletableFuture<ListingPrefetcher.Page> future = source.next();
+        future.whenComplete((page, throwable) -> Platform.runLater(() -> {
+            if (source == orderedPrefetcher) {
+                loadingOrdered = false;
+            }
+        }));
+        whenDone(future, page -> {
+            if (page != null && source == orderedPrefetcher) {   // else the order changed in the meantime
+                orderedList.addAll(page.files);
+            }
+        });
+    }
+
+    /**
+     * Helper method to drop the pages read ahead so far and read ahead again from where the local index stopped
+     */
+    private static void restartPrefetch() {
+        if (prefetcher == null) {
+            return;
+        }
+        try {
+            MetadataIndex index = DriveMain.getIndex();
+            prefetcher.restart(index.getListingPageToken(), index.isListingComplete());
+        } catch (IOException e) {
+            error(e.getMessage());
+        }
+    }
+
+    /**
+     * Helper method to record the time to the first rows once the table has some
+     */
+    private static void markFirstRows() {
+        if (!fileList.isEmpty()) {
+            StartupTimer.mark(StartupTimer.FIRST_ROWS);
+        }
+    }
+
+    /**
+     * Helper method to handle the result of a background Drive call on the JavaFX Application Thread.
+     * Failures are reported to the user with an error alert.
+     *
+     * @param future The pending Drive call
+     * @param onSuccess Callback receiving the result of the call once it succeeds
+     */
+    private static <T> void whenDone(CompletableFuture<T> future, Consumer<T> onSuccess) {
+        future.whenComplete((result, throwable) -> Platform.runLater(() -> {
+            if (throwable != null) {
+                Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                        ? throwable.getCause() : throwable;
+                if (!(cause instanceof CancellationException)) {
+                    error(cause.getMessage());
+                }
+            } else {
+                onSuccess.accept(result);
+            }
+        }));
     }
 
     /**
@@ -82,22 +401,94 @@ public class DriveApplication extends Application {
         return false;
     }
 
+    /**
+     * Get the index of the first row visible in the table
+     *
+     * @param table The specified TableView object to check
+     * @return The index of the first visible row, or -1 if the table has not been rendered yet
+     */
+    private int firstVisibleRow(TableView<?> table) {
+        TableViewSkin<?> skin = (TableViewSkin<?>)table.getSkin();
+        if (skin != null) {
+            VirtualFlow<?> virtualFlow = (VirtualFlow<?>) skin.getChildren().get(1);
+            IndexedCell<?> firstVisibleCell = virtualFlow.getFirstVisibleCell();
+            return firstVisibleCell == null ? -1 : firstVisibleCell.getIndex();
+        }
+        return -1;
+    }
+
+    /**
+     * Helper method to decode a thumbnail off the JavaFX Application Thread, scaled down to the size it is shown at
+     *
+     * @param content The encoded thumbnail
+     * @param size Length of the longer side in pixels
+     * @return The decoded thumbnail, null if it is not a valid image
+     */
+    private static Image decodeThumbnail(byte[] content, int size) {
+        Image image = new Image(new ByteArrayInputStream(content), size, size, true, true);
+        return image.isError() ? null : image;
+    }
+
     @Override
     public void start(Stage primaryStage) throws IOException {
         table = new TableView<>();
+        thumbnails = DriveMain.newThumbnailCache(DriveApplication::decodeThumbnail,
+                image -> (long) (image.getWidth() * image.getHeight()) * 4);   // decoded as 32-bit pixels
+
+        // Thumbnails are only loaded for the rows in view, see ThumbnailCell
+        TableColumn<DriveFile, DriveFile> thumbnailColumn = new TableColumn<>("");
+        thumbnailColumn.setCellValueFactory(cellData -> new ReadOnlyObjectWrapper<>(cellData.getValue()));
+        thumbnailColumn.setCellFactory(column -> new ThumbnailCell(thumbnails, THUMBNAIL_SIZE));
+        thumbnailColumn.setSortable(false);
+        thumbnailColumn.setPrefWidth(THUMBNAIL_SIZE + 10);
 
         TableColumn<DriveFile, String> nameColumn = new TableColumn<>("Name");
-        nameColumn.setCellValueFactory(cellData -> new SimpleStringProperty(cellData.getValue().Name));
+        nameColumn.setCellValueFactory(cellData -> FileStore.nameValue(cellData.getValue()));
+        nameColumn.setUserData("name");   // Google Drive orders by this key when the column is sorted
 
         TableColumn<DriveFile, String> typeColumn = new TableColumn<>("Type");
-        typeColumn.setCellValueFactory(cellData -> new SimpleStringProperty(cellData.getValue().Type));
+        typeColumn.setCellValueFactory(cellData -> FileStore.typeValue(cellData.getValue()));
 
         TableColumn<DriveFile, String> dateColumn = new TableColumn<>("Last Modified Date");
-        dateColumn.setCellValueFactory(cellData -> new SimpleStringProperty(cellData.getValue().LastModifiedDate.toString()));
+        dateColumn.setCellValueFactory(cellData -> FileStore.modifiedValue(cellData.getValue()));
+        dateColumn.setUserData("modifiedTime");
 
-        table.getColumns().addAll(nameColumn, typeColumn, dateColumn);
+        table.getColumns().addAll(thumbnailColumn, nameColumn, typeColumn, dateColumn);
+        table.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        table.setSortPolicy(DriveApplication::sort);
 
-        refreshTable();
+        searchField = new TextField();
+        searchField.setId("searchField");
+        searchField.setPromptText("Search (type:pdf, after:2024-01-31, before:2024-12-31)");
+        searchField.textProperty().addListener((observable, oldText, newText) -> search(newText));
+        VBox.setMargin(searchField, new Insets(10,10,0,10));
+        whenDone(DriveMain.getSearchIndexAsync(), index -> {
+            searchIndex = index;
+            search(searchField.getText());
+        });
+
+        // Paint the rows shown when the application was last closed right away. The local index is loaded in the
+        // background and replaces them, then the changes made on Google Drive since are merged in.
+        showFiles(DriveMain.loadFirstRows());
+        whenDone(DriveMain.getIndexAsync(), index -> {
+            StartupTimer.mark("index loaded");
+            int firstVisibleRow = firstVisibleRow(table);
+            showFiles(index.files());
+            if (firstVisibleRow > 0) {
+                table.scrollTo(firstVisibleRow);
+            }
+            markFirstRows();
+            try {
+                prefetcher = DriveMain.newIndexPrefetcher();
+            } catch (IOException e) {
+                error(e.getMessage());
+                return;
+            }
+            if (index.size() == 0) {
+                loadMoreItemsAsync();
+            }
+            refreshTableAsync();
+        });
 
         Button uploadButton = new Button("Upload");
         uploadButton.setId("uploadButton");
@@ -107,6 +498,24 @@ public class DriveApplication extends Application {
         refreshButton.setId("refreshButton");
         Button deleteButton = new Button("Delete");
         deleteButton.setId("deleteButton");
+        Button diagnosticsButton = new Button("Diagnostics");
+        diagnosticsButton.setId("diagnosticsButton");
+        Button foldersButton = new Button("Folders");
+        foldersButton.setId("foldersButton");
+        Button backButton = new Button("Back");
+        backButton.setId("backButton");
+
+        PreviewPane previewPane = new PreviewPane(thumbnails, PREVIEW_SIZE);
+        previewPane.setId("previewPane");
+        table.getSelectionModel().selectedItemProperty().addListener(
+                (observable, oldFile, newFile) -> previewPane.show(newFile));
+
+        navigator = DriveMain.newFolderNavigator();
+        folderPath = new Label();
+        folderPath.setId("folderPath");
+        folderPath.setVisible(false);
+        folderPath.setManaged(false);
+        VBox.setMargin(folderPath, new Insets(0,10,0,10));
 
         // Upload button action
         uploadButton.setOnAction(event -> {
@@ -116,13 +525,18 @@ public class DriveApplication extends Application {
             if (selectedFile != null) {
                 String selectedFilePath = selectedFile.getAbsolutePath();
                 System.out.println("Selected file: " + selectedFilePath);
-                try {
-                    DriveMain.uploadFile(selectedFilePath);
-                    refreshTable();
-                    alert("Upload Successful!");
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+                DriveFile folder = navigator.current();   // the file goes into the open folder
+                TransferManager.Job job = DriveMain.getTransfers().upload(selectedFilePath,
+                        folder == null ? null : folder.getId(), RateLimiter.Priority.INTERACTIVE);
+                whenDone(job.getResult(), uploaded -> {
+                    refreshTableAsync();
+                    if (folder != null) {
+                        navigator.invalidate(folder.getId());
+                        if (navigator.current() == folder) {
+                            showFolder(navigator.reload());
+                        }
+                    }
+                });
             } else {
                 System.out.println("No file selected.");
             }
@@ -130,8 +544,8 @@ public class DriveApplication extends Application {
 
         // Download button action
         downloadButton.setOnAction(event -> {
-            DriveFile selectedItem = table.getSelectionModel().getSelectedItem();
-            if (selectedItem != null) {
+            List<DriveFile> selectedItems = new ArrayList<>(table.getSelectionModel().getSelectedItems());
+            if (!selectedItems.isEmpty()) {
                 DirectoryChooser directoryChooser = new DirectoryChooser();
 
                 File selectedDirectory = directoryChooser.showDialog(primaryStage);
@@ -140,13 +554,14 @@ public class DriveApplication extends Application {
                     String directoryPath = selectedDirectory.getAbsolutePath();
                     System.out.println("Selected directory: " + directoryPath);
 
-                    System.out.println("Downloading: " + selectedItem);
-                    try {
-                        DriveMain.downloadFile(selectedItem, directoryPath);
-                        alert("Download Succeeded!");
-                    } catch (Exception e) {
-                        error(e.getMessage());
-                        throw new RuntimeException(e);
+                    // several files are queued together and downloaded or exported concurrently by the transfers
+                    RateLimiter.Priority priority = selectedItems.size() == 1
+                            ? RateLimiter.Priority.INTERACTIVE : RateLimiter.Priority.BULK;
+                    for (DriveFile selectedItem : selectedItems) {
+                        System.out.println("Downloading: " + selectedItem);
+                        TransferManager.Job job = DriveMain.getTransfers().download(selectedItem, directoryPath,
+                                priority);
+                        whenDone(job.getResult(), downloaded -> System.out.println("Downloaded: " + downloaded));
                     }
                 } else {
                     System.out.println("No directory selected");
@@ -158,57 +573,123 @@ public class DriveApplication extends Application {
 
         // Refresh button action
         refreshButton.setOnAction(event -> {
-            try {
-                refreshTable();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+            restartPrefetch();
+            refreshTableAsync();
+            if (navigator.current() != null) {
+                showFolder(navigator.reload());
             }
         });
 
         // Delete button action
         deleteButton.setOnAction(event -> {
-            DriveFile selectedItem = table.getSelectionModel().getSelectedItem();
-            if (selectedItem != null) {
-                System.out.println("Deleting: " + selectedItem.getName());
-                try {
-                    DriveMain.deleteFile(selectedItem);
-                    refreshTable();
-                    alert("Delete Successful!");
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+            List<DriveFile> selectedItems = new ArrayList<>(table.getSelectionModel().getSelectedItems());
+            if (!selectedItems.isEmpty()) {
+                System.out.println("Deleting " + selectedItems.size() + " files");
+                whenDone(DriveMain.deleteFilesAsync(selectedItems), result -> {
+                    removeFiles(result.succeeded);
+                    if (result.isSuccessful()) {
+                        alert("Delete Successful!");
+                    } else {
+                        StringBuilder message = new StringBuilder("Deleted " + result.succeeded.size()
+                                + " files, " + result.failed.size() + " failed:");
+                        result.failed.forEach((file, reason) -> message.append("\n").append(file.getName())
+                                .append(": ").append(reason));
+                        error(message.toString());
+                    }
+                });
             } else {
                 System.out.println("No file selected for deletion.");
             }
         });
 
+        // Folders button action, browses Google Drive from My Drive down
+        foldersButton.setOnAction(event -> {
+            navigator.close();
+            showFolder(navigator.open(FolderNavigator.MY_DRIVE));
+        });
+
+        // Back button action, leaves the folders once back at My Drive
+        backButton.setOnAction(event -> {
+            if (navigator.current() != null) {
+                showFolder(navigator.back());
+            }
+        });
+
+        // Double clicking a folder opens it
+        table.setOnMouseClicked(event -> {
+            DriveFile selected = table.getSelectionModel().getSelectedItem();
+            if (event.getClickCount() == 2 && selected != null && navigator.current() != null
+                    && DriveClient.FOLDER_MIMETYPE.equals(selected.getType())) {
+                showFolder(navigator.open(selected));
+            }
+        });
+
+        // Diagnostics button action
+        diagnosticsButton.setOnAction(event -> {
+            DiagnosticsPanel diagnosticsPanel = new DiagnosticsPanel(DriveMain.getMetrics());
+            diagnosticsPanel.setPadding(new Insets(10));
+            Stage diagnosticsStage = new Stage();
+            diagnosticsStage.setTitle("Diagnostics");
+            diagnosticsStage.setScene(new Scene(diagnosticsPanel, 760, 420));
+            diagnosticsStage.setOnHidden(hidden -> diagnosticsPanel.stop());
+            diagnosticsStage.show();
+        });
+
         table.setOnScroll(event -> {
-            if (isScrolledToBottom(table)) {
+            int firstVisibleRow = firstVisibleRow(table);
+            if (firstVisibleRow >= 0 && prefetcher != null) {
+                prefetcher.recordScroll(firstVisibleRow);
+            }
+            if (table.getItems() == fileList && isScrolledToBottom(table)) {   // search results are complete
                 System.out.println("SCROLLED TO BOTTOM");
-                try {
-                    loadMoreItems();
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+                loadMoreItemsAsync();
+            } else if (table.getItems() == orderedList && isScrolledToBottom(table)) {
+                loadMoreOrderedAsync();
             }
         });
 
-        HBox buttonLayout = new HBox(40);
+        HBox buttonLayout = new HBox(15);
         buttonLayout.setAlignment(Pos.CENTER);
-        buttonLayout.getChildren().addAll(uploadButton, downloadButton, refreshButton, deleteButton);
+        buttonLayout.getChildren().addAll(foldersButton, backButton, uploadButton, downloadButton, refreshButton,
+                deleteButton, diagnosticsButton);
         VBox.setMargin(buttonLayout, new Insets(0,0,10,0));
 
+        TransfersPanel transfersPanel = new TransfersPanel(DriveMain.getTransfers());
+        VBox.setMargin(transfersPanel, new Insets(0,10,10,10));
+
+        HBox content = new HBox(10, table, previewPane);
+        HBox.setHgrow(table, javafx.scene.layout.Priority.ALWAYS);
+        VBox.setMargin(content, new Insets(0,10,0,0));
+
         VBox layout = new VBox(10);
-        layout.getChildren().addAll(table, buttonLayout);
+        layout.getChildren().addAll(searchField, folderPath, content, buttonLayout, transfersPanel);
 
-        Scene scene = new Scene(layout, 600, 400);
+        Scene scene = new Scene(layout, 860, 600);
         primaryStage.setTitle("Google Drive Application");
         primaryStage.setScene(scene);
         primaryStage.show();
+        StartupTimer.mark("stage shown");
+        markFirstRows();
+    }
+
+    /**
+     * Stores the first rows of the table, so the next start can show them before anything else is loaded
+     */
+    @Override
+    public void stop() {
+        if (fileList != null) {
+            try {
+                DriveMain.saveFirstRows(fileList);
+            } catch (IOException e) {
+                System.out.println("Could not store the first rows: " + e.getMessage());
+            }
+        }
     }
 
     public static void main(String[] args) throws GeneralSecurityException, IOException {
+        StartupTimer.mark("main");
         DriveMain.initService();
+        DriveMain.getIndexAsync();   // start loading the index while JavaFX starts up
         launch(args);
     }
 }
@@ -0,0 +1,531 @@
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.FileList;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Headless command line entry point for scripted bulk transfers. It uses the client, stored OAuth tokens, local
+ * index and transfer queue of the desktop application, without JavaFX or a display.
+ * <p>
+ * Every result and progress update is written to stdout as one JSON object per line, and the log to stderr. When
+ * content is streamed to stdout with {@code download --output -}, the JSON lines go to stderr instead. Uploading
+ * {@code -} reads the content from stdin, so it can be piped in without a temporary file.
+ */
+public class DriveCli {
+    static final String USAGE = String.join("\n",
+            "Usage: drive-cli <command> [options] [operands]",
+            "  list [--folder ID] [--query TEXT] [--type MIMETYPE]      list files as JSON lines",
+            "  upload [-r] [--parent ID] [--dedup skip|copy] PATH|GLOB...  upload files, directories with -r",
+            "  upload --name NAME [--type MIMETYPE] [--parent ID] -      upload stdin",
+            "  download [-r] [--output DIR] ID...                       download files, folders with -r",
+            "  download --output - ID                                   download to stdout",
+            "  delete ID...                                             delete files",
+            "  sync FOLDER_ID DIR                                       mirror a folder and a directory",
+            "Options: -p, --parallel N  transfers running at once (default 4)");
+    private static final int DEFAULT_PARALLELISM = 4;
+    private static final int LIST_PAGE_SIZE = 1000;
+    private static final long PROGRESS_INTERVAL_MILLIS = 1000;
+    private static final String STDIO = "-";
+
+    private final String command;
+    private final List<String> operands = new ArrayList<>();
+    private final Map<String, String> options = new HashMap<>();
+    private final int parallelism;
+    private final boolean recursive;
+    private final InputStream in;
+    private final PrintStream data;     // receives streamed content
+    private final PrintStream events;   // receives the JSON lines
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * @param in Content uploaded with the operand -
+     * @param out Receives the JSON lines, or the content downloaded with --output -
+     * @param err Receives the JSON lines while content is downloaded to out
+     * @param args Command, options and operands
+     * @throws IllegalArgumentException If the arguments are not valid
+     */
+    public DriveCli(InputStream in, PrintStream out, PrintStream err, String... args) {
+        String parsedCommand = null;
+        boolean parsedRecursive = false;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-r") || arg.equals("--recursive")) {
+                parsedRecursive = true;
+            } else if (arg.startsWith("-") && !arg.equals(STDIO)) {
+                String option = arg.equals("-p") ? "parallel" : arg.replaceFirst("^--", "");
+                if (!List.of("parallel", "parent", "name", "type", "output", "query", "folder", "dedup")
+                        .contains(option) || i + 1 == args.length) {
+                    throw new IllegalArgumentException("Unknown option or missing value: " + arg);
+                }
+                options.put(option, args[++i]);
+            } else if (parsedCommand == null) {
+                parsedCommand = arg;
+            } else {
+                operands.add(arg);
+            }
+        }
+        if (parsedCommand == null) {
+            throw new IllegalArgumentException("No command given");
+        }
+        command = parsedCommand;
+        recursive = parsedRecursive;
+        try {
+            parallelism = Integer.parseInt(options.getOrDefault("parallel", String.valueOf(DEFAULT_PARALLELISM)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + options.get("parallel"));
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("The parallelism must be positive");
+        }
+        this.in = in;
+        this.data = out;
+        this.events = STDIO.equals(options.get("output")) ? err : out;
+    }
+
+    public static void main(String[] args) throws Exception {
+        PrintStream stdout = System.out;
+        System.setOut(System.err);   // the log of the client must not mix with the output
+        DriveCli cli;
+        try {
+            cli = new DriveCli(System.in, stdout, System.err, args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        if (cli.options.containsKey("dedup")) {
+            System.setProperty(DriveMain.DUPLICATE_UPLOADS_PROPERTY, cli.options.get("dedup"));
+        }
+        DriveMain.initService();
+        int status = cli.run();
+        stdout.flush();
+        System.exit(status);
+    }
+
+    /**
+     * Runs the command with the service initialized by {@link DriveMain}
+     *
+     * @return Exit status, 0 if everything succeeded, 1 if something failed and 2 for invalid arguments
+     */
+    public int run() throws Exception {
+        try {
+            switch (command) {
+                case "list":
+                    list();
+                    break;
+                case "upload":
+                    upload();
+                    break;
+                case "download":
+                    download();
+                    break;
+                case "delete":
+                    delete();
+                    break;
+                case "sync":
+                    sync();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown command: " + command);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+        if (!command.equals("list")) {
+            event("summary", "succeeded", succeeded.get(), "failed", failed.get());
+        }
+        return failed.get() == 0 ? 0 : 1;
+    }
+
+    private void list() throws IOException {
+        ListingQuery query = ListingQuery.ALL.withTrashed(false)
+                .inFolder(options.get("folder"))
+                .withNameContaining(options.get("query"))
+                .withMimeType(options.get("type"))
+                .withFields("name", "mimeType", "modifiedTime");
+        String pageToken = null;
+        do {
+            ListingPrefetcher.Page page = DriveMain.listPage(query, pageToken, LIST_PAGE_SIZE);
+            for (DriveFile file : page.files) {
+                print(json("id", file.getId(), "name", file.getName(), "mimeType", file.getType(),
+                        "modifiedTime", file.getLastModifiedDate() == null ? null
+                                : file.getLastModifiedDate().toStringRfc3339()));
+            }
+            pageToken = page.nextPageToken;
+        } while (pageToken != null);
+    }
+
+    private void upload() throws Exception {
+        requireOperands(1);
+        if (operands.contains(STDIO)) {
+            if (operands.size() > 1 || !options.containsKey("name")) {
+                throw new IllegalArgumentException("Uploading stdin takes --name and no other operand");
+            }
+            uploadStdin();
+            return;
+        }
+        TransferManager transfers = DriveMain.newTransfers(parallelism);
+        Map<TransferManager.Job, String> jobs = new LinkedHashMap<>();
+        for (String operand : operands) {
+            Path path = Paths.get(operand);
+            if (isGlob(operand)) {
+                List<Path> matches = expandGlob(operand);
+                if (matches.isEmpty()) {
+                    fail(operand, "No match");
+                }
+                for (Path match : matches) {
+                    jobs.put(transfers.upload(match.toString(), options.get("parent"), RateLimiter.Priority.BULK),
+                            match.toString());
+                }
+            } else if (Files.isDirectory(path)) {
+                if (!recursive) {
+                    fail(operand, "Is a directory, upload it with -r");
+                    continue;
+                }
+                uploadDirectory(path, transfers, jobs);
+            } else if (Files.isRegularFile(path)) {
+                jobs.put(transfers.upload(operand, options.get("parent"), RateLimiter.Priority.BULK), operand);
+            } else {
+                fail(operand, "No such file");
+            }
+        }
+        await(transfers, jobs);
+    }
+
+    /**
+     * Creates the folders of a directory tree on Google Drive and queues the uploads of its files into them
+     */
+    private void uploadDirectory(Path root, TransferManager transfers, Map<TransferManager.Job, String> jobs)
+            throws IOException {
+        Map<Path, String> folderIds = new HashMap<>();
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(root)) {
+            paths = walk.sorted().collect(Collectors.toList());   // parents come before their children
+        }
+        for (Path path : paths) {
+            String parentId = path.equals(root) ? options.get("parent") : folderIds.get(path.getParent());
+            if (Files.isDirectory(path)) {
+                File folder = DriveMain.getClient().createFolder(path.getFileName().toString(),
+                        parentId == null ? "root" : parentId);
+                folderIds.put(path, folder.getId());
+            } else if (Files.isRegularFile(path)) {
+                jobs.put(transfers.upload(path.toString(), parentId, RateLimiter.Priority.BULK), path.toString());
+            }
+        }
+    }
+
+    private void uploadStdin() throws IOException {
+        AtomicLong bytes = new AtomicLong();
+        InputStream counted = new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytes.incrementAndGet();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    bytes.addAndGet(read);
+                }
+                return read;
+            }
+        };
+        String name = options.get("name");
+        ScheduledExecutorService reporter = startReporter(
+                () -> event("progress", "path", STDIO, "direction", "upload", "bytes", bytes.get(), "total", -1));
+        try {
+            DriveFile file = DriveMain.getClient().uploadStream(counted, name, options.get("type"),
+                    options.get("parent"));
+            done(STDIO, file, bytes.get());
+        } catch (IOException e) {
+            fail(STDIO, e.getMessage());
+        } finally {
+            reporter.shutdownNow();
+        }
+    }
+
+    private void download() throws Exception {
+        requireOperands(1);
+        String output = options.getOrDefault("output", ".");
+        if (output.equals(STDIO)) {
+            if (operands.size() != 1) {
+                throw new IllegalArgumentException("Downloading to stdout takes a single file");
+            }
+            try {
+                DriveFile file = DriveMain.getClient().downloadTo(operands.get(0), data);
+                data.flush();
+                done(operands.get(0), file, -1);
+            } catch (IOException e) {
+                fail(operands.get(0), e.getMessage());
+            }
+            return;
+        }
+        Files.createDirectories(Paths.get(output));
+        TransferManager transfers = DriveMain.newTransfers(parallelism);
+        Map<TransferManager.Job, String> jobs = new LinkedHashMap<>();
+        for (String id : operands) {
+            DriveFile file;
+            try {
+                file = DriveMain.getClient().getFile(id);
+            } catch (IOException e) {
+                fail(id, e.getMessage());
+                continue;
+            }
+            if (!FolderSync.isSafeFileName(file.getName())) {
+                fail(id, "Name " + file.getName() + " is not a safe local file name");
+            } else if (!DriveClient.FOLDER_MIMETYPE.equals(file.getType())) {
+                jobs.put(transfers.download(file, output, RateLimiter.Priority.BULK), id);
+            } else if (recursive) {
+                downloadFolder(file, Paths.get(output), transfers, jobs);
+            } else {
+                fail(id, "Is a folder, download it with -r");
+            }
+        }
+        await(transfers, jobs);
+    }
+
+    /**
+     * Creates the local directories of a Drive folder tree and queues the downloads of its files into them. Files
+     * and folders below it whose name would lead out of their directory, such as "..", are reported as failed.
+     */
+    private void downloadFolder(DriveFile folder, Path directory, TransferManager transfers,
+                                Map<TransferManager.Job, String> jobs) throws IOException {
+        Deque<DriveFile> folders = new ArrayDeque<>();
+        Map<String, Path> directories = new HashMap<>();
+        folders.add(folder);
+        directories.put(folder.getId(), directory.resolve(folder.getName()));
+        while (!folders.isEmpty()) {
+            DriveFile current = folders.poll();
+            Path target = Files.createDirectories(directories.get(current.getId()));
+            ListingCursor cursor = ListingCursor.first(LIST_PAGE_SIZE);
+            while (!cursor.isEnd()) {
+                FileList page = DriveMain.getClient().listChildren(current.getId(), cursor);
+                if (page.getFiles() != null) {
+                    for (File child : page.getFiles()) {
+                        DriveFile file = DriveClient.toDriveFile(child);
+                        if (!FolderSync.isSafeFileName(file.getName())) {
+                            fail(file.getId(), "Name " + file.getName() + " is not a safe local file name");
+                        } else if (DriveClient.FOLDER_MIMETYPE.equals(file.getType())) {
+                            directories.put(file.getId(), target.resolve(file.getName()));
+                            folders.add(file);
+                        } else {
+                            jobs.put(transfers.download(file, target.toString(), RateLimiter.Priority.BULK),
+                                    file.getId());
+                        }
+                    }
+                }
+                cursor = cursor.next(page.getNextPageToken());
+            }
+        }
+    }
+
+    private void delete() throws IOException {
+        requireOperands(1);
+        List<DriveFile> files = new ArrayList<>();
+        for (String id : operands) {
+            files.add(new DriveFile(id, null));
+        }
+        BatchResult result = DriveMain.deleteFiles(files);
+        for (DriveFile file : result.succeeded) {
+            done(file.getId(), file, -1);
+        }
+        result.failed.forEach((file, reason) -> fail(file.getId(), reason));
+    }
+
+    private void sync() throws IOException, InterruptedException {
+        requireOperands(2);
+        if (operands.size() != 2) {
+            throw new IllegalArgumentException("Sync takes a folder id and a directory");
+        }
+        FolderSync.Result result = DriveMain.syncFolder(operands.get(0), operands.get(1), parallelism);
+        event("sync", "downloaded", result.downloaded.get(), "uploaded", result.uploaded.get(),
+                "unchanged", result.unchanged.get(), "conflicts", result.conflicts.get(),
+                "skipped", result.skipped.get());
+        succeeded.addAndGet(result.downloaded.get() + result.uploaded.get());
+        result.failed.forEach(this::fail);
+        if (result.conflicts.get() > 0) {
+            failed.addAndGet(result.conflicts.get());
+        }
+    }
+
+    /**
+     * Reports the progress of the running jobs until every job has finished, and the outcome of each job as it
+     * finishes
+     *
+     * @param jobs Queued jobs mapped to the operand they were queued for
+     */
+    private void await(TransferManager transfers, Map<TransferManager.Job, String> jobs) {
+        ScheduledExecutorService reporter = startReporter(() -> {
+            for (TransferManager.Job job : transfers.getJobs()) {
+                if (job.getState() == TransferManager.State.RUNNING && jobs.containsKey(job)) {
+                    event("progress", "path", jobs.get(job), "direction",
+                            job.getDirection().name().toLowerCase(), "bytes", job.getBytesTransferred(),
+                            "total", job.getTotalBytes());
+                }
+            }
+        });
+        List<CompletableFuture<?>> outcomes = new ArrayList<>();
+        jobs.forEach((job, path) -> outcomes.add(job.getResult().handle((file, error) -> {
+            if (error == null) {
+                done(path, file, job.getBytesTransferred());
+            } else {
+                fail(path, job.getError() != null ? job.getError() : String.valueOf(error.getMessage()));
+            }
+            return null;
+        })));
+        try {
+            CompletableFuture.allOf(outcomes.toArray(new CompletableFuture[0])).join();
+        } finally {
+            reporter.shutdownNow();
+        }
+    }
+
+    private ScheduledExecutorService startReporter(Runnable report) {
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "drive-cli-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(report, PROGRESS_INTERVAL_MILLIS, PROGRESS_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+        return reporter;
+    }
+
+    private void requireOperands(int count) {
+        if (operands.size() < count) {
+            throw new IllegalArgumentException("Missing operands for " + command);
+        }
+    }
+
+    private void done(String path, DriveFile file, long bytes) {
+        succeeded.incrementAndGet();
+        event("done", "path", path, "id", file == null ? null : file.getId(),
+                "name", file == null ? null : file.getName(), "bytes", bytes);
+    }
+
+    private void fail(String path, String error) {
+        failed.incrementAndGet();
+        event("failed", "path", path, "error", error);
+    }
+
+    private void event(String type, Object... fields) {
+        Object[] all = new Object[fields.length + 2];
+        all[0] = "event";
+        all[1] = type;
+        System.arraycopy(fields, 0, all, 2, fields.length);
+        print(json(all));
+    }
+
+    private void print(String line) {
+        synchronized (events) {
+            events.println(line);
+            events.flush();
+        }
+    }
+
+    /**
+     * @param fields Names and values in turn, numbers are written as numbers and everything else as strings
+     * @return The fields as a JSON object on one line
+     */
+    static String json(Object... fields) {
+        StringBuilder json = new StringBuilder("{");
+        for (int i = 0; i < fields.length; i += 2) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendString(json, fields[i].toString());
+            json.append(':');
+            Object value = fields[i + 1];
+            if (value == null) {
+                json.append("null");
+            } else if (value instanceof Number) {
+                json.append(value);
+            } else {
+                appendString(json, value.toString());
+            }
+        }
+        return json.append('}').toString();
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    static boolean isGlob(String operand) {
+        return operand.matches(".*[*?\\[{].*");
+    }
+
+    /**
+     * Finds the regular files matching a glob such as {@code photos/2024-*.jpg} or {@code logs/**.gz}. Only the
+     * directory before the first segment holding a wildcard is walked.
+     *
+     * @return The matching files in path order
+     */
+    static List<Path> expandGlob(String glob) throws IOException {
+        String separator = FileSystems.getDefault().getSeparator();
+        String[] segments = glob.split(separator.equals("\\") ? "\\\\" : separator, -1);
+        int first = 0;
+        while (first < segments.length && !isGlob(segments[first])) {
+            first++;
+        }
+        Path base = first == 0 ? Paths.get(".") : Paths.get(String.join(separator,
+                Arrays.copyOfRange(segments, 0, first)) + separator);
+        String pattern = String.join(separator, Arrays.copyOfRange(segments, first, segments.length));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        int depth = pattern.contains("**") ? Integer.MAX_VALUE : segments.length - first;
+        boolean relative = first == 0;
+        if (!Files.isDirectory(base)) {
+            return List.of();
+        }
+        try (Stream<Path> walk = Files.walk(base, depth)) {
+            return walk.filter(path -> Files.isRegularFile(path) && matcher.matches(base.relativize(path)))
+                    .map(path -> relative ? base.relativize(path) : path)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
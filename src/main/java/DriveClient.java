@@ -0,0 +1,1120 @@
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.FileContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.InputStreamContent;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.DriveRequest;
+import com.google.api.services.drive.model.Change;
+import com.google.api.services.drive.model.ChangeList;
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.FileList;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.LongConsumer;
+
+/**
+ * Thread-safe client for the Google Drive API. The client keeps no per-call state: the Drive service and its HTTP
+ * transport are shared by all threads, and listings are driven by immutable {@link ListingCursor}s owned by the
+ * caller, so any number of listings and transfers can run at the same time.
+ */
+public class DriveClient {
+  public static final JsonFactory JSON_FACTORY = GsonFactory.getDefaultInstance();  // Global instance of the JSON factory.
+  private static final String APPLICATION_NAME = "Google Drive Application";
+  private static final String CONTENT_FIELDS = "modifiedTime,id,name,mimeType,size,md5Checksum";
+  public static final String FOLDER_MIMETYPE = "application/vnd.google-apps.folder";
+  private static final int CHANGES_PAGE_SIZE = 1000;   // maximum number of changes fetched per request
+  private static final int CHECKSUM_PAGE_SIZE = 1000;   // files listed per request when building the checksum index
+  private static final int BATCH_SIZE = 100;   // maximum number of calls in one batch request
+  private static final long PARALLEL_DOWNLOAD_THRESHOLD = 16 * 1024 * 1024;   // files from this size are downloaded in ranges
+  private static final int DOWNLOAD_CONNECTIONS = 4;   // number of ranges fetched concurrently per download
+  private static final int EXPORT_BUFFER_SIZE = 64 * 1024;   // exports are streamed to disk through a buffer of this size
+
+  /** MIMETYPE mapped to file extension */
+  private static final Map<String, String> MIMETYPE_EXTENSIONS_MAP = new HashMap<>();
+  static {
+    MIMETYPE_EXTENSIONS_MAP.put("application/vnd.openxmlformats-officedocument.wordprocessingml.document", ".docx");
+    MIMETYPE_EXTENSIONS_MAP.put("application/vnd.openxmlformats-officedocument.presentationml.presentation", ".pptx");
+    MIMETYPE_EXTENSIONS_MAP.put("text/csv", ".csv");
+    MIMETYPE_EXTENSIONS_MAP.put("application/pdf", ".pdf");
+    MIMETYPE_EXTENSIONS_MAP.put("text/plain", ".txt");
+    MIMETYPE_EXTENSIONS_MAP.put("image/jpeg", ".jpg");
+    MIMETYPE_EXTENSIONS_MAP.put("image/png", ".png");
+  }
+
+  /** File extension mapped to MIMETYPE */
+  private static final Map<String, String> EXTENSION_MIMETYPE_MAP = new HashMap<>();
+  static {
+    EXTENSION_MIMETYPE_MAP.put(".docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document");
+    EXTENSION_MIMETYPE_MAP.put(".pptx", "application/vnd.openxmlformats-officedocument.presentationml.presentation");
+    EXTENSION_MIMETYPE_MAP.put(".csv", "text/csv");
+    EXTENSION_MIMETYPE_MAP.put(".pdf", "application/pdf");
+    EXTENSION_MIMETYPE_MAP.put(".txt", "text/plain");
+    EXTENSION_MIMETYPE_MAP.put(".jpg", "image/jpeg");
+    EXTENSION_MIMETYPE_MAP.put(".png", "image/png");
+  }
+
+  /**
+   * What an upload does when a file with the same content is already on Google Drive
+   */
+  public enum DuplicateUploads {
+    /** Upload the content anyway */
+    UPLOAD,
+    /**
+     * Send nothing and return the file already holding the content when it has the name and folder of the upload,
+     * otherwise copy it there on the server like {@link #COPY}
+     */
+    SKIP,
+    /** Copy the file already holding the content on the server, under the name and in the folder of the upload */
+    COPY
+  }
+
+  /**
+   * A batch of entries of the changes feed
+   */
+  public static class ChangeSet {
+    /** Changed files by id in the order they were reported, null values mark removed files */
+    public final Map<String, DriveFile> changes;
+    /** Token to request the changes made after this batch */
+    public final String newStartPageToken;
+
+    ChangeSet(Map<String, DriveFile> changes, String newStartPageToken) {
+      this.changes = changes;
+      this.newStartPageToken = newStartPageToken;
+    }
+  }
+
+  private final Drive service;
+  private final java.io.File uploadsDirectory;
+  private volatile DownloadCache downloadCache;
+  private volatile ExportFormats exportFormats = ExportFormats.defaults();
+  private volatile Map<String, List<String>> offeredExportFormats;   // export MIMETYPEs by Google type, read once
+  private volatile DuplicateUploads duplicateUploads = DuplicateUploads.UPLOAD;
+  private volatile ContentHashes contentHashes;
+  private volatile ChecksumIndex checksumIndex;
+  private volatile String rootFolderId;   // id behind the "root" alias, read once
+  private final AtomicLong deduplicatedBytes = new AtomicLong();
+  private volatile boolean channelIo = true;
+  private volatile FileChannelMedia.SyncPolicy syncPolicy = FileChannelMedia.SyncPolicy.NONE;
+
+  /**
+   * Receives the progress of a download
+   */
+  public interface DownloadListener {
+    /**
+     * @param bytesDownloaded Number of bytes written so far
+     * @param totalBytes Size of the content, -1 if unknown as for Google Docs exports
+     */
+    void progress(long bytesDownloaded, long totalBytes);
+  }
+
+  /**
+   * Downloads content into the given file
+   */
+  private interface ContentDownload {
+    void to(java.io.File target) throws IOException;
+  }
+
+  /**
+   * @param transport HTTP transport shared by all calls, see {@link #newPooledTransport(int)}
+   * @param initializer Authorizes the requests, may be null
+   * @param rootUrl Root URL of the Drive API ending with a slash, null for Google's servers
+   * @param uploadsDirectory Directory storing the state of resumable uploads
+   */
+  public DriveClient(HttpTransport transport, HttpRequestInitializer initializer, String rootUrl,
+                     java.io.File uploadsDirectory) {
+    Drive.Builder builder = new Drive.Builder(transport, JSON_FACTORY, initializer)
+            .setApplicationName(APPLICATION_NAME);
+    if (rootUrl != null) {
+      builder.setRootUrl(rootUrl);
+    }
+    this.service = builder.build();
+    this.uploadsDirectory = uploadsDirectory;
+  }
+
+  /**
+   * Creates an HTTP transport backed by a connection pool, so concurrent calls reuse connections instead of
+   * queueing for one or opening a new one each time
+   *
+   * @param maxConnections Maximum number of open connections
+   * @return The pooled transport
+   */
+  public static HttpTransport newPooledTransport(int maxConnections) {
+    return new ApacheHttpTransport(ApacheHttpTransport.newDefaultHttpClientBuilder()
+            .setMaxConnTotal(maxConnections)
+            .setMaxConnPerRoute(maxConnections)
+            .build());
+  }
+
+  public Drive getService() {
+    return service;
+  }
+
+  /**
+   * @param downloadCache Cache serving repeat downloads of unchanged files, null to always download
+   */
+  public void setDownloadCache(DownloadCache downloadCache) {
+    this.downloadCache = downloadCache;
+  }
+
+  /**
+   * @param exportFormats Chooses the formats Google Workspace files are downloaded in
+   */
+  public void setExportFormats(ExportFormats exportFormats) {
+    this.exportFormats = exportFormats;
+  }
+
+  /**
+   * @param channelIo True to read uploads and write downloads through {@link FileChannelMedia}, false for the
+   *                  stream and heap buffer path
+   */
+  public void setChannelIo(boolean channelIo) {
+    this.channelIo = channelIo;
+  }
+
+  /**
+   * @param syncPolicy When downloaded content is forced to the storage device
+   */
+  public void setSyncPolicy(FileChannelMedia.SyncPolicy syncPolicy) {
+    this.syncPolicy = syncPolicy;
+  }
+
+  /**
+   * Makes uploads look for a file with the same content on Google Drive first. The content of the local file is
+   * hashed and looked up in the checksum index, which is built from a full listing before the first lookup.
+   *
+   * @param mode What an upload of content already on Google Drive does, UPLOAD to turn the lookup off
+   * @param hashes Checksums of the local files
+   * @param checksums Checksums of the files on Google Drive, kept up to date with the uploads and deletions
+   */
+  public void setDeduplication(DuplicateUploads mode, ContentHashes hashes, ChecksumIndex checksums) {
+    this.contentHashes = hashes;
+    this.checksumIndex = checksums;
+    this.duplicateUploads = mode;
+  }
+
+  /**
+   * @return Bytes of uploads which were not sent since their content was on Google Drive already
+   */
+  public long getDeduplicatedBytes() {
+    return deduplicatedBytes.get();
+  }
+
+  /**
+   * Chooses the format a Google Workspace file is exported to among those Drive offers for its type. The offered
+   * formats are queried once and then reused.
+   *
+   * @param googleType Google Workspace MIMETYPE of the file
+   * @return The export MIMETYPE, null if files of the type cannot be exported
+   */
+  public String exportMimetype(String googleType) throws IOException {
+    Map<String, List<String>> offered = offeredExportFormats;
+    if (offered == null) {
+      Map<String, List<String>> formats = service.about().get().setFields("exportFormats").execute().getExportFormats();
+      offered = formats != null ? formats : Collections.emptyMap();
+      offeredExportFormats = offered;
+    }
+    return exportFormats.choose(googleType, offered.get(googleType));
+  }
+
+  /**
+   * Queries the page of the Google Drive file listing at the given cursor
+   *
+   * @param cursor Position of the desired page in the listing of its query, which chooses the files, their order
+   *               and their fields
+   * @return The files of the page and the token of the following page, pass it to {@link ListingCursor#next(String)}
+   */
+  public ListingPrefetcher.Page list(ListingCursor cursor) throws IOException {
+    if (cursor.isEnd()) {
+      return new ListingPrefetcher.Page(Collections.emptyList(), null);
+    }
+    ListingQuery query = cursor.getQuery();
+    FileList result = service.files().list()
+            .setQ(query.getQ())
+            .setOrderBy(query.getOrderBy())
+            .setFields(query.getFields())
+            .setPageSize(cursor.getPageSize())
+            .setPageToken(cursor.getPageToken())
+            .execute();
+    List<DriveFile> files = new ArrayList<>();
+    if (result.getFiles() != null) {
+      for (File file : result.getFiles()) {
+        files.add(toDriveFile(file));
+      }
+    }
+    return new ListingPrefetcher.Page(files, result.getNextPageToken());
+  }
+
+  /**
+   * @return Token to request the changes made from now on
+   */
+  public String getStartPageToken() throws IOException {
+    return service.changes().getStartPageToken().execute().getStartPageToken();
+  }
+
+  /**
+   * Queries every change made on Google Drive since the given token
+   *
+   * @param token Start page token of the changes feed
+   * @return The latest change of each changed file and the token to continue from
+   */
+  public ChangeSet listChanges(String token) throws IOException {
+    Map<String, DriveFile> changes = new LinkedHashMap<>();
+    String newStartPageToken = null;
+    while (newStartPageToken == null) {
+      ChangeList result = service.changes().list(token)
+              .setFields("nextPageToken, newStartPageToken, changes(fileId,removed,file(modifiedTime,id,name,mimeType))")
+              .setPageSize(CHANGES_PAGE_SIZE)
+              .setIncludeRemoved(true)
+              .setSpaces("drive")
+              .execute();
+      if (result.getChanges() != null) {
+        for (Change change : result.getChanges()) {
+          if (change.getFileId() == null) {   // shared drive changes carry no file
+            continue;
+          }
+          changes.remove(change.getFileId());   // keep only the latest change of each file, in change order
+          boolean removed = Boolean.TRUE.equals(change.getRemoved()) || change.getFile() == null;
+          changes.put(change.getFileId(), removed ? null : toDriveFile(change.getFile()));
+        }
+      }
+      token = result.getNextPageToken();
+      newStartPageToken = result.getNewStartPageToken();
+    }
+    return new ChangeSet(changes, newStartPageToken);
+  }
+
+  /**
+   * Converts Google Drive file metadata to a DriveFile object
+   *
+   * @param file The file metadata returned by the Google Drive API
+   * @return The file represented as a DriveFile object
+   */
+  static DriveFile toDriveFile(File file) {
+    String mimeType = file.getMimeType();   // absent if the listing did not ask for it
+    DriveFile driveFile = new DriveFile(file.getId(), file.getName(), mimeType != null ? mimeType.trim() : null,
+            file.getModifiedTime());
+    driveFile.ThumbnailLink = file.getThumbnailLink();
+    driveFile.Size = file.getSize();
+    driveFile.Md5Checksum = file.getMd5Checksum();
+    return driveFile;
+  }
+
+  /**
+   * Downloads a file from Google Drive
+   *
+   * @param file The desired Google Drive file to be downloaded represented as a DriveFile object
+   * @param destination The desired local target directory for the file to be downloaded to
+   */
+  public void downloadFile(DriveFile file, String destination) throws Exception {
+    downloadFile(file, destination, null);
+  }
+
+  /**
+   * Queries the metadata of a file
+   *
+   * @param fileId Id of the file
+   * @return The file represented as a DriveFile object
+   */
+  public DriveFile getFile(String fileId) throws IOException {
+    return toDriveFile(service.files().get(fileId).setFields(CONTENT_FIELDS).execute());
+  }
+
+  /**
+   * Fetches the thumbnail Google Drive generated for a file, such as a scaled down image or the first page of a
+   * document. The link from the listing is used when there is one, the metadata of the file is only asked for
+   * when it is missing or has expired.
+   *
+   * @param fileId Id of the file
+   * @param thumbnailLink Link to the thumbnail read with the file, null if not known
+   * @param size Length of the longer side of the thumbnail in pixels, Drive scales it on the server
+   * @return The encoded thumbnail, usually a PNG or JPEG, null if the file has none
+   */
+  public byte[] getThumbnail(String fileId, String thumbnailLink, int size) throws IOException {
+    if (thumbnailLink != null) {
+      try {
+        return readThumbnail(thumbnailLink, size);
+      } catch (HttpResponseException e) {
+        if (e.getStatusCode() != 403 && e.getStatusCode() != 404) {   // not an expired link
+          throw e;
+        }
+      }
+    }
+    String link = service.files().get(fileId).setFields("thumbnailLink").execute().getThumbnailLink();
+    return link == null ? null : readThumbnail(link, size);
+  }
+
+  private byte[] readThumbnail(String link, int size) throws IOException {
+    String sized = link.replaceFirst("=s\\d+$", "=s" + size);   // the link ends with the default size, =s220
+    HttpResponse response = service.getRequestFactory().buildGetRequest(new GenericUrl(sized)).execute();
+    try (InputStream in = response.getContent()) {
+      return in.readAllBytes();
+    } finally {
+      response.disconnect();
+    }
+  }
+
+  /**
+   * Streams the content of a file into the given stream, exporting Google Workspace files. Nothing is written to
+   * disk, so the content can be piped into another program.
+   *
+   * @param fileId Id of the file
+   * @param out Receives the content, left open
+   * @return The downloaded file represented as a DriveFile object
+   */
+  public DriveFile downloadTo(String fileId, OutputStream out) throws IOException {
+    DriveFile file = getFile(fileId);
+    if (FOLDER_MIMETYPE.equals(file.Type)) {
+      throw new IOException("DOWNLOADING DIRECTORIES FORBIDDEN");
+    }
+    if (file.Type != null && file.Type.contains("vnd.google-apps")) {
+      String exportMimetype = exportMimetype(file.Type);
+      if (exportMimetype == null) {
+        throw new IOException("FILES OF TYPE " + file.Type + " CANNOT BE EXPORTED");
+      }
+      service.files().export(fileId, exportMimetype).executeMediaAndDownloadTo(out);
+    } else {
+      service.files().get(fileId).executeMediaAndDownloadTo(out);
+    }
+    return file;
+  }
+
+  /**
+   * Download a file from Google Drive to local system, reporting progress while the content is written. Served
+   * from the download cache, the whole file is reported at once. The size and checksum of a binary file are taken
+   * from the DriveFile when it was read with them, otherwise they are asked for first.
+   *
+   * @param file The desired file to be downloaded represented as a DriveFile object
+   * @param destination The desired directory where the file should be downloaded to
+   * @param listener Receives progress updates, may be null. An unchecked exception thrown by it aborts the download.
+   */
+  public void downloadFile(DriveFile file, String destination, DownloadListener listener) throws Exception {
+    if (file.Type.equals(FOLDER_MIMETYPE)) {
+      throw new Exception("DOWNLOADING DIRECTORIES FORBIDDEN");
+    }
+
+    boolean isDocsDownload = false;
+
+    String mimetype = file.Type;
+
+    // Figure out what kind of download to do
+    if (file.Type.contains("vnd.google-apps")) {
+      isDocsDownload = true;
+    }
+
+    // Google Workspace files have no content of their own and are exported to a regular format
+    String extension;
+    if (isDocsDownload) {
+      mimetype = exportMimetype(file.Type);
+      if (mimetype == null) {
+        throw new Exception("FILES OF TYPE " + file.Type + " CANNOT BE EXPORTED");
+      }
+      extension = ExportFormats.extension(mimetype);
+    } else {
+      extension = MIMETYPE_EXTENSIONS_MAP.getOrDefault(mimetype, "");
+    }
+
+    String destFilePath = destination + "/" + file.Name.replace(" ","-");
+    if (file.getName().lastIndexOf(".") == -1) {   // only add extension to file name if it doesn't already exist
+      destFilePath += extension;
+    }
+
+    System.out.println(destFilePath + ", " + mimetype);
+    java.io.File destFile = new java.io.File(destFilePath);
+    if (!isDocsDownload) {
+      Long size = file.Size;
+      String md5 = file.Md5Checksum;
+      String validator = md5;
+      if (size == null || md5 == null) {   // not read with the file, e.g. a row of the table
+        File metadata = service.files().get(file.Id).setFields("size,md5Checksum,version").execute();
+        size = metadata.getSize();
+        md5 = metadata.getMd5Checksum();
+        validator = md5 != null ? md5 : metadata.getVersion() != null ? "v" + metadata.getVersion() : null;
+      }
+      Long expectedSize = size;
+      String expectedMd5 = md5;
+      downloadCached(file.Id, "", validator, size, destFile, listener,
+              target -> downloadContent(file.Id, expectedSize, expectedMd5, target, listener));
+      return;
+    }
+    // exports have no checksum, the modified time tells whether a cached export is still current
+    File metadata = service.files().get(file.Id).setFields("modifiedTime,exportLinks").execute();
+    String exportMimetype = mimetype;
+    downloadCached(file.Id, exportMimetype, String.valueOf(metadata.getModifiedTime().getValue()), null, destFile,
+            listener, target -> exportContent(file.Id, exportMimetype, metadata.getExportLinks(), target, listener));
+  }
+
+  /**
+   * Exports a Google Workspace file to the given location. The response is streamed to disk through a fixed-size
+   * buffer, so not even the CSV of a large spreadsheet is held in memory. Drive refuses to export more than 10 MB
+   * through files.export, larger files are fetched from their export link instead. The target is deleted if the
+   * export fails or is aborted.
+   *
+   * @param fileId Id of the desired file
+   * @param exportMimetype Format to export to
+   * @param exportLinks Export links of the file by MIMETYPE, may be null
+   * @param target Local file to be written
+   * @param listener Receives progress updates, may be null
+   */
+  private void exportContent(String fileId, String exportMimetype, Map<String, String> exportLinks,
+                             java.io.File target, DownloadListener listener) throws IOException {
+    HttpResponse response;
+    try {
+      response = service.files().export(fileId, exportMimetype).executeMedia();
+    } catch (HttpResponseException e) {
+      String link = exportLinks != null ? exportLinks.get(exportMimetype) : null;
+      boolean tooLarge = e.getStatusCode() == 403 && String.valueOf(e.getMessage()).contains("exportSizeLimitExceeded");
+      if (!tooLarge || link == null) {
+        throw e;
+      }
+      response = service.getRequestFactory().buildGetRequest(new GenericUrl(link)).execute();
+    }
+    LongConsumer progress = progress(listener, -1);   // exports have no known size
+    boolean completed = false;
+    try {
+      if (channelIo) {
+        receive(response, target, null, progress);
+      } else {
+        byte[] buffer = new byte[EXPORT_BUFFER_SIZE];
+        try (InputStream in = response.getContent(); OutputStream out = new FileOutputStream(target)) {
+          int read;
+          while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            if (progress != null) {
+              progress.accept(read);
+            }
+          }
+        }
+      }
+      completed = true;
+    } finally {
+      response.disconnect();
+      if (!completed) {
+        java.nio.file.Files.deleteIfExists(target.toPath());
+      }
+    }
+  }
+
+  /**
+   * Serves a download from the download cache if it holds the content, otherwise downloads it once into the cache
+   * directory and copies it to the destination, or moves it there if it is too large to be cached
+   *
+   * @param fileId Id of the Drive file
+   * @param format Export MIMETYPE, empty for the stored bytes of the file
+   * @param validator Identifies the current content of the file, null if unknown
+   * @param size Size of the content in bytes, null if unknown
+   * @param destination The desired local file
+   * @param listener Told about a cache hit, may be null
+   * @param download Downloads the content
+   */
+  private void downloadCached(String fileId, String format, String validator, Long size, java.io.File destination,
+                              DownloadListener listener, ContentDownload download) throws IOException {
+    DownloadCache cache = downloadCache;
+    if (cache == null || validator == null || (size != null && !cache.fits(size))) {
+      download.to(destination);
+      return;
+    }
+    if (cache.copyTo(fileId, format, validator, destination.toPath())) {
+      if (listener != null) {
+        long length = destination.length();
+        listener.progress(length, length);
+      }
+      return;
+    }
+    java.nio.file.Path temp = cache.newTempFile();
+    try {
+      download.to(temp.toFile());
+      if (cache.fits(java.nio.file.Files.size(temp))) {   // the cache keeps the download, the destination a copy
+        java.nio.file.Files.copy(temp, destination.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        cache.put(fileId, format, validator, temp);
+      } else {   // an export larger than the whole cache
+        java.nio.file.Files.move(temp, destination.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      java.nio.file.Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Downloads the content of a binary file to the given location, in parallel ranges if the file is large
+   *
+   * @param fileId Id of the desired file
+   * @param size Size of the file in bytes, null if unknown
+   * @param md5Checksum MD5 checksum reported by Google Drive, null if unknown
+   * @param target Local file to be written
+   */
+  public void downloadContent(String fileId, Long size, String md5Checksum, java.io.File target) throws IOException {
+    downloadContent(fileId, size, md5Checksum, target, null);
+  }
+
+  /**
+   * Downloads the content of a binary file to the given location, reporting progress while it is written. The
+   * target is deleted if the download fails or is aborted.
+   *
+   * @param fileId Id of the desired file
+   * @param size Size of the file in bytes, null if unknown
+   * @param md5Checksum MD5 checksum reported by Google Drive, null if unknown
+   * @param target Local file to be written
+   * @param listener Receives progress updates, may be null. An unchecked exception thrown by it aborts the download.
+   */
+  public void downloadContent(String fileId, Long size, String md5Checksum, java.io.File target,
+                              DownloadListener listener) throws IOException {
+    LongConsumer progress = progress(listener, size != null ? size : -1);
+    if (size != null && size >= PARALLEL_DOWNLOAD_THRESHOLD) {
+      String mediaUrl = service.getBaseUrl() + "files/" + fileId + "?alt=media";
+      new RangedDownload(service.getRequestFactory(), mediaUrl, size, md5Checksum, target, DOWNLOAD_CONNECTIONS)
+              .setProgressListener(progress)
+              .setChannelIo(channelIo)
+              .setSyncPolicy(syncPolicy)
+              .download();
+      return;
+    }
+    boolean completed = false;
+    try {
+      if (channelIo) {
+        HttpResponse response = service.files().get(fileId).executeMedia();
+        try {
+          receive(response, target, size, progress);
+        } finally {
+          response.disconnect();
+        }
+      } else {
+        try (OutputStream outputStream = countingStream(new FileOutputStream(target), progress)) {
+          service.files().get(fileId).executeMediaAndDownloadTo(outputStream);
+        }
+      }
+      completed = true;
+    } finally {
+      if (!completed) {
+        java.nio.file.Files.deleteIfExists(target.toPath());
+      }
+    }
+  }
+
+  /**
+   * Writes a response body into a local file through {@link FileChannelMedia}, preallocating the file when the
+   * size is known and syncing it as the sync policy says
+   *
+   * @param size Size of the content in bytes, null if unknown
+   * @param progress Receives the number of bytes of every write, may be null
+   */
+  private void receive(HttpResponse response, java.io.File target, Long size, LongConsumer progress)
+          throws IOException {
+    try (InputStream in = response.getContent();
+         java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(target.toPath(),
+                 java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.WRITE,
+                 java.nio.file.StandardOpenOption.TRUNCATE_EXISTING)) {
+      if (size != null) {
+        FileChannelMedia.preallocate(channel, size);
+      }
+      long written = FileChannelMedia.receive(in, channel, 0, Long.MAX_VALUE, syncPolicy, progress);
+      channel.truncate(written);   // the server may have sent less than the preallocated size
+      FileChannelMedia.complete(channel, syncPolicy);
+    }
+  }
+
+  /**
+   * Adds up the bytes written by a download, possibly from several threads, and reports the running total
+   *
+   * @param listener The listener to be told, may be null
+   * @param totalBytes Size of the content, -1 if unknown
+   * @return Consumer of the number of bytes written by each write, null if there is no listener
+   */
+  private static LongConsumer progress(DownloadListener listener, long totalBytes) {
+    if (listener == null) {
+      return null;
+    }
+    AtomicLong downloaded = new AtomicLong();
+    return bytes -> listener.progress(downloaded.addAndGet(bytes), totalBytes);
+  }
+
+  /**
+   * Wraps a stream so the number of bytes written through it is reported
+   *
+   * @param out The stream to be wrapped
+   * @param progress Receives the length of every write, may be null to leave the stream as it is
+   */
+  private static OutputStream countingStream(OutputStream out, LongConsumer progress) {
+    if (progress == null) {
+      return out;
+    }
+    return new FilterOutputStream(out) {
+      @Override
+      public void write(int b) throws IOException {
+        out.write(b);
+        progress.accept(1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        progress.accept(len);
+      }
+    };
+  }
+
+  /**
+   * Queries a page of the children of a Google Drive folder, with the metadata needed to compare their content
+   *
+   * @param folderId Id of the folder, "root" for My Drive
+   * @param cursor Position of the desired page
+   * @return The children of the page and the token of the following page
+   */
+  public FileList listChildren(String folderId, ListingCursor cursor) throws IOException {
+    ListingQuery query = ListingQuery.ALL.inFolder(folderId).withTrashed(false)
+            .withFields(CONTENT_FIELDS.split(","));
+    return listMetadata(ListingCursor.at(query, cursor.getPageToken(), cursor.getPageSize()));
+  }
+
+  /**
+   * Queries the page of a listing at the given cursor as returned by Google Drive, for fields a DriveFile does
+   * not hold
+   *
+   * @param cursor Position of the desired page in the listing of its query
+   * @return The files of the page and the token of the following page
+   */
+  public FileList listMetadata(ListingCursor cursor) throws IOException {
+    ListingQuery query = cursor.getQuery();
+    return service.files().list()
+            .setQ(query.getQ())
+            .setOrderBy(query.getOrderBy())
+            .setFields(query.getFields())
+            .setPageSize(cursor.getPageSize())
+            .setPageToken(cursor.getPageToken())
+            .execute();
+  }
+
+  /**
+   * Fills a checksum index from a full listing of the files on Google Drive, unless it is complete already
+   */
+  public void buildChecksumIndex(ChecksumIndex checksums) throws IOException {
+    synchronized (checksums) {   // uploads waiting for the index would otherwise each list the whole drive
+      if (checksums.isComplete()) {
+        return;
+      }
+      ListingCursor cursor = ListingCursor.first(ListingQuery.ALL.withTrashed(false).withFields("md5Checksum"),
+              CHECKSUM_PAGE_SIZE);
+      while (!cursor.isEnd()) {
+        FileList page = listMetadata(cursor);
+        Map<String, String> checksumsById = new HashMap<>();
+        if (page.getFiles() != null) {
+          for (File file : page.getFiles()) {
+            if (file.getMd5Checksum() != null) {   // folders and Google Docs have no binary content
+              checksumsById.put(file.getId(), file.getMd5Checksum());
+            }
+          }
+        }
+        checksums.putAll(checksumsById);
+        cursor = cursor.next(page.getNextPageToken());
+      }
+      checksums.markComplete();
+      System.out.println("Indexed the checksums of " + checksums.size() + " files");
+    }
+  }
+
+  /**
+   * Creates a folder on Google Drive
+   *
+   * @param name Name of the folder
+   * @param parentId Id of the folder to create it in
+   * @return Metadata of the created folder
+   */
+  public File createFolder(String name, String parentId) throws IOException {
+    File metadata = new File()
+            .setName(name)
+            .setMimeType(FOLDER_MIMETYPE)
+            .setParents(Collections.singletonList(parentId));
+    return service.files().create(metadata).setFields(CONTENT_FIELDS).execute();
+  }
+
+  /**
+   * Uploads the content of a local file as a new Google Drive file, or as new content of an existing one. The
+   * modified time is carried over so later comparisons see both sides as equal.
+   *
+   * @param source The local file to be uploaded
+   * @param parentId Id of the folder to create the file in, ignored when updating
+   * @param existingId Id of the Google Drive file to be updated, null to create a new file
+   * @return Metadata of the uploaded file
+   */
+  public File uploadContent(java.io.File source, String parentId, String existingId) throws IOException {
+    String extension = source.getName().lastIndexOf(".") == -1
+            ? "" : source.getName().substring(source.getName().lastIndexOf("."));
+    FileContent mediaContent = new FileContent(
+            EXTENSION_MIMETYPE_MAP.getOrDefault(extension, "application/octet-stream"), source);
+    File metadata = new File().setModifiedTime(new DateTime(source.lastModified()));
+    if (existingId != null) {
+      return service.files().update(existingId, metadata, mediaContent).setFields(CONTENT_FIELDS).execute();
+    }
+    metadata.setName(source.getName()).setParents(Collections.singletonList(parentId));
+    File duplicate = findDuplicate(source, metadata);
+    if (duplicate != null) {
+      return duplicate;
+    }
+    File file = service.files().create(metadata, mediaContent).setFields(CONTENT_FIELDS).execute();
+    recordUpload(source, file.getId());
+    return file;
+  }
+
+  /**
+   * Upload a file from local system to Google Drive
+   *
+   * @param source The path of the desired file to be uploaded to Google Drive
+   * @return The uploaded file represented as a DriveFile object
+   */
+  public DriveFile uploadFile(String source) throws IOException {
+    FileContent mediaContent = new FileContent(uploadMimeType(source), new java.io.File(source));
+
+    File fileMetadata = new File();
+    fileMetadata.setName(uploadName(source));
+
+    File duplicate = findDuplicate(new java.io.File(source), fileMetadata);
+    if (duplicate != null) {
+      return toDriveFile(duplicate);
+    }
+    System.out.println(mediaContent + ", " + fileMetadata);
+    File file = service.files().create(fileMetadata, mediaContent)
+            .execute();
+    recordUpload(new java.io.File(source), file.getId());
+    return new DriveFile(file.getId(), file.getName(), file.getMimeType(), file.getModifiedTime());
+  }
+
+  /**
+   * Upload a file from local system to Google Drive in chunks using a resumable upload session. If a previous
+   * upload of the same file was interrupted, even by an application restart, it continues where it stopped.
+   *
+   * @param source The path of the desired file to be uploaded to Google Drive
+   * @param chunkSize Number of bytes sent per request, a multiple of {@link ResumableUpload#CHUNK_GRANULARITY}
+   * @param listener Receives progress updates after every chunk, may be null
+   * @return The uploaded file represented as a DriveFile object
+   */
+  public DriveFile uploadFileResumable(String source, int chunkSize, ResumableUpload.ProgressListener listener)
+          throws IOException {
+    return uploadFileResumable(source, null, chunkSize, listener);
+  }
+
+  /**
+   * Upload a file from local system into a Google Drive folder using a resumable upload session
+   *
+   * @param source The path of the desired file to be uploaded to Google Drive
+   * @param parentId Id of the folder to create the file in, null for My Drive
+   * @param chunkSize Number of bytes sent per request, a multiple of {@link ResumableUpload#CHUNK_GRANULARITY}
+   * @param listener Receives progress updates after every chunk, may be null
+   * @return The uploaded file represented as a DriveFile object
+   */
+  public DriveFile uploadFileResumable(String source, String parentId, int chunkSize,
+                                       ResumableUpload.ProgressListener listener) throws IOException {
+    File fileMetadata = new File();
+    fileMetadata.setName(uploadName(source));
+    if (parentId != null) {
+      fileMetadata.setParents(Collections.singletonList(parentId));
+    }
+
+    File duplicate = findDuplicate(new java.io.File(source), fileMetadata);
+    if (duplicate != null) {
+      return toDriveFile(duplicate);
+    }
+    File file = resumableUpload(source, fileMetadata, chunkSize)
+            .setProgressListener(listener)
+            .setChannelIo(channelIo)
+            .upload();
+    recordUpload(new java.io.File(source), file.getId());
+    return new DriveFile(file.getId(), file.getName(), file.getMimeType(), file.getModifiedTime());
+  }
+
+  /**
+   * Looks for a file on Google Drive with the content of a local file, when uploads are deduplicated. The file
+   * named by the checksum index is checked first, as it may have been changed or trashed by another client.
+   *
+   * @param source The local file to be uploaded
+   * @param metadata Metadata of the upload, given to the copy when the file found is not already in its place
+   * @return The file standing for the upload, null if the content has to be uploaded
+   */
+  private File findDuplicate(java.io.File source, File metadata) throws IOException {
+    DuplicateUploads mode = duplicateUploads;
+    ContentHashes hashes = contentHashes;
+    ChecksumIndex checksums = checksumIndex;
+    if (mode == DuplicateUploads.UPLOAD || hashes == null || checksums == null) {
+      return null;
+    }
+    buildChecksumIndex(checksums);
+    String md5 = hashes.md5(source.toPath());
+    String existingId = checksums.get(md5);
+    if (existingId == null) {
+      return null;
+    }
+    try {
+      File existing = service.files().get(existingId).setFields(CONTENT_FIELDS + ",trashed,parents").execute();
+      if (!Boolean.TRUE.equals(existing.getTrashed()) && md5.equalsIgnoreCase(existing.getMd5Checksum())) {
+        if (metadata.getParents() == null) {   // a copy would otherwise land in the folder of the original
+          metadata.setParents(Collections.singletonList("root"));
+        }
+        boolean skipped = mode == DuplicateUploads.SKIP && isAt(existing, metadata);
+        if (!skipped) {
+          existing = service.files().copy(existingId, metadata).setFields(CONTENT_FIELDS).execute();
+        }
+        deduplicatedBytes.addAndGet(source.length());
+        System.out.println("Content of " + source + " is on Google Drive already as " + existingId
+                + (skipped ? ", skipped the upload" : ", copied it to " + existing.getId()));
+        return existing;
+      }
+    } catch (HttpResponseException e) {
+      if (e.getStatusCode() != 404) {
+        throw e;
+      }
+    }
+    checksums.remove(existingId);   // gone or changed, the content is uploaded again
+    return null;
+  }
+
+  /**
+   * @return Whether an existing file has the name and the folder an upload asks for, so it can stand in for it
+   */
+  private boolean isAt(File existing, File metadata) throws IOException {
+    if (!Objects.equals(existing.getName(), metadata.getName()) || existing.getParents() == null) {
+      return false;
+    }
+    String parentId = metadata.getParents().get(0);
+    if (existing.getParents().contains(parentId)) {
+      return true;
+    }
+    if (!parentId.equals("root")) {
+      return false;
+    }
+    String rootId = rootFolderId;
+    if (rootId == null) {   // Google Drive reports the parent by its id, never by the alias
+      rootId = service.files().get("root").setFields("id").execute().getId();
+      rootFolderId = rootId;
+    }
+    return existing.getParents().contains(rootId);
+  }
+
+  /**
+   * Records the content of an uploaded file in the checksum index, when uploads are deduplicated
+   */
+  private void recordUpload(java.io.File source, String id) throws IOException {
+    ContentHashes hashes = contentHashes;
+    ChecksumIndex checksums = checksumIndex;
+    if (duplicateUploads != DuplicateUploads.UPLOAD && hashes != null && checksums != null) {
+      checksums.put(hashes.md5(source.toPath()), id);
+    }
+  }
+
+  /**
+   * Uploads content read from a stream, such as a pipe, as a new Google Drive file. The content is sent in
+   * chunks as it is read, without knowing its length beforehand and without a temporary file.
+   *
+   * @param content The content, read to its end but left open
+   * @param name Name of the new file
+   * @param mimeType MIMETYPE of the content, null if unknown
+   * @param parentId Id of the folder to create the file in, null for My Drive
+   * @return The uploaded file represented as a DriveFile object
+   */
+  public DriveFile uploadStream(InputStream content, String name, String mimeType, String parentId)
+          throws IOException {
+    File metadata = new File().setName(name);
+    if (parentId != null) {
+      metadata.setParents(Collections.singletonList(parentId));
+    }
+    InputStreamContent mediaContent = new InputStreamContent(
+            mimeType == null ? "application/octet-stream" : mimeType, content);
+    Drive.Files.Create create = service.files().create(metadata, mediaContent).setFields(CONTENT_FIELDS);
+    create.getMediaHttpUploader().setChunkSize(ResumableUpload.DEFAULT_CHUNK_SIZE);
+    return toDriveFile(create.execute());
+  }
+
+  /**
+   * Forgets the persisted session of an interrupted resumable upload, so the next upload of the file starts over
+   *
+   * @param source The path of the file whose upload was interrupted
+   */
+  public void discardResumableUpload(String source) {
+    discardResumableUpload(source, null);
+  }
+
+  /**
+   * Forgets the persisted session of an interrupted resumable upload into a folder, so the next upload of the file
+   * there starts over
+   *
+   * @param source The path of the file whose upload was interrupted
+   * @param parentId Id of the folder the file was uploaded to, null for My Drive
+   */
+  public void discardResumableUpload(String source, String parentId) {
+    File fileMetadata = new File();
+    fileMetadata.setName(uploadName(source));
+    if (parentId != null) {
+      fileMetadata.setParents(Collections.singletonList(parentId));
+    }
+    resumableUpload(source, fileMetadata, ResumableUpload.DEFAULT_CHUNK_SIZE).discardSession();
+  }
+
+  /**
+   * @return A resumable upload creating a file with the given metadata, sessions are persisted per source and
+   *         metadata in the uploads directory
+   */
+  private ResumableUpload resumableUpload(String source, File fileMetadata, int chunkSize) {
+    String uploadUrl = service.getRootUrl() + "upload/" + service.getServicePath()
+            + "files?uploadType=resumable&fields=id,name,mimeType,modifiedTime";
+    return new ResumableUpload(service.getRequestFactory(), JSON_FACTORY, uploadUrl, new java.io.File(source),
+            fileMetadata, uploadMimeType(source), chunkSize, uploadsDirectory);
+  }
+
+  /**
+   * Name given on Google Drive to an uploaded file
+   *
+   * @param source The path of the file to be uploaded
+   * @return The file name without directory and extension
+   */
+  private static String uploadName(String source) {
+    String name = new java.io.File(source).getName();
+    int dot = name.lastIndexOf(".");
+    return dot > 0 ? name.substring(0, dot) : name;
+  }
+
+  /**
+   * MIMETYPE of an uploaded file
+   *
+   * @param source The path of the file to be uploaded
+   * @return The MIMETYPE matching the file extension, or null if unknown
+   */
+  private static String uploadMimeType(String source) {
+    String name = new java.io.File(source).getName();
+    int dot = name.lastIndexOf(".");
+    return dot > 0 ? EXTENSION_MIMETYPE_MAP.get(name.substring(dot)) : null;
+  }
+
+  /**
+   * Delete a file from Google Drive
+   *
+   * @param file The desired file to be deleted represented as a DriveFile object
+   */
+  public void deleteFile(DriveFile file) throws IOException {
+    service.files().delete(file.Id).execute();
+    ChecksumIndex checksums = checksumIndex;
+    if (checksums != null) {
+      checksums.remove(file.Id);
+    }
+    System.out.println("File deleted successfully");
+  }
+
+  /**
+   * Builds the Google Drive request for one file of a batch
+   */
+  private interface BatchCall<T> {
+    DriveRequest<T> request(DriveFile file) throws IOException;
+  }
+
+  /**
+   * Runs a call for every given file, coalesced into batch requests of up to {@link #BATCH_SIZE} calls each. A
+   * batch request which fails as a whole marks the files of its batch without an outcome yet as failed, the
+   * outcomes of the other batches are kept.
+   *
+   * @param files The files to run the call for
+   * @param call Builds the request for a file
+   * @param onSuccess Maps a file and the response of its call to the DriveFile reported as succeeded
+   * @return Per-file outcome of the calls
+   */
+  private <T> BatchResult executeBatch(List<DriveFile> files, BatchCall<T> call,
+                                       BiFunction<DriveFile, T, DriveFile> onSuccess) throws IOException {
+    BatchResult result = new BatchResult();
+    for (int start = 0; start < files.size(); start += BATCH_SIZE) {
+      List<DriveFile> chunk = files.subList(start, Math.min(start + BATCH_SIZE, files.size()));
+      Set<DriveFile> answered = Collections.newSetFromMap(new IdentityHashMap<>());
+      try {
+        BatchRequest batch = service.batch();
+        for (DriveFile file : chunk) {
+          call.request(file).queue(batch, new JsonBatchCallback<T>() {
+            @Override
+            public void onSuccess(T response, HttpHeaders responseHeaders) {
+              answered.add(file);
+              result.succeeded.add(onSuccess.apply(file, response));
+            }
+
+            @Override
+            public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+              answered.add(file);
+              result.failed.put(file, error.getMessage());
+            }
+          });
+        }
+        batch.execute();
+      } catch (IOException e) {
+        System.out.println("Batch of " + chunk.size() + " calls failed: " + e.getMessage());
+        for (DriveFile file : chunk) {
+          if (!answered.contains(file)) {
+            result.failed.put(file, e.getMessage());
+          }
+        }
+      }
+    }
+    System.out.println("Batch finished: " + result);
+    return result;
+  }
+
+  /**
+   * Delete several files from Google Drive using batch requests
+   *
+   * @param files The desired files to be deleted represented as DriveFile objects
+   * @return Per-file outcome of the deletion
+   */
+  public BatchResult deleteFiles(List<DriveFile> files) throws IOException {
+    BatchResult result = executeBatch(files, file -> service.files().delete(file.Id), (file, response) -> file);
+    ChecksumIndex checksums = checksumIndex;
+    if (checksums != null) {
+      for (DriveFile file : result.succeeded) {
+        checksums.remove(file.Id);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Rename several files on Google Drive using batch requests
+   *
+   * @param newNames The desired files to be renamed mapped to their new names
+   * @return Per-file outcome of the renaming, succeeded files carry their new metadata
+   */
+  public BatchResult renameFiles(Map<DriveFile, String> newNames) throws IOException {
+    return executeBatch(new ArrayList<>(newNames.keySet()),
+            file -> service.files().update(file.Id, new File().setName(newNames.get(file)))
+                    .setFields("modifiedTime,id,name,mimeType"),
+            (file, response) -> toDriveFile(response));
+  }
+
+  /**
+   * Move several files into a Google Drive folder using batch requests. The current parents of the files are
+   * looked up in a first round of batches, then the files are moved in a second one.
+   *
+   * @param files The desired files to be moved represented as DriveFile objects
+   * @param folderId Id of the destination folder
+   * @return Per-file outcome of the move, succeeded files carry their new metadata
+   */
+  public BatchResult moveFiles(List<DriveFile> files, String folderId) throws IOException {
+    Map<String, String> parents = new HashMap<>();
+    BatchResult lookup = executeBatch(files, file -> service.files().get(file.Id).setFields("id,parents"),
+            (file, response) -> {
+              parents.put(file.Id, response.getParents() == null ? "" : String.join(",", response.getParents()));
+              return file;
+            });
+    BatchResult result = executeBatch(lookup.succeeded,
+            file -> service.files().update(file.Id, new File())
+                    .setAddParents(folderId)
+                    .setRemoveParents(parents.get(file.Id))
+                    .setFields("modifiedTime,id,name,mimeType"),
+            (file, response) -> toDriveFile(response));
+    result.failed.putAll(lookup.failed);
+    return result;
+  }
+}
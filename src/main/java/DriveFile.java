@@ -8,6 +8,9 @@ public class DriveFile {
     String Name;
     String Type;
     DateTime LastModifiedDate;
+    String ThumbnailLink;   // expires within hours, so it is never stored in the local index
+    Long Size;   // size and checksum of the content, null unless the listing asked for them
+    String Md5Checksum;
 
     public DriveFile(String id, String name) {
         Id = id;
@@ -40,4 +43,26 @@ public class DriveFile {
     public DateTime getLastModifiedDate() {
         return LastModifiedDate;
     }
+
+    /**
+     * @return Short-lived link to the thumbnail Google Drive generated for the file, null if the file has none or
+     *         the listing it came from did not ask for it
+     */
+    public String getThumbnailLink() {
+        return ThumbnailLink;
+    }
+
+    /**
+     * @return Size of the content in bytes as read with the file, null if not read or a Google Workspace file
+     */
+    public Long getSize() {
+        return Size;
+    }
+
+    /**
+     * @return MD5 checksum of the content as read with the file, null if not read or a Google Workspace file
+     */
+    public String getMd5Checksum() {
+        return Md5Checksum;
+    }
 }
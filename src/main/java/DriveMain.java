@@ -3,65 +3,134 @@ import com.google.api.client.extensions.java6.auth.oauth2.AuthorizationCodeInsta
 import com.google.api.client.extensions.jetty.auth.oauth2.LocalServerReceiver;
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
 import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
-import com.google.api.client.http.FileContent;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.api.client.json.JsonFactory;
-import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
 import com.google.api.client.util.store.FileDataStoreFactory;
-import com.google.api.services.drive.Drive;
 import com.google.api.services.drive.DriveScopes;
-import com.google.api.services.drive.model.File;
-import com.google.api.services.drive.model.FileList;
 
 import java.io.*;
 import java.security.GeneralSecurityException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 
 /**
- * Helper class to interact with Google Drive API
+ * Helper class to interact with Google Drive API. Calls are delegated to a shared, thread-safe {@link DriveClient};
+ * this class adds the local metadata index and background execution on top of it.
  */
 public class DriveMain {
-  private static final String APPLICATION_NAME = "Google Drive Application";
-  private static final JsonFactory JSON_FACTORY = GsonFactory.getDefaultInstance();  // Global instance of the JSON factory.
+  private static final String ROOT_URL_PROPERTY = "drive.rootUrl";  // System property overriding the Drive API root URL.
+  static final String DUPLICATE_UPLOADS_PROPERTY = "drive.duplicateUploads";  // System property, skip or copy to deduplicate uploads.
+  private static final String SYNC_POLICY_PROPERTY = "drive.syncPolicy";  // System property, none, on_complete or periodic.
+  private static final String CHANNEL_IO_PROPERTY = "drive.channelIo";  // System property, false for stream based file I/O.
   private static final String TOKENS_DIRECTORY_PATH = "tokens";  // Directory to store authorization tokens for this application.
+  private static final String UPLOADS_DIRECTORY_PATH = "uploads";  // Directory to store resumable upload sessions.
+  private static final String INDEX_FILE_PATH = "metadata/index";  // Location of the local metadata index.
+  private static final String HEAD_FILE_PATH = "metadata/head";  // Location of the rows shown first at startup.
+  private static final String HASHES_FILE_PATH = "metadata/hashes";  // Location of the checksums of local files.
+  private static final String CHECKSUMS_FILE_PATH = "metadata/checksums";  // Location of the checksums of Drive files.
+  private static final int HEAD_ROWS = 100;   // rows stored for startup, more than fit on a screen
+  private static final long TOKEN_REFRESH_MARGIN_SECONDS = 300;   // stored tokens expiring sooner are refreshed at once
+  private static final String CACHE_DIRECTORY_PATH = "cache";  // Directory to store cached downloads.
+  private static final long CACHE_BUDGET_BYTES = 1024L * 1024 * 1024;   // maximum size of the download cache
+  private static final int PREFETCH_DEPTH = 2;   // number of listing pages requested ahead of the table
   private static final int PAGE_SIZE = 20;    // default number of files displayed
-  private static Drive service;
-  private static String pageToken;
+  private static final int MAX_CONCURRENT_CALLS = 8;   // upper bound on Drive calls running in the background
+  private static final int MAX_CONNECTIONS = 32;   // size of the HTTP connection pool, covers the calls and download ranges
+  private static final double REQUESTS_PER_SECOND = 50;   // sustained request rate, well below the per-user Drive quota
+  private static final int REQUEST_BURST = 20;   // requests which may be sent at once after an idle period
+  private static final int INITIAL_CONCURRENCY = 8;   // requests in flight at first, adapted to rate limit errors
+  private static final int MAX_TRANSFERS = 4;   // uploads and downloads running at once
+  private static final int MAX_UPLOADS = 2;   // uploads running at once, they compete for the upstream bandwidth
+  private static final int MAX_DOWNLOADS = 3;   // downloads running at once, large ones use several connections each
+  private static final int FOLDER_PAGE_SIZE = 1000;   // largest page Google Drive serves, folders are listed whole
+  private static final int FOLDER_CACHE_FILES = 50_000;   // files kept across the cached folder listings
+  private static final int FOLDER_PREFETCH_DEPTH = 1;   // levels of subfolders listed ahead of the folder shown
+  private static final int FOLDER_PREFETCH_LIMIT = 25;   // folders listed ahead of each folder shown
+  private static final String THUMBNAILS_DIRECTORY_PATH = "thumbnails";  // Directory to store fetched thumbnails.
+  private static final long THUMBNAILS_DISK_BUDGET_BYTES = 256L * 1024 * 1024;   // maximum size of stored thumbnails
+  private static final long THUMBNAILS_MEMORY_BUDGET_BYTES = 64L * 1024 * 1024;   // decoded thumbnails kept in memory
+  private static final int MAX_THUMBNAIL_LOADS = 4;   // thumbnails fetched or decoded at once
+  private static final String METRICS_DIRECTORY_PATH = "metrics";  // Directory to write the request metrics to.
+  private static final long METRICS_PERIOD_SECONDS = 60;   // interval between two writes of the metrics
+  private static final DriveMetrics METRICS = new DriveMetrics();
+  private static volatile DriveClient client;
+  private static volatile TransferManager transfers;
+  private static MetadataIndex index;
+  private static volatile SearchIndex searchIndex;
+  /** Updates made while the search index is built, replayed on it before it is published, guarded by the index */
+  private static List<Consumer<SearchIndex>> searchIndexUpdates;
+  private static final Object SEARCH_INDEX_LOCK = new Object();   // held while the search index is built
+
+  private static final Object LEGACY_LOCK = new Object();   // guards the cursor of getFiles(boolean)
+  private static ListingCursor legacyCursor;
 
   private static final List<String> SCOPES =
       Collections.singletonList(DriveScopes.DRIVE);
   private static final String CREDENTIALS_FILE_PATH = "/credentials.json";
 
-  /** Default Google Drive MIMETYPE mapped to working MIMETYPE */
-  private static final Map<String, String> MIMETYPE_MAP = new HashMap<>();
-  static {
-    MIMETYPE_MAP.put("application/vnd.google-apps.document", "application/vnd.openxmlformats-officedocument.wordprocessingml.document");
-    MIMETYPE_MAP.put("application/vnd.google-apps.spreadsheet", "text/csv");
-  }
+  /** Bounded executor running Drive calls off the JavaFX Application Thread */
+  private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(MAX_CONCURRENT_CALLS, threadFactory());
+
+  /** Single thread listing folders ahead, so the prefetch never takes more than one request slot */
+  private static final ExecutorService FOLDER_PREFETCH_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "drive-folder-prefetch");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private static final FolderCache FOLDER_CACHE = new FolderCache(FOLDER_CACHE_FILES);
+
+  /** Single thread running searches, so a search waiting for the index never holds up the JavaFX thread */
+  private static final ExecutorService SEARCH_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "drive-search");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /** Threads fetching and decoding thumbnails, so visible rows do not wait behind other Drive calls */
+  private static final ExecutorService THUMBNAIL_EXECUTOR =
+      Executors.newFixedThreadPool(MAX_THUMBNAIL_LOADS, runnable -> {
+        Thread thread = new Thread(runnable, "drive-thumbnail");
+        thread.setDaemon(true);
+        return thread;
+      });
 
-  /** MIMETYPE mapped to file extension */
-  private static final Map<String, String> MIMETYPE_EXTENSIONS_MAP = new HashMap<>();
-  static {
-    MIMETYPE_EXTENSIONS_MAP.put("application/vnd.openxmlformats-officedocument.wordprocessingml.document", ".docx");
-    MIMETYPE_EXTENSIONS_MAP.put("application/vnd.openxmlformats-officedocument.presentationml.presentation", ".pptx");
-    MIMETYPE_EXTENSIONS_MAP.put("text/csv", ".csv");
-    MIMETYPE_EXTENSIONS_MAP.put("application/pdf", ".pdf");
-    MIMETYPE_EXTENSIONS_MAP.put("text/plain", ".txt");
-    MIMETYPE_EXTENSIONS_MAP.put("image/jpeg", ".jpg");
-    MIMETYPE_EXTENSIONS_MAP.put("image/png", ".png");
+  /**
+   * Creates the thread factory backing the background executor. Virtual threads are used when the
+   * running JVM supports them, otherwise daemon platform threads are used.
+   *
+   * @return Thread factory for Drive worker threads
+   */
+  private static ThreadFactory threadFactory() {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      AtomicInteger count = new AtomicInteger();
+      return runnable -> {
+        Thread thread = new Thread(runnable, "drive-worker-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      };
+    }
   }
 
-  /** File extension mapped to MIMETYPE */
-  private static final Map<String, String> EXTENSION_MIMETYPE_MAP = new HashMap<>();
-  static {
-    EXTENSION_MIMETYPE_MAP.put(".docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document");
-    EXTENSION_MIMETYPE_MAP.put(".pptx", "application/vnd.openxmlformats-officedocument.presentationml.presentation");
-    EXTENSION_MIMETYPE_MAP.put(".csv", "text/csv");
-    EXTENSION_MIMETYPE_MAP.put(".pdf", "application/pdf");
-    EXTENSION_MIMETYPE_MAP.put(".txt", "text/plain");
-    EXTENSION_MIMETYPE_MAP.put(".jpg", "image/jpeg");
-    EXTENSION_MIMETYPE_MAP.put(".png", "image/png");
+  /**
+   * Runs a Drive call on the background executor
+   *
+   * @param call The Drive call to run
+   * @return Future completed with the result of the call, or exceptionally with the exception it threw
+   */
+  private static <T> CompletableFuture<T> runAsync(Callable<T> call) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return call.call();
+      } catch (Exception e) {
+        throw new CompletionException(e);
+      }
+    }, EXECUTOR);
   }
 
   /**
@@ -70,7 +139,7 @@ public class DriveMain {
    * @param HTTP_TRANSPORT The network HTTP Transport.
    * @return An authorized Credential object.
    */
-  private static Credential getCredentials(final NetHttpTransport HTTP_TRANSPORT)
+  private static Credential getCredentials(final HttpTransport HTTP_TRANSPORT)
       throws IOException {
     // Load client secrets.
     InputStream in = DriveMain.class.getResourceAsStream(CREDENTIALS_FILE_PATH);
@@ -78,11 +147,11 @@ public class DriveMain {
       throw new FileNotFoundException("Resource not found: " + CREDENTIALS_FILE_PATH);
     }
     GoogleClientSecrets clientSecrets =
-        GoogleClientSecrets.load(JSON_FACTORY, new InputStreamReader(in));
+        GoogleClientSecrets.load(DriveClient.JSON_FACTORY, new InputStreamReader(in));
 
     // Build flow and trigger user authorization request.
     GoogleAuthorizationCodeFlow flow = new GoogleAuthorizationCodeFlow.Builder(
-        HTTP_TRANSPORT, JSON_FACTORY, clientSecrets, SCOPES)
+        HTTP_TRANSPORT, DriveClient.JSON_FACTORY, clientSecrets, SCOPES)
         .setDataStoreFactory(new FileDataStoreFactory(new java.io.File(TOKENS_DIRECTORY_PATH)))
         .setAccessType("offline")
         .build();
@@ -91,14 +160,120 @@ public class DriveMain {
   }
 
   /**
-   * Initialization logic required for Google Drive API
+   * Loads the stored credential, or runs the authorization flow if there is none, on a thread of its own so the
+   * window does not wait for it. A stored access token about to expire is refreshed right away, so the first
+   * Drive call does not pay for the refresh.
+   *
+   * @param transport The network HTTP Transport.
+   * @return Future of the authorized Credential object.
+   */
+  private static CompletableFuture<Credential> authorizeAsync(HttpTransport transport) {
+    CompletableFuture<Credential> future = new CompletableFuture<>();
+    Thread thread = new Thread(() -> {
+      try {
+        Credential credential = getCredentials(transport);
+        Long expiresIn = credential.getExpiresInSeconds();
+        if (credential.getRefreshToken() != null && (expiresIn == null || expiresIn < TOKEN_REFRESH_MARGIN_SECONDS)) {
+          try {
+            credential.refreshToken();
+          } catch (IOException e) {   // the credential retries when Drive rejects the old token
+            System.out.println("Could not refresh the access token: " + e.getMessage());
+          }
+        }
+        StartupTimer.mark("credentials ready");
+        future.complete(credential);
+      } catch (Throwable e) {
+        future.completeExceptionally(e);
+      }
+    }, "drive-authorization");
+    thread.setDaemon(true);
+    thread.start();
+    return future;
+  }
+
+  /**
+   * @param credential Future of the credential
+   * @return Initializer authorizing requests with the credential, requests built before it is available wait for it
+   */
+  private static HttpRequestInitializer deferred(CompletableFuture<Credential> credential) {
+    return request -> {
+      try {
+        credential.get().initialize(request);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for authorization");
+      } catch (ExecutionException e) {
+        throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                : new IOException("Authorization failed", e.getCause());
+      }
+    };
+  }
+
+  /**
+   * Initialization logic required for Google Drive API. Setting the system property {@value #ROOT_URL_PROPERTY}
+   * points the application at another server, see {@link #initService(String)}.
    */
   public static void initService() throws IOException, GeneralSecurityException {
-    final NetHttpTransport HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
-    service = new Drive.Builder(HTTP_TRANSPORT, JSON_FACTORY, getCredentials(HTTP_TRANSPORT))
-            .setApplicationName(APPLICATION_NAME)
-            .build();
-    pageToken = null;
+    initService(System.getProperty(ROOT_URL_PROPERTY));
+  }
+
+  /**
+   * Initialization logic required for Google Drive API. Returns without waiting for authorization, which
+   * continues in the background while the index is loaded and the window is shown. Setting the system property
+   * {@value #DUPLICATE_UPLOADS_PROPERTY} to skip or copy deduplicates uploads, see
+   * {@link DriveClient#setDeduplication}. The properties {@value #SYNC_POLICY_PROPERTY} and
+   * {@value #CHANNEL_IO_PROPERTY} choose how transfers write and read local files, see
+   * {@link FileChannelMedia.SyncPolicy}.
+   *
+   * @param rootUrl Root URL of a Drive API stand-in such as a local fake server, requests to it are sent without
+   *                authorization. Null for Google's servers.
+   */
+  public static void initService(String rootUrl) throws IOException, GeneralSecurityException {
+    final HttpTransport HTTP_TRANSPORT = DriveClient.newPooledTransport(MAX_CONNECTIONS);
+    HttpRequestInitializer authorization = rootUrl == null ? deferred(authorizeAsync(HTTP_TRANSPORT)) : null;
+    RequestScheduler scheduler = new RequestScheduler(authorization,
+            new RateLimiter(REQUESTS_PER_SECOND, REQUEST_BURST, INITIAL_CONCURRENCY, MAX_CONNECTIONS))
+            .setMetrics(METRICS);
+    DriveClient newClient = new DriveClient(HTTP_TRANSPORT, scheduler, rootUrl,
+            new java.io.File(UPLOADS_DIRECTORY_PATH));
+    newClient.setDownloadCache(new DownloadCache(java.nio.file.Paths.get(CACHE_DIRECTORY_PATH), CACHE_BUDGET_BYTES));
+    newClient.setChannelIo(Boolean.parseBoolean(System.getProperty(CHANNEL_IO_PROPERTY, "true")));
+    newClient.setSyncPolicy(FileChannelMedia.SyncPolicy.valueOf(
+            System.getProperty(SYNC_POLICY_PROPERTY, "none").toUpperCase()));
+    String duplicateUploads = System.getProperty(DUPLICATE_UPLOADS_PROPERTY);
+    if (duplicateUploads != null) {
+      newClient.setDeduplication(DriveClient.DuplicateUploads.valueOf(duplicateUploads.toUpperCase()),
+              ContentHashes.load(new java.io.File(HASHES_FILE_PATH)),
+              ChecksumIndex.load(new java.io.File(CHECKSUMS_FILE_PATH)));
+    }
+    client = newClient;
+    transfers = new TransferManager(newClient, MAX_TRANSFERS, MAX_UPLOADS, MAX_DOWNLOADS).setMetrics(METRICS);
+    METRICS.startWriting(java.nio.file.Paths.get(METRICS_DIRECTORY_PATH), METRICS_PERIOD_SECONDS);
+    synchronized (LEGACY_LOCK) {
+      legacyCursor = null;
+    }
+  }
+
+  /**
+   * @return The shared client, safe to use from any thread
+   */
+  public static DriveClient getClient() {
+    return client;
+  }
+
+  /**
+   * @return Metrics of the requests and transfers made with the shared client, also written periodically to
+   *         the metrics directory as JSON and in the Prometheus text format
+   */
+  public static DriveMetrics getMetrics() {
+    return METRICS;
+  }
+
+  /**
+   * @return The queue of uploads and downloads made with the shared client
+   */
+  public static TransferManager getTransfers() {
+    return transfers;
   }
 
   /**
@@ -108,72 +283,287 @@ public class DriveMain {
    * @return List of Google Drive files represented as DriveFile objects
    */
   public static List<DriveFile> getFiles(boolean startOver) throws IOException {
-    if (startOver) {
-      pageToken = "";
+    synchronized (LEGACY_LOCK) {
+      if (startOver || legacyCursor == null) {
+        legacyCursor = ListingCursor.first(PAGE_SIZE);
+      }
+      ListingPrefetcher.Page page = client.list(legacyCursor);
+      legacyCursor = legacyCursor.next(page.nextPageToken);
+      if (page.files.isEmpty()) {
+        System.out.println("No files found.");
+      }
+      return page.files;
     }
+  }
 
-    List<DriveFile> res = new ArrayList<>();
+  /**
+   * Local index of Google Drive file metadata, loaded from disk on first use. Reading it makes no network calls.
+   *
+   * @return The metadata index
+   */
+  public static synchronized MetadataIndex getIndex() throws IOException {
+    if (index == null) {
+      index = MetadataIndex.load(new java.io.File(INDEX_FILE_PATH));
+    }
+    return index;
+  }
 
-    FileList result = service.files().list()
-            .setFields("nextPageToken, files(modifiedTime,id,name,mimeType)")
-            .setPageSize(PAGE_SIZE)
-            .setPageToken(pageToken)
-            .execute();
-    List<File> files = result.getFiles();
+  /**
+   * @return The rows shown first when the application was last closed, see {@link #saveFirstRows(List)}
+   */
+  public static List<DriveFile> loadFirstRows() {
+    return MetadataIndex.loadHead(new java.io.File(HEAD_FILE_PATH));
+  }
 
-    pageToken = result.getNextPageToken();
+  /**
+   * Stores the first rows of the table, so the next start can show them at once
+   *
+   * @param rows The rows of the table, only the first {@value #HEAD_ROWS} are stored
+   */
+  public static void saveFirstRows(List<DriveFile> rows) throws IOException {
+    MetadataIndex.saveHead(new java.io.File(HEAD_FILE_PATH), rows.subList(0, Math.min(HEAD_ROWS, rows.size())));
+  }
 
-    if (files == null || files.isEmpty()) {
-      System.out.println("No files found.");
-    } else {
-      for (File file : files) {
-        DriveFile fileDrive = new DriveFile(file.getId(), file.getName(), file.getMimeType().trim(), file.getModifiedTime());
-        res.add(fileDrive);
-      }
+  /**
+   * Adds the next page of the file listing to the local index
+   *
+   * @return The files added to the index, empty once the whole drive has been indexed
+   */
+  public static List<DriveFile> loadNextIndexPage() throws IOException {
+    MetadataIndex index = getIndex();
+    if (index.isListingComplete()) {
+      return Collections.emptyList();
     }
-    return res;
+    ensureStartPageToken();
+    return addIndexPage(listPage(index.getListingPageToken(), PAGE_SIZE));
   }
 
   /**
-   * Downloads a file from Google Drive
+   * Queries a page of the Google Drive file listing
    *
-   * @param file The desired Google Drive file to be downloaded represented as a DriveFile object
-   * @param destination The desired local target directory for the file to be downloaded to
+   * @param pageToken Token of the desired page, null for the first page
+   * @param pageSize Maximum number of files of the page
+   * @return The files of the page and the token of the following page
    */
-  public static void downloadFile(DriveFile file, String destination) throws Exception {
-    if (file.Type.equals("application/vnd.google-apps.folder")) {
-      throw new Exception("DOWNLOADING DIRECTORIES FORBIDDEN");
-    }
+  public static ListingPrefetcher.Page listPage(String pageToken, int pageSize) throws IOException {
+    return listPage(ListingQuery.ALL, pageToken, pageSize);
+  }
 
-    boolean isDocsDownload = false;
+  /**
+   * Queries a page of a filtered or ordered Google Drive file listing
+   *
+   * @param query Files of the listing, their order and fields
+   * @param pageToken Token of the desired page issued for the same query, null for the first page
+   * @param pageSize Maximum number of files of the page
+   * @return The files of the page and the token of the following page
+   */
+  public static ListingPrefetcher.Page listPage(ListingQuery query, String pageToken, int pageSize)
+          throws IOException {
+    return client.list(ListingCursor.at(query, pageToken, pageSize));
+  }
 
-    String mimetype = file.Type;
+  /**
+   * Records the start page token of the changes feed before the first listing page is fetched, so no change
+   * made during the listing is missed. The token is requested without holding the index, as the request may wait
+   * for the user to authorize the application.
+   */
+  private static void ensureStartPageToken() throws IOException {
+    MetadataIndex index = getIndex();
+    if (index.getStartPageToken() != null) {
+      return;
+    }
+    String startPageToken = client.getStartPageToken();
+    synchronized (index) {
+      if (index.getStartPageToken() == null) {   // unless another thread recorded one meanwhile
+        index.setStartPageToken(startPageToken);
+      }
+    }
+  }
 
-    // Figure out what kind of download to do
-    if (file.Type.contains("vnd.google-apps")) {
-      isDocsDownload = true;
+  /**
+   * Adds a fetched page of the file listing to the local index. Pages must be added in listing order.
+   *
+   * @param page The page to be added
+   * @return The files added to the index
+   */
+  public static List<DriveFile> addIndexPage(ListingPrefetcher.Page page) throws IOException {
+    MetadataIndex index = getIndex();
+    synchronized (index) {
+      List<DriveFile> added = index.addListingPage(page.files, page.nextPageToken);
+      updateSearchIndex(search -> search.putAll(added));
+      return added;
     }
+  }
 
-    // Use valid mimetype if the given one is google api default
-    if (MIMETYPE_MAP.containsKey(file.Type)) {
-      mimetype = MIMETYPE_MAP.get(file.Type);
+  /**
+   * Gets the search index over the files of the local index, built on first use and kept current as pages and
+   * changes are added to the local index. It is built from a snapshot of the local index without holding it, the
+   * pages and changes added meanwhile are applied before it is published.
+   *
+   * @return The search index
+   */
+  public static SearchIndex getSearchIndex() throws IOException {
+    SearchIndex current = searchIndex;
+    if (current != null) {
+      return current;
+    }
+    MetadataIndex index = getIndex();
+    synchronized (SEARCH_INDEX_LOCK) {
+      if (searchIndex != null) {
+        return searchIndex;
+      }
+      List<DriveFile> snapshot;
+      synchronized (index) {
+        snapshot = index.files();
+        searchIndexUpdates = new ArrayList<>();
+      }
+      SearchIndex newIndex = new SearchIndex();
+      newIndex.putAll(snapshot);
+      synchronized (index) {
+        searchIndexUpdates.forEach(update -> update.accept(newIndex));
+        searchIndexUpdates = null;
+        searchIndex = newIndex;
+      }
+      return newIndex;
+    }
+  }
+
+  /**
+   * Applies an update of the local index to the search index, or records it for the search index being built.
+   * Must be called holding the local index.
+   */
+  private static void updateSearchIndex(Consumer<SearchIndex> update) {
+    if (searchIndex != null) {
+      update.accept(searchIndex);
+    } else if (searchIndexUpdates != null) {
+      searchIndexUpdates.add(update);
     }
+  }
+
+  /**
+   * Creates a read-ahead pager over the file listing, continuing where the local index stopped
+   *
+   * @return The pager, already requesting the first pages in the background
+   */
+  public static ListingPrefetcher newIndexPrefetcher() throws IOException {
+    ListingPrefetcher prefetcher = new ListingPrefetcher((token, size) -> runAsync(() -> {
+      ensureStartPageToken();
+      return listPage(token, size);
+    }), PREFETCH_DEPTH, PAGE_SIZE);
+    MetadataIndex index = getIndex();
+    prefetcher.restart(index.getListingPageToken(), index.isListingComplete());
+    return prefetcher;
+  }
 
-    String extension = MIMETYPE_EXTENSIONS_MAP.get(mimetype);
+  /**
+   * Creates a read-ahead pager over a filtered or ordered listing. Its pages are not added to the local index,
+   * which keeps the default order of Google Drive.
+   *
+   * @param query Files of the listing, their order and fields
+   * @return The pager, already requesting the first pages in the background
+   */
+  public static ListingPrefetcher newListingPrefetcher(ListingQuery query) {
+    ListingPrefetcher prefetcher = new ListingPrefetcher((token, size) -> runAsync(() -> listPage(query, token, size)),
+            PREFETCH_DEPTH, PAGE_SIZE);
+    prefetcher.restart(null, false);
+    return prefetcher;
+  }
 
-    String destFilePath = destination + "/" + file.Name.replace(" ","-");
-    if (file.getName().lastIndexOf(".") == -1) {   // only add extension to file name if it doesn't already exist
-      destFilePath += extension;
+  /**
+   * Lists every child of a folder, folders first, then by name
+   *
+   * @param folderId Id of the folder, "root" for My Drive
+   * @param priority Priority the listing requests are admitted at
+   * @return The children of the folder which are not trashed
+   */
+  public static List<DriveFile> listFolder(String folderId, RateLimiter.Priority priority) throws IOException {
+    ListingQuery query = ListingQuery.ALL.inFolder(folderId).withTrashed(false)
+            .orderBy("folder", false).orderBy("name", false);
+    return RequestScheduler.callWithPriority(priority, () -> {
+      List<DriveFile> files = new ArrayList<>();
+      ListingCursor cursor = ListingCursor.at(query, null, FOLDER_PAGE_SIZE);
+      while (!cursor.isEnd()) {
+        ListingPrefetcher.Page page = client.list(cursor);
+        files.addAll(page.files);
+        cursor = cursor.next(page.nextPageToken);
+      }
+      return files;
+    });
+  }
+
+  /**
+   * Creates a navigator over the folders of Google Drive. Navigators share one cache of folder listings, and
+   * list the subfolders of the folder shown ahead on a single background thread at the lowest priority.
+   *
+   * @return The navigator, with no folder open
+   */
+  public static FolderNavigator newFolderNavigator() {
+    return new FolderNavigator(FOLDER_CACHE, DriveMain::listFolder, EXECUTOR, FOLDER_PREFETCH_EXECUTOR,
+            FOLDER_PREFETCH_DEPTH, FOLDER_PREFETCH_LIMIT);
+  }
+
+  /**
+   * Creates a cache of the thumbnails of Drive files, kept decoded in memory and encoded on disk. Thumbnails are
+   * fetched at bulk priority, so they never hold up the listings and actions the user is waiting for.
+   *
+   * @param decoder Decodes the thumbnails at their display size
+   * @param weigher Bytes of memory taken by a decoded thumbnail
+   * @return The cache, loading thumbnails on a pool of its own
+   */
+  public static <V> ThumbnailCache<V> newThumbnailCache(ThumbnailCache.Decoder<V> decoder, ToLongFunction<V> weigher)
+          throws IOException {
+    DownloadCache disk = new DownloadCache(java.nio.file.Paths.get(THUMBNAILS_DIRECTORY_PATH),
+            THUMBNAILS_DISK_BUDGET_BYTES);
+    return new ThumbnailCache<>((fileId, thumbnailLink, size) -> RequestScheduler.callWithPriority(
+            RateLimiter.Priority.BULK, () -> client.getThumbnail(fileId, thumbnailLink, size)), decoder, weigher,
+            THUMBNAILS_MEMORY_BUDGET_BYTES, disk, THUMBNAIL_EXECUTOR);
+  }
+
+  /**
+   * Brings the local index up to date by applying the changes made on Google Drive since the last refresh
+   *
+   * @return The changes applied to the index
+   */
+  public static MetadataIndex.Delta syncIndex() throws IOException {
+    MetadataIndex index = getIndex();
+    String token = index.getStartPageToken();
+    if (token == null) {   // nothing indexed yet, the listing will pick everything up
+      ensureStartPageToken();   // keeps a token recorded by a listing started in the meantime
+      return new MetadataIndex.Delta(Collections.emptyList(), Collections.emptySet());
     }
 
-    System.out.println(destFilePath + ", " + mimetype);
-    OutputStream outputStream = new FileOutputStream(destFilePath);
-    if (isDocsDownload) {
-      service.files().export(file.Id, mimetype).executeMediaAndDownloadTo(outputStream);
-    } else {
-      service.files().get(file.Id).executeMediaAndDownloadTo(outputStream);
+    DriveClient.ChangeSet changeSet = client.listChanges(token);
+    System.out.println(changeSet.changes.size() + " changed files since last refresh");
+    return applyChanges(index, changeSet.changes, changeSet.newStartPageToken);
+  }
+
+  /**
+   * Applies changes to the local index and to the search index built from it
+   *
+   * @param index The local index
+   * @param changes Changed files by id, null values mark removed files
+   * @param newStartPageToken Token to request the changes made after these, null for changes made by this
+   *                          application, which leave the token as it is
+   * @return The changes applied to the index
+   */
+  private static MetadataIndex.Delta applyChanges(MetadataIndex index, Map<String, DriveFile> changes,
+                                                  String newStartPageToken) throws IOException {
+    synchronized (index) {
+      MetadataIndex.Delta delta = newStartPageToken == null ? index.applyChanges(changes)
+              : index.applyChanges(changes, newStartPageToken);
+      updateSearchIndex(search -> search.apply(delta));
+      return delta;
     }
-    outputStream.close();
+  }
+
+  /**
+   * Downloads a file from Google Drive
+   *
+   * @param file The desired Google Drive file to be downloaded represented as a DriveFile object
+   * @param destination The desired local target directory for the file to be downloaded to
+   */
+  public static void downloadFile(DriveFile file, String destination) throws Exception {
+    client.downloadFile(file, destination);
   }
 
   /**
@@ -183,17 +573,21 @@ public class DriveMain {
    * @return The uploaded file represented as a DriveFile object
    */
   public static DriveFile uploadFile(String source) throws IOException {
-    String extension = source.substring(source.lastIndexOf("."), source.length());
-
-    FileContent mediaContent = new FileContent(EXTENSION_MIMETYPE_MAP.get(extension), new java.io.File(source));
-
-    File fileMetadata = new File();
-    fileMetadata.setName(source.substring(source.lastIndexOf("/")+1,source.lastIndexOf(".")));
+    return client.uploadFile(source);
+  }
 
-    System.out.println(mediaContent + ", " + fileMetadata);
-    File file = service.files().create(fileMetadata, mediaContent)
-            .execute();
-    return new DriveFile(file.getId(), file.getName(), file.getMimeType(), file.getModifiedTime());
+  /**
+   * Upload a file from local system to Google Drive in chunks using a resumable upload session. If a previous
+   * upload of the same file was interrupted, even by an application restart, it continues where it stopped.
+   *
+   * @param source The path of the desired file to be uploaded to Google Drive
+   * @param chunkSize Number of bytes sent per request, a multiple of {@link ResumableUpload#CHUNK_GRANULARITY}
+   * @param listener Receives progress updates after every chunk, may be null
+   * @return The uploaded file represented as a DriveFile object
+   */
+  public static DriveFile uploadFileResumable(String source, int chunkSize, ResumableUpload.ProgressListener listener)
+          throws IOException {
+    return client.uploadFileResumable(source, chunkSize, listener);
   }
 
   /**
@@ -202,7 +596,257 @@ public class DriveMain {
    * @param file The desired file to be deleted represented as a DriveFile object
    */
   public static void deleteFile(DriveFile file) throws IOException {
-    service.files().delete(file.Id).execute();
-    System.out.println("File deleted successfully");
+    client.deleteFile(file);
+  }
+
+  /**
+   * Mirrors a Google Drive folder and a local directory in both directions
+   *
+   * @param folderId Id of the Drive folder, "root" for My Drive
+   * @param directory The desired local directory, created if missing
+   * @return Counts of the transfers and the failures
+   */
+  public static FolderSync.Result syncFolder(String folderId, String directory) throws IOException, InterruptedException {
+    return syncFolder(folderId, directory, MAX_CONCURRENT_CALLS);
+  }
+
+  /**
+   * Mirrors a Google Drive folder and a local directory in both directions
+   *
+   * @param folderId Id of the Drive folder, "root" for My Drive
+   * @param directory The desired local directory, created if missing
+   * @param parallelism Number of transfers running at the same time
+   * @return Counts of the transfers and the failures
+   */
+  public static FolderSync.Result syncFolder(String folderId, String directory, int parallelism)
+          throws IOException, InterruptedException {
+    return new FolderSync(client, parallelism).sync(folderId, java.nio.file.Paths.get(directory));
+  }
+
+  /**
+   * Creates a queue of transfers made with the shared client, separate from the one of {@link #getTransfers()}
+   *
+   * @param parallelism Maximum number of transfers running at once, in each direction and in total
+   * @return The new queue, recording into the shared metrics
+   */
+  public static TransferManager newTransfers(int parallelism) {
+    return new TransferManager(client, parallelism, parallelism, parallelism).setMetrics(METRICS);
+  }
+
+  /**
+   * Records the outcome of a batch in the local index, so the table can be updated without listing again
+   *
+   * @param result The outcome of the batch
+   * @param removed True if the succeeded files were deleted, false if they were modified
+   */
+  private static void updateIndex(BatchResult result, boolean removed) throws IOException {
+    MetadataIndex index = getIndex();
+    Map<String, DriveFile> changes = new LinkedHashMap<>();
+    for (DriveFile file : result.succeeded) {
+      changes.put(file.Id, removed ? null : file);
+    }
+    applyChanges(index, changes, null);
+  }
+
+  /**
+   * Delete several files from Google Drive using batch requests
+   *
+   * @param files The desired files to be deleted represented as DriveFile objects
+   * @return Per-file outcome of the deletion
+   */
+  public static BatchResult deleteFiles(List<DriveFile> files) throws IOException {
+    BatchResult result = client.deleteFiles(files);
+    updateIndex(result, true);
+    return result;
+  }
+
+  /**
+   * Rename several files on Google Drive using batch requests
+   *
+   * @param newNames The desired files to be renamed mapped to their new names
+   * @return Per-file outcome of the renaming, succeeded files carry their new metadata
+   */
+  public static BatchResult renameFiles(Map<DriveFile, String> newNames) throws IOException {
+    BatchResult result = client.renameFiles(newNames);
+    updateIndex(result, false);
+    return result;
+  }
+
+  /**
+   * Move several files into a Google Drive folder using batch requests
+   *
+   * @param files The desired files to be moved represented as DriveFile objects
+   * @param folderId Id of the destination folder
+   * @return Per-file outcome of the move, succeeded files carry their new metadata
+   */
+  public static BatchResult moveFiles(List<DriveFile> files, String folderId) throws IOException {
+    BatchResult result = client.moveFiles(files, folderId);
+    updateIndex(result, false);
+    return result;
+  }
+
+  /**
+   * Asynchronous version of {@link #getFiles(boolean)}
+   *
+   * @param startOver start query from the beginning when set to true
+   * @return Future of the list of Google Drive files represented as DriveFile objects
+   */
+  public static CompletableFuture<List<DriveFile>> getFilesAsync(boolean startOver) {
+    return runAsync(() -> getFiles(startOver));
+  }
+
+  /**
+   * Asynchronous version of {@link #deleteFiles(List)}
+   *
+   * @param files The desired files to be deleted represented as DriveFile objects
+   * @return Future of the per-file outcome of the deletion
+   */
+  public static CompletableFuture<BatchResult> deleteFilesAsync(List<DriveFile> files) {
+    return runAsync(() -> deleteFiles(files));
+  }
+
+  /**
+   * Asynchronous version of {@link #renameFiles(Map)}
+   *
+   * @param newNames The desired files to be renamed mapped to their new names
+   * @return Future of the per-file outcome of the renaming
+   */
+  public static CompletableFuture<BatchResult> renameFilesAsync(Map<DriveFile, String> newNames) {
+    return runAsync(() -> renameFiles(newNames));
+  }
+
+  /**
+   * Asynchronous version of {@link #moveFiles(List, String)}
+   *
+   * @param files The desired files to be moved represented as DriveFile objects
+   * @param folderId Id of the destination folder
+   * @return Future of the per-file outcome of the move
+   */
+  public static CompletableFuture<BatchResult> moveFilesAsync(List<DriveFile> files, String folderId) {
+    return runAsync(() -> moveFiles(files, folderId));
+  }
+
+  /**
+   * Asynchronous version of {@link #loadNextIndexPage()}
+   *
+   * @return Future of the files added to the index
+   */
+  public static CompletableFuture<List<DriveFile>> loadNextIndexPageAsync() {
+    return runAsync(DriveMain::loadNextIndexPage);
+  }
+
+  /**
+   * Asynchronous version of {@link #addIndexPage(ListingPrefetcher.Page)}, adding a page writes the journal and
+   * may wait for the index
+   *
+   * @return Future of the files added to the index
+   */
+  public static CompletableFuture<List<DriveFile>> addIndexPageAsync(ListingPrefetcher.Page page) {
+    return runAsync(() -> addIndexPage(page));
+  }
+
+  /**
+   * Asynchronous version of {@link #syncIndex()}
+   *
+   * @return Future of the changes applied to the index
+   */
+  public static CompletableFuture<MetadataIndex.Delta> syncIndexAsync() {
+    return runAsync(DriveMain::syncIndex);
+  }
+
+  /**
+   * Asynchronous version of {@link #getIndex()}, loading a large index takes seconds
+   *
+   * @return Future of the metadata index
+   */
+  public static CompletableFuture<MetadataIndex> getIndexAsync() {
+    return runAsync(DriveMain::getIndex);
+  }
+
+  /**
+   * Asynchronous version of {@link #getSearchIndex()}, building a large index takes seconds
+   *
+   * @return Future of the search index
+   */
+  public static CompletableFuture<SearchIndex> getSearchIndexAsync() {
+    return runAsync(DriveMain::getSearchIndex);
+  }
+
+  /**
+   * Searches the search index on a thread of its own. Searches wait while pages or changes are being added to the
+   * index, a search cancelled before it started is skipped.
+   *
+   * @param query The search
+   * @return Future of the matching files as table rows
+   */
+  public static CompletableFuture<FileStore> searchAsync(SearchIndex.Query query) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return new FileStore(getSearchIndex().search(query));
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      }
+    }, SEARCH_EXECUTOR);
+  }
+
+  /**
+   * Asynchronous version of {@link #downloadFile(DriveFile, String)}
+   *
+   * @param file The desired Google Drive file to be downloaded represented as a DriveFile object
+   * @param destination The desired local target directory for the file to be downloaded to
+   * @return Future completed once the download has finished
+   */
+  public static CompletableFuture<Void> downloadFileAsync(DriveFile file, String destination) {
+    return runAsync(() -> {
+      downloadFile(file, destination);
+      return null;
+    });
+  }
+
+  /**
+   * Asynchronous version of {@link #uploadFile(String)}
+   *
+   * @param source The path of the desired file to be uploaded to Google Drive
+   * @return Future of the uploaded file represented as a DriveFile object
+   */
+  public static CompletableFuture<DriveFile> uploadFileAsync(String source) {
+    return runAsync(() -> uploadFile(source));
+  }
+
+  /**
+   * Asynchronous version of {@link #uploadFileResumable(String, int, ResumableUpload.ProgressListener)}
+   *
+   * @param source The path of the desired file to be uploaded to Google Drive
+   * @param chunkSize Number of bytes sent per request, a multiple of {@link ResumableUpload#CHUNK_GRANULARITY}
+   * @param listener Receives progress updates after every chunk, may be null
+   * @return Future of the uploaded file represented as a DriveFile object
+   */
+  public static CompletableFuture<DriveFile> uploadFileResumableAsync(String source, int chunkSize,
+                                                                      ResumableUpload.ProgressListener listener) {
+    return runAsync(() -> uploadFileResumable(source, chunkSize, listener));
+  }
+
+  /**
+   * Asynchronous version of {@link #syncFolder(String, String)}
+   *
+   * @param folderId Id of the Drive folder, "root" for My Drive
+   * @param directory The desired local directory, created if missing
+   * @return Future of the counts of the transfers and the failures
+   */
+  public static CompletableFuture<FolderSync.Result> syncFolderAsync(String folderId, String directory) {
+    return runAsync(() -> syncFolder(folderId, directory));
+  }
+
+  /**
+   * Asynchronous version of {@link #deleteFile(DriveFile)}
+   *
+   * @param file The desired file to be deleted represented as a DriveFile object
+   * @return Future completed once the file has been deleted
+   */
+  public static CompletableFuture<Void> deleteFileAsync(DriveFile file) {
+    return runAsync(() -> {
+      deleteFile(file);
+      return null;
+    });
   }
 }
\ No newline at end of file
@@ -0,0 +1,522 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the calls made to Google Drive and of the transfers, recorded by
+ * {@link RequestScheduler} and {@link TransferManager}. Recording only adds to {@link LongAdder}s which exist from
+ * the start, so it takes no locks and allocates nothing, and the metrics can stay on in production.
+ * <p>
+ * The metrics are read by the diagnostics view and can be written periodically to a JSON file and to a file in
+ * the Prometheus text format, see {@link #startWriting(Path, long)}.
+ */
+public class DriveMetrics {
+    /** Upper bounds of the histogram buckets in milliseconds, a last bucket holds everything slower */
+    static final long[] BUCKET_BOUNDS_MILLIS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000,
+            60000};
+    private static final int MAX_STATUS = 600;   // response codes are counted up to this, 0 counts I/O errors
+
+    /**
+     * Kind of a Drive call, told from its method and URL
+     */
+    public enum Operation {
+        LIST, GET, DOWNLOAD, EXPORT, CREATE, UPDATE, DELETE, UPLOAD, CHANGES, BATCH, OTHER;
+
+        /**
+         * @param method HTTP method of the request
+         * @param url URL of the request
+         * @return The kind of call
+         */
+        static Operation of(String method, String url) {
+            if (url.contains("/batch")) {
+                return BATCH;
+            }
+            if (url.contains("/upload/")) {
+                return UPLOAD;
+            }
+            if (url.contains("alt=media")) {
+                return url.contains("/export") ? EXPORT : DOWNLOAD;
+            }
+            if (url.contains("/export")) {
+                return EXPORT;
+            }
+            if (url.contains("/changes")) {
+                return CHANGES;
+            }
+            int files = url.indexOf("/files");
+            if (files < 0) {
+                return OTHER;
+            }
+            boolean collection = url.length() == files + 6 || url.charAt(files + 6) == '?';
+            switch (method) {
+                case "GET":
+                    return collection ? LIST : GET;
+                case "POST":
+                    return CREATE;
+                case "PATCH":
+                case "PUT":
+                    return UPDATE;
+                case "DELETE":
+                    return DELETE;
+                default:
+                    return OTHER;
+            }
+        }
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Distribution of durations over fixed buckets, see {@link #BUCKET_BOUNDS_MILLIS}
+     */
+    public static final class Histogram {
+        private static final long[] BOUNDS_NANOS = new long[BUCKET_BOUNDS_MILLIS.length];
+        static {
+            for (int i = 0; i < BOUNDS_NANOS.length; i++) {
+                BOUNDS_NANOS[i] = TimeUnit.MILLISECONDS.toNanos(BUCKET_BOUNDS_MILLIS[i]);
+            }
+        }
+
+        private final LongAdder[] counts = new LongAdder[BOUNDS_NANOS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            int bucket = 0;
+            while (bucket < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[bucket]) {
+                bucket++;
+            }
+            counts[bucket].increment();
+            sumNanos.add(nanos);
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (LongAdder bucket : counts) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        /**
+         * @return Number of durations in the bucket, the last bucket is unbounded
+         */
+        public long getBucketCount(int bucket) {
+            return counts[bucket].sum();
+        }
+
+        public double getSumSeconds() {
+            return sumNanos.sum() / 1e9;
+        }
+
+        /**
+         * @return Mean duration in milliseconds, 0 if nothing was recorded
+         */
+        public double getMeanMillis() {
+            long count = getCount();
+            return count == 0 ? 0 : sumNanos.sum() / 1e6 / count;
+        }
+
+        /**
+         * @param quantile Quantile between 0 and 1, like 0.95
+         * @return Upper bound in milliseconds of the bucket holding the quantile, -1 if nothing was recorded and
+         *         {@link Long#MAX_VALUE} if it is beyond the last bound
+         */
+        public long getPercentileMillis(double quantile) {
+            long count = getCount();
+            if (count == 0) {
+                return -1;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i].sum();
+                if (seen >= rank) {
+                    return i < BUCKET_BOUNDS_MILLIS.length ? BUCKET_BOUNDS_MILLIS[i] : Long.MAX_VALUE;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Metrics of one kind of call
+     */
+    public static final class OperationMetrics {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final Histogram latency = new Histogram();
+        private final Histogram queueWait = new Histogram();
+
+        /**
+         * @return Number of completed calls, each counted once however often it was retried
+         */
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        /**
+         * @return Number of calls which finally failed with an error response or an I/O error
+         */
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getRetries() {
+            return retries.sum();
+        }
+
+        /**
+         * @return Bytes of request content, of the requests declaring their length
+         */
+        public long getBytesSent() {
+            return bytesSent.sum();
+        }
+
+        /**
+         * @return Bytes of response content, of the responses declaring their length
+         */
+        public long getBytesReceived() {
+            return bytesReceived.sum();
+        }
+
+        /**
+         * @return Durations of the calls from the first attempt to the final response, retries included
+         */
+        public Histogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return Time the calls waited for admission by the rate limiter, all attempts added up
+         */
+        public Histogram getQueueWait() {
+            return queueWait;
+        }
+    }
+
+    /**
+     * Metrics of the uploads or the downloads of a {@link TransferManager}
+     */
+    public static final class TransferMetrics {
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final Histogram duration = new Histogram();
+
+        public long getCompleted() {
+            return completed.sum();
+        }
+
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        /**
+         * @return Bytes moved by completed and failed transfers
+         */
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public Histogram getDuration() {
+            return duration;
+        }
+    }
+
+    private final OperationMetrics[] operations = new OperationMetrics[Operation.values().length];
+    private final TransferMetrics[] transfers = new TransferMetrics[TransferManager.Direction.values().length];
+    private final LongAdder[] statusCounts = new LongAdder[MAX_STATUS];
+    private ScheduledExecutorService writer;
+
+    public DriveMetrics() {
+        for (int i = 0; i < operations.length; i++) {
+            operations[i] = new OperationMetrics();
+        }
+        for (int i = 0; i < transfers.length; i++) {
+            transfers[i] = new TransferMetrics();
+        }
+        for (int i = 0; i < statusCounts.length; i++) {
+            statusCounts[i] = new LongAdder();
+        }
+    }
+
+    public OperationMetrics get(Operation operation) {
+        return operations[operation.ordinal()];
+    }
+
+    public TransferMetrics get(TransferManager.Direction direction) {
+        return transfers[direction.ordinal()];
+    }
+
+    /**
+     * @param status HTTP response code, 0 for I/O errors
+     * @return Number of attempts which ended with the response code, retried ones included
+     */
+    public long getStatusCount(int status) {
+        return status >= 0 && status < MAX_STATUS ? statusCounts[status].sum() : 0;
+    }
+
+    /**
+     * Records a call which got its final response or failed for good
+     *
+     * @param status HTTP response code, 0 for an I/O error
+     * @param latencyNanos Time from the first attempt to the final response
+     * @param queueWaitNanos Time spent waiting for the rate limiter
+     * @param bytesSent Length of the request content, -1 if unknown
+     * @param bytesReceived Length of the response content, -1 if unknown
+     */
+    void recordCall(Operation operation, int status, long latencyNanos, long queueWaitNanos, long bytesSent,
+                    long bytesReceived) {
+        OperationMetrics metrics = operations[operation.ordinal()];
+        metrics.calls.increment();
+        if (status == 0 || status >= 400) {
+            metrics.errors.increment();
+        }
+        metrics.latency.record(latencyNanos);
+        metrics.queueWait.record(queueWaitNanos);
+        if (bytesSent > 0) {
+            metrics.bytesSent.add(bytesSent);
+        }
+        if (bytesReceived > 0) {
+            metrics.bytesReceived.add(bytesReceived);
+        }
+        countStatus(status);
+    }
+
+    /**
+     * Records an attempt which is about to be retried
+     *
+     * @param status HTTP response code of the attempt, 0 for an I/O error
+     */
+    void recordRetry(Operation operation, int status) {
+        operations[operation.ordinal()].retries.increment();
+        countStatus(status);
+    }
+
+    /**
+     * Records a transfer which completed or failed
+     *
+     * @param bytes Bytes moved
+     * @param nanos Running time of the transfer
+     */
+    void recordTransfer(TransferManager.Direction direction, long bytes, long nanos, boolean succeeded) {
+        TransferMetrics metrics = transfers[direction.ordinal()];
+        (succeeded ? metrics.completed : metrics.failed).increment();
+        metrics.bytes.add(Math.max(0, bytes));
+        metrics.duration.record(nanos);
+    }
+
+    private void countStatus(int status) {
+        if (status >= 0 && status < MAX_STATUS) {
+            statusCounts[status].increment();
+        }
+    }
+
+    /**
+     * @return The metrics as a JSON object, kinds of calls never made are left out
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"operations\":{");
+        String separator = "";
+        for (Operation operation : Operation.values()) {
+            OperationMetrics metrics = get(operation);
+            if (metrics.getCalls() == 0 && metrics.getRetries() == 0) {
+                continue;
+            }
+            json.append(separator).append('"').append(operation.label()).append("\":{")
+                    .append("\"calls\":").append(metrics.getCalls())
+                    .append(",\"errors\":").append(metrics.getErrors())
+                    .append(",\"retries\":").append(metrics.getRetries())
+                    .append(",\"bytesSent\":").append(metrics.getBytesSent())
+                    .append(",\"bytesReceived\":").append(metrics.getBytesReceived())
+                    .append(",\"latencyMillis\":");
+            appendJson(json, metrics.getLatency());
+            json.append(",\"queueWaitMillis\":");
+            appendJson(json, metrics.getQueueWait());
+            json.append('}');
+            separator = ",";
+        }
+        json.append("},\"responses\":{");
+        separator = "";
+        for (int status = 0; status < MAX_STATUS; status++) {
+            long count = getStatusCount(status);
+            if (count > 0) {
+                json.append(separator).append('"').append(status == 0 ? "io_error" : String.valueOf(status))
+                        .append("\":").append(count);
+                separator = ",";
+            }
+        }
+        json.append("},\"transfers\":{");
+        separator = "";
+        for (TransferManager.Direction direction : TransferManager.Direction.values()) {
+            TransferMetrics metrics = get(direction);
+            json.append(separator).append('"').append(direction.name().toLowerCase(Locale.ROOT)).append("\":{")
+                    .append("\"completed\":").append(metrics.getCompleted())
+                    .append(",\"failed\":").append(metrics.getFailed())
+                    .append(",\"bytes\":").append(metrics.getBytes())
+                    .append(",\"durationMillis\":");
+            appendJson(json, metrics.getDuration());
+            json.append('}');
+            separator = ",";
+        }
+        return json.append("}}").toString();
+    }
+
+    private static void appendJson(StringBuilder json, Histogram histogram) {
+        json.append("{\"count\":").append(histogram.getCount())
+                .append(",\"mean\":").append(String.format(Locale.ROOT, "%.3f", histogram.getMeanMillis()))
+                .append(",\"p50\":").append(jsonPercentile(histogram, 0.5))
+                .append(",\"p95\":").append(jsonPercentile(histogram, 0.95))
+                .append(",\"p99\":").append(jsonPercentile(histogram, 0.99))
+                .append('}');
+    }
+
+    private static String jsonPercentile(Histogram histogram, double quantile) {
+        long millis = histogram.getPercentileMillis(quantile);
+        return millis < 0 || millis == Long.MAX_VALUE ? "null" : String.valueOf(millis);
+    }
+
+    /**
+     * @return The metrics in the Prometheus text exposition format
+     */
+    public String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        text.append("# HELP drive_request_duration_seconds Duration of Drive calls including retries\n")
+                .append("# TYPE drive_request_duration_seconds histogram\n");
+        for (Operation operation : Operation.values()) {
+            appendPrometheus(text, "drive_request_duration_seconds", "operation=\"" + operation.label() + "\"",
+                    get(operation).getLatency());
+        }
+        text.append("# HELP drive_request_queue_wait_seconds Time Drive calls waited for the rate limiter\n")
+                .append("# TYPE drive_request_queue_wait_seconds histogram\n");
+        for (Operation operation : Operation.values()) {
+            appendPrometheus(text, "drive_request_queue_wait_seconds", "operation=\"" + operation.label() + "\"",
+                    get(operation).getQueueWait());
+        }
+        appendCounter(text, "drive_request_errors_total", "Drive calls which failed for good");
+        for (Operation operation : Operation.values()) {
+            text.append("drive_request_errors_total{operation=\"").append(operation.label()).append("\"} ")
+                    .append(get(operation).getErrors()).append('\n');
+        }
+        appendCounter(text, "drive_request_retries_total", "Attempts of Drive calls which were retried");
+        for (Operation operation : Operation.values()) {
+            text.append("drive_request_retries_total{operation=\"").append(operation.label()).append("\"} ")
+                    .append(get(operation).getRetries()).append('\n');
+        }
+        appendCounter(text, "drive_request_bytes_total", "Content bytes of Drive calls declaring their length");
+        for (Operation operation : Operation.values()) {
+            OperationMetrics metrics = get(operation);
+            text.append("drive_request_bytes_total{operation=\"").append(operation.label())
+                    .append("\",direction=\"sent\"} ").append(metrics.getBytesSent()).append('\n')
+                    .append("drive_request_bytes_total{operation=\"").append(operation.label())
+                    .append("\",direction=\"received\"} ").append(metrics.getBytesReceived()).append('\n');
+        }
+        appendCounter(text, "drive_responses_total", "Attempts by response code, 0 for I/O errors");
+        for (int status = 0; status < MAX_STATUS; status++) {
+            long count = getStatusCount(status);
+            if (count > 0) {
+                text.append("drive_responses_total{code=\"").append(status).append("\"} ").append(count).append('\n');
+            }
+        }
+        appendCounter(text, "drive_transfers_total", "Finished transfers by outcome");
+        appendCounter(text, "drive_transfer_bytes_total", "Bytes moved by finished transfers");
+        for (TransferManager.Direction direction : TransferManager.Direction.values()) {
+            TransferMetrics metrics = get(direction);
+            String label = "direction=\"" + direction.name().toLowerCase(Locale.ROOT) + "\"";
+            text.append("drive_transfers_total{").append(label).append(",outcome=\"completed\"} ")
+                    .append(metrics.getCompleted()).append('\n')
+                    .append("drive_transfers_total{").append(label).append(",outcome=\"failed\"} ")
+                    .append(metrics.getFailed()).append('\n')
+                    .append("drive_transfer_bytes_total{").append(label).append("} ")
+                    .append(metrics.getBytes()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static void appendCounter(StringBuilder text, String name, String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" counter\n");
+    }
+
+    private static void appendPrometheus(StringBuilder text, String name, String labels, Histogram histogram) {
+        long cumulative = 0;
+        for (int i = 0; i <= BUCKET_BOUNDS_MILLIS.length; i++) {
+            cumulative += histogram.getBucketCount(i);
+            String bound = i < BUCKET_BOUNDS_MILLIS.length
+                    ? String.format(Locale.ROOT, "%.3f", BUCKET_BOUNDS_MILLIS[i] / 1000.0) : "+Inf";
+            text.append(name).append("_bucket{").append(labels).append(",le=\"").append(bound).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        text.append(name).append("_sum{").append(labels).append("} ")
+                .append(String.format(Locale.ROOT, "%.6f", histogram.getSumSeconds())).append('\n')
+                .append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+    }
+
+    /**
+     * Writes drive-metrics.json and drive-metrics.prom into the given directory, replacing the previous files
+     * atomically so readers never see a partial file
+     */
+    public void writeTo(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        write(directory.resolve("drive-metrics.json"), toJson());
+        write(directory.resolve("drive-metrics.prom"), toPrometheus());
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes the metrics to the given directory periodically on a daemon thread, see {@link #writeTo(Path)}. Does
+     * nothing if the metrics are written already.
+     *
+     * @param periodSeconds Seconds between two writes
+     */
+    public synchronized void startWriting(Path directory, long periodSeconds) {
+        if (writer != null) {
+            return;
+        }
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "drive-metrics-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(() -> {
+            try {
+                writeTo(directory);
+            } catch (IOException e) {
+                System.out.println("Could not write the metrics: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops writing the metrics periodically
+     */
+    public synchronized void stopWriting() {
+        if (writer != null) {
+            writer.shutdown();
+            writer = null;
+        }
+    }
+}
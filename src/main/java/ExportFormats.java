@@ -0,0 +1,100 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chooses the format Google Docs, Sheets, Slides and the other Google Workspace types are exported to. Each type
+ * has a list of preferred export MIMETYPEs, the first one Drive offers for the type wins. Types without
+ * preferences, or offering none of them, are exported to PDF if possible and otherwise to the first format
+ * Drive lists.
+ */
+public class ExportFormats {
+    public static final String FALLBACK_MIMETYPE = "application/pdf";
+
+    /** Export MIMETYPE mapped to file extension */
+    private static final Map<String, String> EXTENSIONS = new HashMap<>();
+    static {
+        EXTENSIONS.put("application/vnd.openxmlformats-officedocument.wordprocessingml.document", ".docx");
+        EXTENSIONS.put("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", ".xlsx");
+        EXTENSIONS.put("application/vnd.openxmlformats-officedocument.presentationml.presentation", ".pptx");
+        EXTENSIONS.put("application/vnd.oasis.opendocument.text", ".odt");
+        EXTENSIONS.put("application/vnd.oasis.opendocument.spreadsheet", ".ods");
+        EXTENSIONS.put("application/x-vnd.oasis.opendocument.spreadsheet", ".ods");
+        EXTENSIONS.put("application/vnd.oasis.opendocument.presentation", ".odp");
+        EXTENSIONS.put("application/rtf", ".rtf");
+        EXTENSIONS.put("application/epub+zip", ".epub");
+        EXTENSIONS.put("application/zip", ".zip");
+        EXTENSIONS.put("application/pdf", ".pdf");
+        EXTENSIONS.put("application/vnd.google-apps.script+json", ".json");
+        EXTENSIONS.put("text/csv", ".csv");
+        EXTENSIONS.put("text/tab-separated-values", ".tsv");
+        EXTENSIONS.put("text/plain", ".txt");
+        EXTENSIONS.put("text/html", ".html");
+        EXTENSIONS.put("text/markdown", ".md");
+        EXTENSIONS.put("image/jpeg", ".jpg");
+        EXTENSIONS.put("image/png", ".png");
+        EXTENSIONS.put("image/svg+xml", ".svg");
+    }
+
+    private final Map<String, List<String>> preferences = new LinkedHashMap<>();
+
+    /**
+     * @return Formats keeping the documents and spreadsheets exported as before, as DOCX and CSV, and the other
+     *         types in their Office or image equivalent
+     */
+    public static ExportFormats defaults() {
+        return new ExportFormats()
+                .prefer("application/vnd.google-apps.document",
+                        "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+                        "application/vnd.oasis.opendocument.text")
+                .prefer("application/vnd.google-apps.spreadsheet",
+                        "text/csv",
+                        "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet")
+                .prefer("application/vnd.google-apps.presentation",
+                        "application/vnd.openxmlformats-officedocument.presentationml.presentation",
+                        "application/vnd.oasis.opendocument.presentation")
+                .prefer("application/vnd.google-apps.drawing", "image/png", "image/svg+xml")
+                .prefer("application/vnd.google-apps.script", "application/vnd.google-apps.script+json")
+                .prefer("application/vnd.google-apps.site", "text/plain");
+    }
+
+    /**
+     * Sets the formats a type is exported to, replacing its previous preferences
+     *
+     * @param googleType Google Workspace MIMETYPE, like application/vnd.google-apps.document
+     * @param exportMimetypes Export MIMETYPEs, most preferred first
+     */
+    public ExportFormats prefer(String googleType, String... exportMimetypes) {
+        preferences.put(googleType, List.of(exportMimetypes));
+        return this;
+    }
+
+    /**
+     * @param googleType Google Workspace MIMETYPE of a file
+     * @param available Export MIMETYPEs Drive offers for the type, null if unknown
+     * @return The export MIMETYPE to use, null if the type cannot be exported
+     */
+    public String choose(String googleType, Collection<String> available) {
+        List<String> candidates = new ArrayList<>(preferences.getOrDefault(googleType, List.of()));
+        if (available == null) {   // trust the preferences, as the formats Drive offers are not known
+            return candidates.isEmpty() ? FALLBACK_MIMETYPE : candidates.get(0);
+        }
+        candidates.add(FALLBACK_MIMETYPE);
+        for (String candidate : candidates) {
+            if (available.contains(candidate)) {
+                return candidate;
+            }
+        }
+        return available.isEmpty() ? null : available.iterator().next();
+    }
+
+    /**
+     * @return File extension for the given export MIMETYPE including the dot, empty if there is none
+     */
+    public static String extension(String exportMimetype) {
+        return EXTENSIONS.getOrDefault(exportMimetype, "");
+    }
+}
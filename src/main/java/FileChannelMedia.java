@@ -0,0 +1,163 @@
+import com.google.api.client.http.AbstractHttpContent;
+import com.google.api.client.http.HttpContent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.function.LongConsumer;
+
+/**
+ * Local side of uploads and downloads through {@link FileChannel}s. Upload chunks are read in small slices into
+ * one buffer reused for the whole upload while they are sent, instead of into a chunk-sized heap array first, and
+ * download bodies are written at their offset with {@link FileChannel#transferFrom}, which moves them through the
+ * JDK's cached direct buffers. The HTTP client only offers streams, so an upload still copies every byte from the
+ * file into the heap as the chunk-sized array did; what is saved is that array, not a copy.
+ */
+public class FileChannelMedia {
+    /** Bytes written per transferFrom call, progress is reported at this granularity */
+    static final int SLICE_SIZE = 1024 * 1024;
+    /** Bytes written between two syncs with {@link SyncPolicy#PERIODIC} */
+    static final long SYNC_INTERVAL = 64L * 1024 * 1024;
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * When downloaded content is forced from the page cache to the storage device
+     */
+    public enum SyncPolicy {
+        /** Leave writing back to the operating system, a crash right after a download may lose its end */
+        NONE,
+        /** Force the content to the device before the download is reported complete */
+        ON_COMPLETE,
+        /**
+         * Also force every {@link #SYNC_INTERVAL} bytes, so a large download does not pile up dirty pages and
+         * the final sync does not stall
+         */
+        PERIODIC
+    }
+
+    private FileChannelMedia() {
+    }
+
+    /**
+     * @return A buffer for {@link #region}, to be reused for all the chunks of one upload
+     */
+    public static ByteBuffer newTransferBuffer() {
+        return ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+    }
+
+    /**
+     * @param mimeType MIMETYPE of the content, may be null
+     * @param channel Channel of the file, left open
+     * @param position Offset of the first byte to be sent
+     * @param length Number of bytes to be sent
+     * @param buffer Buffer the bytes are read into while they are sent, see {@link #newTransferBuffer()}
+     * @return Content sending the given bytes of the file, which can be sent again when a request is retried
+     */
+    public static HttpContent region(String mimeType, FileChannel channel, long position, long length,
+                                     ByteBuffer buffer) {
+        return new RegionContent(mimeType, channel, position, length, buffer);
+    }
+
+    /**
+     * Writes a stream into a file at the given offset
+     *
+     * @param in The content, read up to count bytes or its end
+     * @param channel Channel of the file, left open
+     * @param position Offset of the first byte to be written, at most the current size of the file
+     * @param count Maximum number of bytes to be written, Long.MAX_VALUE to read the stream to its end
+     * @param policy Whether the written bytes are synced along the way, see {@link SyncPolicy#PERIODIC}
+     * @param progress Receives the number of bytes of every write, may be null
+     * @return The number of bytes written
+     */
+    public static long receive(InputStream in, FileChannel channel, long position, long count, SyncPolicy policy,
+                               LongConsumer progress) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(in);
+        long received = 0;
+        long unsynced = 0;
+        while (received < count) {
+            long transferred = channel.transferFrom(source, position + received,
+                    Math.min(SLICE_SIZE, count - received));
+            if (transferred == 0) {   // end of the stream
+                break;
+            }
+            received += transferred;
+            unsynced += transferred;
+            if (policy == SyncPolicy.PERIODIC && unsynced >= SYNC_INTERVAL) {
+                channel.force(false);
+                unsynced = 0;
+            }
+            if (progress != null) {
+                progress.accept(transferred);
+            }
+        }
+        return received;
+    }
+
+    /**
+     * Forces a completely written file to the device, unless the policy leaves that to the operating system
+     */
+    public static void complete(FileChannel channel, SyncPolicy policy) throws IOException {
+        if (policy != SyncPolicy.NONE) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Reserves the full size of a file up front, so it can be written at any offset in any order
+     */
+    public static void preallocate(FileChannel channel, long size) throws IOException {
+        if (size > channel.size()) {
+            channel.write(ByteBuffer.allocate(1), size - 1);
+        }
+    }
+
+    /**
+     * A region of a file sent as the body of a request
+     */
+    private static class RegionContent extends AbstractHttpContent {
+        private final FileChannel channel;
+        private final long position;
+        private final long length;
+        private final ByteBuffer buffer;
+
+        RegionContent(String mimeType, FileChannel channel, long position, long length, ByteBuffer buffer) {
+            super(mimeType);
+            this.channel = channel;
+            this.position = position;
+            this.length = length;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public boolean retrySupported() {
+            return true;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            if (position + length > channel.size()) {
+                throw new IOException("File changed during upload");
+            }
+            long sent = 0;
+            while (sent < length) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), length - sent));
+                int count = channel.read(buffer, position + sent);
+                if (count < 0) {
+                    throw new IOException("File changed during upload");
+                }
+                out.write(buffer.array(), buffer.arrayOffset(), count);
+                sent += count;
+            }
+            out.flush();
+        }
+    }
+}
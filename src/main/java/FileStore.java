@@ -0,0 +1,447 @@
+import com.google.api.client.util.DateTime;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.ModifiableObservableListBase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Column-oriented observable list of Google Drive files for the rows of large tables. Instead of an object graph
+ * per row, ids and names are stored back to back in a shared char array, MIMETYPEs as codes into a dictionary and
+ * modified times as primitive longs, so a table takes a fraction of the memory a list of DriveFile objects of its
+ * own would take and leaves the garbage collector little to trace. Thumbnail links are only referenced, they are
+ * the strings of the files written. The metadata and search indexes keep their DriveFile objects, the saving is on
+ * the copies held by the tables.
+ * <p>
+ * Reading a row materializes it as a {@link Row}. The most recently read rows are cached, so a table redrawing
+ * the visible rows gets the same objects again, along with the cell values they computed the first time.
+ * <p>
+ * Rows are found by id through an open addressing table of row positions, which compares ids in place in the
+ * chars. Files removed or put by id are applied in one pass and reported to listeners as one change.
+ */
+public class FileStore extends ModifiableObservableListBase<DriveFile> implements RandomAccess {
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int ROW_CACHE_SIZE = 512;   // comfortably more rows than fit on a screen
+
+    /**
+     * A file read from the store. Its cell values are created on first use and kept while the row is cached.
+     */
+    public static final class Row extends DriveFile {
+        private ObservableValue<String> nameValue;
+        private ObservableValue<String> typeValue;
+        private ObservableValue<String> modifiedValue;
+
+        private Row(String id, String name, String type, DateTime lastModifiedDate, String thumbnailLink) {
+            super(id, name, type, lastModifiedDate);
+            ThumbnailLink = thumbnailLink;
+        }
+    }
+
+    private char[] chars = new char[16 * INITIAL_CAPACITY];   // id then name of every row, back to back
+    private int charCount;
+    private int garbageChars;   // chars of rows which have been replaced or removed
+
+    private int[] idStarts = new int[INITIAL_CAPACITY];
+    private int[] nameStarts = new int[INITIAL_CAPACITY];
+    private int[] nameEnds = new int[INITIAL_CAPACITY];
+    private int[] typeCodes = new int[INITIAL_CAPACITY];
+    private long[] modified = new long[INITIAL_CAPACITY];
+    private String[] thumbnailLinks = new String[INITIAL_CAPACITY];   // shared with the files written, not copied
+    private int size;
+
+    private int[] idTable = new int[2 * INITIAL_CAPACITY];   // row + 1 of the file with each id, 0 if empty
+    private boolean idTableStale;   // rows moved since the table was built, rebuilt on the next lookup
+
+    private final Map<String, Integer> typeCodesByName = new HashMap<>();
+    private final List<String> typeNames = new ArrayList<>();
+
+    private final LinkedHashMap<Integer, Row> rows = new LinkedHashMap<>(ROW_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Row> eldest) {
+            return size() > ROW_CACHE_SIZE;
+        }
+    };
+
+    public FileStore() {
+    }
+
+    /**
+     * @param files The initial rows
+     */
+    public FileStore(Collection<? extends DriveFile> files) {
+        addAll(files);
+    }
+
+    /**
+     * @param file A file, typically a row of a table
+     * @return The name of the file as a cell value, cached if the file was read from a store
+     */
+    public static ObservableValue<String> nameValue(DriveFile file) {
+        if (file instanceof Row) {
+            Row row = (Row) file;
+            if (row.nameValue == null) {
+                row.nameValue = new SimpleStringProperty(row.Name);
+            }
+            return row.nameValue;
+        }
+        return new SimpleStringProperty(file.Name);
+    }
+
+    /**
+     * @param file A file, typically a row of a table
+     * @return The MIMETYPE of the file as a cell value, cached if the file was read from a store
+     */
+    public static ObservableValue<String> typeValue(DriveFile file) {
+        if (file instanceof Row) {
+            Row row = (Row) file;
+            if (row.typeValue == null) {
+                row.typeValue = new SimpleStringProperty(row.Type);
+            }
+            return row.typeValue;
+        }
+        return new SimpleStringProperty(file.Type);
+    }
+
+    /**
+     * @param file A file, typically a row of a table
+     * @return The formatted modified time of the file as a cell value, formatted once if the file was read from
+     *         a store
+     */
+    public static ObservableValue<String> modifiedValue(DriveFile file) {
+        if (file instanceof Row) {
+            Row row = (Row) file;
+            if (row.modifiedValue == null) {
+                row.modifiedValue = new SimpleStringProperty(formatDate(row.LastModifiedDate));
+            }
+            return row.modifiedValue;
+        }
+        return new SimpleStringProperty(formatDate(file.LastModifiedDate));
+    }
+
+    private static String formatDate(DateTime date) {
+        return date == null ? "" : date.toString();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public DriveFile get(int index) {
+        checkIndex(index, size);
+        Row row = rows.get(index);
+        if (row == null) {
+            long time = modified[index];
+            row = new Row(getId(index), new String(chars, nameStarts[index], nameEnds[index] - nameStarts[index]),
+                    typeCodes[index] < 0 ? null : typeNames.get(typeCodes[index]),
+                    time == NO_DATE ? null : new DateTime(false, time, 0), thumbnailLinks[index]);
+            rows.put(index, row);
+        }
+        return row;
+    }
+
+    /**
+     * Reads the id of a row without materializing the rest of it
+     */
+    public String getId(int index) {
+        checkIndex(index, size);
+        return new String(chars, idStarts[index], nameStarts[index] - idStarts[index]);
+    }
+
+    /**
+     * Finds the row of a file without materializing any row
+     *
+     * @param id Id of the file
+     * @return Position of its row, -1 if the file is not in the store
+     */
+    public int indexOfId(String id) {
+        if (idTableStale) {
+            rebuildIdTable(idTable.length);
+        }
+        int mask = idTable.length - 1;
+        for (int position = spread(id.hashCode()) & mask; idTable[position] != 0;
+             position = (position + 1) & mask) {
+            if (idEquals(idTable[position] - 1, id)) {
+                return idTable[position] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the rows of the files with the given ids in one pass, as one change
+     *
+     * @param ids Ids of the files to be removed, ids which are not in the store are ignored
+     * @return The number of rows removed
+     */
+    public int removeIds(Collection<String> ids) {
+        int[] removed = new int[ids.size()];
+        int count = 0;
+        for (String id : ids) {
+            int index = indexOfId(id);
+            if (index >= 0) {
+                removed[count++] = index;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        Arrays.sort(removed, 0, count);
+        beginChange();
+        try {
+            int kept = removed[0];
+            int next = 0;
+            for (int index = removed[0]; index < size; index++) {
+                if (next < count && removed[next] == index) {
+                    nextRemove(index - next, get(index));   // positions after the rows removed before it
+                    garbageChars += nameEnds[index] - idStarts[index];
+                    next++;
+                } else {
+                    idStarts[kept] = idStarts[index];
+                    nameStarts[kept] = nameStarts[index];
+                    nameEnds[kept] = nameEnds[index];
+                    typeCodes[kept] = typeCodes[index];
+                    modified[kept] = modified[index];
+                    thumbnailLinks[kept] = thumbnailLinks[index];
+                    kept++;
+                }
+            }
+            Arrays.fill(thumbnailLinks, kept, size, null);
+            size = kept;
+            modCount++;
+            rows.clear();   // cached rows are keyed by their old positions
+            idTableStale = true;
+            compactIfWasteful();
+        } finally {
+            endChange();
+        }
+        return count;
+    }
+
+    /**
+     * Replaces the rows of files already in the store in place and appends the others, as one change
+     *
+     * @param files The new or modified files
+     */
+    public void putAll(Collection<? extends DriveFile> files) {
+        beginChange();
+        try {
+            for (DriveFile file : files) {
+                int index = indexOfId(file.Id);
+                if (index >= 0) {
+                    set(index, file);
+                } else {
+                    add(file);
+                }
+            }
+        } finally {
+            endChange();
+        }
+    }
+
+    @Override
+    protected DriveFile doSet(int index, DriveFile file) {
+        DriveFile previous = get(index);
+        boolean sameId = idEquals(index, file.Id);
+        garbageChars += nameEnds[index] - idStarts[index];
+        write(index, file);
+        rows.remove(index);
+        idTableStale |= !sameId;
+        compactIfWasteful();
+        return previous;
+    }
+
+    @Override
+    protected void doAdd(int index, DriveFile file) {
+        checkIndex(index, size + 1);
+        if (size == idStarts.length) {
+            grow();
+        }
+        if (index < size) {
+            shift(index, index + 1, size - index);
+            rows.clear();   // cached rows are keyed by their old positions
+            idTableStale = true;
+        }
+        size++;
+        write(index, file);
+        if (!idTableStale) {
+            if (2 * size > idTable.length) {
+                rebuildIdTable(2 * idTable.length);
+            } else {
+                insertId(index);
+            }
+        }
+    }
+
+    @Override
+    protected DriveFile doRemove(int index) {
+        DriveFile previous = get(index);
+        garbageChars += nameEnds[index] - idStarts[index];
+        shift(index + 1, index, size - index - 1);
+        size--;
+        thumbnailLinks[size] = null;
+        rows.clear();
+        idTableStale = true;
+        compactIfWasteful();
+        return previous;
+    }
+
+    /**
+     * Removes every row. Unlike removing the rows one by one, it takes no time for the rows left behind.
+     */
+    @Override
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        beginChange();
+        try {
+            nextRemove(0, hasListeners() ? new ArrayList<>(this) : List.of());
+            Arrays.fill(thumbnailLinks, 0, size, null);
+            size = 0;
+            charCount = 0;
+            garbageChars = 0;
+            modCount++;
+            rows.clear();
+            idTable = new int[2 * INITIAL_CAPACITY];
+            idTableStale = false;
+        } finally {
+            endChange();
+        }
+    }
+
+    /**
+     * Stores a file in the columns of a row, appending its id and name to the chars. Drive files always have a
+     * name, a missing one reads back as empty.
+     */
+    private void write(int index, DriveFile file) {
+        int length = file.Id.length() + (file.Name == null ? 0 : file.Name.length());
+        if (charCount + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+        }
+        idStarts[index] = charCount;
+        file.Id.getChars(0, file.Id.length(), chars, charCount);
+        charCount += file.Id.length();
+        nameStarts[index] = charCount;
+        if (file.Name != null) {
+            file.Name.getChars(0, file.Name.length(), chars, charCount);
+            charCount += file.Name.length();
+        }
+        nameEnds[index] = charCount;
+        typeCodes[index] = file.Type == null ? -1 : typeCodesByName.computeIfAbsent(file.Type, type -> {
+            typeNames.add(type);
+            return typeNames.size() - 1;
+        });
+        modified[index] = file.LastModifiedDate == null ? NO_DATE : file.LastModifiedDate.getValue();
+        thumbnailLinks[index] = file.ThumbnailLink;
+    }
+
+    private void shift(int from, int to, int length) {
+        System.arraycopy(idStarts, from, idStarts, to, length);
+        System.arraycopy(nameStarts, from, nameStarts, to, length);
+        System.arraycopy(nameEnds, from, nameEnds, to, length);
+        System.arraycopy(typeCodes, from, typeCodes, to, length);
+        System.arraycopy(modified, from, modified, to, length);
+        System.arraycopy(thumbnailLinks, from, thumbnailLinks, to, length);
+    }
+
+    private void grow() {
+        int capacity = idStarts.length * 2;
+        idStarts = Arrays.copyOf(idStarts, capacity);
+        nameStarts = Arrays.copyOf(nameStarts, capacity);
+        nameEnds = Arrays.copyOf(nameEnds, capacity);
+        typeCodes = Arrays.copyOf(typeCodes, capacity);
+        modified = Arrays.copyOf(modified, capacity);
+        thumbnailLinks = Arrays.copyOf(thumbnailLinks, capacity);
+    }
+
+    /**
+     * Rewrites the chars without those of replaced and removed rows once they make up half of them
+     */
+    private void compactIfWasteful() {
+        if (garbageChars < INITIAL_CAPACITY || garbageChars * 2 < charCount) {
+            return;
+        }
+        char[] compacted = new char[Math.max(16 * INITIAL_CAPACITY, (charCount - garbageChars) * 3 / 2)];
+        int position = 0;
+        for (int i = 0; i < size; i++) {
+            int length = nameEnds[i] - idStarts[i];
+            System.arraycopy(chars, idStarts[i], compacted, position, length);
+            int idLength = nameStarts[i] - idStarts[i];
+            idStarts[i] = position;
+            nameStarts[i] = position + idLength;
+            nameEnds[i] = position + length;
+            position += length;
+        }
+        chars = compacted;
+        charCount = position;
+        garbageChars = 0;
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return The hash of the id of a row, equal to that of the id as a String
+     */
+    private int idHash(int index) {
+        int hash = 0;
+        for (int i = idStarts[index]; i < nameStarts[index]; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        return spread(hash);
+    }
+
+    private boolean idEquals(int index, String id) {
+        int start = idStarts[index];
+        if (nameStarts[index] - start != id.length()) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (chars[start + i] != id.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insertId(int index) {
+        int mask = idTable.length - 1;
+        int position = idHash(index) & mask;
+        while (idTable[position] != 0) {
+            position = (position + 1) & mask;
+        }
+        idTable[position] = index + 1;
+    }
+
+    private void rebuildIdTable(int capacity) {
+        while (capacity > 2 * INITIAL_CAPACITY && capacity >= 4 * size) {   // shrink after removals
+            capacity /= 2;
+        }
+        while (capacity < 2 * size) {
+            capacity *= 2;
+        }
+        idTable = new int[capacity];
+        for (int index = 0; index < size; index++) {
+            insertId(index);
+        }
+        idTableStale = false;
+    }
+
+    private static void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + bound);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import com.google.api.client.util.DateTime;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory cache of complete folder listings with a bound on the number of cached files and least recently used
+ * eviction. Each listing remembers the modified time its folder had when it was listed; asking for it with a
+ * newer modified time, as seen in a fresher listing of the parent, drops it, so a changed folder is listed again.
+ */
+public class FolderCache {
+    /**
+     * The children of a folder along with the modified time of the folder they were listed at
+     */
+    private static class Listing {
+        final DateTime folderModified;
+        final List<DriveFile> files;
+
+        Listing(DateTime folderModified, List<DriveFile> files) {
+            this.folderModified = folderModified;
+            this.files = files;
+        }
+    }
+
+    private final int maxFiles;
+    private final LinkedHashMap<String, Listing> listings = new LinkedHashMap<>(16, 0.75f, true);   // access order
+    private int totalFiles;
+
+    /**
+     * @param maxFiles Maximum number of files kept across all cached listings
+     */
+    public FolderCache(int maxFiles) {
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * @param folderId Id of the folder, "root" for My Drive
+     * @param folderModified Modified time of the folder as currently known, null if unknown
+     * @return The cached children of the folder, null if none are cached or the folder changed since they were
+     */
+    public synchronized List<DriveFile> get(String folderId, DateTime folderModified) {
+        Listing listing = listings.get(folderId);
+        if (listing == null) {
+            return null;
+        }
+        if (folderModified != null && listing.folderModified != null
+                && folderModified.getValue() > listing.folderModified.getValue()) {
+            remove(folderId);
+            return null;
+        }
+        return listing.files;
+    }
+
+    /**
+     * Caches the children of a folder, evicting the least recently used listings beyond the bound. A listing larger
+     * than the whole bound is not cached.
+     *
+     * @param folderId Id of the folder, "root" for My Drive
+     * @param folderModified Modified time of the folder when it was listed, null if unknown
+     * @param files Every child of the folder
+     */
+    public synchronized void put(String folderId, DateTime folderModified, List<DriveFile> files) {
+        remove(folderId);
+        if (files.size() > maxFiles) {
+            return;
+        }
+        listings.put(folderId, new Listing(folderModified, List.copyOf(files)));
+        totalFiles += files.size();
+        Iterator<Map.Entry<String, Listing>> eldest = listings.entrySet().iterator();
+        while (totalFiles > maxFiles && eldest.hasNext()) {
+            totalFiles -= eldest.next().getValue().files.size();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops the cached children of a folder, for when they were changed through this application
+     */
+    public synchronized void invalidate(String folderId) {
+        remove(folderId);
+    }
+
+    /**
+     * @return The number of cached listings
+     */
+    public synchronized int size() {
+        return listings.size();
+    }
+
+    /**
+     * @return The number of files across all cached listings
+     */
+    public synchronized int getTotalFiles() {
+        return totalFiles;
+    }
+
+    private void remove(String folderId) {
+        Listing listing = listings.remove(folderId);
+        if (listing != null) {
+            totalFiles -= listing.files.size();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Browses Google Drive folder by folder. Listings are served from a {@link FolderCache} when it holds them, and
+ * while a folder is shown its subfolders are listed breadth-first in the background at low priority, so drilling
+ * into a subfolder or going back usually renders from memory without a round trip.
+ * <p>
+ * The navigation methods are meant to be called from one thread, such as the JavaFX Application Thread. The
+ * returned futures complete on the executors.
+ */
+public class FolderNavigator {
+    /**
+     * Lists every child of a folder
+     */
+    public interface FolderSource {
+        /**
+         * @param folderId Id of the folder, "root" for My Drive
+         * @param priority Priority the listing requests are admitted at
+         * @return The children of the folder
+         */
+        List<DriveFile> list(String folderId, RateLimiter.Priority priority) throws IOException;
+    }
+
+    /**
+     * A listing in flight and the priority it was admitted at
+     */
+    private static class Loading {
+        final CompletableFuture<List<DriveFile>> files = new CompletableFuture<>();
+        final RateLimiter.Priority priority;
+
+        Loading(RateLimiter.Priority priority) {
+            this.priority = priority;
+        }
+    }
+
+    /** Folder standing for My Drive, the root of the navigation */
+    public static final DriveFile MY_DRIVE = new DriveFile("root", "My Drive", DriveClient.FOLDER_MIMETYPE, null);
+
+    private final FolderCache cache;
+    private final FolderSource source;
+    private final Executor foreground;
+    private final Executor background;
+    private final int prefetchDepth;
+    private final int prefetchLimit;
+
+    private final Deque<DriveFile> path = new ArrayDeque<>();   // open folders, the current one last
+    private final Map<String, Loading> loading = new ConcurrentHashMap<>();
+    private final AtomicInteger prefetchGeneration = new AtomicInteger();   // bumped to stop the previous prefetch
+    private final AtomicInteger prefetched = new AtomicInteger();
+
+    /**
+     * @param cache Cache of the folder listings
+     * @param source Lists the folders missing from the cache
+     * @param foreground Runs the listings the user is waiting for
+     * @param background Runs the prefetch, one folder at a time is enough
+     * @param prefetchDepth Levels of subfolders listed ahead below the current folder
+     * @param prefetchLimit Maximum number of folders listed ahead for one current folder
+     */
+    public FolderNavigator(FolderCache cache, FolderSource source, Executor foreground, Executor background,
+                           int prefetchDepth, int prefetchLimit) {
+        this.cache = cache;
+        this.source = source;
+        this.foreground = foreground;
+        this.background = background;
+        this.prefetchDepth = prefetchDepth;
+        this.prefetchLimit = prefetchLimit;
+    }
+
+    /**
+     * @return The folder shown, null while no folder is open
+     */
+    public DriveFile current() {
+        return path.peekLast();
+    }
+
+    /**
+     * @return The open folders from the outermost one to the current one
+     */
+    public List<DriveFile> path() {
+        return Collections.unmodifiableList(new ArrayList<>(path));
+    }
+
+    /**
+     * Opens a folder below the current one
+     *
+     * @return Future of the children of the folder, already completed if they were cached
+     */
+    public CompletableFuture<List<DriveFile>> open(DriveFile folder) {
+        path.addLast(folder);
+        return show(folder);
+    }
+
+    /**
+     * Goes back to the folder containing the current one
+     *
+     * @return Future of the children of that folder, or of null if the current folder was the outermost one
+     */
+    public CompletableFuture<List<DriveFile>> back() {
+        path.pollLast();
+        DriveFile folder = path.peekLast();
+        if (folder == null) {
+            prefetchGeneration.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }
+        return show(folder);
+    }
+
+    /**
+     * Lists the current folder again, bypassing the cache
+     *
+     * @return Future of the children of the current folder, or of null if no folder is open
+     */
+    public CompletableFuture<List<DriveFile>> reload() {
+        DriveFile folder = path.peekLast();
+        if (folder == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        cache.invalidate(folder.getId());
+        return show(folder);
+    }
+
+    /**
+     * Drops the cached listing of a folder whose children were changed through this application
+     */
+    public void invalidate(String folderId) {
+        cache.invalidate(folderId);
+    }
+
+    /**
+     * Stops the prefetch and closes every folder
+     */
+    public void close() {
+        prefetchGeneration.incrementAndGet();
+        path.clear();
+    }
+
+    /**
+     * @return The number of folders listed ahead so far
+     */
+    public int getPrefetchCount() {
+        return prefetched.get();
+    }
+
+    /**
+     * Serves a folder from the cache or lists it, then starts listing its subfolders ahead
+     */
+    private CompletableFuture<List<DriveFile>> show(DriveFile folder) {
+        int generation = prefetchGeneration.incrementAndGet();
+        List<DriveFile> cached = cache.get(folder.getId(), folder.getLastModifiedDate());
+        CompletableFuture<List<DriveFile>> files = cached != null ? CompletableFuture.completedFuture(cached)
+                : load(folder, RateLimiter.Priority.INTERACTIVE, foreground);
+        files.thenAccept(children -> background.execute(() -> prefetch(children, generation)));
+        return files;
+    }
+
+    /**
+     * Lists a folder into the cache. A folder already being listed at the same or a higher priority is not listed
+     * twice, one being listed ahead at a lower priority is listed again at the priority asked for, so the user does
+     * not wait behind the requests admitted before it.
+     */
+    private CompletableFuture<List<DriveFile>> load(DriveFile folder, RateLimiter.Priority priority,
+                                                    Executor executor) {
+        Loading created = new Loading(priority);
+        Loading existing = loading.merge(folder.getId(), created,
+                (current, added) -> current.priority.compareTo(added.priority) <= 0 ? current : added);
+        if (existing != created) {
+            return existing.files;
+        }
+        executor.execute(() -> {
+            try {
+                List<DriveFile> children = source.list(folder.getId(), priority);
+                cache.put(folder.getId(), folder.getLastModifiedDate(), children);
+                created.files.complete(children);
+            } catch (Exception e) {
+                created.files.completeExceptionally(new CompletionException(e));
+            } finally {
+                loading.remove(folder.getId(), created);
+            }
+        });
+        return created.files;
+    }
+
+    /**
+     * Lists the subfolders of the given children breadth-first, level by level, until another folder is shown
+     */
+    private void prefetch(List<DriveFile> children, int generation) {
+        Deque<DriveFile> queue = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        enqueueFolders(children, 1, queue, depths);
+        int listed = 0;
+        while (!queue.isEmpty() && listed < prefetchLimit && generation == prefetchGeneration.get()) {
+            DriveFile folder = queue.poll();
+            int depth = depths.poll();
+            List<DriveFile> grandchildren = cache.get(folder.getId(), folder.getLastModifiedDate());
+            if (grandchildren == null) {
+                try {
+                    grandchildren = load(folder, RateLimiter.Priority.BACKGROUND, Runnable::run).join();
+                } catch (CompletionException e) {
+                    System.out.println("Could not list folder " + folder.getName() + " ahead: "
+                            + e.getCause().getMessage());
+                    continue;
+                }
+                listed++;
+                prefetched.incrementAndGet();
+            }
+            if (depth < prefetchDepth) {
+                enqueueFolders(grandchildren, depth + 1, queue, depths);
+            }
+        }
+    }
+
+    private static void enqueueFolders(List<DriveFile> files, int depth, Deque<DriveFile> queue,
+                                       Deque<Integer> depths) {
+        for (DriveFile file : files) {
+            if (DriveClient.FOLDER_MIMETYPE.equals(file.getType())) {
+                queue.add(file);
+                depths.add(depth);
+            }
+        }
+    }
+}
@@ -0,0 +1,296 @@
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.FileList;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mirrors a Google Drive folder and a local directory in both directions. Both trees are walked one folder at a
+ * time: the Drive children are streamed page by page and compared against the entries of the matching local
+ * directory, and only the files that differ are handed to a pool of transfer workers. Memory therefore depends on
+ * the size of the largest single folder and the number of queued transfers, never on the size of the whole tree.
+ * <p>
+ * Files present on one side only are copied to the other side; files present on both sides are compared by size
+ * and modified time, then by MD5 checksum, and the newer copy wins. Deletions are not propagated, since without a
+ * record of the previous sync a deleted file cannot be told apart from a new one on the other side.
+ */
+public class FolderSync {
+    private static final int LISTING_PAGE_SIZE = 1000;
+    private static final long MTIME_TOLERANCE_MILLIS = 2000;   // coarsest timestamp resolution of common file systems
+    private static final String GOOGLE_APPS_PREFIX = "application/vnd.google-apps.";
+    /** Suffix of the files a download is written to before it replaces the local copy */
+    private static final String PARTIAL_SUFFIX = ".sync-part";
+
+    /**
+     * Outcome of a sync
+     */
+    public static class Result {
+        public final AtomicInteger downloaded = new AtomicInteger();
+        public final AtomicInteger uploaded = new AtomicInteger();
+        public final AtomicInteger unchanged = new AtomicInteger();
+        /** Files changed on both sides within the timestamp tolerance, or a file on one side and a folder on the other */
+        public final AtomicInteger conflicts = new AtomicInteger();
+        /** Google Docs files, which have no binary content to mirror */
+        public final AtomicInteger skipped = new AtomicInteger();
+        /** Local paths of the failed transfers mapped to the error message */
+        public final Map<String, String> failed = new ConcurrentHashMap<>();
+        /** Ids of the Drive files left out for a name which is not a safe local file name, mapped to that name */
+        public final Map<String, String> unsafeNames = new ConcurrentHashMap<>();
+        /** Local symbolic links left out, since following them could lead back into the synced tree */
+        public final Set<String> links = ConcurrentHashMap.newKeySet();
+
+        public boolean isSuccessful() {
+            return failed.isEmpty() && conflicts.get() == 0 && unsafeNames.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "{downloaded: "+downloaded+",uploaded: "+uploaded+",unchanged: "+unchanged+",conflicts: "+conflicts
+                    +",skipped: "+skipped+",failed: "+failed.size()+",unsafeNames: "+unsafeNames.size()+",links: "+links.size()+"}";
+        }
+    }
+
+    /**
+     * A Drive folder and the local directory mirroring it
+     */
+    private static class FolderPair {
+        final String folderId;
+        final Path directory;
+
+        FolderPair(String folderId, Path directory) {
+            this.folderId = folderId;
+            this.directory = directory;
+        }
+    }
+
+    /**
+     * A transfer run by the worker pool
+     */
+    private interface Transfer {
+        void run() throws IOException;
+    }
+
+    private final DriveClient client;
+    private final int parallelism;
+    private final int maxQueuedTransfers;
+
+    /**
+     * @param client Client used for the listings and transfers
+     * @param parallelism Number of transfers running at the same time
+     */
+    public FolderSync(DriveClient client, int parallelism) {
+        this.client = client;
+        this.parallelism = parallelism;
+        this.maxQueuedTransfers = parallelism * 4;
+    }
+
+    /**
+     * Mirrors a Google Drive folder and a local directory. Returns once every transfer has finished.
+     *
+     * @param folderId Id of the Drive folder, "root" for My Drive
+     * @param directory The local directory, created if missing
+     * @return Counts of the transfers and the failures
+     */
+    public Result sync(String folderId, Path directory) throws IOException, InterruptedException {
+        Result result = new Result();
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+        Semaphore queued = new Semaphore(maxQueuedTransfers);
+        try {
+            // depth first, holding the subfolders not visited yet of every folder on the current branch
+            Deque<FolderPair> pending = new ArrayDeque<>();
+            pending.push(new FolderPair(folderId, directory));
+            while (!pending.isEmpty()) {
+                FolderPair pair = pending.pop();
+                Files.createDirectories(pair.directory);
+                syncFolder(pair, pending, workers, queued, result);
+            }
+            queued.acquire(maxQueuedTransfers);   // wait for the last transfers
+        } finally {
+            workers.shutdownNow();
+        }
+        System.out.println("Sync finished: " + result);
+        return result;
+    }
+
+    /**
+     * Compares the children of one folder pair, schedules the transfers they need and queues the subfolders
+     */
+    private void syncFolder(FolderPair pair, Deque<FolderPair> pending, ExecutorService workers, Semaphore queued,
+                            Result result) throws IOException, InterruptedException {
+        Map<String, Path> local = new HashMap<>();
+        Set<String> links = new HashSet<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(pair.directory)) {
+            for (Path entry : entries) {
+                if (entry.getFileName().toString().endsWith(PARTIAL_SUFFIX)) {   // left behind by an interrupted sync
+                    continue;
+                }
+                if (Files.isSymbolicLink(entry)) {
+                    System.out.println("Skipping symbolic link " + entry);
+                    result.links.add(entry.toString());
+                    links.add(entry.getFileName().toString());
+                    continue;
+                }
+                local.put(entry.getFileName().toString(), entry);
+            }
+        }
+
+        Set<String> seen = new HashSet<>();
+        ListingCursor cursor = ListingCursor.first(LISTING_PAGE_SIZE);
+        while (!cursor.isEnd()) {
+            FileList page = client.listChildren(pair.folderId, cursor);
+            if (page.getFiles() != null) {
+                for (File remote : page.getFiles()) {
+                    if (!isSafeFileName(remote.getName())) {
+                        System.out.println("Skipping " + remote.getId() + " in " + pair.directory + ", its name "
+                                + remote.getName() + " is not a safe local file name");
+                        result.unsafeNames.put(remote.getId(), remote.getName());
+                        continue;
+                    }
+                    if (links.contains(remote.getName())) {   // neither replaced nor followed
+                        continue;
+                    }
+                    if (!seen.add(remote.getName())) {   // Drive allows duplicate names, only the first one is mirrored
+                        System.out.println("Skipping duplicate name " + remote.getName() + " in " + pair.directory);
+                        result.skipped.incrementAndGet();
+                        continue;
+                    }
+                    Path path = local.remove(remote.getName());
+                    syncEntry(pair, remote, path, pending, workers, queued, result);
+                }
+            }
+            cursor = cursor.next(page.getNextPageToken());
+        }
+
+        for (Path path : local.values()) {   // left over entries exist locally only
+            if (Files.isDirectory(path)) {
+                File folder = client.createFolder(path.getFileName().toString(), pair.folderId);
+                pending.push(new FolderPair(folder.getId(), path));
+            } else {
+                schedule(path, () -> upload(path, pair.folderId, null), workers, queued, result,
+                        result.uploaded);
+            }
+        }
+    }
+
+    /**
+     * Compares a Drive child with the local entry of the same name and schedules the transfer it needs
+     *
+     * @param path The local entry, null if there is none
+     */
+    private void syncEntry(FolderPair pair, File remote, Path path, Deque<FolderPair> pending,
+                           ExecutorService workers, Semaphore queued, Result result)
+            throws IOException, InterruptedException {
+        boolean remoteFolder = DriveClient.FOLDER_MIMETYPE.equals(remote.getMimeType());
+        if (!remoteFolder && remote.getMimeType().startsWith(GOOGLE_APPS_PREFIX)) {
+            result.skipped.incrementAndGet();
+            return;
+        }
+        Path target = path != null ? path : pair.directory.resolve(remote.getName());
+        if (remoteFolder) {
+            if (path != null && !Files.isDirectory(path)) {
+                System.out.println("Conflict: " + path + " is a folder on Google Drive");
+                result.conflicts.incrementAndGet();
+                return;
+            }
+            pending.push(new FolderPair(remote.getId(), target));
+            return;
+        }
+        if (path == null) {
+            schedule(target, () -> download(remote, target), workers, queued, result, result.downloaded);
+            return;
+        }
+        if (Files.isDirectory(path)) {
+            System.out.println("Conflict: " + path + " is a file on Google Drive");
+            result.conflicts.incrementAndGet();
+            return;
+        }
+
+        long localSize = Files.size(path);
+        long localModified = Files.getLastModifiedTime(path).toMillis();
+        long remoteSize = remote.getSize() == null ? -1 : remote.getSize();
+        long remoteModified = remote.getModifiedTime().getValue();
+        if (localSize == remoteSize && Math.abs(localModified - remoteModified) <= MTIME_TOLERANCE_MILLIS) {
+            result.unchanged.incrementAndGet();
+        } else if (localSize == remoteSize && md5(path).equals(remote.getMd5Checksum())) {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(remoteModified));   // spares the checksum next time
+            result.unchanged.incrementAndGet();
+        } else if (localModified > remoteModified + MTIME_TOLERANCE_MILLIS) {
+            schedule(path, () -> upload(path, pair.folderId, remote.getId()), workers, queued, result,
+                    result.uploaded);
+        } else if (remoteModified > localModified + MTIME_TOLERANCE_MILLIS) {
+            schedule(path, () -> download(remote, path), workers, queued, result, result.downloaded);
+        } else {
+            System.out.println("Conflict: " + path + " changed on both sides");
+            result.conflicts.incrementAndGet();
+        }
+    }
+
+    /**
+     * Hands a transfer to the worker pool, waiting while too many transfers are queued
+     */
+    private void schedule(Path path, Transfer transfer, ExecutorService workers, Semaphore queued, Result result,
+                          AtomicInteger counter) throws InterruptedException {
+        queued.acquire();
+        workers.execute(() -> {
+            try {
+                transfer.run();
+                counter.incrementAndGet();
+            } catch (Exception e) {
+                System.out.println("Sync of " + path + " failed: " + e.getMessage());
+                result.failed.put(path.toString(), String.valueOf(e.getMessage()));
+            } finally {
+                queued.release();
+            }
+        });
+    }
+
+    /**
+     * Downloads a Drive file next to its local copy and moves it over that copy once complete, so a failed download
+     * leaves the local copy as it was
+     */
+    private void download(File remote, Path target) throws IOException {
+        Path partial = Files.createTempFile(target.getParent(), "." + target.getFileName(), PARTIAL_SUFFIX);
+        try {
+            client.downloadContent(remote.getId(), remote.getSize(), remote.getMd5Checksum(), partial.toFile());
+            Files.setLastModifiedTime(partial, FileTime.fromMillis(remote.getModifiedTime().getValue()));
+            Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    private void upload(Path source, String parentId, String existingId) throws IOException {
+        client.uploadContent(source.toFile(), parentId, existingId);
+    }
+
+    /**
+     * @return Hex encoded MD5 checksum of the given file, as reported by Google Drive
+     */
+    static String md5(Path path) throws IOException {
+        return ContentHashes.md5Of(path);
+    }
+
+    /**
+     * @return False for Drive names which would not stay a single entry of their local directory, such as ".." or
+     *         names holding a path separator
+     */
+    static boolean isSafeFileName(String name) {
+        return name != null && !name.isEmpty() && !name.equals(".") && !name.equals("..")
+                && name.indexOf('/') < 0 && name.indexOf('\\') < 0 && name.indexOf('\0') < 0;
+    }
+}
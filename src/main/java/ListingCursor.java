@@ -0,0 +1,93 @@
+/**
+ * Immutable position in a Google Drive file listing. A cursor can be listed from any thread and any number of
+ * times, and listing from one cursor never affects another, so concurrent listings cannot mix up their pages.
+ * Page tokens are only valid for the query they were issued for, so the cursor carries its query along.
+ */
+public final class ListingCursor {
+    private final ListingQuery query;
+    private final String pageToken;
+    private final int pageSize;
+    private final boolean end;
+
+    private ListingCursor(ListingQuery query, String pageToken, int pageSize, boolean end) {
+        this.query = query;
+        this.pageToken = pageToken;
+        this.pageSize = pageSize;
+        this.end = end;
+    }
+
+    /**
+     * @param pageSize Maximum number of files per page
+     * @return Cursor at the first page of the listing
+     */
+    public static ListingCursor first(int pageSize) {
+        return first(ListingQuery.ALL, pageSize);
+    }
+
+    /**
+     * @param query Files of the listing, their order and fields
+     * @param pageSize Maximum number of files per page
+     * @return Cursor at the first page of the listing
+     */
+    public static ListingCursor first(ListingQuery query, int pageSize) {
+        return new ListingCursor(query, null, pageSize, false);
+    }
+
+    /**
+     * @param pageToken Token of the page as returned by Google Drive, null for the first page
+     * @param pageSize Maximum number of files per page
+     * @return Cursor at the given page of the listing
+     */
+    public static ListingCursor at(String pageToken, int pageSize) {
+        return at(ListingQuery.ALL, pageToken, pageSize);
+    }
+
+    /**
+     * @param query Query the page token was issued for
+     * @param pageToken Token of the page as returned by Google Drive, null for the first page
+     * @param pageSize Maximum number of files per page
+     * @return Cursor at the given page of the listing
+     */
+    public static ListingCursor at(ListingQuery query, String pageToken, int pageSize) {
+        return new ListingCursor(query, pageToken, pageSize, false);
+    }
+
+    /**
+     * @param nextPageToken Token of the following page reported with the page of this cursor, null if there is none
+     * @return Cursor at the following page, or at the end of the listing
+     */
+    public ListingCursor next(String nextPageToken) {
+        return new ListingCursor(query, nextPageToken, pageSize, nextPageToken == null);
+    }
+
+    /**
+     * @return Cursor at the same page with a different page size
+     */
+    public ListingCursor withPageSize(int pageSize) {
+        return new ListingCursor(query, pageToken, pageSize, end);
+    }
+
+    public ListingQuery getQuery() {
+        return query;
+    }
+
+    public String getPageToken() {
+        return pageToken;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return True if the listing has no more pages
+     */
+    public boolean isEnd() {
+        return end;
+    }
+
+    @Override
+    public String toString() {
+        return "{pageToken: "+pageToken+",pageSize: "+pageSize+",end: "+end+"}";
+    }
+}
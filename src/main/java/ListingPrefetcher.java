@@ -0,0 +1,158 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Read-ahead pager for the Google Drive file listing. As soon as a page is handed out, the following pages are
+ * requested in the background, up to a configurable depth, so scrolling past a page boundary does not wait for
+ * a round trip. The size of newly requested pages adapts to how fast the user scrolls through the table.
+ */
+public class ListingPrefetcher {
+    /** Largest page size accepted by the Google Drive API */
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private static final double LOOKAHEAD_SECONDS = 2.0;   // rows needed to keep scrolling this long are requested
+    private static final double SPEED_SMOOTHING = 0.3;     // weight of the latest sample in the scroll speed average
+
+    /**
+     * A page of the listing
+     */
+    public static class Page {
+        public final List<DriveFile> files;
+        /** Token of the following page, null if this is the last page */
+        public final String nextPageToken;
+
+        public Page(List<DriveFile> files, String nextPageToken) {
+            this.files = files;
+            this.nextPageToken = nextPageToken;
+        }
+    }
+
+    /**
+     * Fetches a page of the listing in the background
+     */
+    public interface PageSource {
+        /**
+         * @param pageToken Token of the page, null for the first page
+         * @param pageSize Maximum number of files of the page
+         * @return Future of the page
+         */
+        CompletableFuture<Page> fetch(String pageToken, int pageSize);
+    }
+
+    private final PageSource source;
+    private final int minPageSize;
+    private int depth;
+
+    private final Deque<CompletableFuture<Page>> pending = new ArrayDeque<>();
+    private CompletableFuture<Page> handedOut;   // page handed out last, cancelled as well on restart
+    private CompletableFuture<Page> last;   // most recently requested page, the next request chains on it
+    private int generation;                 // bumped on restart so chained requests of the old listing stop
+
+    private double rowsPerSecond;
+    private long lastScrollNanos;
+    private int lastScrollRow = -1;
+
+    /**
+     * @param source Fetches pages of the listing
+     * @param depth Number of pages requested ahead of the page handed out last
+     * @param minPageSize Page size used while the user is not scrolling fast
+     */
+    public ListingPrefetcher(PageSource source, int depth, int minPageSize) {
+        this.source = source;
+        this.depth = depth;
+        this.minPageSize = minPageSize;
+    }
+
+    public synchronized void setDepth(int depth) {
+        this.depth = depth;
+        fill();
+    }
+
+    /**
+     * Cancels the pages requested so far and starts reading ahead from the given page
+     *
+     * @param pageToken Token of the next page to hand out, null for the first page
+     * @param complete True if the listing has no more pages
+     */
+    public synchronized void restart(String pageToken, boolean complete) {
+        cancel();
+        last = complete ? CompletableFuture.completedFuture(null) : request(pageToken, generation);
+        pending.add(last);
+        fill();
+    }
+
+    /**
+     * Cancels every page requested so far. Futures already handed out complete with a CancellationException.
+     */
+    public synchronized void cancel() {
+        generation++;
+        for (CompletableFuture<Page> page : pending) {
+            page.cancel(false);
+        }
+        if (handedOut != null) {
+            handedOut.cancel(false);
+            handedOut = null;
+        }
+        pending.clear();
+        last = null;
+    }
+
+    /**
+     * Hands out the next page of the listing and requests another one in the background to keep the read-ahead
+     * at its depth
+     *
+     * @return Future of the next page, completed with null once the listing has no more pages
+     */
+    public synchronized CompletableFuture<Page> next() {
+        if (pending.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        handedOut = pending.poll();
+        fill();
+        return handedOut;
+    }
+
+    /**
+     * Updates the scroll speed estimate used to size newly requested pages
+     *
+     * @param firstVisibleRow Index of the first row visible in the table
+     */
+    public synchronized void recordScroll(int firstVisibleRow) {
+        long now = System.nanoTime();
+        if (lastScrollRow >= 0 && now > lastScrollNanos) {
+            double sample = Math.abs(firstVisibleRow - lastScrollRow) / ((now - lastScrollNanos) / 1e9);
+            rowsPerSecond = SPEED_SMOOTHING * sample + (1 - SPEED_SMOOTHING) * rowsPerSecond;
+        }
+        lastScrollNanos = now;
+        lastScrollRow = firstVisibleRow;
+    }
+
+    /**
+     * @return Size of the next requested page, enough rows for the observed scroll speed within API limits
+     */
+    synchronized int nextPageSize() {
+        int wanted = (int) Math.ceil(rowsPerSecond * LOOKAHEAD_SECONDS);
+        return Math.max(minPageSize, Math.min(MAX_PAGE_SIZE, wanted));
+    }
+
+    private void fill() {
+        while (last != null && pending.size() < depth) {
+            int requestGeneration = generation;
+            last = last.thenCompose(previous -> previous == null || previous.nextPageToken == null
+                    ? CompletableFuture.completedFuture(null)
+                    : request(previous.nextPageToken, requestGeneration));
+            pending.add(last);
+        }
+    }
+
+    private CompletableFuture<Page> request(String pageToken, int requestGeneration) {
+        synchronized (this) {
+            if (requestGeneration != generation) {
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+        return source.fetch(pageToken, nextPageSize());
+    }
+}
@@ -0,0 +1,200 @@
+import com.google.api.client.util.DateTime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable description of which files a listing returns, in which order and with which fields. Filters are sent
+ * to Google Drive as the q parameter and the order as orderBy, so the server filters and sorts the whole drive
+ * and each page holds the files at its position in the global order. Asking only for the fields the caller uses
+ * keeps the pages small.
+ */
+public final class ListingQuery {
+    /** Fields of the files read when none are chosen, those shown in the table */
+    public static final List<String> DEFAULT_FIELDS = List.of("modifiedTime", "id", "name", "mimeType",
+            "thumbnailLink");
+    /** Keys Google Drive can order a listing by */
+    public static final Set<String> ORDER_KEYS = Set.of("createdTime", "folder", "modifiedByMeTime", "modifiedTime",
+            "name", "name_natural", "quotaBytesUsed", "recency", "sharedWithMeTime", "starred", "viewedByMeTime");
+    /** Every file in the default order of Google Drive, with the default fields */
+    public static final ListingQuery ALL = new ListingQuery();
+
+    private String mimeType;
+    private String parentId;
+    private DateTime modifiedAfter;
+    private DateTime modifiedBefore;
+    private Boolean trashed;
+    private String nameContains;
+    private List<String> orderBy = Collections.emptyList();
+    private List<String> fields = DEFAULT_FIELDS;
+
+    private ListingQuery() {
+    }
+
+    private ListingQuery copy() {
+        ListingQuery copy = new ListingQuery();
+        copy.mimeType = mimeType;
+        copy.parentId = parentId;
+        copy.modifiedAfter = modifiedAfter;
+        copy.modifiedBefore = modifiedBefore;
+        copy.trashed = trashed;
+        copy.nameContains = nameContains;
+        copy.orderBy = orderBy;
+        copy.fields = fields;
+        return copy;
+    }
+
+    /**
+     * @return Query for the files with the given MIMETYPE, null for any
+     */
+    public ListingQuery withMimeType(String mimeType) {
+        ListingQuery copy = copy();
+        copy.mimeType = mimeType;
+        return copy;
+    }
+
+    /**
+     * @param parentId Id of a folder, "root" for My Drive, null for any folder
+     * @return Query for the files in the given folder
+     */
+    public ListingQuery inFolder(String parentId) {
+        ListingQuery copy = copy();
+        copy.parentId = parentId;
+        return copy;
+    }
+
+    /**
+     * @return Query for the files modified after the given time, null for no lower bound
+     */
+    public ListingQuery withModifiedAfter(DateTime modifiedAfter) {
+        ListingQuery copy = copy();
+        copy.modifiedAfter = modifiedAfter;
+        return copy;
+    }
+
+    /**
+     * @return Query for the files modified before the given time, null for no upper bound
+     */
+    public ListingQuery withModifiedBefore(DateTime modifiedBefore) {
+        ListingQuery copy = copy();
+        copy.modifiedBefore = modifiedBefore;
+        return copy;
+    }
+
+    /**
+     * @param trashed True for the files in the trash only, false for the others only, null for both
+     */
+    public ListingQuery withTrashed(Boolean trashed) {
+        ListingQuery copy = copy();
+        copy.trashed = trashed;
+        return copy;
+    }
+
+    /**
+     * @return Query for the files whose name contains the given text, null for any name
+     */
+    public ListingQuery withNameContaining(String nameContains) {
+        ListingQuery copy = copy();
+        copy.nameContains = nameContains;
+        return copy;
+    }
+
+    /**
+     * Orders the listing by a further key, after those added before
+     *
+     * @param key One of {@link #ORDER_KEYS}
+     * @param descending True to list the largest values first
+     */
+    public ListingQuery orderBy(String key, boolean descending) {
+        if (!ORDER_KEYS.contains(key)) {
+            throw new IllegalArgumentException("Google Drive cannot order by " + key);
+        }
+        List<String> newOrderBy = new ArrayList<>(orderBy);
+        newOrderBy.add(descending ? key + " desc" : key);
+        ListingQuery copy = copy();
+        copy.orderBy = Collections.unmodifiableList(newOrderBy);
+        return copy;
+    }
+
+    /**
+     * @param fields Fields of the files to be read, like name or size. The id is always read.
+     */
+    public ListingQuery withFields(String... fields) {
+        Set<String> newFields = new LinkedHashSet<>();
+        newFields.add("id");
+        Collections.addAll(newFields, fields);
+        ListingQuery copy = copy();
+        copy.fields = List.copyOf(newFields);
+        return copy;
+    }
+
+    /**
+     * @return The filters in the query language of Google Drive, null if there are none
+     */
+    public String getQ() {
+        List<String> terms = new ArrayList<>();
+        if (mimeType != null) {
+            terms.add("mimeType = " + literal(mimeType));
+        }
+        if (parentId != null) {
+            terms.add(literal(parentId) + " in parents");
+        }
+        if (modifiedAfter != null) {
+            terms.add("modifiedTime > " + literal(modifiedAfter.toStringRfc3339()));
+        }
+        if (modifiedBefore != null) {
+            terms.add("modifiedTime < " + literal(modifiedBefore.toStringRfc3339()));
+        }
+        if (trashed != null) {
+            terms.add("trashed = " + trashed);
+        }
+        if (nameContains != null) {
+            terms.add("name contains " + literal(nameContains));
+        }
+        return terms.isEmpty() ? null : String.join(" and ", terms);
+    }
+
+    /**
+     * @return The order for the orderBy parameter, null for the default order of Google Drive
+     */
+    public String getOrderBy() {
+        return orderBy.isEmpty() ? null : String.join(",", orderBy);
+    }
+
+    /**
+     * @return Partial response selector for a page of the listing
+     */
+    public String getFields() {
+        return "nextPageToken, files(" + String.join(",", fields) + ")";
+    }
+
+    /**
+     * @return The value as a string literal of the Drive query language
+     */
+    private static String literal(String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ListingQuery)) {
+            return false;
+        }
+        ListingQuery query = (ListingQuery) other;
+        return Objects.equals(getQ(), query.getQ()) && orderBy.equals(query.orderBy) && fields.equals(query.fields);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getQ(), orderBy, fields);
+    }
+
+    @Override
+    public String toString() {
+        return "{q: " + getQ() + ",orderBy: " + getOrderBy() + ",fields: " + getFields() + "}";
+    }
+}
@@ -0,0 +1,395 @@
+import com.google.api.client.util.DateTime;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent local index of Google Drive file metadata. The index is filled page by page from the regular file
+ * listing and then kept current by applying the Drive changes feed from a stored start page token, so refreshing
+ * costs a request per batch of changes instead of a full re-listing.
+ * <p>
+ * On disk the index is a compacted snapshot plus an append-only journal of the records written since, so
+ * applying a delta only appends the changed records.
+ */
+public class MetadataIndex {
+    private static final int FORMAT_VERSION = 1;
+    private static final byte RECORD_UPSERT = 'U';
+    private static final byte RECORD_REMOVE = 'R';
+    private static final byte RECORD_START_PAGE_TOKEN = 'T';
+    private static final byte RECORD_LISTING_PAGE_TOKEN = 'P';
+    private static final byte RECORD_LISTING_COMPLETE = 'C';
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    /**
+     * Changes applied to the index by a refresh
+     */
+    public static class Delta {
+        /** Files which were added or modified, in the order they were changed */
+        public final List<DriveFile> updated;
+        /** Ids of files which were removed */
+        public final Set<String> removed;
+
+        Delta(List<DriveFile> updated, Set<String> removed) {
+            this.updated = updated;
+            this.removed = removed;
+        }
+
+        public boolean isEmpty() {
+            return updated.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    private final java.io.File snapshotFile;
+    private final java.io.File journalFile;
+    private final LinkedHashMap<String, DriveFile> files = new LinkedHashMap<>();
+    private String startPageToken;
+    private String listingPageToken;
+    private boolean listingComplete;
+    private int journalRecords;
+    private boolean truncated;
+    private DataOutputStream journal;
+
+    private MetadataIndex(java.io.File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+        this.journalFile = new java.io.File(snapshotFile.getPath() + ".journal");
+    }
+
+    /**
+     * Loads the index stored at the given location, or creates an empty one if there is none
+     *
+     * @param snapshotFile Location of the index snapshot, the journal is stored next to it
+     * @return The loaded index
+     */
+    public static MetadataIndex load(java.io.File snapshotFile) throws IOException {
+        MetadataIndex index = new MetadataIndex(snapshotFile);
+        index.replay(snapshotFile);
+        index.journalRecords = index.replay(index.journalFile);
+        if (index.truncated) {   // records appended after a torn one would be unreadable
+            index.compact();
+        }
+        return index;
+    }
+
+    /**
+     * @return Snapshot of the indexed files in listing order
+     */
+    public synchronized List<DriveFile> files() {
+        return new ArrayList<>(files.values());
+    }
+
+    public synchronized int size() {
+        return files.size();
+    }
+
+    public synchronized DriveFile get(String id) {
+        return files.get(id);
+    }
+
+    /**
+     * @return Token to request the changes made since the index was last refreshed, null if not yet known
+     */
+    public synchronized String getStartPageToken() {
+        return startPageToken;
+    }
+
+    /**
+     * @return Token of the next page of the initial listing, null if the listing has not started
+     */
+    public synchronized String getListingPageToken() {
+        return listingPageToken;
+    }
+
+    /**
+     * @return True once every page of the initial listing has been added
+     */
+    public synchronized boolean isListingComplete() {
+        return listingComplete;
+    }
+
+    public synchronized void setStartPageToken(String startPageToken) throws IOException {
+        this.startPageToken = startPageToken;
+        DataOutputStream out = journal();
+        out.writeByte(RECORD_START_PAGE_TOKEN);
+        writeString(out, startPageToken);
+        commit(1);
+    }
+
+    /**
+     * Adds a page of the initial listing. Files already known, e.g. from the changes feed, are skipped.
+     *
+     * @param page Files of the page
+     * @param nextPageToken Token of the following page, null if this was the last page
+     * @return The files which were not in the index yet
+     */
+    public synchronized List<DriveFile> addListingPage(List<DriveFile> page, String nextPageToken) throws IOException {
+        DataOutputStream out = journal();
+        List<DriveFile> added = new ArrayList<>();
+        for (DriveFile file : page) {
+            if (!files.containsKey(file.Id)) {
+                files.put(file.Id, file);
+                writeUpsert(out, file);
+                added.add(file);
+            }
+        }
+        listingPageToken = nextPageToken;
+        listingComplete = nextPageToken == null;
+        if (listingComplete) {
+            out.writeByte(RECORD_LISTING_COMPLETE);
+        } else {
+            out.writeByte(RECORD_LISTING_PAGE_TOKEN);
+            writeString(out, nextPageToken);
+        }
+        commit(added.size() + 1);
+        return added;
+    }
+
+    /**
+     * Applies a batch of changes from the changes feed
+     *
+     * @param changes Changed files by id in the order they were reported, null values mark removed files
+     * @param newStartPageToken Token to request the changes made after this batch
+     * @return The resulting changes to the indexed files
+     */
+    public synchronized Delta applyChanges(Map<String, DriveFile> changes, String newStartPageToken) throws IOException {
+        DataOutputStream out = journal();
+        Delta delta = writeChanges(out, changes);
+        startPageToken = newStartPageToken;
+        out.writeByte(RECORD_START_PAGE_TOKEN);
+        writeString(out, newStartPageToken);
+        commit(changes.size() + 1);
+        return delta;
+    }
+
+    /**
+     * Applies changes made by this application, leaving the start page token as it is. The changes feed reports
+     * them again later, which is harmless.
+     *
+     * @param changes Changed files by id, null values mark removed files
+     * @return The resulting changes to the indexed files
+     */
+    public synchronized Delta applyChanges(Map<String, DriveFile> changes) throws IOException {
+        Delta delta = writeChanges(journal(), changes);
+        commit(changes.size());
+        return delta;
+    }
+
+    private Delta writeChanges(DataOutputStream out, Map<String, DriveFile> changes) throws IOException {
+        List<DriveFile> updated = new ArrayList<>();
+        Set<String> removed = new HashSet<>();
+        for (Map.Entry<String, DriveFile> change : changes.entrySet()) {
+            DriveFile file = change.getValue();
+            if (file == null) {
+                if (files.remove(change.getKey()) != null) {
+                    out.writeByte(RECORD_REMOVE);
+                    writeString(out, change.getKey());
+                    removed.add(change.getKey());
+                }
+            } else {
+                files.put(file.Id, file);   // modified files keep their position, new ones are appended
+                writeUpsert(out, file);
+                updated.add(file);
+            }
+        }
+        return new Delta(updated, removed);
+    }
+
+    /**
+     * Rewrites the snapshot from the in-memory index and empties the journal
+     */
+    public synchronized void compact() throws IOException {
+        closeJournal();
+        snapshotFile.getAbsoluteFile().getParentFile().mkdirs();
+        java.io.File temp = new java.io.File(snapshotFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            for (DriveFile file : files.values()) {
+                writeUpsert(out, file);
+            }
+            if (startPageToken != null) {
+                out.writeByte(RECORD_START_PAGE_TOKEN);
+                writeString(out, startPageToken);
+            }
+            if (listingComplete) {
+                out.writeByte(RECORD_LISTING_COMPLETE);
+            } else if (listingPageToken != null) {
+                out.writeByte(RECORD_LISTING_PAGE_TOKEN);
+                writeString(out, listingPageToken);
+            }
+        }
+        Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(journalFile.toPath());
+        journalRecords = 0;
+    }
+
+    /**
+     * Stores the first rows of a table, so the next start can show them before the index has been loaded. Loading
+     * the index reads every file, this reads only a screenful.
+     *
+     * @param file Location of the rows
+     * @param rows The rows in table order
+     */
+    public static void saveHead(java.io.File file, List<DriveFile> rows) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        java.io.File temp = new java.io.File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            for (DriveFile row : rows) {
+                writeUpsert(out, row);
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the rows stored by {@link #saveHead(java.io.File, List)}
+     *
+     * @return The rows in table order, as many as could be read
+     */
+    public static List<DriveFile> loadHead(java.io.File file) {
+        List<DriveFile> rows = new ArrayList<>();
+        if (!file.exists()) {
+            return rows;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return rows;
+            }
+            while (in.read() == RECORD_UPSERT) {
+                rows.add(readUpsert(in));
+            }
+        } catch (IOException e) {
+            System.out.println("Ignoring unreadable rows in " + file + ": " + e.getMessage());
+        }
+        return rows;
+    }
+
+    /**
+     * Flushes and closes the journal
+     */
+    public synchronized void close() throws IOException {
+        closeJournal();
+    }
+
+    private DataOutputStream journal() throws IOException {
+        if (journal == null) {
+            journalFile.getAbsoluteFile().getParentFile().mkdirs();
+            boolean created = !journalFile.exists() || journalFile.length() == 0;
+            journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+            if (created) {
+                journal.writeInt(FORMAT_VERSION);
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * Makes the records written since the last commit durable, compacting once the journal outgrows the index
+     */
+    private void commit(int records) throws IOException {
+        journal.flush();
+        journalRecords += records;
+        if (journalRecords > Math.max(1000, files.size())) {
+            compact();
+        }
+    }
+
+    private void closeJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /**
+     * Applies the records stored in a snapshot or journal file. A truncated last record, left by a crash while
+     * writing, is ignored.
+     *
+     * @return Number of records applied
+     */
+    private int replay(java.io.File file) throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return 0;
+        }
+        int records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                System.out.println("Ignoring metadata index with unknown format: " + file);
+                return 0;
+            }
+            while (true) {
+                int type = in.read();
+                if (type == -1) {
+                    break;
+                }
+                switch (type) {
+                    case RECORD_UPSERT:
+                        DriveFile driveFile = readUpsert(in);
+                        files.put(driveFile.Id, driveFile);
+                        break;
+                    case RECORD_REMOVE:
+                        files.remove(readString(in));
+                        break;
+                    case RECORD_START_PAGE_TOKEN:
+                        startPageToken = readString(in);
+                        break;
+                    case RECORD_LISTING_PAGE_TOKEN:
+                        listingPageToken = readString(in);
+                        listingComplete = false;
+                        break;
+                    case RECORD_LISTING_COMPLETE:
+                        listingPageToken = null;
+                        listingComplete = true;
+                        break;
+                    default:
+                        throw new IOException("Corrupt metadata index: " + file);
+                }
+                records++;
+            }
+        } catch (EOFException e) {
+            System.out.println("Ignoring truncated record at the end of " + file);
+            truncated = true;
+        }
+        return records;
+    }
+
+    private static void writeUpsert(DataOutputStream out, DriveFile file) throws IOException {
+        out.writeByte(RECORD_UPSERT);
+        writeString(out, file.Id);
+        writeString(out, file.Name);
+        writeString(out, file.Type);
+        out.writeLong(file.LastModifiedDate == null ? NO_DATE : file.LastModifiedDate.getValue());
+    }
+
+    private static DriveFile readUpsert(DataInputStream in) throws IOException {
+        String id = readString(in);
+        String name = readString(in);
+        String type = readString(in);
+        long modified = in.readLong();
+        return new DriveFile(id, name, type, modified == NO_DATE ? null : new DateTime(false, modified, 0));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
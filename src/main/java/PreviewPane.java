@@ -0,0 +1,75 @@
+import javafx.application.Platform;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.VBox;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Preview of the selected file: a large thumbnail along with the name, type and modified date, so the content
+ * of a file can be checked without downloading it. The thumbnail of a file selected before the previous one
+ * finished loading is not fetched any further.
+ */
+public class PreviewPane extends VBox {
+    private final ThumbnailCache<Image> thumbnails;
+    private final int size;
+    private final ImageView view = new ImageView();
+    private final Label name = new Label();
+    private final Label details = new Label();
+    private CompletableFuture<Image> loading;
+
+    /**
+     * @param thumbnails Loads the thumbnails
+     * @param size Length of the longer side of the preview in pixels
+     */
+    public PreviewPane(ThumbnailCache<Image> thumbnails, int size) {
+        super(5);
+        this.thumbnails = thumbnails;
+        this.size = size;
+        view.setFitWidth(size);
+        view.setFitHeight(size);
+        view.setPreserveRatio(true);
+        name.setWrapText(true);
+        name.setMaxWidth(size);
+        details.setWrapText(true);
+        details.setMaxWidth(size);
+        setAlignment(Pos.TOP_CENTER);
+        setMinWidth(size);
+        setPrefWidth(size);
+        getChildren().addAll(view, name, details);
+    }
+
+    /**
+     * Shows the preview of a file
+     *
+     * @param file The file, null to clear the preview
+     */
+    public void show(DriveFile file) {
+        if (loading != null) {
+            loading.cancel(false);
+            loading = null;
+        }
+        view.setImage(null);
+        name.setText(file == null ? "" : file.getName());
+        details.setText(file == null ? "" : FileStore.typeValue(file).getValue() + "\n"
+                + FileStore.modifiedValue(file).getValue());
+        if (file == null || !ThumbnailCache.mayHaveThumbnail(file)) {
+            return;
+        }
+        CompletableFuture<Image> future = thumbnails.load(file, size);
+        loading = future;
+        future.whenComplete((image, throwable) -> Platform.runLater(() -> {
+            if (loading != future) {   // another file is selected by now
+                return;
+            }
+            loading = null;
+            if (throwable == null) {
+                view.setImage(image);
+            } else if (!future.isCancelled()) {
+                System.out.println("Could not load the preview of " + file.getName() + ": " + throwable.getMessage());
+            }
+        }));
+    }
+}
@@ -0,0 +1,277 @@
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+
+/**
+ * Downloads a binary Google Drive file over several connections at once. The file is split into byte ranges
+ * which are fetched concurrently with HTTP Range requests and written straight to their offsets in a
+ * preallocated local file. A failed range is retried on its own from the last byte it received, and the
+ * completed file is checked against the size and MD5 checksum reported by Google Drive.
+ */
+public class RangedDownload {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_RETRIES = 5;
+    private static final long DEFAULT_RETRY_DELAY_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 32000;
+
+    private final HttpRequestFactory requestFactory;
+    private final String mediaUrl;
+    private final long size;
+    private final String md5Checksum;
+    private final java.io.File destination;
+    private final int parallelism;
+
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+    private LongConsumer progressListener;
+    private boolean channelIo = true;
+    private FileChannelMedia.SyncPolicy syncPolicy = FileChannelMedia.SyncPolicy.NONE;
+
+    /**
+     * @param requestFactory Factory for authorized HTTP requests
+     * @param mediaUrl URL returning the file content, i.e. the files/{id} endpoint with alt=media
+     * @param size Size of the file in bytes as reported by Google Drive
+     * @param md5Checksum MD5 checksum of the file as reported by Google Drive, may be null to skip the check
+     * @param destination The local file to be written
+     * @param parallelism Number of ranges fetched concurrently
+     */
+    public RangedDownload(HttpRequestFactory requestFactory, String mediaUrl, long size, String md5Checksum,
+                          java.io.File destination, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.requestFactory = requestFactory;
+        this.mediaUrl = mediaUrl;
+        this.size = size;
+        this.md5Checksum = md5Checksum;
+        this.destination = destination;
+        this.parallelism = parallelism;
+    }
+
+    public RangedDownload setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    public RangedDownload setRetryDelayMillis(long retryDelayMillis) {
+        this.retryDelayMillis = retryDelayMillis;
+        return this;
+    }
+
+    /**
+     * @param progressListener Receives the number of bytes written after every buffer, called concurrently from
+     *                         the range threads. An unchecked exception thrown by it aborts the download.
+     */
+    public RangedDownload setProgressListener(LongConsumer progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * @param channelIo True to write the ranges with {@link FileChannel#transferFrom}, false to copy them through
+     *                  a heap buffer
+     */
+    public RangedDownload setChannelIo(boolean channelIo) {
+        this.channelIo = channelIo;
+        return this;
+    }
+
+    /**
+     * @param syncPolicy When the written content is forced to the device, periodic syncs need channel I/O
+     */
+    public RangedDownload setSyncPolicy(FileChannelMedia.SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+        return this;
+    }
+
+    /**
+     * Downloads the file, replacing the destination if it exists. The destination is deleted if the download
+     * fails or the downloaded content does not match the checksum.
+     */
+    public void download() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "drive-range-" + destination.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        boolean completed = false;
+        try (FileChannel channel = FileChannel.open(destination.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING)) {
+            FileChannelMedia.preallocate(channel, size);
+
+            long rangeSize = (size + parallelism - 1) / parallelism;
+            List<Future<Void>> ranges = new ArrayList<>();
+            for (long start = 0; start < size; start += rangeSize) {
+                long first = start;
+                long last = Math.min(start + rangeSize, size) - 1;
+                ranges.add(executor.submit(() -> {
+                    fetchRange(channel, first, last);
+                    return null;
+                }));
+            }
+            for (Future<Void> range : ranges) {
+                await(range);
+            }
+
+            verify(channel);
+            FileChannelMedia.complete(channel, syncPolicy);
+            completed = true;
+        } finally {
+            executor.shutdownNow();
+            if (!completed) {
+                Files.deleteIfExists(destination.toPath());
+            }
+        }
+    }
+
+    /**
+     * Fetches the bytes first..last of the file, retrying from the last byte received if the transfer fails
+     */
+    private void fetchRange(FileChannel channel, long first, long last) throws IOException {
+        long position = first;
+        int failures = 0;
+        byte[] buffer = channelIo ? null : new byte[BUFFER_SIZE];
+        while (position <= last) {
+            try {
+                HttpRequest request = requestFactory.buildGetRequest(new GenericUrl(mediaUrl));
+                request.getHeaders().setRange("bytes=" + position + "-" + last);
+                request.getHeaders().setAcceptEncoding("identity");
+                HttpResponse response = request.execute();
+                try {
+                    if (response.getStatusCode() != 206 && (position != 0 || last != size - 1)) {
+                        throw new IOException("Server ignored the Range header for " + mediaUrl);
+                    }
+                    try (InputStream in = response.getContent()) {
+                        if (channelIo) {
+                            long[] written = {0};
+                            try {
+                                FileChannelMedia.receive(in, channel, position, last - position + 1, syncPolicy,
+                                        bytes -> {
+                                            written[0] += bytes;
+                                            if (progressListener != null) {
+                                                progressListener.accept(bytes);
+                                            }
+                                        });
+                            } finally {   // a failed transfer resumes after the bytes it did write
+                                position += written[0];
+                                if (written[0] > 0) {
+                                    failures = 0;
+                                }
+                            }
+                        } else {
+                            int read;
+                            while (position <= last && (read = in.read(buffer, 0, (int) Math.min(buffer.length, last - position + 1))) != -1) {
+                                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                                while (chunk.hasRemaining()) {
+                                    position += channel.write(chunk, position);
+                                }
+                                if (progressListener != null) {
+                                    progressListener.accept(read);
+                                }
+                                failures = 0;
+                            }
+                        }
+                    }
+                } finally {
+                    response.disconnect();
+                }
+                if (position <= last) {
+                    throw new IOException("Connection closed " + (last - position + 1) + " bytes before the end of the range");
+                }
+            } catch (IOException e) {
+                if (e instanceof HttpResponseException && !isRetryable(((HttpResponseException) e).getStatusCode())) {
+                    throw e;
+                }
+                if (++failures > maxRetries) {
+                    throw e;
+                }
+                System.out.println("Range " + first + "-" + last + " interrupted, retrying: " + e.getMessage());
+                sleep(Math.min(retryDelayMillis << (failures - 1), MAX_RETRY_DELAY_MILLIS));
+            }
+        }
+    }
+
+    /**
+     * Checks the size and MD5 checksum of the downloaded file against the metadata from Google Drive
+     */
+    private void verify(FileChannel channel) throws IOException {
+        if (channel.size() != size) {
+            throw new IOException("Downloaded " + channel.size() + " bytes, expected " + size);
+        }
+        if (md5Checksum == null) {
+            return;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long position = 0;
+        while (position < size) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+        String actual = HexFormat.of().formatHex(digest.digest());
+        if (!actual.equalsIgnoreCase(md5Checksum)) {
+            throw new IOException("Checksum mismatch for " + destination + ": expected " + md5Checksum + ", got " + actual);
+        }
+    }
+
+    private static void await(Future<Void> range) throws IOException {
+        try {
+            range.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static boolean isRetryable(int statusCode) {
+        return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download interrupted");
+        }
+    }
+}
@@ -0,0 +1,139 @@
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces requests to the Google Drive API. A token bucket caps the request rate, and a concurrency limit caps the
+ * number of requests waiting for their response, see {@link RequestScheduler}. The concurrency limit adapts additive-increase/multiplicative-decrease: it grows
+ * slowly while requests succeed and halves when Drive reports a rate limit. Waiting requests are admitted by
+ * priority, so interactive requests overtake queued bulk transfers.
+ */
+public class RateLimiter {
+    private static final long DECREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);   // one halving per burst of rate limit errors
+
+    /**
+     * Order in which waiting requests are admitted
+     */
+    public enum Priority {
+        /** Requests the user is waiting for, such as listings */
+        INTERACTIVE,
+        /** Transfers of file content */
+        BULK,
+        /** Speculative requests, such as folder listings fetched ahead, admitted after everything else */
+        BACKGROUND
+    }
+
+    /**
+     * A request waiting to be admitted
+     */
+    private static class Waiter {
+        final Priority priority;
+        final long sequence;
+
+        Waiter(Priority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+    private final double ratePerSecond;
+    private final double burst;
+    private final int maxConcurrency;
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(
+            Comparator.comparing((Waiter waiter) -> waiter.priority).thenComparingLong(waiter -> waiter.sequence));
+
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+    private double concurrencyLimit;
+    private int inFlight;
+    private long lastDecreaseNanos = System.nanoTime() - DECREASE_INTERVAL_NANOS;
+    private long sequence;
+
+    /**
+     * @param ratePerSecond Sustained number of requests per second
+     * @param burst Number of requests which may be sent at once after an idle period
+     * @param initialConcurrency Number of requests in flight allowed at first
+     * @param maxConcurrency Upper bound of the adaptive concurrency limit
+     */
+    public RateLimiter(double ratePerSecond, int burst, int initialConcurrency, int maxConcurrency) {
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+        this.concurrencyLimit = initialConcurrency;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Waits until a request of the given priority may be sent. Every call must be followed by {@link #release()}.
+     *
+     * @param priority Priority of the request
+     */
+    public synchronized void acquire(Priority priority) throws InterruptedException {
+        Waiter waiter = new Waiter(priority, sequence++);
+        waiters.add(waiter);
+        try {
+            while (true) {
+                refill();
+                if (waiters.peek() != waiter || inFlight >= getConcurrencyLimit()) {
+                    wait();
+                } else if (tokens < 1) {
+                    long nanos = (long) Math.ceil((1 - tokens) / ratePerSecond * 1e9);
+                    TimeUnit.NANOSECONDS.timedWait(this, Math.max(1, nanos));
+                } else {
+                    tokens -= 1;
+                    inFlight++;
+                    return;
+                }
+            }
+        } finally {
+            waiters.remove(waiter);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Marks a request admitted by {@link #acquire(Priority)} as no longer in flight
+     */
+    public synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Grows the concurrency limit by one request per limit's worth of successful requests
+     */
+    public synchronized void onSuccess() {
+        concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1 / concurrencyLimit);
+        notifyAll();
+    }
+
+    /**
+     * Halves the concurrency limit after Drive reported a rate limit. Errors reported within a second of the last
+     * halving belong to the same burst and are ignored.
+     */
+    public synchronized void onRateLimited() {
+        long now = System.nanoTime();
+        if (now - lastDecreaseNanos >= DECREASE_INTERVAL_NANOS) {
+            concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+            lastDecreaseNanos = now;
+            System.out.println("Rate limited by Google Drive, concurrency limit lowered to " + getConcurrencyLimit());
+        }
+    }
+
+    /**
+     * @return Number of requests currently allowed in flight
+     */
+    public synchronized int getConcurrencyLimit() {
+        return (int) concurrencyLimit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) / 1e9 * ratePerSecond);
+        lastRefillNanos = now;
+    }
+}
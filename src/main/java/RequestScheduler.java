@@ -0,0 +1,324 @@
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpIOExceptionHandler;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Schedules every request made through the Drive service. Each attempt of a request waits for admission by a
+ * shared {@link RateLimiter}, and attempts failing with a rate limit error (429, or 403 with a rate limit reason)
+ * or a server error are retried after a jittered exponential backoff, or after the delay given by Retry-After.
+ * <p>
+ * Chunks of resumable upload sessions are paced but not retried here: after a failed chunk the session has to be
+ * asked which bytes it kept, which {@link ResumableUpload} does itself.
+ * <p>
+ * The concurrency limit covers request admission only: an attempt holds its slot until the response headers
+ * arrive, or it fails, and the response body is read after the slot has been released. Media downloads, exports
+ * and the ranges of a {@link RangedDownload} therefore stream their content outside the limit; how many of them
+ * run at once is bounded by their callers, such as the workers of {@link TransferManager}.
+ * <p>
+ * With {@link DriveMetrics} set, the latency, the time waited for admission, the retries, the response code and
+ * the declared content lengths of each request are recorded, and unusually slow requests are logged.
+ */
+public class RequestScheduler implements HttpRequestInitializer {
+    private static final int MAX_RETRIES = 8;
+    private static final long DEFAULT_BASE_DELAY_MILLIS = 500;
+    private static final long MAX_DELAY_MILLIS = 64_000;
+    private static final long SLOW_REQUEST_NANOS = 10_000_000_000L;   // requests slower than this are logged
+    private static final int MAX_ERROR_PEEK_BYTES = 64 * 1024;   // error bodies of Drive are far smaller
+    private static final ThreadLocal<RateLimiter.Priority> PRIORITY = new ThreadLocal<>();
+
+    /**
+     * Requests made by the calling thread, e.g. through the Drive service
+     */
+    public interface Requests<T> {
+        T call() throws IOException;
+    }
+
+    private final HttpRequestInitializer delegate;
+    private final RateLimiter limiter;
+    private long baseDelayMillis = DEFAULT_BASE_DELAY_MILLIS;
+    private volatile DriveMetrics metrics;
+
+    /**
+     * @param delegate Initializer applied to each request first, e.g. the credential, may be null
+     * @param limiter Paces the requests
+     */
+    public RequestScheduler(HttpRequestInitializer delegate, RateLimiter limiter) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    public RequestScheduler setBaseDelayMillis(long baseDelayMillis) {
+        this.baseDelayMillis = baseDelayMillis;
+        return this;
+    }
+
+    /**
+     * @param metrics Records every request, null for none
+     */
+    public RequestScheduler setMetrics(DriveMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public RateLimiter getLimiter() {
+        return limiter;
+    }
+
+    @Override
+    public void initialize(HttpRequest request) throws IOException {
+        if (delegate != null) {
+            delegate.initialize(request);
+        }
+        Attempts attempts = new Attempts(request);
+        request.setInterceptor(attempts);
+        request.setUnsuccessfulResponseHandler(attempts);
+        request.setIOExceptionHandler(attempts);
+        request.setResponseInterceptor(attempts);
+        request.setNumberOfRetries(MAX_RETRIES);
+    }
+
+    /**
+     * Makes requests at the given priority instead of the one derived from their URLs
+     *
+     * @param priority Priority of every request made by the calling thread until the call returns
+     * @param requests Makes the requests
+     * @return The result of the requests
+     */
+    public static <T> T callWithPriority(RateLimiter.Priority priority, Requests<T> requests) throws IOException {
+        RateLimiter.Priority previous = PRIORITY.get();
+        PRIORITY.set(priority);
+        try {
+            return requests.call();
+        } finally {
+            if (previous == null) {
+                PRIORITY.remove();
+            } else {
+                PRIORITY.set(previous);
+            }
+        }
+    }
+
+    /**
+     * @return Priority of the request: the one set by {@link #callWithPriority} on the calling thread, otherwise
+     * bulk for content transfers and interactive for everything else
+     */
+    static RateLimiter.Priority priorityOf(HttpRequest request) {
+        RateLimiter.Priority priority = PRIORITY.get();
+        if (priority != null) {
+            return priority;
+        }
+        String url = request.getUrl().build();
+        boolean transfer = url.contains("alt=media") || url.contains("/upload/") || url.contains("/export?");
+        return transfer ? RateLimiter.Priority.BULK : RateLimiter.Priority.INTERACTIVE;
+    }
+
+    /**
+     * State of one request across its attempts. Handlers installed by the delegate, such as the credential
+     * refreshing an expired token, keep running before this one.
+     */
+    private class Attempts implements HttpExecuteInterceptor, HttpUnsuccessfulResponseHandler,
+            HttpIOExceptionHandler, HttpResponseInterceptor {
+        private final HttpExecuteInterceptor interceptor;
+        private final HttpUnsuccessfulResponseHandler unsuccessfulResponseHandler;
+        private final HttpIOExceptionHandler ioExceptionHandler;
+        private final HttpResponseInterceptor responseInterceptor;
+        private boolean admitted;
+        private int retries;
+        private DriveMetrics.Operation operation;   // known once the request is sent, the URL is set after this
+        private long startNanos;
+        private long queueWaitNanos;
+
+        Attempts(HttpRequest request) {
+            this.interceptor = request.getInterceptor();
+            this.unsuccessfulResponseHandler = request.getUnsuccessfulResponseHandler();
+            this.ioExceptionHandler = request.getIOExceptionHandler();
+            this.responseInterceptor = request.getResponseInterceptor();
+        }
+
+        @Override
+        public void intercept(HttpRequest request) throws IOException {
+            if (interceptor != null) {
+                interceptor.intercept(request);
+            }
+            long waitStart = System.nanoTime();
+            if (operation == null) {
+                operation = DriveMetrics.Operation.of(request.getRequestMethod(), request.getUrl().build());
+                startNanos = waitStart;
+            }
+            try {
+                limiter.acquire(priorityOf(request));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to send " + request.getUrl());
+            }
+            queueWaitNanos += System.nanoTime() - waitStart;
+            admitted = true;
+        }
+
+        @Override
+        public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry)
+                throws IOException {
+            release();
+            int status = response.getStatusCode();
+            if (unsuccessfulResponseHandler != null
+                    && unsuccessfulResponseHandler.handleResponse(request, response, supportsRetry)) {
+                retried(status);
+                return true;
+            }
+            boolean rateLimited = status == 429 || status == 403 && isRateLimitError(response);
+            if (rateLimited) {
+                limiter.onRateLimited();
+            }
+            boolean retry = (rateLimited || status >= 500) && supportsRetry && retries < MAX_RETRIES
+                    && !request.getUrl().build().contains("upload_id=");
+            if (retry) {
+                retried(status);
+                backoff(request, response.getHeaders().getFirstHeaderStringValue("Retry-After"));
+                return true;
+            }
+            return false;   // raised with its details, or reported to its callback in a batch
+        }
+
+        @Override
+        public boolean handleIOException(HttpRequest request, boolean supportsRetry) throws IOException {
+            release();
+            if (ioExceptionHandler != null && ioExceptionHandler.handleIOException(request, supportsRetry)) {
+                retried(0);
+                return true;
+            }
+            if (supportsRetry && retries < MAX_RETRIES && "GET".equals(request.getRequestMethod())) {
+                retried(0);
+                backoff(request, null);
+                return true;
+            }
+            finished(request, 0, -1);
+            return false;
+        }
+
+        @Override
+        public void interceptResponse(HttpResponse response) throws IOException {
+            release();
+            if (response.isSuccessStatusCode()) {
+                limiter.onSuccess();
+            }
+            Long length = response.getHeaders().getContentLength();
+            finished(response.getRequest(), response.getStatusCode(), length == null ? -1 : length);
+            if (responseInterceptor != null) {
+                responseInterceptor.interceptResponse(response);
+            }
+        }
+
+        private void release() {
+            if (admitted) {
+                admitted = false;
+                limiter.release();
+            }
+        }
+
+        private void retried(int status) {
+            DriveMetrics metrics = RequestScheduler.this.metrics;
+            if (metrics != null && operation != null) {
+                metrics.recordRetry(operation, status);
+            }
+        }
+
+        /**
+         * Records the final outcome of the request, called once per request
+         *
+         * @param status HTTP response code, 0 for an I/O error
+         * @param bytesReceived Length of the response content, -1 if unknown
+         */
+        private void finished(HttpRequest request, int status, long bytesReceived) {
+            DriveMetrics metrics = RequestScheduler.this.metrics;
+            if (metrics == null || operation == null) {
+                return;
+            }
+            long latency = System.nanoTime() - startNanos;
+            long bytesSent = -1;
+            if (request != null && request.getContent() != null) {
+                try {
+                    bytesSent = request.getContent().getLength();
+                } catch (IOException ignored) {   // the length is only for the metrics
+                }
+            }
+            metrics.recordCall(operation, status, latency, queueWaitNanos, bytesSent, bytesReceived);
+            if (latency > SLOW_REQUEST_NANOS) {
+                System.out.println("Slow request: " + operation + " " + request.getUrl() + " took "
+                        + latency / 1_000_000 + " ms, " + queueWaitNanos / 1_000_000 + " ms of it queued, "
+                        + retries + " retries, response " + status);
+            }
+        }
+
+        private void backoff(HttpRequest request, String retryAfter) throws IOException {
+            long delay = retryAfterMillis(retryAfter);
+            if (delay < 0) {
+                long ceiling = Math.min(MAX_DELAY_MILLIS, baseDelayMillis << Math.min(retries, 20));
+                delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+            } else {   // spread out clients told to come back at the same moment
+                delay += ThreadLocalRandom.current().nextLong(delay / 10 + 1);
+            }
+            retries++;
+            System.out.println("Retrying " + request.getRequestMethod() + " " + request.getUrl() + " in " + delay
+                    + " ms (attempt " + (retries + 1) + ")");
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while backing off " + request.getUrl());
+            }
+        }
+    }
+
+    /**
+     * Tells a 403 rate limit error from a permission error by the reason in its body. The body is read ahead and
+     * reset, so the error keeps its details when it is raised or handed to the callback of a batch part.
+     */
+    static boolean isRateLimitError(HttpResponse response) throws IOException {
+        InputStream content = response.getContent();
+        if (content == null || !content.markSupported()) {
+            return false;
+        }
+        content.mark(MAX_ERROR_PEEK_BYTES);
+        try {
+            String body = new String(content.readNBytes(MAX_ERROR_PEEK_BYTES), StandardCharsets.UTF_8);
+            return body.contains("rateLimitExceeded") || body.contains("RateLimitExceeded");
+        } finally {
+            content.reset();
+        }
+    }
+
+    /**
+     * @param retryAfter Value of a Retry-After header, either seconds or an HTTP date
+     * @return The delay in milliseconds, -1 if there is none
+     */
+    static long retryAfterMillis(String retryAfter) {
+        if (retryAfter == null || retryAfter.isBlank()) {
+            return -1;
+        }
+        try {
+            return Math.min(MAX_DELAY_MILLIS, Math.max(0, Long.parseLong(retryAfter.trim()) * 1000));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                long millis = Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis();
+                return Math.min(MAX_DELAY_MILLIS, Math.max(0, millis));
+            } catch (DateTimeParseException ignored) {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,347 @@
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.EmptyContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.json.JsonHttpContent;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.services.drive.model.File;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Properties;
+
+/**
+ * Uploads a local file to Google Drive using the resumable upload protocol. The file is sent in chunks and the
+ * upload session is persisted to disk after every chunk, so an interrupted upload continues from the last byte
+ * acknowledged by the server, even after the application has been restarted. A session is only resumed by an
+ * upload of the same unchanged file to the same endpoint, name and parents.
+ */
+public class ResumableUpload {
+    /** Chunk sizes must be a multiple of this value, as required by the Drive API */
+    public static final int CHUNK_GRANULARITY = 256 * 1024;
+    public static final int DEFAULT_CHUNK_SIZE = 32 * CHUNK_GRANULARITY;   // 8 MB
+
+    private static final int DEFAULT_MAX_RETRIES = 5;
+    private static final long DEFAULT_RETRY_DELAY_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 32000;
+    private static final int STATUS_RESUME_INCOMPLETE = 308;
+
+    /**
+     * Receives progress updates after every chunk acknowledged by the server
+     */
+    public interface ProgressListener {
+        /**
+         * @param bytesUploaded Number of bytes of the file stored by the server so far
+         * @param totalBytes Size of the file being uploaded
+         * @param bytesPerSecond Average upload rate since this upload (or resumption) started
+         */
+        void progress(long bytesUploaded, long totalBytes, double bytesPerSecond);
+    }
+
+    private final HttpRequestFactory requestFactory;
+    private final JsonFactory jsonFactory;
+    private final String uploadUrl;
+    private final java.io.File source;
+    private final File metadata;
+    private final String mimeType;
+    private final int chunkSize;
+    private final java.io.File stateFile;
+
+    private ProgressListener progressListener;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+    private boolean channelIo = true;
+
+    private File result;
+
+    /**
+     * @param requestFactory Factory for authorized HTTP requests
+     * @param jsonFactory JSON factory used for the metadata and the response
+     * @param uploadUrl URL of the resumable upload endpoint, including the uploadType=resumable parameter
+     * @param source The local file to be uploaded
+     * @param metadata Metadata of the Google Drive file to be created
+     * @param mimeType MIMETYPE of the uploaded content, may be null
+     * @param chunkSize Number of bytes sent per request, a positive multiple of {@link #CHUNK_GRANULARITY}
+     * @param stateDirectory Directory where the upload session is persisted between runs
+     */
+    public ResumableUpload(HttpRequestFactory requestFactory, JsonFactory jsonFactory, String uploadUrl,
+                           java.io.File source, File metadata, String mimeType, int chunkSize,
+                           java.io.File stateDirectory) {
+        if (chunkSize <= 0 || chunkSize % CHUNK_GRANULARITY != 0) {
+            throw new IllegalArgumentException("Chunk size must be a positive multiple of " + CHUNK_GRANULARITY);
+        }
+        this.requestFactory = requestFactory;
+        this.jsonFactory = jsonFactory;
+        this.uploadUrl = uploadUrl;
+        this.source = source;
+        this.metadata = metadata;
+        this.mimeType = mimeType;
+        this.chunkSize = chunkSize;
+        this.stateFile = new java.io.File(stateDirectory, sha256(target()) + ".properties");
+    }
+
+    public ResumableUpload setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    public ResumableUpload setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    public ResumableUpload setRetryDelayMillis(long retryDelayMillis) {
+        this.retryDelayMillis = retryDelayMillis;
+        return this;
+    }
+
+    /**
+     * @param channelIo True to read the chunks in small slices while they are sent through {@link FileChannelMedia},
+     *                  false to read each chunk into a chunk-sized heap buffer first
+     */
+    public ResumableUpload setChannelIo(boolean channelIo) {
+        this.channelIo = channelIo;
+        return this;
+    }
+
+    /**
+     * Uploads the file, continuing a previously persisted session if there is one for the same file
+     *
+     * @return Metadata of the created Google Drive file
+     */
+    public File upload() throws IOException {
+        long totalBytes = source.length();
+        String sessionUri = loadSession(totalBytes);
+        long offset = -1;   // unknown until the server has been asked
+        long startOffset = -1;
+        long startNanos = System.nanoTime();
+        int failures = 0;
+
+        ByteBuffer buffer = channelIo ? FileChannelMedia.newTransferBuffer() : ByteBuffer.allocate(chunkSize);
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            while (result == null) {
+                try {
+                    if (sessionUri == null) {
+                        sessionUri = startSession(totalBytes);
+                        offset = 0;
+                    } else if (offset < 0) {
+                        offset = queryOffset(sessionUri, totalBytes);
+                    }
+                    if (offset < 0) {   // session expired on the server
+                        sessionUri = null;
+                        continue;
+                    }
+                    if (result != null) {
+                        break;
+                    }
+                    saveSession(sessionUri, offset, totalBytes);
+                    if (startOffset < 0) {
+                        startOffset = offset;
+                    }
+
+                    int length = (int) Math.min(chunkSize, totalBytes - offset);
+                    HttpContent content;
+                    if (channelIo) {
+                        content = FileChannelMedia.region(mimeType, channel, offset, length, buffer);
+                    } else {
+                        buffer.clear().limit(length);
+                        while (buffer.hasRemaining()) {
+                            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                                throw new IOException("File changed during upload: " + source);
+                            }
+                        }
+                        content = new ByteArrayContent(mimeType, buffer.array(), 0, length);
+                    }
+                    HttpRequest request = requestFactory.buildPutRequest(new GenericUrl(sessionUri), content);
+                    request.getHeaders().setContentRange(length == 0
+                            ? "bytes */" + totalBytes
+                            : "bytes " + offset + "-" + (offset + length - 1) + "/" + totalBytes);
+                    offset = readOffset(execute(request), totalBytes);
+                    failures = 0;
+
+                    if (progressListener != null && offset >= 0) {
+                        double seconds = (System.nanoTime() - startNanos) / 1e9;
+                        progressListener.progress(offset, totalBytes, seconds > 0 ? (offset - startOffset) / seconds : 0);
+                    }
+                } catch (IOException e) {
+                    if (e instanceof HttpResponseException && !isRetryable(((HttpResponseException) e).getStatusCode())) {
+                        throw e;
+                    }
+                    if (++failures > maxRetries) {
+                        throw e;
+                    }
+                    System.out.println("Upload interrupted, retrying: " + e.getMessage());
+                    sleep(Math.min(retryDelayMillis << (failures - 1), MAX_RETRY_DELAY_MILLIS));
+                    offset = -1;   // ask the server how much it received before sending more
+                }
+            }
+        }
+        clearSession();
+        return result;
+    }
+
+    /**
+     * Initiates a new upload session
+     *
+     * @return URI of the upload session
+     */
+    private String startSession(long totalBytes) throws IOException {
+        HttpRequest request = requestFactory.buildPostRequest(new GenericUrl(uploadUrl),
+                new JsonHttpContent(jsonFactory, metadata));
+        if (mimeType != null) {
+            request.getHeaders().set("X-Upload-Content-Type", mimeType);
+        }
+        request.getHeaders().set("X-Upload-Content-Length", totalBytes);
+        HttpResponse response = execute(request);
+        try {
+            if (!response.isSuccessStatusCode()) {
+                throw new HttpResponseException(response);
+            }
+            String location = response.getHeaders().getLocation();
+            if (location == null) {
+                throw new IOException("Upload session response is missing the Location header");
+            }
+            return location;
+        } finally {
+            response.disconnect();
+        }
+    }
+
+    /**
+     * Asks the server how many bytes of the session it has stored
+     *
+     * @return Offset of the next byte to send, or -1 if the session no longer exists
+     */
+    private long queryOffset(String sessionUri, long totalBytes) throws IOException {
+        HttpRequest request = requestFactory.buildPutRequest(new GenericUrl(sessionUri), new EmptyContent());
+        request.getHeaders().setContentRange("bytes */" + totalBytes);
+        return readOffset(execute(request), totalBytes);
+    }
+
+    /**
+     * Interprets the response to a chunk or status request
+     *
+     * @return Offset of the next byte to send, or -1 if the session no longer exists
+     */
+    private long readOffset(HttpResponse response, long totalBytes) throws IOException {
+        try {
+            int statusCode = response.getStatusCode();
+            if (statusCode == STATUS_RESUME_INCOMPLETE) {
+                String range = response.getHeaders().getFirstHeaderStringValue("Range");
+                if (range == null) {
+                    return 0;
+                }
+                return Long.parseLong(range.substring(range.lastIndexOf('-') + 1)) + 1;
+            }
+            if (response.isSuccessStatusCode()) {
+                result = response.parseAs(File.class);
+                return totalBytes;
+            }
+            if (statusCode == 404 || statusCode == 410) {
+                return -1;
+            }
+            throw new HttpResponseException(response);
+        } finally {
+            response.disconnect();
+        }
+    }
+
+    private HttpResponse execute(HttpRequest request) throws IOException {
+        request.setThrowExceptionOnExecuteError(false);
+        request.setFollowRedirects(false);
+        request.setParser(jsonFactory.createJsonObjectParser());
+        return request.execute();
+    }
+
+    private static boolean isRetryable(int statusCode) {
+        return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Upload interrupted");
+        }
+    }
+
+    /**
+     * Loads the persisted session for the source file
+     *
+     * @return URI of the session, or null if there is none or the file has changed since it was started
+     */
+    private String loadSession(long totalBytes) throws IOException {
+        if (!stateFile.exists()) {
+            return null;
+        }
+        Properties state = new Properties();
+        try (InputStream in = new FileInputStream(stateFile)) {
+            state.load(in);
+        }
+        boolean sameFile = target().equals(state.getProperty("target"))
+                && String.valueOf(totalBytes).equals(state.getProperty("size"))
+                && String.valueOf(source.lastModified()).equals(state.getProperty("modified"));
+        if (!sameFile) {
+            clearSession();
+            return null;
+        }
+        System.out.println("Resuming upload of " + source + " from byte " + state.getProperty("offset"));
+        return state.getProperty("sessionUri");
+    }
+
+    private void saveSession(String sessionUri, long offset, long totalBytes) throws IOException {
+        stateFile.getParentFile().mkdirs();
+        Properties state = new Properties();
+        state.setProperty("target", target());
+        state.setProperty("size", String.valueOf(totalBytes));
+        state.setProperty("modified", String.valueOf(source.lastModified()));
+        state.setProperty("sessionUri", sessionUri);
+        state.setProperty("offset", String.valueOf(offset));
+        try (OutputStream out = new FileOutputStream(stateFile)) {
+            state.store(out, "Resumable upload session");
+        }
+    }
+
+    /**
+     * Forgets the persisted session of the source file, so the next upload of it starts from the beginning
+     */
+    public void discardSession() {
+        clearSession();
+    }
+
+    private void clearSession() {
+        stateFile.delete();
+    }
+
+    /**
+     * @return The source path, upload endpoint, name and parents, which together identify an upload session
+     */
+    private String target() {
+        return source.getAbsolutePath() + "\n" + uploadUrl + "\n" + metadata.getName() + "\n" + metadata.getParents();
+    }
+
+    private static String sha256(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
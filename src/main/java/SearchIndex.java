@@ -0,0 +1,471 @@
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory search over the names, MIMETYPEs and modified dates of indexed Google Drive files. Names are split
+ * into lower case words, and a sorted dictionary maps every word to the slots of the files containing it, so a
+ * prefix resolves to a range of the dictionary instead of a scan.
+ * <p>
+ * The index is kept compact for a million files and more: the dictionary is a sorted array of words with their
+ * slots packed into one int array, per-file attributes are primitive arrays indexed by slot, ids are found through
+ * an open addressing table of slots and MIMETYPEs are interned. Words of files added since are collected in a small
+ * sorted map and merged into the arrays in batches. Removed files leave their slot empty until the next merge.
+ */
+public class SearchIndex {
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int DEFAULT_MERGE_THRESHOLD = 64 * 1024;
+
+    /**
+     * A search: every word must match the start of a word of the file name, and the filters must all hold
+     */
+    public static class Query {
+        private final List<String> words = new ArrayList<>();
+        private String mimeType;
+        private long modifiedAfter = Long.MIN_VALUE;
+        private long modifiedBefore = Long.MAX_VALUE;
+
+        /**
+         * @param text Words to be matched as prefixes of the words of the file name, may be empty
+         */
+        public Query(String text) {
+            words.addAll(tokenize(text));
+        }
+
+        /**
+         * Parses the text of a search box. Besides plain words it understands {@code type:pdf} to keep files
+         * whose MIMETYPE contains the given text, and {@code after:2024-01-31} and {@code before:2024-01-31} to
+         * filter on the modified date. Filters which do not parse yet, e.g. while being typed, are ignored.
+         */
+        public static Query parse(String text) {
+            Query query = new Query("");
+            for (String part : text.trim().split("\\s+")) {
+                String lower = part.toLowerCase(Locale.ROOT);
+                if (lower.startsWith("type:")) {
+                    query.setMimeType(lower.length() > 5 ? lower.substring(5) : null);
+                } else if (lower.startsWith("after:")) {
+                    long date = parseDate(lower.substring(6));
+                    if (date != NO_DATE) {
+                        query.setModifiedAfter(date);
+                    }
+                } else if (lower.startsWith("before:")) {
+                    long date = parseDate(lower.substring(7));
+                    if (date != NO_DATE) {
+                        query.setModifiedBefore(date);
+                    }
+                } else {
+                    query.words.addAll(tokenize(part));
+                }
+            }
+            return query;
+        }
+
+        /**
+         * @param mimeType Keeps files whose MIMETYPE contains this text, e.g. "image/" or "spreadsheet", null for all
+         */
+        public Query setMimeType(String mimeType) {
+            this.mimeType = mimeType == null ? null : mimeType.toLowerCase(Locale.ROOT);
+            return this;
+        }
+
+        /**
+         * @param modifiedAfter Keeps files modified at or after this time in milliseconds since the epoch
+         */
+        public Query setModifiedAfter(long modifiedAfter) {
+            this.modifiedAfter = modifiedAfter;
+            return this;
+        }
+
+        /**
+         * @param modifiedBefore Keeps files modified before this time in milliseconds since the epoch
+         */
+        public Query setModifiedBefore(long modifiedBefore) {
+            this.modifiedBefore = modifiedBefore;
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return words.isEmpty() && mimeType == null && modifiedAfter == Long.MIN_VALUE
+                    && modifiedBefore == Long.MAX_VALUE;
+        }
+
+        private boolean filtersDates() {
+            return modifiedAfter != Long.MIN_VALUE || modifiedBefore != Long.MAX_VALUE;
+        }
+
+        private static long parseDate(String text) {
+            try {
+                return LocalDate.parse(text).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                return NO_DATE;
+            }
+        }
+    }
+
+    /**
+     * Slots of the files added since the last merge containing a word, in ascending order
+     */
+    private static final class Postings {
+        private int[] slots = new int[2];
+        private int size;
+
+        void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+    }
+
+    // merged dictionary: the slots of terms[i] are postings[termStarts[i]] to postings[termStarts[i + 1] - 1]
+    private String[] terms = new String[0];
+    private int[] termStarts = {0};
+    private int[] postings = new int[0];
+
+    private final int mergeThreshold;   // added words and removed files which trigger a merge
+    private final TreeMap<String, Postings> recent = new TreeMap<>();   // words of files added since the last merge
+    private int pending;   // words added and files removed since the last merge
+    private boolean bulk;   // merges are deferred while adding many files at once
+
+    // per-file attributes by slot, removed files leave null in files until the next merge
+    private DriveFile[] files = new DriveFile[INITIAL_CAPACITY];
+    private int[] typeIds = new int[INITIAL_CAPACITY];
+    private long[] modified = new long[INITIAL_CAPACITY];
+    private int slotCount;
+    private int size;
+
+    private int[] idTable = new int[2 * INITIAL_CAPACITY];   // slot + 1 of the file with each id, 0 if empty
+
+    private final Map<String, Integer> typeIdsByName = new java.util.HashMap<>();
+    private final List<String> typeNames = new ArrayList<>();
+
+    public SearchIndex() {
+        this(DEFAULT_MERGE_THRESHOLD);
+    }
+
+    SearchIndex(int mergeThreshold) {
+        this.mergeThreshold = mergeThreshold;
+    }
+
+    /**
+     * Adds files, replacing indexed files with the same id
+     */
+    public synchronized void putAll(Collection<DriveFile> files) {
+        bulk = true;
+        try {
+            for (DriveFile file : files) {
+                put(file);
+            }
+        } finally {
+            bulk = false;
+        }
+        if (pending >= mergeThreshold) {
+            merge();
+        }
+    }
+
+    /**
+     * Adds a file, replacing an indexed file with the same id. The MIMETYPE of the file is replaced by its
+     * interned instance.
+     */
+    public synchronized void put(DriveFile file) {
+        remove(file.Id);
+        if (slotCount == files.length) {
+            int capacity = files.length * 2;
+            files = Arrays.copyOf(files, capacity);
+            typeIds = Arrays.copyOf(typeIds, capacity);
+            modified = Arrays.copyOf(modified, capacity);
+        }
+        int slot = slotCount++;
+        if (file.Type != null) {
+            int typeId = typeIdsByName.computeIfAbsent(file.Type, type -> {
+                typeNames.add(type);
+                return typeNames.size() - 1;
+            });
+            file.Type = typeNames.get(typeId);
+            typeIds[slot] = typeId;
+        } else {
+            typeIds[slot] = -1;
+        }
+        modified[slot] = file.LastModifiedDate != null ? file.LastModifiedDate.getValue() : NO_DATE;
+        files[slot] = file;
+        size++;
+        if (2 * size > idTable.length) {
+            rebuildIdTable(2 * idTable.length);
+        } else {
+            insertId(slot);
+        }
+        for (String word : tokenize(file.Name)) {
+            recent.computeIfAbsent(word, w -> new Postings()).add(slot);
+            pending++;
+        }
+        mergeIfDue();
+    }
+
+    /**
+     * Removes the file with the given id, if it is indexed
+     */
+    public synchronized void remove(String id) {
+        int position = findId(id);
+        if (position < 0) {
+            return;
+        }
+        int slot = idTable[position] - 1;
+        deleteId(position);
+        files[slot] = null;
+        size--;
+        pending++;
+        mergeIfDue();
+    }
+
+    /**
+     * Applies the changes made to the metadata index by a refresh
+     */
+    public synchronized void apply(MetadataIndex.Delta delta) {
+        for (String id : delta.removed) {
+            remove(id);
+        }
+        putAll(delta.updated);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Finds the files matching a query
+     *
+     * @return The matching files in the order they were added
+     */
+    public synchronized List<DriveFile> search(Query query) {
+        BitSet candidates = null;   // null while every file is a candidate
+        for (String word : query.words) {
+            BitSet matches = new BitSet(slotCount);
+            for (int term = firstTerm(word); term < terms.length && terms[term].startsWith(word); term++) {
+                for (int i = termStarts[term]; i < termStarts[term + 1]; i++) {
+                    matches.set(postings[i]);
+                }
+            }
+            for (Postings added : recent.subMap(word, true, word + Character.MAX_VALUE, false).values()) {
+                for (int i = 0; i < added.size; i++) {
+                    matches.set(added.slots[i]);
+                }
+            }
+            if (candidates == null) {
+                candidates = matches;
+            } else {
+                candidates.and(matches);
+            }
+            if (candidates.isEmpty()) {
+                return new ArrayList<>();
+            }
+        }
+
+        boolean[] types = null;   // by type id, null to keep every type
+        if (query.mimeType != null) {
+            types = new boolean[typeNames.size()];
+            boolean any = false;
+            for (int typeId = 0; typeId < types.length; typeId++) {
+                types[typeId] = typeNames.get(typeId).toLowerCase(Locale.ROOT).contains(query.mimeType);
+                any |= types[typeId];
+            }
+            if (!any) {
+                return new ArrayList<>();
+            }
+        }
+
+        long after = query.modifiedAfter;
+        long before = query.modifiedBefore;
+        boolean filtersDates = query.filtersDates();
+        List<DriveFile> result = new ArrayList<>(candidates == null ? size : candidates.cardinality());
+        for (int slot = candidates == null ? 0 : candidates.nextSetBit(0);
+             slot >= 0 && slot < slotCount;
+             slot = candidates == null ? slot + 1 : candidates.nextSetBit(slot + 1)) {
+            if (files[slot] == null
+                    || types != null && (typeIds[slot] < 0 || !types[typeIds[slot]])
+                    || filtersDates && (modified[slot] == NO_DATE || modified[slot] < after || modified[slot] >= before)) {
+                continue;
+            }
+            result.add(files[slot]);
+        }
+        return result;
+    }
+
+    /**
+     * @return Position of the first merged word not less than the given word
+     */
+    private int firstTerm(String word) {
+        int low = 0;
+        int high = terms.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (terms[middle].compareTo(word) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void mergeIfDue() {
+        if (!bulk && pending >= mergeThreshold) {
+            merge();
+        }
+    }
+
+    /**
+     * Folds the recently added words into the merged dictionary. Slots of removed files are dropped and the
+     * remaining slots renumbered, keeping the files in the order they were added.
+     */
+    private void merge() {
+        int[] renumbered = new int[slotCount];
+        int live = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (files[slot] == null) {
+                renumbered[slot] = -1;
+                continue;
+            }
+            renumbered[slot] = live;
+            files[live] = files[slot];
+            typeIds[live] = typeIds[slot];
+            modified[live] = modified[slot];
+            live++;
+        }
+        Arrays.fill(files, live, slotCount, null);
+        slotCount = live;
+
+        int addedPostings = 0;
+        for (Postings added : recent.values()) {
+            addedPostings += added.size;
+        }
+        String[] mergedTerms = new String[terms.length + recent.size()];
+        int[] mergedStarts = new int[mergedTerms.length + 1];
+        int[] mergedPostings = new int[postings.length + addedPostings];
+        int termCount = 0;
+        int postingCount = 0;
+        Iterator<Map.Entry<String, Postings>> addedWords = recent.entrySet().iterator();
+        Map.Entry<String, Postings> added = addedWords.hasNext() ? addedWords.next() : null;
+        int term = 0;
+        while (term < terms.length || added != null) {
+            int order = added == null ? -1 : term == terms.length ? 1 : terms[term].compareTo(added.getKey());
+            String word = order <= 0 ? terms[term] : added.getKey();
+            int start = postingCount;
+            if (order <= 0) {
+                for (int i = termStarts[term]; i < termStarts[term + 1]; i++) {
+                    if (renumbered[postings[i]] >= 0) {
+                        mergedPostings[postingCount++] = renumbered[postings[i]];
+                    }
+                }
+                term++;
+            }
+            if (order >= 0) {
+                Postings slots = added.getValue();
+                for (int i = 0; i < slots.size; i++) {
+                    if (renumbered[slots.slots[i]] >= 0) {
+                        mergedPostings[postingCount++] = renumbered[slots.slots[i]];
+                    }
+                }
+                added = addedWords.hasNext() ? addedWords.next() : null;
+            }
+            if (postingCount > start) {   // words left only in removed files are dropped
+                mergedTerms[termCount++] = word;
+                mergedStarts[termCount] = postingCount;
+            }
+        }
+        terms = Arrays.copyOf(mergedTerms, termCount);
+        termStarts = Arrays.copyOf(mergedStarts, termCount + 1);
+        postings = Arrays.copyOf(mergedPostings, postingCount);
+        recent.clear();
+        pending = 0;
+        rebuildIdTable(idTable.length);
+    }
+
+    private static int hash(String id) {
+        int h = id.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return Position of the id in the id table, -1 if it is not indexed
+     */
+    private int findId(String id) {
+        int mask = idTable.length - 1;
+        for (int position = hash(id) & mask; idTable[position] != 0; position = (position + 1) & mask) {
+            if (files[idTable[position] - 1].Id.equals(id)) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private void insertId(int slot) {
+        int mask = idTable.length - 1;
+        int position = hash(files[slot].Id) & mask;
+        while (idTable[position] != 0) {
+            position = (position + 1) & mask;
+        }
+        idTable[position] = slot + 1;
+    }
+
+    /**
+     * Empties a position of the id table, moving later entries of the same probe sequence back into the gap
+     */
+    private void deleteId(int position) {
+        int mask = idTable.length - 1;
+        int gap = position;
+        for (int next = (gap + 1) & mask; idTable[next] != 0; next = (next + 1) & mask) {
+            int home = hash(files[idTable[next] - 1].Id) & mask;
+            boolean reachable = gap <= next ? home <= gap || home > next : home <= gap && home > next;
+            if (reachable) {
+                idTable[gap] = idTable[next];
+                gap = next;
+            }
+        }
+        idTable[gap] = 0;
+    }
+
+    private void rebuildIdTable(int capacity) {
+        idTable = new int[capacity];
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (files[slot] != null) {
+                insertId(slot);
+            }
+        }
+    }
+
+    /**
+     * Splits text into lower case words of letters and digits
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                String token = lower.substring(start, i);
+                if (!tokens.contains(token)) {
+                    tokens.add(token);
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,41 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records when the phases of application startup are reached, counted from the start of the JVM. Each phase is
+ * recorded and printed the first time it is reached only, so later refreshes do not overwrite the startup figures.
+ * The phase to watch is {@value #FIRST_ROWS}, the time until the user sees files.
+ */
+public final class StartupTimer {
+    public static final String FIRST_ROWS = "first rows shown";
+
+    private static final long JVM_START_MILLIS = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private static final Map<String, Long> PHASES = new LinkedHashMap<>();
+
+    private StartupTimer() {
+    }
+
+    /**
+     * Records that a phase has been reached, unless it was reached before
+     *
+     * @param phase Name of the phase
+     * @return Milliseconds from the start of the JVM to the first time the phase was reached
+     */
+    public static synchronized long mark(String phase) {
+        Long elapsed = PHASES.get(phase);
+        if (elapsed == null) {
+            elapsed = System.currentTimeMillis() - JVM_START_MILLIS;
+            PHASES.put(phase, elapsed);
+            System.out.println("Startup: " + phase + " after " + elapsed + " ms");
+        }
+        return elapsed;
+    }
+
+    /**
+     * @return Milliseconds from the start of the JVM to each phase reached so far, in the order they were reached
+     */
+    public static synchronized Map<String, Long> getPhases() {
+        return new LinkedHashMap<>(PHASES);
+    }
+}
@@ -0,0 +1,256 @@
+import com.google.api.client.util.DateTime;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * Loads the thumbnails Google Drive generates for files, in two cache tiers. Decoded thumbnails are kept in memory
+ * with a byte budget and least recently used eviction, and the encoded thumbnails are kept in a
+ * {@link DownloadCache} on disk, so a thumbnail is fetched once per version of a file and decoded once per session
+ * while it stays in memory.
+ * <p>
+ * Files found without a thumbnail are not asked again for a while. Google Drive generates thumbnails some time
+ * after an upload, so such a miss is only remembered for {@link #setMissingTtl(long) a short time}.
+ * <p>
+ * Loads run on the given executor, off the JavaFX Application Thread. A load whose future is cancelled, e.g.
+ * because its row scrolled out of view, stops before its next fetch or decode.
+ *
+ * @param <V> Type of the decoded thumbnails, such as a JavaFX Image
+ */
+public class ThumbnailCache<V> {
+    private static final long DEFAULT_MISSING_TTL_MILLIS = 60_000;
+
+    /**
+     * Fetches encoded thumbnails from Google Drive
+     */
+    public interface Fetcher {
+        /**
+         * @param fileId Id of the file
+         * @param thumbnailLink Link to the thumbnail read with the file, null if not known
+         * @param size Length of the longer side in pixels
+         * @return The encoded thumbnail, null if the file has none
+         */
+        byte[] fetch(String fileId, String thumbnailLink, int size) throws IOException;
+    }
+
+    /**
+     * Decodes thumbnails at their display size
+     */
+    public interface Decoder<V> {
+        /**
+         * @param content The encoded thumbnail
+         * @param size Length of the longer side in pixels to decode to
+         * @return The decoded thumbnail, null if it cannot be decoded
+         */
+        V decode(byte[] content, int size) throws IOException;
+    }
+
+    private final Fetcher fetcher;
+    private final Decoder<V> decoder;
+    private final ToLongFunction<V> weigher;
+    private final DownloadCache disk;
+    private final Executor executor;
+    private final long budgetBytes;
+    private final LinkedHashMap<String, V> memory = new LinkedHashMap<>(16, 0.75f, true);   // access order
+    private long totalBytes;
+    private final LinkedHashMap<String, Long> missing = new LinkedHashMap<>();   // expiry in nanos, oldest first
+    private volatile long missingTtlNanos = DEFAULT_MISSING_TTL_MILLIS * 1_000_000;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong fetches = new AtomicLong();
+
+    /**
+     * @param fetcher Fetches the thumbnails missing from both tiers
+     * @param decoder Decodes the thumbnails
+     * @param weigher Bytes of memory taken by a decoded thumbnail
+     * @param budgetBytes Maximum number of bytes of decoded thumbnails kept in memory
+     * @param disk Cache of the encoded thumbnails, may be null for none
+     * @param executor Runs the loads
+     */
+    public ThumbnailCache(Fetcher fetcher, Decoder<V> decoder, ToLongFunction<V> weigher, long budgetBytes,
+                          DownloadCache disk, Executor executor) {
+        this.fetcher = fetcher;
+        this.decoder = decoder;
+        this.weigher = weigher;
+        this.budgetBytes = budgetBytes;
+        this.disk = disk;
+        this.executor = executor;
+    }
+
+    /**
+     * @param millis How long a file found without a thumbnail is not asked again, 0 to ask every time
+     * @return This cache
+     */
+    public ThumbnailCache<V> setMissingTtl(long millis) {
+        missingTtlNanos = millis * 1_000_000;
+        return this;
+    }
+
+    /**
+     * @return False for files Google Drive never generates a thumbnail for, such as folders
+     */
+    public static boolean mayHaveThumbnail(DriveFile file) {
+        return file.getType() != null && !DriveClient.FOLDER_MIMETYPE.equals(file.getType())
+                && !file.getType().equals("application/vnd.google-apps.shortcut");
+    }
+
+    /**
+     * Loads the thumbnail of a file, with the thumbnail link it was listed with
+     */
+    public CompletableFuture<V> load(DriveFile file, int size) {
+        DateTime modified = file.getLastModifiedDate();
+        return load(file.getId(), file.getThumbnailLink(), modified == null ? "" : String.valueOf(modified.getValue()),
+                size);
+    }
+
+    /**
+     * Loads the thumbnail of a file whose thumbnail link is not known, see {@link #load(String, String, String, int)}
+     */
+    public CompletableFuture<V> load(String fileId, String validator, int size) {
+        return load(fileId, null, validator, size);
+    }
+
+    /**
+     * Loads the thumbnail of a file
+     *
+     * @param fileId Id of the file
+     * @param thumbnailLink Link to the thumbnail read with the file, null if not known
+     * @param validator Modified time of the file, a changed file gets a new thumbnail
+     * @param size Length of the longer side in pixels
+     * @return Future of the thumbnail or of null if the file has none, already completed on a memory hit.
+     * Cancelling it stops the load.
+     */
+    public CompletableFuture<V> load(String fileId, String thumbnailLink, String validator, int size) {
+        String key = fileId + "\n" + size + "\n" + validator;
+        synchronized (this) {
+            V cached = memory.get(key);
+            if (cached != null || isMissing(key)) {
+                memoryHits.incrementAndGet();
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+        CompletableFuture<V> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            if (future.isDone()) {   // cancelled while queued
+                return;
+            }
+            try {
+                future.complete(load(key, fileId, thumbnailLink, validator, size, future));
+            } catch (Exception e) {
+                future.completeExceptionally(new CompletionException(e));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Reads the thumbnail from disk or fetches it, then decodes it into memory
+     */
+    private V load(String key, String fileId, String thumbnailLink, String validator, int size,
+                   CompletableFuture<V> future) throws IOException {
+        synchronized (this) {
+            V cached = memory.get(key);   // loaded for another row in the meantime
+            if (cached != null || isMissing(key)) {
+                memoryHits.incrementAndGet();
+                return cached;
+            }
+        }
+        String format = "thumbnail-" + size;
+        byte[] content = disk == null ? null : disk.read(fileId, format, validator);
+        if (content != null) {
+            diskHits.incrementAndGet();
+        } else {
+            if (future.isCancelled()) {
+                return null;
+            }
+            fetches.incrementAndGet();
+            content = fetcher.fetch(fileId, thumbnailLink, size);
+            if (content != null && disk != null) {
+                disk.put(fileId, format, validator, content);
+            }
+        }
+        if (future.isCancelled()) {   // the content is on disk now, decoding it is cheap next time
+            return null;
+        }
+        V thumbnail = content == null ? null : decoder.decode(content, size);
+        put(key, thumbnail);
+        return thumbnail;
+    }
+
+    private synchronized void put(String key, V thumbnail) {
+        if (thumbnail == null) {
+            remember(key);
+            return;
+        }
+        long weight = weigher.applyAsLong(thumbnail);
+        if (weight > budgetBytes) {
+            return;
+        }
+        V replaced = memory.put(key, thumbnail);
+        if (replaced != null) {
+            totalBytes -= weigher.applyAsLong(replaced);
+        }
+        totalBytes += weight;
+        Iterator<Map.Entry<String, V>> eldest = memory.entrySet().iterator();
+        while (totalBytes > budgetBytes && eldest.hasNext()) {
+            totalBytes -= weigher.applyAsLong(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Remembers a file has no thumbnail until the time to live of misses has passed
+     */
+    private void remember(String key) {
+        long ttl = missingTtlNanos;
+        if (ttl <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        Iterator<Long> oldest = missing.values().iterator();
+        while (oldest.hasNext() && oldest.next() - now <= 0) {   // misses share the time to live, oldest expire first
+            oldest.remove();
+        }
+        missing.remove(key);   // reinserted as the newest
+        missing.put(key, now + ttl);
+    }
+
+    private boolean isMissing(String key) {
+        Long expiry = missing.get(key);
+        if (expiry == null) {
+            return false;
+        }
+        if (expiry - System.nanoTime() > 0) {
+            return true;
+        }
+        missing.remove(key);
+        return false;
+    }
+
+    /**
+     * @return The number of bytes of decoded thumbnails in memory
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getFetches() {
+        return fetches.get();
+    }
+}
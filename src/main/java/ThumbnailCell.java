@@ -0,0 +1,69 @@
+import javafx.application.Platform;
+import javafx.scene.control.TableCell;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Table cell showing the thumbnail of its file. The table only creates cells for the rows in its viewport and
+ * reuses them as it scrolls, so thumbnails are loaded for the visible rows alone, and the load of a row which
+ * scrolled out of view is cancelled when its cell is reused for another row.
+ */
+public class ThumbnailCell extends TableCell<DriveFile, DriveFile> {
+    private final ThumbnailCache<Image> thumbnails;
+    private final int size;
+    private final ImageView view = new ImageView();
+    private DriveFile shown;   // file whose thumbnail is shown or loading, null if none
+    private CompletableFuture<Image> loading;
+
+    /**
+     * @param thumbnails Loads the thumbnails
+     * @param size Length of the longer side of the thumbnails in pixels
+     */
+    public ThumbnailCell(ThumbnailCache<Image> thumbnails, int size) {
+        this.thumbnails = thumbnails;
+        this.size = size;
+        view.setFitWidth(size);
+        view.setFitHeight(size);
+        view.setPreserveRatio(true);
+    }
+
+    @Override
+    protected void updateItem(DriveFile file, boolean empty) {
+        super.updateItem(file, empty);
+        if (!empty && file != null && file == shown) {   // laid out again, the load carries on
+            return;
+        }
+        if (loading != null) {
+            loading.cancel(false);
+            loading = null;
+        }
+        shown = null;
+        view.setImage(null);
+        setGraphic(null);
+        setText(null);
+        if (empty || file == null || !ThumbnailCache.mayHaveThumbnail(file)) {
+            return;
+        }
+        shown = file;
+        setGraphic(view);
+        CompletableFuture<Image> future = thumbnails.load(file, size);
+        if (future.isDone() && !future.isCompletedExceptionally()) {   // from memory, no flicker
+            view.setImage(future.join());
+            return;
+        }
+        loading = future;
+        future.whenComplete((image, throwable) -> Platform.runLater(() -> {
+            if (loading != future) {   // the cell shows another row by now
+                return;
+            }
+            loading = null;
+            if (throwable == null) {
+                view.setImage(image);
+            } else if (!future.isCancelled()) {
+                System.out.println("Could not load the thumbnail of " + file.getName() + ": " + throwable.getMessage());
+            }
+        }));
+    }
+}
@@ -0,0 +1,469 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue of uploads and downloads run in the background. Jobs start in priority order, then in the order they were
+ * added, as long as the global limit and the limit of their direction allow. Running jobs report their progress,
+ * rate and remaining time, and can be paused, resumed and cancelled. A running job stops at its next progress
+ * update: a paused upload continues from its resumable session when resumed, a paused download starts over.
+ */
+public class TransferManager {
+    private static final long RATE_SAMPLE_NANOS = 250_000_000L;   // minimum interval between rate samples
+    private static final double RATE_SMOOTHING = 0.3;   // weight of the latest sample in the moving average
+
+    public enum Direction { UPLOAD, DOWNLOAD }
+
+    public enum State { QUEUED, RUNNING, PAUSED, COMPLETED, FAILED, CANCELLED }
+
+    /**
+     * The work done by a job, reporting progress through {@link Job#progress(long, long)}
+     */
+    interface Transfer {
+        DriveFile run(Job job) throws Exception;
+    }
+
+    /**
+     * An upload or download and its live progress. Getters may be called from any thread.
+     */
+    public static class Job {
+        private final long id;
+        private final Direction direction;
+        private final String name;
+        private final RateLimiter.Priority priority;
+        private final Transfer transfer;
+        private final Runnable onCancel;
+        private final CompletableFuture<DriveFile> result = new CompletableFuture<>();
+        private final TransferManager manager;
+
+        private volatile State state = State.QUEUED;
+        private volatile State requested;   // PAUSED or CANCELLED while the running transfer winds down
+        private volatile long bytesTransferred;
+        private volatile long totalBytes = -1;
+        private volatile double bytesPerSecond;
+        private volatile String error;
+
+        private long sampleNanos;
+        private long sampleBytes;
+
+        private Job(TransferManager manager, long id, Direction direction, String name, RateLimiter.Priority priority,
+                    Transfer transfer, Runnable onCancel) {
+            this.manager = manager;
+            this.id = id;
+            this.direction = direction;
+            this.name = name;
+            this.priority = priority;
+            this.transfer = transfer;
+            this.onCancel = onCancel;
+        }
+
+        /**
+         * Records the progress of the running transfer
+         *
+         * @param transferred Number of bytes transferred so far
+         * @param total Size of the content, -1 if unknown
+         * @throws CancellationException if the job has been paused or cancelled, which stops the transfer
+         */
+        void progress(long transferred, long total) {
+            if (requested != null) {
+                throw new CancellationException(name + " " + requested.name().toLowerCase());
+            }
+            synchronized (this) {
+                long now = System.nanoTime();
+                if (sampleNanos == 0 || transferred < sampleBytes) {   // first update, or a download starting over
+                    sampleNanos = now;
+                    sampleBytes = transferred;
+                } else if (now - sampleNanos >= RATE_SAMPLE_NANOS) {
+                    double rate = (transferred - sampleBytes) * 1e9 / (now - sampleNanos);
+                    bytesPerSecond = bytesPerSecond == 0 ? rate
+                            : RATE_SMOOTHING * rate + (1 - RATE_SMOOTHING) * bytesPerSecond;
+                    sampleNanos = now;
+                    sampleBytes = transferred;
+                }
+                bytesTransferred = transferred;
+                totalBytes = total;
+            }
+            manager.changed();
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public Direction getDirection() {
+            return direction;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public RateLimiter.Priority getPriority() {
+            return priority;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public long getBytesTransferred() {
+            return bytesTransferred;
+        }
+
+        /**
+         * @return Size of the content, -1 if not known yet
+         */
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        /**
+         * @return Moving average of the transfer rate while running, 0 otherwise
+         */
+        public double getBytesPerSecond() {
+            return state == State.RUNNING ? bytesPerSecond : 0;
+        }
+
+        /**
+         * @return Estimated seconds until the job completes, -1 if it is not running or the size is unknown
+         */
+        public long getEtaSeconds() {
+            double rate = getBytesPerSecond();
+            long total = totalBytes;
+            if (rate <= 0 || total < 0) {
+                return -1;
+            }
+            return (long) Math.ceil(Math.max(0, total - bytesTransferred) / rate);
+        }
+
+        /**
+         * @return Fraction of the content transferred, -1 if the size is unknown
+         */
+        public double getFraction() {
+            long total = totalBytes;
+            if (state == State.COMPLETED) {
+                return 1;
+            }
+            return total > 0 ? Math.min(1, (double) bytesTransferred / total) : total == 0 ? 0 : -1;
+        }
+
+        /**
+         * @return Reason of the failure of a failed job, null otherwise
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * @return Future completed with the uploaded or downloaded file, cancelled if the job is cancelled
+         */
+        public CompletableFuture<DriveFile> getResult() {
+            return result;
+        }
+
+        private boolean isFinished() {
+            return state == State.COMPLETED || state == State.FAILED || state == State.CANCELLED;
+        }
+
+        @Override
+        public String toString() {
+            return direction + " " + name + " (" + state + ")";
+        }
+    }
+
+    private final DriveClient client;
+    private final int maxConcurrent;
+    private final Map<Direction, Integer> maxPerDirection = new EnumMap<>(Direction.class);
+    private final Map<Direction, Integer> running = new EnumMap<>(Direction.class);
+    private final TreeSet<Job> queue = new TreeSet<>(Comparator.comparing((Job job) -> job.priority)
+            .thenComparingLong(job -> job.id));
+    private final Map<Long, Job> jobs = new LinkedHashMap<>();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final ExecutorService executor;
+    private volatile DriveMetrics metrics;
+
+    /**
+     * @param client The client the transfers are made with
+     * @param maxConcurrent Maximum number of jobs running at once
+     * @param maxUploads Maximum number of uploads running at once
+     * @param maxDownloads Maximum number of downloads running at once
+     */
+    public TransferManager(DriveClient client, int maxConcurrent, int maxUploads, int maxDownloads) {
+        if (maxConcurrent <= 0 || maxUploads <= 0 || maxDownloads <= 0) {
+            throw new IllegalArgumentException("Concurrency limits must be positive");
+        }
+        this.client = client;
+        this.maxConcurrent = maxConcurrent;
+        maxPerDirection.put(Direction.UPLOAD, maxUploads);
+        maxPerDirection.put(Direction.DOWNLOAD, maxDownloads);
+        running.put(Direction.UPLOAD, 0);
+        running.put(Direction.DOWNLOAD, 0);
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "drive-transfer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param metrics Records the outcome of each finished transfer, null for none
+     */
+    public TransferManager setMetrics(DriveMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Queues a resumable upload of a local file
+     *
+     * @param source The path of the file to be uploaded
+     * @param priority INTERACTIVE jobs start before queued BULK jobs
+     * @return The queued job
+     */
+    public Job upload(String source, RateLimiter.Priority priority) {
+        return upload(source, null, priority);
+    }
+
+    /**
+     * Queues a resumable upload of a local file into a Google Drive folder
+     *
+     * @param source The path of the file to be uploaded
+     * @param parentId Id of the folder to create the file in, null for My Drive
+     * @param priority INTERACTIVE jobs start before queued BULK jobs
+     * @return The queued job
+     */
+    public Job upload(String source, String parentId, RateLimiter.Priority priority) {
+        String name = new java.io.File(source).getName();
+        return submit(Direction.UPLOAD, name, priority,
+                job -> client.uploadFileResumable(source, parentId, ResumableUpload.DEFAULT_CHUNK_SIZE,
+                        (uploaded, total, rate) -> job.progress(uploaded, total)),
+                () -> client.discardResumableUpload(source, parentId));
+    }
+
+    /**
+     * Queues a download of a Google Drive file
+     *
+     * @param file The file to be downloaded
+     * @param directory The directory the file is downloaded to
+     * @param priority INTERACTIVE jobs start before queued BULK jobs
+     * @return The queued job
+     */
+    public Job download(DriveFile file, String directory, RateLimiter.Priority priority) {
+        return submit(Direction.DOWNLOAD, file.getName(), priority, job -> {
+            client.downloadFile(file, directory, job::progress);
+            return file;
+        }, null);
+    }
+
+    /**
+     * Queues a job
+     *
+     * @param onCancel Cleans up after a cancelled job, may be null
+     */
+    Job submit(Direction direction, String name, RateLimiter.Priority priority, Transfer transfer,
+               Runnable onCancel) {
+        Job job = new Job(this, nextId.incrementAndGet(), direction, name, priority, transfer, onCancel);
+        synchronized (this) {
+            jobs.put(job.id, job);
+            queue.add(job);
+            dispatch();
+        }
+        changed();
+        return job;
+    }
+
+    /**
+     * Pauses a queued or running job. A running job stops at its next progress update.
+     */
+    public void pause(Job job) {
+        synchronized (this) {
+            if (job.state == State.QUEUED) {
+                queue.remove(job);
+                job.state = State.PAUSED;
+            } else if (job.state == State.RUNNING && job.requested == null) {
+                job.requested = State.PAUSED;
+            }
+        }
+        changed();
+    }
+
+    /**
+     * Queues a paused job again, or keeps a job running whose pause has not taken effect yet
+     */
+    public void resume(Job job) {
+        synchronized (this) {
+            if (job.state == State.PAUSED) {
+                job.state = State.QUEUED;
+                queue.add(job);
+                dispatch();
+            } else if (job.state == State.RUNNING && job.requested == State.PAUSED) {
+                job.requested = null;
+            }
+        }
+        changed();
+    }
+
+    /**
+     * Cancels a job which has not finished. A running job stops at its next progress update.
+     */
+    public void cancel(Job job) {
+        boolean stopped = false;
+        synchronized (this) {
+            if (job.state == State.QUEUED || job.state == State.PAUSED) {
+                queue.remove(job);
+                job.state = State.CANCELLED;
+                stopped = true;
+            } else if (job.state == State.RUNNING) {
+                job.requested = State.CANCELLED;
+            }
+        }
+        if (stopped) {
+            cancelled(job);
+        }
+        changed();
+    }
+
+    /**
+     * Forgets the jobs which have completed, failed or been cancelled
+     */
+    public synchronized void removeFinished() {
+        jobs.values().removeIf(Job::isFinished);
+    }
+
+    /**
+     * @return The jobs in the order they were added
+     */
+    public synchronized List<Job> getJobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * @return Number of jobs of the given direction running right now
+     */
+    public synchronized int getRunning(Direction direction) {
+        return running.get(direction);
+    }
+
+    /**
+     * @return Combined rate of the running jobs of the given direction
+     */
+    public synchronized double getBytesPerSecond(Direction direction) {
+        double total = 0;
+        for (Job job : jobs.values()) {
+            if (job.direction == direction) {
+                total += job.getBytesPerSecond();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Registers a callback run whenever a job changes state or makes progress. It is called from the transfer
+     * threads, possibly very often, and should only note that something changed.
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts the queued jobs the limits leave room for, in queue order. A job whose direction is at its limit
+     * does not hold back jobs of the other direction.
+     */
+    private synchronized void dispatch() {
+        int total = running.get(Direction.UPLOAD) + running.get(Direction.DOWNLOAD);
+        for (var iterator = queue.iterator(); total < maxConcurrent && iterator.hasNext(); ) {
+            Job job = iterator.next();
+            if (running.get(job.direction) < maxPerDirection.get(job.direction)) {
+                iterator.remove();
+                running.merge(job.direction, 1, Integer::sum);
+                total++;
+                synchronized (job) {
+                    job.sampleNanos = 0;
+                    job.bytesPerSecond = 0;
+                }
+                job.state = State.RUNNING;
+                executor.execute(() -> run(job));
+            }
+        }
+    }
+
+    private void run(Job job) {
+        DriveFile file = null;
+        Exception failure = null;
+        long start = System.nanoTime();
+        try {
+            file = job.transfer.run(job);
+        } catch (Exception e) {
+            failure = e;
+        }
+        State outcome;
+        synchronized (this) {
+            running.merge(job.direction, -1, Integer::sum);
+            if (failure == null) {
+                outcome = State.COMPLETED;
+            } else if (job.requested != null) {
+                outcome = job.requested;
+            } else {
+                outcome = State.FAILED;
+                job.error = failure.getMessage() != null ? failure.getMessage() : failure.toString();
+            }
+            job.requested = null;
+            job.state = outcome;
+            dispatch();
+        }
+        DriveMetrics metrics = this.metrics;
+        if (metrics != null && (outcome == State.COMPLETED || outcome == State.FAILED)) {
+            metrics.recordTransfer(job.direction, job.bytesTransferred, System.nanoTime() - start,
+                    outcome == State.COMPLETED);
+        }
+        switch (outcome) {
+            case COMPLETED:
+                job.result.complete(file);
+                break;
+            case CANCELLED:
+                cancelled(job);
+                break;
+            case FAILED:
+                System.out.println("Transfer of " + job.name + " failed: " + job.error);
+                job.result.completeExceptionally(failure);
+                break;
+            default:   // paused, the result follows once resumed
+                break;
+        }
+        changed();
+    }
+
+    private void cancelled(Job job) {
+        if (job.onCancel != null) {
+            try {
+                job.onCancel.run();
+            } catch (RuntimeException e) {
+                System.out.println("Cleaning up after " + job.name + " failed: " + e.getMessage());
+            }
+        }
+        job.result.cancel(false);
+    }
+
+    private void changed() {
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.cell.ProgressBarTableCell;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.util.Duration;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Table of the jobs of a {@link TransferManager} with their progress, rate and remaining time. Transfers report
+ * progress far more often than the screen can show it, so changes only mark the panel as stale and it is
+ * redrawn at most every {@value #REFRESH_MILLIS} ms.
+ */
+public class TransfersPanel extends VBox {
+    private static final int REFRESH_MILLIS = 100;
+
+    private final TransferManager manager;
+    private final TableView<TransferManager.Job> table = new TableView<>();
+    private final ObservableList<TransferManager.Job> jobs = FXCollections.observableArrayList();
+    private final Label summary = new Label();
+    private final AtomicBoolean stale = new AtomicBoolean(true);
+    private final Timeline refresh;
+
+    public TransfersPanel(TransferManager manager) {
+        super(5);
+        this.manager = manager;
+
+        TableColumn<TransferManager.Job, String> nameColumn = new TableColumn<>("Name");
+        nameColumn.setCellValueFactory(cellData -> new SimpleStringProperty(cellData.getValue().getName()));
+
+        TableColumn<TransferManager.Job, String> directionColumn = new TableColumn<>("Direction");
+        directionColumn.setCellValueFactory(cellData -> new SimpleStringProperty(
+                cellData.getValue().getDirection() == TransferManager.Direction.UPLOAD ? "Upload" : "Download"));
+
+        TableColumn<TransferManager.Job, String> stateColumn = new TableColumn<>("State");
+        stateColumn.setCellValueFactory(cellData -> new SimpleStringProperty(stateText(cellData.getValue())));
+
+        TableColumn<TransferManager.Job, Double> progressColumn = new TableColumn<>("Progress");
+        progressColumn.setCellValueFactory(cellData -> new SimpleObjectProperty<>(cellData.getValue().getFraction()));
+        progressColumn.setCellFactory(ProgressBarTableCell.forTableColumn());
+
+        TableColumn<TransferManager.Job, String> rateColumn = new TableColumn<>("Rate");
+        rateColumn.setCellValueFactory(cellData -> new SimpleStringProperty(
+                cellData.getValue().getState() == TransferManager.State.RUNNING
+                        ? formatBytes(cellData.getValue().getBytesPerSecond()) + "/s" : ""));
+
+        TableColumn<TransferManager.Job, String> etaColumn = new TableColumn<>("ETA");
+        etaColumn.setCellValueFactory(cellData -> new SimpleStringProperty(
+                formatSeconds(cellData.getValue().getEtaSeconds())));
+
+        table.getColumns().add(nameColumn);
+        table.getColumns().add(directionColumn);
+        table.getColumns().add(stateColumn);
+        table.getColumns().add(progressColumn);
+        table.getColumns().add(rateColumn);
+        table.getColumns().add(etaColumn);
+        table.setItems(jobs);
+        table.setPrefHeight(150);
+
+        Button pauseButton = new Button("Pause");
+        pauseButton.setId("pauseTransferButton");
+        pauseButton.setOnAction(event -> forSelected(manager::pause));
+        Button resumeButton = new Button("Resume");
+        resumeButton.setId("resumeTransferButton");
+        resumeButton.setOnAction(event -> forSelected(manager::resume));
+        Button cancelButton = new Button("Cancel");
+        cancelButton.setId("cancelTransferButton");
+        cancelButton.setOnAction(event -> forSelected(manager::cancel));
+        Button clearButton = new Button("Clear Finished");
+        clearButton.setId("clearTransfersButton");
+        clearButton.setOnAction(event -> {
+            manager.removeFinished();
+            stale.set(true);
+        });
+
+        HBox buttonLayout = new HBox(10);
+        buttonLayout.setAlignment(Pos.CENTER_LEFT);
+        buttonLayout.getChildren().addAll(pauseButton, resumeButton, cancelButton, clearButton, summary);
+        getChildren().addAll(table, buttonLayout);
+
+        manager.addListener(() -> stale.set(true));
+        refresh = new Timeline(new KeyFrame(Duration.millis(REFRESH_MILLIS), event -> {
+            if (stale.getAndSet(false)) {
+                update();
+            }
+        }));
+        refresh.setCycleCount(Animation.INDEFINITE);
+        refresh.play();
+    }
+
+    /**
+     * Stops redrawing the panel, for when it is removed from the window
+     */
+    public void stop() {
+        refresh.stop();
+    }
+
+    /**
+     * Brings the rows and the summary up to date. New jobs are appended and forgotten ones are dropped, the rows
+     * of the others are only redrawn so the selection is kept.
+     */
+    private void update() {
+        List<TransferManager.Job> current = manager.getJobs();
+        Set<TransferManager.Job> currentSet = new HashSet<>(current);
+        jobs.removeIf(job -> !currentSet.contains(job));
+        Set<TransferManager.Job> shown = new HashSet<>(jobs);
+        for (TransferManager.Job job : current) {
+            if (!shown.contains(job)) {
+                jobs.add(job);
+            }
+        }
+        table.refresh();
+        summary.setText("Up " + formatBytes(manager.getBytesPerSecond(TransferManager.Direction.UPLOAD))
+                + "/s, down " + formatBytes(manager.getBytesPerSecond(TransferManager.Direction.DOWNLOAD)) + "/s");
+    }
+
+    private void forSelected(java.util.function.Consumer<TransferManager.Job> action) {
+        TransferManager.Job job = table.getSelectionModel().getSelectedItem();
+        if (job != null) {
+            action.accept(job);
+        }
+    }
+
+    private static String stateText(TransferManager.Job job) {
+        if (job.getState() == TransferManager.State.FAILED) {
+            return "Failed: " + job.getError();
+        }
+        String state = job.getState().name();
+        return state.charAt(0) + state.substring(1).toLowerCase();
+    }
+
+    static String formatBytes(double bytes) {
+        String[] units = {"B", "KB", "MB", "GB", "TB"};
+        int unit = 0;
+        while (bytes >= 1024 && unit < units.length - 1) {
+            bytes /= 1024;
+            unit++;
+        }
+        return unit == 0 ? String.format("%.0f %s", bytes, units[unit]) : String.format("%.1f %s", bytes, units[unit]);
+    }
+
+    static String formatSeconds(long seconds) {
+        if (seconds < 0) {
+            return "";
+        }
+        if (seconds < 3600) {
+            return String.format("%d:%02d", seconds / 60, seconds % 60);
+        }
+        return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+}
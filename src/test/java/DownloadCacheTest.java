@@ -0,0 +1,139 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DownloadCacheTest {
+    @TempDir
+    Path tempDir;
+
+    private FakeDriveServer server;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new FakeDriveServer();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    private void download(DownloadCache cache, String id, String validator, String content) throws IOException {
+        Path temp = cache.newTempFile();
+        Files.writeString(temp, content);
+        cache.put(id, "", validator, temp);
+    }
+
+    @Test
+    void testRepeatDownloadIsServedFromCache() throws Exception {
+        DriveClient client = new DriveClient(DriveClient.newPooledTransport(4), null, server.rootUrl(),
+                tempDir.resolve("uploads").toFile());
+        client.setDownloadCache(new DownloadCache(tempDir.resolve("cache"), 1024 * 1024));
+        FakeDriveServer.FakeFile file = server.addFile("report.txt", "text/plain",
+                "first".getBytes(StandardCharsets.UTF_8));
+        DriveFile driveFile = new DriveFile(file.id, file.name, file.mimeType, null);
+        Path destination = tempDir.resolve("report.txt");
+
+        client.downloadFile(driveFile, tempDir.toString());
+        client.downloadFile(driveFile, tempDir.toString());
+        assertEquals("first", Files.readString(destination));
+        assertEquals(1, server.mediaRequests.get());
+
+        server.replaceContent(file.id, "second".getBytes(StandardCharsets.UTF_8));
+        client.downloadFile(driveFile, tempDir.toString());
+        assertEquals("second", Files.readString(destination));
+        assertEquals(2, server.mediaRequests.get());
+    }
+
+    @Test
+    void testExportLargerThanTheCacheIsDownloadedOnce() throws Exception {
+        DriveClient client = new DriveClient(DriveClient.newPooledTransport(4), null, server.rootUrl(),
+                tempDir.resolve("uploads").toFile());
+        DownloadCache cache = new DownloadCache(tempDir.resolve("cache"), 16);
+        client.setDownloadCache(cache);
+        byte[] content = "a document longer than the whole cache".getBytes(StandardCharsets.UTF_8);
+        FakeDriveServer.FakeFile file = server.addFile("plan.docx", "application/vnd.google-apps.document",
+                content);
+        AtomicLong reported = new AtomicLong();
+
+        client.downloadFile(new DriveFile(file.id, file.name, file.mimeType, null), tempDir.toString(),
+                (downloaded, total) -> reported.set(downloaded));
+        assertArrayEquals(content, Files.readAllBytes(tempDir.resolve("plan.docx")));
+        assertEquals(1, server.mediaRequests.get());
+        assertEquals(content.length, reported.get());
+        assertEquals(0, cache.getTotalBytes());
+    }
+
+    @Test
+    void testListedChecksumSparesTheMetadataRequest() throws Exception {
+        DriveClient client = new DriveClient(DriveClient.newPooledTransport(4), null, server.rootUrl(),
+                tempDir.resolve("uploads").toFile());
+        FakeDriveServer.FakeFile file = server.addFile("report.txt", "text/plain",
+                "listed".getBytes(StandardCharsets.UTF_8));
+        DriveFile listed = client.getFile(file.id);
+        assertEquals(Long.valueOf(6), listed.getSize());
+        assertEquals(FakeDriveServer.md5(file.content), listed.getMd5Checksum());
+        int requestsBefore = server.requests.get();
+
+        client.downloadFile(listed, tempDir.toString());
+        assertEquals("listed", Files.readString(tempDir.resolve("report.txt")));
+        assertEquals(1, server.requests.get() - requestsBefore);   // the content alone
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntriesAreEvicted() throws IOException {
+        DownloadCache cache = new DownloadCache(tempDir.resolve("cache"), 10);
+        download(cache, "a", "1", "aaaa");
+        download(cache, "b", "1", "bbbb");
+        assertTrue(cache.copyTo("a", "", "1", tempDir.resolve("a")));   // a is now more recent than b
+        download(cache, "c", "1", "cccc");
+
+        assertEquals(8, cache.getTotalBytes());
+        assertTrue(cache.copyTo("a", "", "1", tempDir.resolve("a")));
+        assertFalse(cache.copyTo("b", "", "1", tempDir.resolve("b")));
+        assertTrue(cache.copyTo("c", "", "1", tempDir.resolve("c")));
+    }
+
+    @Test
+    void testNewVersionReplacesOldOne() throws IOException {
+        DownloadCache cache = new DownloadCache(tempDir.resolve("cache"), 100);
+        download(cache, "a", "v1", "old");
+        download(cache, "a", "v2", "newer");
+
+        assertEquals(5, cache.getTotalBytes());
+        assertFalse(cache.copyTo("a", "", "v1", tempDir.resolve("a")));
+        assertTrue(cache.copyTo("a", "", "v2", tempDir.resolve("a")));
+        assertEquals("newer", Files.readString(tempDir.resolve("a")));
+    }
+
+    @Test
+    void testEntriesSurviveReopening() throws IOException {
+        download(new DownloadCache(tempDir.resolve("cache"), 100), "a", "1", "kept");
+
+        DownloadCache reopened = new DownloadCache(tempDir.resolve("cache"), 100);
+        assertTrue(reopened.copyTo("a", "", "1", tempDir.resolve("a")));
+        assertEquals("kept", Files.readString(tempDir.resolve("a")));
+    }
+
+    @Test
+    void testEditedDownloadLeavesCachedContentAlone() throws IOException {
+        DownloadCache cache = new DownloadCache(tempDir.resolve("cache"), 100);
+        download(cache, "a", "1", "original");
+        Path served = tempDir.resolve("a");
+        assertTrue(cache.copyTo("a", "", "1", served));
+        Files.writeString(served, "edited!!");   // same size, as an in-place edit would keep it
+
+        DownloadCache reopened = new DownloadCache(tempDir.resolve("cache"), 100);
+        assertTrue(reopened.copyTo("a", "", "1", tempDir.resolve("again")));
+        assertEquals("original", Files.readString(tempDir.resolve("again")));
+    }
+}
@@ -26,23 +26,28 @@ class DriveApplicationTest {
         FxAssert.verifyThat("#downloadButton", LabeledMatchers.hasText("Download"));
         FxAssert.verifyThat("#refreshButton", LabeledMatchers.hasText("Refresh"));
         FxAssert.verifyThat("#deleteButton", LabeledMatchers.hasText("Delete"));
+        FxAssert.verifyThat("#foldersButton", LabeledMatchers.hasText("Folders"));
+        FxAssert.verifyThat("#backButton", LabeledMatchers.hasText("Back"));
     }
 
     @Test
     void testRefreshButtonFunctionality(FxRobot robot) throws IOException {
         DriveApplication.loadMoreItems();
         robot.sleep(1000);
-        int doubledTableSize = DriveApplication.table.getItems().size();
         robot.clickOn("#refreshButton").sleep(1000);
         int afterRefreshTableSize = DriveApplication.table.getItems().size();
-        assertEquals(doubledTableSize / 2, afterRefreshTableSize);
+        // Refresh applies the changes feed to the loaded rows instead of listing from the first page again
+        assertEquals(DriveMain.getIndex().size(), afterRefreshTableSize);
     }
 
     @Test
-    void testLoadingAdditionalItems() throws IOException {
+    void testLoadingAdditionalItems(FxRobot robot) throws IOException {
+        robot.sleep(1000);
         int initialTableSize = DriveApplication.table.getItems().size();
         DriveApplication.loadMoreItems();
         int updatedTableSize = DriveApplication.table.getItems().size();
-        assertEquals(initialTableSize * 2, updatedTableSize);
+        assertTrue(updatedTableSize > initialTableSize || DriveMain.getIndex().isListingComplete(),
+                "no page was added although the listing is incomplete");
+        assertEquals(DriveMain.getIndex().size(), updatedTableSize);
     }
 }
\ No newline at end of file
@@ -0,0 +1,147 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DriveCliTest {
+    private static final Pattern ID_PATTERN = Pattern.compile("\"id\":\"([^\"]+)\"");
+
+    @TempDir
+    Path tempDir;
+
+    private FakeDriveServer server;
+
+    @AfterEach
+    public void tearDown() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private void startServer() throws Exception {
+        server = new FakeDriveServer();
+        DriveMain.initService(server.rootUrl());
+    }
+
+    /**
+     * Runs a command and returns what it wrote to stdout
+     */
+    private String run(InputStream in, ByteArrayOutputStream out, String... args) throws Exception {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        DriveCli cli = new DriveCli(in, new PrintStream(out, true), new PrintStream(err, true), args);
+        assertEquals(0, cli.run(), err.toString(StandardCharsets.UTF_8));
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testGlobsMatchFilesBelowTheirBaseDirectory() throws Exception {
+        Files.createDirectories(tempDir.resolve("logs/old"));
+        Files.write(tempDir.resolve("logs/a.gz"), new byte[1]);
+        Files.write(tempDir.resolve("logs/b.txt"), new byte[1]);
+        Files.write(tempDir.resolve("logs/old/c.gz"), new byte[1]);
+
+        assertEquals(List.of(tempDir.resolve("logs/a.gz")), DriveCli.expandGlob(tempDir + "/logs/*.gz"));
+        assertEquals(List.of(tempDir.resolve("logs/a.gz"), tempDir.resolve("logs/old/c.gz")),
+                DriveCli.expandGlob(tempDir + "/logs/**.gz"));
+        assertEquals(List.of(), DriveCli.expandGlob(tempDir + "/missing/*.gz"));
+        assertTrue(DriveCli.isGlob("*.gz"));
+        assertFalse(DriveCli.isGlob("logs/a.gz"));
+    }
+
+    @Test
+    void testInvalidArgumentsAreRejected() {
+        PrintStream out = new PrintStream(new ByteArrayOutputStream());
+        assertThrows(IllegalArgumentException.class, () -> new DriveCli(System.in, out, out));
+        assertThrows(IllegalArgumentException.class, () -> new DriveCli(System.in, out, out, "upload", "--bogus", "x"));
+        assertThrows(IllegalArgumentException.class, () -> new DriveCli(System.in, out, out, "upload", "-p", "0"));
+        assertThrows(IllegalArgumentException.class, () -> new DriveCli(System.in, out, out, "upload", "--name"));
+    }
+
+    @Test
+    void testJsonLinesAreEscaped() {
+        assertEquals("{\"event\":\"failed\",\"path\":\"a\\\"b\\\\c\\u000a\",\"bytes\":12,\"id\":null}",
+                DriveCli.json("event", "failed", "path", "a\"b\\c\n", "bytes", 12L, "id", null));
+    }
+
+    @Test
+    void testStdinIsUploadedAndStreamedBackToStdout() throws Exception {
+        startServer();
+        byte[] content = new byte[700_000];
+        new Random(1).nextBytes(content);
+
+        String events = run(new ByteArrayInputStream(content), new ByteArrayOutputStream(),
+                "upload", "--name", "backup.tar", "-");
+        Matcher id = ID_PATTERN.matcher(events);
+        assertTrue(id.find(), events);
+        assertEquals("backup.tar", server.file(id.group(1)).name);
+        assertArrayEquals(content, server.file(id.group(1)).content);
+
+        ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+        run(System.in, downloaded, "download", "--output", "-", id.group(1));
+        assertArrayEquals(content, downloaded.toByteArray());
+    }
+
+    @Test
+    void testUploadsAndListsAFolderTree() throws Exception {
+        startServer();
+        FakeDriveServer.FakeFile target = server.addFolder("target", "root");
+        Path source = Files.createDirectories(tempDir.resolve("photos/2024"));
+        Files.write(source.resolve("a.jpg"), new byte[]{1, 2});
+        Files.write(tempDir.resolve("photos/b.jpg"), new byte[]{3});
+
+        String events = run(System.in, new ByteArrayOutputStream(), "upload", "-r", "-p", "2",
+                "--parent", target.id, tempDir.resolve("photos").toString());
+        assertTrue(events.contains("{\"event\":\"summary\",\"succeeded\":2,\"failed\":0}"), events);
+
+        String listing = run(System.in, new ByteArrayOutputStream(), "list", "--folder", target.id);
+        assertEquals(1, listing.lines().count(), listing);
+        assertTrue(listing.contains("\"name\":\"photos\""), listing);
+    }
+
+    @Test
+    void testNamesLeadingOutOfTheOutputAreNotDownloaded() throws Exception {
+        startServer();
+        FakeDriveServer.FakeFile folder = server.addFolder("shared", "root");
+        server.addFile("../escaped.txt", "text/plain", new byte[]{1}, folder.id);
+        server.addFile("kept.txt", "text/plain", new byte[]{2}, folder.id);
+        Path output = Files.createDirectories(tempDir.resolve("out"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream err = new PrintStream(new ByteArrayOutputStream(), true);
+        DriveCli cli = new DriveCli(System.in, new PrintStream(out, true), err,
+                "download", "-r", "--output", output.toString(), folder.id);
+        assertNotEquals(0, cli.run());
+        String events = out.toString(StandardCharsets.UTF_8);
+        assertTrue(events.contains("{\"event\":\"summary\",\"succeeded\":1,\"failed\":1}"), events);
+        assertTrue(Files.exists(output.resolve("shared/kept.txt")));
+        assertFalse(Files.exists(output.resolve("escaped.txt")));
+    }
+
+    @Test
+    void testGlobMatchingNothingFails() throws Exception {
+        startServer();
+        Files.createDirectories(tempDir.resolve("logs"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream err = new PrintStream(new ByteArrayOutputStream(), true);
+        DriveCli cli = new DriveCli(System.in, new PrintStream(out, true), err,
+                "upload", tempDir + "/logs/*.gz");
+        assertNotEquals(0, cli.run());
+        String events = out.toString(StandardCharsets.UTF_8);
+        assertTrue(events.contains("\"error\":\"No match\""), events);
+        assertEquals(0, server.sessionsStarted.get());
+    }
+}
@@ -0,0 +1,164 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DriveClientTest {
+    private static final int FILES = 250;
+    private static final int THREADS = 16;
+
+    @TempDir
+    Path tempDir;
+
+    private FakeDriveServer server;
+    private DriveClient client;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new FakeDriveServer();
+        for (int i = 0; i < FILES; i++) {
+            server.addFile("file " + i + ".txt", "text/plain", new byte[0]);
+        }
+        client = new DriveClient(DriveClient.newPooledTransport(THREADS), null, server.rootUrl(), tempDir.toFile());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    private List<String> listAll(ListingCursor cursor) throws IOException {
+        List<String> ids = new ArrayList<>();
+        while (!cursor.isEnd()) {
+            ListingPrefetcher.Page page = client.list(cursor);
+            page.files.forEach(file -> ids.add(file.Id));
+            cursor = cursor.next(page.nextPageToken);
+        }
+        return ids;
+    }
+
+    @Test
+    void testConcurrentListingsSeeEveryFileOnce() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<String>>> listings = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            int pageSize = 5 + i % 4;   // different page sizes make the requests interleave at different offsets
+            listings.add(executor.submit(() -> {
+                start.await();
+                return listAll(ListingCursor.first(pageSize));
+            }));
+        }
+        start.countDown();
+        try {
+            for (Future<List<String>> listing : listings) {
+                assertEquals(server.fileIds(), listing.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testCursorsAreImmutable() throws IOException {
+        ListingCursor first = ListingCursor.first(10);
+        ListingPrefetcher.Page page = client.list(first);
+        ListingCursor second = first.next(page.nextPageToken);
+
+        assertEquals(page.files.get(0).Id, client.list(first).files.get(0).Id);
+        assertEquals(server.fileIds().get(10), client.list(second).files.get(0).Id);
+        assertNull(first.getPageToken());
+    }
+
+    @Test
+    void testEndCursorListsNothing() throws IOException {
+        ListingCursor cursor = ListingCursor.first(FILES);
+        ListingPrefetcher.Page page = client.list(cursor);
+        assertEquals(FILES, page.files.size());
+
+        ListingCursor end = cursor.next(page.nextPageToken);
+        assertTrue(end.isEnd());
+        assertTrue(client.list(end).files.isEmpty());
+    }
+
+    @Test
+    void testOrderedListingIsSortedAcrossPages() throws IOException {
+        List<String> names = new ArrayList<>();
+        ListingCursor cursor = ListingCursor.first(ListingQuery.ALL.orderBy("name", true).withFields("name"), 40);
+        while (!cursor.isEnd()) {
+            ListingPrefetcher.Page page = client.list(cursor);
+            page.files.forEach(file -> names.add(file.getName()));
+            cursor = cursor.next(page.nextPageToken);
+        }
+        List<String> expected = new ArrayList<>(names);
+        expected.sort(Comparator.reverseOrder());
+        assertEquals(FILES, names.size());
+        assertEquals(expected, names);
+    }
+
+    private List<DriveFile> serverFiles() {
+        List<DriveFile> files = new ArrayList<>();
+        for (String id : server.fileIds()) {
+            files.add(new DriveFile(id, server.file(id).name));
+        }
+        return files;
+    }
+
+    @Test
+    void testDeleteFilesInSeveralBatches() throws IOException {
+        BatchResult result = client.deleteFiles(serverFiles());
+
+        assertTrue(result.isSuccessful());
+        assertEquals(FILES, result.succeeded.size());
+        assertEquals(3, server.batches.get());   // 250 files in batches of 100
+        assertTrue(server.fileIds().isEmpty());
+    }
+
+    @Test
+    void testRenameAndMoveFilesInBatches() throws IOException {
+        List<DriveFile> files = serverFiles().subList(0, 3);
+        Map<DriveFile, String> newNames = new LinkedHashMap<>();
+        files.forEach(file -> newNames.put(file, "renamed " + file.Id));
+        BatchResult renamed = client.renameFiles(newNames);
+        assertTrue(renamed.isSuccessful());
+        assertEquals("renamed " + files.get(0).Id, server.file(files.get(0).Id).name);
+        assertEquals("renamed " + files.get(0).Id, renamed.succeeded.get(0).getName());
+
+        FakeDriveServer.FakeFile folder = server.addFolder("target", "root");
+        BatchResult moved = client.moveFiles(files, folder.id);
+        assertTrue(moved.isSuccessful());
+        for (DriveFile file : files) {
+            assertEquals(folder.id, server.file(file.Id).parent);
+        }
+    }
+
+    @Test
+    void testFailedBatchKeepsOutcomesOfOtherBatches() throws IOException {
+        List<DriveFile> files = serverFiles();
+        server.failBatch(2);
+
+        BatchResult result = client.deleteFiles(files);
+
+        assertEquals(FILES - 100, result.succeeded.size());
+        assertEquals(100, result.failed.size());
+        assertTrue(result.failed.containsKey(files.get(100)));
+        assertTrue(result.failed.containsKey(files.get(199)));
+        List<String> left = new ArrayList<>();
+        files.subList(100, 200).forEach(file -> left.add(file.Id));
+        assertEquals(left, server.fileIds());   // only the files of the failed batch are left
+    }
+}
@@ -0,0 +1,109 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DriveMetricsTest {
+    private static final String FILES = "https://www.googleapis.com/drive/v3/files";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testCallsAreClassifiedByMethodAndUrl() {
+        assertEquals(DriveMetrics.Operation.LIST, DriveMetrics.Operation.of("GET", FILES + "?pageSize=20"));
+        assertEquals(DriveMetrics.Operation.LIST, DriveMetrics.Operation.of("GET", FILES));
+        assertEquals(DriveMetrics.Operation.GET, DriveMetrics.Operation.of("GET", FILES + "/abc?fields=id"));
+        assertEquals(DriveMetrics.Operation.DOWNLOAD, DriveMetrics.Operation.of("GET", FILES + "/abc?alt=media"));
+        assertEquals(DriveMetrics.Operation.EXPORT,
+                DriveMetrics.Operation.of("GET", FILES + "/abc/export?mimeType=text/csv"));
+        assertEquals(DriveMetrics.Operation.CREATE, DriveMetrics.Operation.of("POST", FILES));
+        assertEquals(DriveMetrics.Operation.UPDATE, DriveMetrics.Operation.of("PATCH", FILES + "/abc"));
+        assertEquals(DriveMetrics.Operation.DELETE, DriveMetrics.Operation.of("DELETE", FILES + "/abc"));
+        assertEquals(DriveMetrics.Operation.UPLOAD, DriveMetrics.Operation.of("PUT",
+                "https://www.googleapis.com/upload/drive/v3/files?uploadType=resumable&upload_id=x"));
+        assertEquals(DriveMetrics.Operation.CHANGES,
+                DriveMetrics.Operation.of("GET", "https://www.googleapis.com/drive/v3/changes?pageToken=1"));
+        assertEquals(DriveMetrics.Operation.BATCH,
+                DriveMetrics.Operation.of("POST", "https://www.googleapis.com/batch/drive/v3"));
+        assertEquals(DriveMetrics.Operation.OTHER,
+                DriveMetrics.Operation.of("GET", "https://www.googleapis.com/drive/v3/about"));
+    }
+
+    @Test
+    void testPercentilesAreBucketBounds() {
+        DriveMetrics.Histogram histogram = new DriveMetrics.Histogram();
+        assertEquals(-1, histogram.getPercentileMillis(0.5));
+        for (int i = 0; i < 90; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(200));
+        }
+        histogram.record(TimeUnit.MINUTES.toNanos(5));
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(5, histogram.getPercentileMillis(0.5));
+        assertEquals(5, histogram.getPercentileMillis(0.9));
+        assertEquals(250, histogram.getPercentileMillis(0.95));
+        assertEquals(250, histogram.getPercentileMillis(0.99));
+        assertEquals(Long.MAX_VALUE, histogram.getPercentileMillis(1));
+        assertEquals((90 * 3 + 9 * 200 + 300_000) / 100.0, histogram.getMeanMillis(), 0.001);
+    }
+
+    @Test
+    void testCallsRetriesAndTransfersAreCounted() {
+        DriveMetrics metrics = new DriveMetrics();
+        metrics.recordRetry(DriveMetrics.Operation.LIST, 429);
+        metrics.recordCall(DriveMetrics.Operation.LIST, 200, TimeUnit.MILLISECONDS.toNanos(40),
+                TimeUnit.MILLISECONDS.toNanos(10), -1, 2048);
+        metrics.recordCall(DriveMetrics.Operation.DELETE, 404, TimeUnit.MILLISECONDS.toNanos(20), 0, -1, -1);
+        metrics.recordCall(DriveMetrics.Operation.GET, 0, TimeUnit.MILLISECONDS.toNanos(20), 0, -1, -1);
+        metrics.recordTransfer(TransferManager.Direction.UPLOAD, 1000, TimeUnit.SECONDS.toNanos(1), true);
+        metrics.recordTransfer(TransferManager.Direction.UPLOAD, 300, TimeUnit.SECONDS.toNanos(1), false);
+
+        DriveMetrics.OperationMetrics list = metrics.get(DriveMetrics.Operation.LIST);
+        assertEquals(1, list.getCalls());
+        assertEquals(1, list.getRetries());
+        assertEquals(0, list.getErrors());
+        assertEquals(2048, list.getBytesReceived());
+        assertEquals(0, list.getBytesSent());
+        assertEquals(10, list.getQueueWait().getMeanMillis(), 0.001);
+        assertEquals(1, metrics.get(DriveMetrics.Operation.DELETE).getErrors());
+        assertEquals(1, metrics.get(DriveMetrics.Operation.GET).getErrors());
+        assertEquals(1, metrics.getStatusCount(429));
+        assertEquals(1, metrics.getStatusCount(200));
+        assertEquals(1, metrics.getStatusCount(0));
+        DriveMetrics.TransferMetrics uploads = metrics.get(TransferManager.Direction.UPLOAD);
+        assertEquals(1, uploads.getCompleted());
+        assertEquals(1, uploads.getFailed());
+        assertEquals(1300, uploads.getBytes());
+    }
+
+    @Test
+    void testMetricsAreWrittenAsJsonAndPrometheusText() throws Exception {
+        DriveMetrics metrics = new DriveMetrics();
+        metrics.recordCall(DriveMetrics.Operation.LIST, 200, TimeUnit.MILLISECONDS.toNanos(40), 0, -1, 512);
+        metrics.writeTo(tempDir);
+
+        String json = Files.readString(tempDir.resolve("drive-metrics.json"));
+        assertTrue(json.startsWith("{\"operations\":{\"list\":{\"calls\":1,\"errors\":0,\"retries\":0,"));
+        assertTrue(json.contains("\"latencyMillis\":{\"count\":1,\"mean\":40.000,\"p50\":50,\"p95\":50,\"p99\":50}"));
+        assertTrue(json.contains("\"responses\":{\"200\":1}"));
+        assertFalse(json.contains("\"delete\""));
+
+        String text = Files.readString(tempDir.resolve("drive-metrics.prom"));
+        assertTrue(text.contains("# TYPE drive_request_duration_seconds histogram\n"));
+        assertTrue(text.contains("drive_request_duration_seconds_bucket{operation=\"list\",le=\"0.025\"} 0\n"));
+        assertTrue(text.contains("drive_request_duration_seconds_bucket{operation=\"list\",le=\"0.050\"} 1\n"));
+        assertTrue(text.contains("drive_request_duration_seconds_bucket{operation=\"list\",le=\"+Inf\"} 1\n"));
+        assertTrue(text.contains("drive_request_duration_seconds_count{operation=\"list\"} 1\n"));
+        assertTrue(text.contains("drive_request_bytes_total{operation=\"list\",direction=\"received\"} 512\n"));
+        assertTrue(text.contains("drive_responses_total{code=\"200\"} 1\n"));
+        assertFalse(Files.exists(tempDir.resolve("drive-metrics.json.tmp")));
+    }
+}
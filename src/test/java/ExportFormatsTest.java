@@ -0,0 +1,108 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExportFormatsTest {
+    private static final String DOCUMENT = "application/vnd.google-apps.document";
+    private static final String SPREADSHEET = "application/vnd.google-apps.spreadsheet";
+    private static final String PRESENTATION = "application/vnd.google-apps.presentation";
+    private static final String DRAWING = "application/vnd.google-apps.drawing";
+    private static final String DOCX = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+
+    @TempDir
+    Path tempDir;
+
+    private FakeDriveServer server;
+    private DriveClient client;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new FakeDriveServer();
+        client = new DriveClient(DriveClient.newPooledTransport(8), null, server.rootUrl(),
+                tempDir.resolve("uploads").toFile());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    private Path export(FakeDriveServer.FakeFile file) throws Exception {
+        Path directory = Files.createDirectories(tempDir.resolve("exports"));
+        client.downloadFile(new DriveFile(file.id, file.name, file.mimeType, null), directory.toString());
+        return directory.resolve(file.name.replace(" ", "-") + ExportFormats.extension(
+                client.exportMimetype(file.mimeType)));
+    }
+
+    @Test
+    void testPreferredFormatOfferedByDriveIsChosen() {
+        ExportFormats formats = ExportFormats.defaults();
+        assertEquals(DOCX, formats.choose(DOCUMENT, List.of("application/pdf", DOCX)));
+        assertEquals("text/csv", formats.choose(SPREADSHEET, FakeDriveServer.EXPORT_FORMATS.get(SPREADSHEET)));
+        assertEquals("image/png", formats.choose(DRAWING, FakeDriveServer.EXPORT_FORMATS.get(DRAWING)));
+        assertEquals("application/pdf", formats.choose(DOCUMENT, List.of("text/plain", "application/pdf")));
+        assertEquals("text/plain", formats.choose("application/vnd.google-apps.unknown", List.of("text/plain")));
+        assertNull(formats.choose("application/vnd.google-apps.form", List.of()));
+        assertEquals(DOCX, formats.choose(DOCUMENT, null));
+
+        formats.prefer(DOCUMENT, "text/plain");
+        assertEquals("text/plain", formats.choose(DOCUMENT, FakeDriveServer.EXPORT_FORMATS.get(DOCUMENT)));
+    }
+
+    @Test
+    void testWorkspaceFilesAreExportedWithMatchingExtensions() throws Exception {
+        byte[] slides = "slides".getBytes(StandardCharsets.UTF_8);
+        FakeDriveServer.FakeFile presentation = server.addFile("Quarterly review", PRESENTATION, slides);
+        byte[] picture = "drawing".getBytes(StandardCharsets.UTF_8);
+        FakeDriveServer.FakeFile drawing = server.addFile("Diagram", DRAWING, picture);
+
+        Path exportedPresentation = export(presentation);
+        assertTrue(exportedPresentation.toString().endsWith("Quarterly-review.pptx"));
+        assertArrayEquals(slides, Files.readAllBytes(exportedPresentation));
+        Path exportedDrawing = export(drawing);
+        assertTrue(exportedDrawing.toString().endsWith("Diagram.png"));
+        assertArrayEquals(picture, Files.readAllBytes(exportedDrawing));
+    }
+
+    @Test
+    void testLargeExportIsFetchedFromExportLink() throws Exception {
+        byte[] csv = new byte[1024 * 1024];
+        new Random(1).nextBytes(csv);
+        FakeDriveServer.FakeFile spreadsheet = server.addFile("Sales", SPREADSHEET, csv);
+        server.limitExportSize(csv.length / 2);
+
+        assertArrayEquals(csv, Files.readAllBytes(export(spreadsheet)));
+    }
+
+    @Test
+    void testBulkExportsAreQueuedAsTransfers() throws Exception {
+        TransferManager manager = new TransferManager(client, 4, 1, 4);
+        Path directory = Files.createDirectory(tempDir.resolve("bulk"));
+        List<TransferManager.Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            FakeDriveServer.FakeFile file = server.addFile("Document " + i, DOCUMENT,
+                    ("document " + i).getBytes(StandardCharsets.UTF_8));
+            jobs.add(manager.download(new DriveFile(file.id, file.name, file.mimeType, null), directory.toString(),
+                    RateLimiter.Priority.BULK));
+        }
+        for (TransferManager.Job job : jobs) {
+            job.getResult().get(10, TimeUnit.SECONDS);
+            assertEquals(TransferManager.State.COMPLETED, job.getState());
+        }
+        for (int i = 0; i < 8; i++) {
+            assertEquals("document " + i, Files.readString(directory.resolve("Document-" + i + ".docx")));
+        }
+    }
+}
@@ -0,0 +1,748 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process stand-in for the parts of the Google Drive HTTP API used by the application, so tests can run
+ * without a Google account. Failures can be injected to exercise retry and resume logic.
+ */
+class FakeDriveServer implements AutoCloseable {
+    private static final Pattern NAME_PATTERN = Pattern.compile("\"name\"\\s*:\\s*\"([^\"]*)\"");
+    private static final Pattern MIMETYPE_PATTERN = Pattern.compile("\"mimeType\"\\s*:\\s*\"([^\"]*)\"");
+    private static final Pattern PARENT_PATTERN = Pattern.compile("\"parents\"\\s*:\\s*\\[\\s*\"([^\"]*)\"");
+    private static final Pattern MODIFIED_TIME_PATTERN = Pattern.compile("\"modifiedTime\"\\s*:\\s*\"([^\"]*)\"");
+    private static final Pattern PARENT_QUERY_PATTERN = Pattern.compile("'([^']*)' in parents");
+    private static final String BATCH_BOUNDARY = "batch_fake_boundary";
+    private static final String DENIED_ERROR = "{\"error\":{\"code\":403,\"errors\":[{\"reason\":"
+            + "\"insufficientFilePermissions\"}],\"message\":\"The user does not have sufficient permissions for "
+            + "this file.\"}}";
+    private static final String MODIFIED_TIME = "2024-01-01T00:00:00.000Z";
+    static final String FOLDER_MIMETYPE = "application/vnd.google-apps.folder";
+
+    /** Formats Google Workspace files can be exported to, by type */
+    static final Map<String, List<String>> EXPORT_FORMATS = Map.of(
+            "application/vnd.google-apps.document", List.of(
+                    "application/vnd.openxmlformats-officedocument.wordprocessingml.document", "application/pdf",
+                    "text/plain"),
+            "application/vnd.google-apps.spreadsheet", List.of(
+                    "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "text/csv", "application/pdf"),
+            "application/vnd.google-apps.presentation", List.of(
+                    "application/vnd.openxmlformats-officedocument.presentationml.presentation", "application/pdf"),
+            "application/vnd.google-apps.drawing", List.of("image/svg+xml", "image/png", "application/pdf"));
+
+    /**
+     * A file stored by the server
+     */
+    static class FakeFile {
+        final String id;
+        final String name;
+        final String mimeType;
+        final byte[] content;
+        final String parent;
+        final String modifiedTime;
+
+        FakeFile(String id, String name, String mimeType, byte[] content) {
+            this(id, name, mimeType, content, "root", MODIFIED_TIME);
+        }
+
+        FakeFile(String id, String name, String mimeType, byte[] content, String parent, String modifiedTime) {
+            this.id = id;
+            this.name = name;
+            this.mimeType = mimeType;
+            this.content = content;
+            this.parent = parent;
+            this.modifiedTime = modifiedTime;
+        }
+    }
+
+    /**
+     * An upload session which has not received all of its bytes yet
+     */
+    private static class UploadSession {
+        final String name;
+        final String mimeType;
+        long totalBytes;   // -1 until the last chunk of a stream of unknown length
+        final String parent;
+        final String modifiedTime;
+        final String targetId;   // file whose content is replaced, null for a new file
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        UploadSession(String name, String mimeType, long totalBytes, String parent, String modifiedTime,
+                      String targetId) {
+            this.name = name;
+            this.mimeType = mimeType;
+            this.totalBytes = totalBytes;
+            this.parent = parent;
+            this.modifiedTime = modifiedTime;
+            this.targetId = targetId;
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, FakeFile> files = new ConcurrentSkipListMap<>();   // sorted so listings are stable
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    final AtomicInteger sessionsStarted = new AtomicInteger();
+    final AtomicInteger chunksReceived = new AtomicInteger();
+    final AtomicInteger bytesReceived = new AtomicInteger();
+    final AtomicInteger copies = new AtomicInteger();
+
+    final AtomicInteger mediaRequests = new AtomicInteger();
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicInteger batches = new AtomicInteger();
+
+    private volatile int failingChunk = -1;
+    private volatile int bytesAcceptedBeforeFailure;
+    private final AtomicInteger throttledRequests = new AtomicInteger();
+    private volatile int throttleStatus;
+    private volatile String throttleRetryAfter;
+    private final AtomicInteger failingDownloads = new AtomicInteger();
+    private volatile int bytesSentBeforeFailure;
+    private volatile int exportSizeLimit = Integer.MAX_VALUE;
+    private final Set<String> deniedFiles = ConcurrentHashMap.newKeySet();
+    private volatile int failingBatch = -1;
+
+    FakeDriveServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return Root URL to point a Drive client at, ending with a slash
+     */
+    String rootUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * @return URL of the resumable upload endpoint
+     */
+    String uploadUrl() {
+        return rootUrl() + "upload/drive/v3/files?uploadType=resumable";
+    }
+
+    /**
+     * Makes the given upload chunk fail with a 503 response after storing only part of its bytes, as if the
+     * connection dropped mid-transfer
+     *
+     * @param chunkNumber Number of the failing chunk counted from 1 over the lifetime of the server
+     * @param bytesAccepted Number of bytes of the chunk stored before the failure
+     */
+    void failChunk(int chunkNumber, int bytesAccepted) {
+        bytesAcceptedBeforeFailure = bytesAccepted;
+        failingChunk = chunkNumber;
+    }
+
+    /**
+     * Makes the next requests of any kind fail with a rate limit error
+     *
+     * @param count Number of requests to fail
+     * @param status 429, or 403 as sent by Drive for userRateLimitExceeded
+     * @param retryAfter Value of the Retry-After header, null to send none
+     */
+    void throttle(int count, int status, String retryAfter) {
+        throttleStatus = status;
+        throttleRetryAfter = retryAfter;
+        throttledRequests.set(count);
+    }
+
+    /**
+     * Makes the next media downloads drop the connection after sending only part of the requested bytes
+     *
+     * @param count Number of downloads to fail
+     * @param bytesSent Number of bytes sent by each failing download
+     */
+    void failDownloads(int count, int bytesSent) {
+        bytesSentBeforeFailure = bytesSent;
+        failingDownloads.set(count);
+    }
+
+    /**
+     * Makes files.export refuse files larger than the given size, as Drive does above 10 MB, so they must be
+     * fetched from their export links
+     */
+    void limitExportSize(int bytes) {
+        exportSizeLimit = bytes;
+    }
+
+    /**
+     * Makes every request on the given file fail with 403 insufficientFilePermissions, as for a file shared
+     * read-only with the user
+     */
+    void denyAccess(String id) {
+        deniedFiles.add(id);
+    }
+
+    /**
+     * Makes a whole batch request fail with a 400 response before any of its parts run
+     *
+     * @param batchNumber Number of the failing batch counted from 1 over the lifetime of the server
+     */
+    void failBatch(int batchNumber) {
+        failingBatch = batchNumber;
+    }
+
+    /**
+     * Stores a file on the server
+     *
+     * @return The stored file
+     */
+    FakeFile addFile(String name, String mimeType, byte[] content) {
+        return addFile(name, mimeType, content, "root");
+    }
+
+    /**
+     * Stores a file in the given folder
+     *
+     * @return The stored file
+     */
+    FakeFile addFile(String name, String mimeType, byte[] content, String parent) {
+        String id = "file-" + nextId.incrementAndGet();
+        FakeFile file = new FakeFile(id, name, mimeType, content, parent, MODIFIED_TIME);
+        files.put(id, file);
+        return file;
+    }
+
+    /**
+     * Stores a folder in the given folder
+     *
+     * @return The stored folder
+     */
+    FakeFile addFolder(String name, String parent) {
+        return addFile(name, FOLDER_MIMETYPE, new byte[0], parent);
+    }
+
+    void removeFile(String id) {
+        files.remove(id);
+    }
+
+    /**
+     * Replaces the content of a stored file, as if it was edited on Google Drive
+     *
+     * @return The updated file
+     */
+    FakeFile replaceContent(String id, byte[] content) {
+        FakeFile old = files.get(id);
+        FakeFile file = new FakeFile(id, old.name, old.mimeType, content, old.parent, old.modifiedTime);
+        files.put(id, file);
+        return file;
+    }
+
+    /**
+     * @return The stored file with the given name in the given folder, null if there is none
+     */
+    FakeFile child(String parent, String name) {
+        for (FakeFile file : files.values()) {
+            if (file.parent.equals(parent) && file.name.equals(name)) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    FakeFile file(String id) {
+        return files.get(id);
+    }
+
+    /**
+     * @return Ids of the stored files in listing order
+     */
+    List<String> fileIds() {
+        return new ArrayList<>(files.keySet());
+    }
+
+    /**
+     * @return URL returning the content of the given file
+     */
+    String mediaUrl(String id) {
+        return rootUrl() + "drive/v3/files/" + id + "?alt=media";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            String method = exchange.getRequestMethod();
+            requests.incrementAndGet();
+            if (throttledRequests.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+                exchange.getRequestBody().readAllBytes();
+                if (throttleRetryAfter != null) {
+                    exchange.getResponseHeaders().set("Retry-After", throttleRetryAfter);
+                }
+                send(exchange, throttleStatus, "{\"error\":{\"code\":" + throttleStatus + ",\"errors\":[{\"reason\":"
+                        + "\"userRateLimitExceeded\"}],\"message\":\"User Rate Limit Exceeded\"}}");
+                return;
+            }
+            if (path.equals("/batch/drive/v3") && method.equals("POST")) {
+                handleBatch(exchange);
+                return;
+            }
+            if (path.startsWith("/drive/v3/files/") && deniedFiles.contains(fileId(path))) {
+                exchange.getRequestBody().readAllBytes();
+                send(exchange, 403, DENIED_ERROR);
+                return;
+            }
+            if (path.equals("/upload/drive/v3/files") && "resumable".equals(query.get("uploadType"))) {
+                if (method.equals("POST")) {
+                    startSession(exchange, null);
+                    return;
+                }
+                if (method.equals("PUT") && query.containsKey("upload_id")) {
+                    receiveChunk(exchange, query.get("upload_id"));
+                    return;
+                }
+            }
+            if (path.startsWith("/upload/drive/v3/files/") && method.equals("PATCH")
+                    && "resumable".equals(query.get("uploadType"))) {
+                String targetId = path.substring("/upload/drive/v3/files/".length());
+                if (files.containsKey(targetId)) {
+                    startSession(exchange, targetId);
+                    return;
+                }
+            }
+            if (path.equals("/drive/v3/files") && method.equals("GET")) {
+                sendListing(exchange, query);
+                return;
+            }
+            if (path.equals("/drive/v3/files") && method.equals("POST")) {
+                createFile(exchange);
+                return;
+            }
+            if (path.startsWith("/drive/v3/files/") && path.endsWith("/copy") && method.equals("POST")) {
+                FakeFile source = files.get(path.substring("/drive/v3/files/".length(),
+                        path.length() - "/copy".length()));
+                if (source != null) {
+                    copyFile(exchange, source);
+                    return;
+                }
+            }
+            if (path.equals("/drive/v3/about") && method.equals("GET")) {
+                sendAbout(exchange);
+                return;
+            }
+            if (path.startsWith("/drive/v3/files/") && path.endsWith("/export") && method.equals("GET")) {
+                String id = path.substring("/drive/v3/files/".length(), path.length() - "/export".length());
+                FakeFile file = files.get(id);
+                if (file != null) {
+                    sendExport(exchange, file, query.get("mimeType"), true);
+                    return;
+                }
+            }
+            if (path.startsWith("/exports/") && method.equals("GET")) {
+                FakeFile file = files.get(path.substring("/exports/".length()));
+                if (file != null) {
+                    sendExport(exchange, file, query.get("mimeType"), false);
+                    return;
+                }
+            }
+            if (path.equals("/drive/v3/files/root") && method.equals("GET")) {   // My Drive goes by its alias here
+                send(exchange, 200, "{\"id\":\"root\",\"name\":\"My Drive\",\"mimeType\":\""
+                        + FOLDER_MIMETYPE + "\"}");
+                return;
+            }
+            if (path.startsWith("/drive/v3/files/") && method.equals("GET")) {
+                FakeFile file = files.get(path.substring("/drive/v3/files/".length()));
+                if (file != null) {
+                    if ("media".equals(query.get("alt"))) {
+                        sendMedia(exchange, file);
+                    } else {
+                        send(exchange, 200, withExportLinks(file));
+                    }
+                    return;
+                }
+            }
+            send(exchange, 404, "{\"error\":{\"code\":404,\"message\":\"Not found\"}}");
+        } catch (IOException e) {
+            // connection dropped on purpose by an injected failure
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Answers a multipart batch request. Each part is run on its own and answered in order, with the status line,
+     * headers and body of its response, as Drive does.
+     */
+    private void handleBatch(HttpExchange exchange) throws IOException {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        String boundary = "--" + contentType.substring(contentType.indexOf("boundary=") + "boundary=".length())
+                .replace("\"", "");
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        if (batches.incrementAndGet() == failingBatch) {
+            failingBatch = -1;
+            send(exchange, 400, "{\"error\":{\"code\":400,\"message\":\"Invalid batch request\"}}");
+            return;
+        }
+        StringBuilder response = new StringBuilder();
+        int number = 0;
+        for (String part : body.split(Pattern.quote(boundary))) {
+            part = part.strip();
+            if (part.isEmpty() || part.equals("--")) {
+                continue;
+            }
+            String request = part.substring(part.indexOf("\r\n\r\n") + 4);   // skip the headers of the part
+            int headersEnd = request.indexOf("\r\n\r\n");
+            String[] requestLine = request.split("\r\n", 2)[0].split(" ");
+            String content = headersEnd < 0 ? "" : request.substring(headersEnd + 4);
+            URI uri = URI.create(requestLine[1]);
+            String[] answer = batchPart(requestLine[0], uri.getPath(), query(uri.getRawQuery()), content);
+            response.append("--").append(BATCH_BOUNDARY).append("\r\n")
+                    .append("Content-Type: application/http\r\n")
+                    .append("Content-ID: <response-").append(++number).append(">\r\n\r\n")
+                    .append("HTTP/1.1 ").append(answer[0]).append("\r\n");
+            if (answer[1] == null) {
+                response.append("Content-Length: 0\r\n\r\n\r\n");
+            } else {
+                byte[] json = answer[1].getBytes(StandardCharsets.UTF_8);
+                response.append("Content-Type: application/json; charset=UTF-8\r\n")
+                        .append("Content-Length: ").append(json.length).append("\r\n\r\n")
+                        .append(answer[1]).append("\r\n");
+            }
+        }
+        response.append("--").append(BATCH_BOUNDARY).append("--\r\n");
+        byte[] bytes = response.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "multipart/mixed; boundary=" + BATCH_BOUNDARY);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Runs one part of a batch: files.delete, files.get or files.update of the name or parent
+     *
+     * @return The status line and the JSON body of the response, null if it has none
+     */
+    private String[] batchPart(String method, String path, Map<String, String> query, String content) {
+        String id = fileId(path);
+        FakeFile file = path.startsWith("/drive/v3/files/") ? files.get(id) : null;
+        if (file != null && deniedFiles.contains(id)) {
+            return new String[] {"403 Forbidden", DENIED_ERROR};
+        }
+        if (file == null) {
+            return new String[] {"404 Not Found", "{\"error\":{\"code\":404,\"message\":\"File not found\"}}"};
+        }
+        switch (method) {
+            case "DELETE":
+                files.remove(id);
+                return new String[] {"204 No Content", null};
+            case "GET":
+                return new String[] {"200 OK", json(file)};
+            case "PATCH":
+                FakeFile updated = new FakeFile(id, field(NAME_PATTERN, content, file.name), file.mimeType,
+                        file.content, query.getOrDefault("addParents", file.parent), file.modifiedTime);
+                files.put(id, updated);
+                return new String[] {"200 OK", json(updated)};
+            default:
+                return new String[] {"405 Method Not Allowed", "{\"error\":{\"code\":405}}"};
+        }
+    }
+
+    /**
+     * @return The id in a path of the files endpoint, like file-1 in /drive/v3/files/file-1/export
+     */
+    private static String fileId(String path) {
+        String rest = path.substring(Math.min(path.length(), "/drive/v3/files/".length()));
+        return rest.contains("/") ? rest.substring(0, rest.indexOf('/')) : rest;
+    }
+
+    private void startSession(HttpExchange exchange, String targetId) throws IOException {
+        String metadata = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        FakeFile target = targetId == null ? null : files.get(targetId);
+        String id = "session-" + nextId.incrementAndGet();
+        String length = exchange.getRequestHeaders().getFirst("X-Upload-Content-Length");
+        sessions.put(id, new UploadSession(
+                field(NAME_PATTERN, metadata, target == null ? "Untitled" : target.name),
+                exchange.getRequestHeaders().getFirst("X-Upload-Content-Type"),
+                length == null ? -1 : Long.parseLong(length),
+                field(PARENT_PATTERN, metadata, target == null ? "root" : target.parent),
+                field(MODIFIED_TIME_PATTERN, metadata, MODIFIED_TIME),
+                targetId));
+        sessionsStarted.incrementAndGet();
+        exchange.getResponseHeaders().set("Location", uploadUrl() + "&upload_id=" + id);
+        send(exchange, 200, null);
+    }
+
+    private void receiveChunk(HttpExchange exchange, String sessionId) throws IOException {
+        UploadSession session = sessions.get(sessionId);
+        byte[] body = exchange.getRequestBody().readAllBytes();
+        if (session == null) {
+            send(exchange, 404, "{\"error\":{\"code\":404,\"message\":\"Upload session not found\"}}");
+            return;
+        }
+        String contentRange = exchange.getRequestHeaders().getFirst("Content-Range");
+        synchronized (session) {
+            if (!contentRange.startsWith("bytes */")) {
+                long first = Long.parseLong(contentRange.substring(6, contentRange.indexOf('-')));
+                int chunk = chunksReceived.incrementAndGet();
+                int accepted = body.length;
+                boolean fail = chunk == failingChunk;
+                if (fail) {
+                    failingChunk = -1;
+                    accepted = Math.min(bytesAcceptedBeforeFailure, body.length);
+                }
+                if (first == session.received.size()) {
+                    session.received.write(body, 0, accepted);
+                    bytesReceived.addAndGet(accepted);
+                }
+                if (fail) {
+                    send(exchange, 503, "{\"error\":{\"code\":503,\"message\":\"Backend Error\"}}");
+                    return;
+                }
+            }
+            String total = contentRange.substring(contentRange.indexOf('/') + 1);
+            if (!total.equals("*")) {
+                session.totalBytes = Long.parseLong(total);
+            }
+            if (session.totalBytes < 0 || session.received.size() < session.totalBytes) {
+                if (session.received.size() > 0) {
+                    exchange.getResponseHeaders().set("Range", "bytes=0-" + (session.received.size() - 1));
+                }
+                send(exchange, 308, null);
+                return;
+            }
+            sessions.remove(sessionId);
+            String id = session.targetId != null ? session.targetId : "file-" + nextId.incrementAndGet();
+            FakeFile file = new FakeFile(id, session.name, session.mimeType, session.received.toByteArray(),
+                    session.parent, session.modifiedTime);
+            files.put(id, file);
+            send(exchange, 200, json(file));
+        }
+    }
+
+    /**
+     * Creates a file without content, such as a folder, from the metadata in the request body
+     */
+    private void createFile(HttpExchange exchange) throws IOException {
+        String metadata = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        String id = "file-" + nextId.incrementAndGet();
+        FakeFile file = new FakeFile(id, field(NAME_PATTERN, metadata, "Untitled"),
+                field(MIMETYPE_PATTERN, metadata, "application/octet-stream"), new byte[0],
+                field(PARENT_PATTERN, metadata, "root"), field(MODIFIED_TIME_PATTERN, metadata, MODIFIED_TIME));
+        files.put(id, file);
+        send(exchange, 200, json(file));
+    }
+
+    /**
+     * Copies a file on the server, taking the name, folder and modified time of the copy from the request body
+     */
+    private void copyFile(HttpExchange exchange, FakeFile source) throws IOException {
+        String metadata = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        String id = "file-" + nextId.incrementAndGet();
+        FakeFile file = new FakeFile(id, field(NAME_PATTERN, metadata, "Copy of " + source.name), source.mimeType,
+                source.content, field(PARENT_PATTERN, metadata, source.parent),
+                field(MODIFIED_TIME_PATTERN, metadata, source.modifiedTime));
+        files.put(id, file);
+        copies.incrementAndGet();
+        send(exchange, 200, json(file));
+    }
+
+    /**
+     * Sends a page of the file listing, restricted to one folder if the query names a parent. Page tokens are the
+     * offset of the page in the listing.
+     */
+    private void sendListing(HttpExchange exchange, Map<String, String> query) throws IOException {
+        List<FakeFile> all = new ArrayList<>();
+        Matcher parent = PARENT_QUERY_PATTERN.matcher(query.getOrDefault("q", ""));
+        String folder = parent.find() ? parent.group(1) : null;
+        for (FakeFile file : files.values()) {
+            if (folder == null || folder.equals(file.parent)) {
+                all.add(file);
+            }
+        }
+        if (query.containsKey("orderBy")) {
+            all.sort(order(query.get("orderBy")));
+        }
+        int first = query.containsKey("pageToken") ? Integer.parseInt(query.get("pageToken")) : 0;
+        int pageSize = query.containsKey("pageSize") ? Integer.parseInt(query.get("pageSize")) : 100;
+        int last = Math.min(all.size(), first + pageSize);
+        send(exchange, 200, listingJson(all.subList(first, last), last < all.size() ? String.valueOf(last) : null));
+    }
+
+    /**
+     * @param orderBy Value of the orderBy parameter, ordering by name and modifiedTime is supported
+     * @return Comparator listing files in the given order
+     */
+    private static Comparator<FakeFile> order(String orderBy) {
+        Comparator<FakeFile> order = null;
+        for (String key : orderBy.split(",")) {
+            String[] parts = key.trim().split(" ");
+            Comparator<FakeFile> byKey = parts[0].equals("name")
+                    ? Comparator.comparing(file -> file.name) : Comparator.comparing(file -> file.modifiedTime);
+            if (parts.length > 1 && parts[1].equals("desc")) {
+                byKey = byKey.reversed();
+            }
+            order = order == null ? byKey : order.thenComparing(byKey);
+        }
+        return order;
+    }
+
+    private void sendMedia(HttpExchange exchange, FakeFile file) throws IOException {
+        mediaRequests.incrementAndGet();
+        int first = 0;
+        int last = file.content.length - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            first = Integer.parseInt(range.substring(6, range.indexOf('-')));
+            String end = range.substring(range.indexOf('-') + 1);
+            last = end.isEmpty() ? last : Math.min(last, Integer.parseInt(end));
+            status = 206;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + last + "/" + file.content.length);
+        }
+        int length = last - first + 1;
+        boolean fail = failingDownloads.getAndUpdate(count -> Math.max(0, count - 1)) > 0;
+        exchange.getResponseHeaders().set("Content-Type", file.mimeType);
+        exchange.sendResponseHeaders(status, length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(file.content, first, fail ? Math.min(bytesSentBeforeFailure, length) : length);
+        out.close();
+    }
+
+    private void sendAbout(HttpExchange exchange) throws IOException {
+        StringBuilder body = new StringBuilder("{\"exportFormats\":{");
+        String separator = "";
+        for (Map.Entry<String, List<String>> formats : EXPORT_FORMATS.entrySet()) {
+            body.append(separator).append('"').append(formats.getKey()).append("\":[\"")
+                    .append(String.join("\",\"", formats.getValue())).append("\"]");
+            separator = ",";
+        }
+        send(exchange, 200, body.append("}}").toString());
+    }
+
+    /**
+     * Sends the content of a Google Workspace file as its export, in chunks with no declared length like Drive
+     *
+     * @param limited Whether the size limit of files.export applies, it does not to export links
+     */
+    private void sendExport(HttpExchange exchange, FakeFile file, String mimeType, boolean limited)
+            throws IOException {
+        if (!EXPORT_FORMATS.getOrDefault(file.mimeType, List.of()).contains(mimeType)) {
+            send(exchange, 400, "{\"error\":{\"code\":400,\"message\":\"Export format not supported\"}}");
+            return;
+        }
+        if (limited && file.content.length > exportSizeLimit) {
+            send(exchange, 403, "{\"error\":{\"code\":403,\"errors\":[{\"reason\":\"exportSizeLimitExceeded\"}],"
+                    + "\"message\":\"This file is too large to be exported.\"}}");
+            return;
+        }
+        mediaRequests.incrementAndGet();
+        exchange.getResponseHeaders().set("Content-Type", mimeType);
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(file.content);
+        }
+    }
+
+    /**
+     * @return The metadata of a file, with export links if it is a Google Workspace file
+     */
+    private String withExportLinks(FakeFile file) {
+        List<String> formats = EXPORT_FORMATS.get(file.mimeType);
+        String json = json(file);
+        if (formats == null) {
+            return json;
+        }
+        StringBuilder links = new StringBuilder(",\"exportLinks\":{");
+        for (int i = 0; i < formats.size(); i++) {
+            links.append(i > 0 ? "," : "").append('"').append(formats.get(i)).append("\":\"").append(rootUrl())
+                    .append("exports/").append(file.id).append("?mimeType=")
+                    .append(URLEncoder.encode(formats.get(i), StandardCharsets.UTF_8)).append('"');
+        }
+        return json.substring(0, json.length() - 1) + links.append("}}");
+    }
+
+    static String json(FakeFile file) {
+        return "{\"id\":\"" + file.id + "\",\"name\":\"" + file.name + "\",\"mimeType\":\"" + file.mimeType
+                + "\",\"modifiedTime\":\"" + file.modifiedTime + "\",\"parents\":[\"" + file.parent
+                + "\"],\"size\":\"" + file.content.length
+                + "\",\"md5Checksum\":\"" + md5(file.content) + "\"}";
+    }
+
+    /**
+     * @return Body of a files.list response holding the given files
+     */
+    static String listingJson(List<FakeFile> page, String nextPageToken) {
+        StringBuilder body = new StringBuilder("{");
+        if (nextPageToken != null) {
+            body.append("\"nextPageToken\":\"").append(nextPageToken).append("\",");
+        }
+        body.append("\"files\":[");
+        for (int i = 0; i < page.size(); i++) {
+            body.append(i > 0 ? "," : "").append(json(page.get(i)));
+        }
+        return body.append("]}").toString();
+    }
+
+    static String md5(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery != null) {
+            for (String pair : rawQuery.split("&")) {
+                int eq = pair.indexOf('=');
+                params.put(eq < 0 ? pair : pair.substring(0, eq),
+                        eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static String field(Pattern pattern, String json, String defaultValue) {
+        Matcher matcher = pattern.matcher(json);
+        return matcher.find() ? matcher.group(1) : defaultValue;
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
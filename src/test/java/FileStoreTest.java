@@ -0,0 +1,147 @@
+import com.google.api.client.util.DateTime;
+import javafx.collections.ListChangeListener;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileStoreTest {
+    private static DriveFile file(int i) {
+        return new DriveFile("id-" + i, "file " + i + ".txt", i % 2 == 0 ? "text/plain" : "image/png",
+                new DateTime(false, 1700000000000L + i, 0));
+    }
+
+    private static void assertRow(DriveFile expected, DriveFile actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getLastModifiedDate().getValue(), actual.getLastModifiedDate().getValue());
+    }
+
+    @Test
+    void testRowsReadBackAsWritten() {
+        FileStore store = new FileStore();
+        List<DriveFile> files = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            files.add(file(i));
+        }
+        store.addAll(files);
+        store.add(new DriveFile("no-date", null, null, null));
+        assertEquals(5001, store.size());
+        for (int i = 0; i < 5000; i++) {
+            assertRow(files.get(i), store.get(i));
+        }
+        assertEquals("id-4321", store.getId(4321));
+        DriveFile noDate = store.get(5000);
+        assertEquals("", noDate.getName());
+        assertNull(noDate.getType());
+        assertNull(noDate.getLastModifiedDate());
+        assertEquals("", FileStore.modifiedValue(noDate).getValue());
+    }
+
+    @Test
+    void testChangesKeepOtherRows() {
+        FileStore store = new FileStore();
+        for (int i = 0; i < 3000; i++) {
+            store.add(file(i));
+        }
+        // replacing and removing enough rows to compact the shared chars several times
+        for (int i = 0; i < 3000; i += 2) {
+            store.set(i, new DriveFile("new-" + i, "renamed " + i, "application/pdf", new DateTime(false, i, 0)));
+        }
+        for (int i = 2999; i >= 0; i -= 3) {
+            store.remove(i);
+        }
+        store.add(0, file(-1));
+        assertEquals(2001, store.size());
+        assertRow(file(-1), store.get(0));
+        assertEquals("new-0", store.get(1).getId());
+        assertEquals("renamed 0", store.get(1).getName());
+        assertEquals("application/pdf", store.get(1).getType());
+        assertRow(file(1), store.get(2));
+        assertRow(file(3), store.get(3));
+        assertEquals("new-4", store.get(4).getId());
+        store.clear();
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    void testCellValuesAreCachedWithTheRow() {
+        FileStore store = new FileStore();
+        store.add(file(1));
+        DriveFile row = store.get(0);
+        assertSame(row, store.get(0));
+        assertSame(FileStore.nameValue(row), FileStore.nameValue(store.get(0)));
+        assertSame(FileStore.modifiedValue(row), FileStore.modifiedValue(store.get(0)));
+        assertEquals("image/png", FileStore.typeValue(row).getValue());
+
+        store.set(0, file(2));
+        assertNotSame(row, store.get(0));
+        assertEquals("file 2.txt", FileStore.nameValue(store.get(0)).getValue());
+        assertNull(store.get(0).getThumbnailLink());
+
+        DriveFile linked = file(3);
+        linked.ThumbnailLink = "https://lh3.example/3=s220";
+        store.add(0, linked);
+        assertEquals("https://lh3.example/3=s220", store.get(0).getThumbnailLink());
+        assertNull(store.get(1).getThumbnailLink());
+    }
+
+    @Test
+    void testRowsAreFoundById() {
+        FileStore store = new FileStore();
+        for (int i = 0; i < 5000; i++) {
+            store.add(file(i));
+        }
+        assertEquals(4321, store.indexOfId("id-4321"));
+        assertEquals(-1, store.indexOfId("id-5000"));
+
+        store.add(0, file(-1));
+        store.set(10, file(9999));
+        store.remove(20);
+        assertEquals(0, store.indexOfId("id--1"));
+        assertEquals(10, store.indexOfId("id-9999"));
+        assertEquals(-1, store.indexOfId("id-9"));
+        assertEquals(-1, store.indexOfId("id-19"));
+        assertEquals(20, store.indexOfId("id-20"));
+        assertEquals(4999, store.indexOfId("id-4999"));
+    }
+
+    @Test
+    void testRemovedIdsAreOneChange() {
+        FileStore store = new FileStore();
+        for (int i = 0; i < 3000; i++) {
+            store.add(file(i));
+        }
+        AtomicInteger changes = new AtomicInteger();
+        store.addListener((ListChangeListener<DriveFile>) change -> changes.incrementAndGet());
+
+        assertEquals(3, store.removeIds(Set.of("id-0", "id-1500", "id-2999", "missing")));
+        assertEquals(1, changes.get());
+        assertEquals(2997, store.size());
+        assertRow(file(1), store.get(0));
+        assertRow(file(1501), store.get(1499));
+        assertRow(file(2998), store.get(2996));
+        assertEquals(1499, store.indexOfId("id-1501"));
+        assertEquals(0, store.removeIds(Set.of("id-0")));
+        assertEquals(1, changes.get());
+    }
+
+    @Test
+    void testPutAllReplacesInPlaceAndAppends() {
+        FileStore store = new FileStore(List.of(file(0), file(1), file(2)));
+        AtomicInteger changes = new AtomicInteger();
+        store.addListener((ListChangeListener<DriveFile>) change -> changes.incrementAndGet());
+
+        store.putAll(List.of(new DriveFile("id-1", "renamed", "text/plain", null), file(3)));
+        assertEquals(1, changes.get());
+        assertEquals(4, store.size());
+        assertEquals("renamed", store.get(1).getName());
+        assertRow(file(3), store.get(3));
+        assertEquals(3, store.indexOfId("id-3"));
+    }
+}
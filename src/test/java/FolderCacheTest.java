@@ -0,0 +1,65 @@
+import com.google.api.client.util.DateTime;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FolderCacheTest {
+    private static List<DriveFile> files(String prefix, int count) {
+        List<DriveFile> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            files.add(new DriveFile(prefix + i, prefix + i));
+        }
+        return files;
+    }
+
+    @Test
+    void testServesListingUntilFolderChanges() {
+        FolderCache cache = new FolderCache(100);
+        cache.put("a", new DateTime(1000), files("a", 3));
+
+        assertEquals(3, cache.get("a", new DateTime(1000)).size());
+        assertEquals(3, cache.get("a", null).size());
+        assertNull(cache.get("a", new DateTime(2000)));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getTotalFiles());
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsedListings() {
+        FolderCache cache = new FolderCache(10);
+        cache.put("a", null, files("a", 4));
+        cache.put("b", null, files("b", 4));
+        cache.get("a", null);   // b is now the least recently used
+        cache.put("c", null, files("c", 4));
+
+        assertNotNull(cache.get("a", null));
+        assertNull(cache.get("b", null));
+        assertNotNull(cache.get("c", null));
+        assertEquals(8, cache.getTotalFiles());
+    }
+
+    @Test
+    void testSkipsListingLargerThanBound() {
+        FolderCache cache = new FolderCache(10);
+        cache.put("a", null, files("a", 4));
+        cache.put("b", null, files("b", 11));
+
+        assertNull(cache.get("b", null));
+        assertNotNull(cache.get("a", null));
+    }
+
+    @Test
+    void testReplacesAndInvalidatesListing() {
+        FolderCache cache = new FolderCache(10);
+        cache.put("a", null, files("a", 4));
+        cache.put("a", null, files("a", 2));
+        assertEquals(2, cache.getTotalFiles());
+
+        cache.invalidate("a");
+        assertNull(cache.get("a", null));
+        assertEquals(0, cache.getTotalFiles());
+    }
+}
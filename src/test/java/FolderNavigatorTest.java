@@ -0,0 +1,128 @@
+import com.google.api.client.util.DateTime;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FolderNavigatorTest {
+    private static final DriveFile FOLDER_1 = folder("f1", 1000);
+    private static final DriveFile FOLDER_2 = folder("f2", 1000);
+    private static final DriveFile FOLDER_11 = folder("f11", 1000);
+
+    /**
+     * Folder tree root > (f1 > (f11, a), f2, b) recording every listing
+     */
+    private static class FakeFolders implements FolderNavigator.FolderSource {
+        final Map<String, List<DriveFile>> children = Map.of(
+                "root", List.of(FOLDER_1, FOLDER_2, new DriveFile("b", "b")),
+                "f1", List.of(FOLDER_11, new DriveFile("a", "a")),
+                "f2", List.of(),
+                "f11", List.of());
+        final List<String> listed = new ArrayList<>();
+        final List<RateLimiter.Priority> priorities = new ArrayList<>();
+        BiConsumer<String, RateLimiter.Priority> whileListing = (folderId, priority) -> { };
+
+        @Override
+        public List<DriveFile> list(String folderId, RateLimiter.Priority priority) {
+            listed.add(folderId);
+            priorities.add(priority);
+            whileListing.accept(folderId, priority);
+            return children.get(folderId);
+        }
+    }
+
+    private static DriveFile folder(String id, long modified) {
+        return new DriveFile(id, id, DriveClient.FOLDER_MIMETYPE, new DateTime(modified));
+    }
+
+    private static FolderNavigator navigator(FakeFolders folders, int depth, int limit) {
+        return new FolderNavigator(new FolderCache(100), folders, Runnable::run, Runnable::run, depth, limit);
+    }
+
+    @Test
+    void testPrefetchedSubfolderOpensFromCache() {
+        FakeFolders folders = new FakeFolders();
+        FolderNavigator navigator = navigator(folders, 1, 10);
+
+        assertEquals(3, navigator.open(FolderNavigator.MY_DRIVE).join().size());
+        assertEquals(List.of("root", "f1", "f2"), folders.listed);
+        assertEquals(List.of(RateLimiter.Priority.INTERACTIVE, RateLimiter.Priority.BACKGROUND,
+                RateLimiter.Priority.BACKGROUND), folders.priorities);
+
+        folders.listed.clear();
+        assertTrue(navigator.open(FOLDER_1).isDone());
+        assertEquals(List.of("f11"), folders.listed);   // only the prefetch below f1
+        assertEquals(List.of(FolderNavigator.MY_DRIVE, FOLDER_1), navigator.path());
+
+        folders.listed.clear();
+        assertEquals(3, navigator.back().join().size());
+        assertEquals(List.of(), folders.listed);
+        assertEquals(FolderNavigator.MY_DRIVE, navigator.current());
+
+        assertNull(navigator.back().join());
+        assertNull(navigator.current());
+    }
+
+    @Test
+    void testPrefetchIsBreadthFirstAndLimited() {
+        FakeFolders folders = new FakeFolders();
+        navigator(folders, 2, 10).open(FolderNavigator.MY_DRIVE).join();
+        assertEquals(List.of("root", "f1", "f2", "f11"), folders.listed);
+
+        FakeFolders limited = new FakeFolders();
+        FolderNavigator navigator = navigator(limited, 2, 1);
+        navigator.open(FolderNavigator.MY_DRIVE).join();
+        assertEquals(List.of("root", "f1"), limited.listed);
+        assertEquals(1, navigator.getPrefetchCount());
+    }
+
+    @Test
+    void testChangedFolderIsListedAgain() {
+        FakeFolders folders = new FakeFolders();
+        FolderNavigator navigator = navigator(folders, 1, 10);
+        navigator.open(FolderNavigator.MY_DRIVE).join();
+        folders.listed.clear();
+
+        navigator.open(folder("f1", 2000)).join();   // modified since it was listed ahead
+        assertEquals("f1", folders.listed.get(0));
+        assertEquals(RateLimiter.Priority.INTERACTIVE, folders.priorities.get(3));
+
+        folders.listed.clear();
+        navigator.reload().join();
+        assertEquals("f1", folders.listed.get(0));
+    }
+
+    @Test
+    void testFolderListedAheadIsListedAgainWhenOpened() {
+        FakeFolders folders = new FakeFolders();
+        FolderNavigator navigator = navigator(folders, 1, 10);
+        List<DriveFile> opened = new ArrayList<>();
+        folders.whileListing = (folderId, priority) -> {
+            if (folderId.equals("f1") && priority == RateLimiter.Priority.BACKGROUND) {   // opened mid prefetch
+                opened.addAll(navigator.open(FOLDER_1).join());
+            }
+        };
+
+        navigator.open(FolderNavigator.MY_DRIVE).join();
+        assertEquals(2, opened.size());
+        assertEquals(List.of("root", "f1", "f1"), folders.listed.subList(0, 3));
+        assertEquals(RateLimiter.Priority.INTERACTIVE, folders.priorities.get(2));
+    }
+
+    @Test
+    void testPrefetchStopsWhenAnotherFolderIsShown() {
+        FakeFolders folders = new FakeFolders();
+        List<Runnable> background = new ArrayList<>();
+        FolderNavigator navigator = new FolderNavigator(new FolderCache(100), folders, Runnable::run,
+                background::add, 1, 10);
+
+        navigator.open(FolderNavigator.MY_DRIVE).join();
+        navigator.open(FOLDER_2).join();
+        background.forEach(Runnable::run);
+        assertEquals(List.of("root", "f2"), folders.listed);   // the prefetch below root was dropped
+    }
+}
@@ -0,0 +1,170 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FolderSyncTest {
+    @TempDir
+    Path tempDir;
+
+    private FakeDriveServer server;
+    private FolderSync sync;
+    private Path local;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new FakeDriveServer();
+        DriveClient client = new DriveClient(DriveClient.newPooledTransport(8), null, server.rootUrl(),
+                tempDir.resolve("uploads").toFile());
+        sync = new FolderSync(client, 4);
+        local = tempDir.resolve("mirror");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testRemoteTreeIsDownloadedOnce() throws Exception {
+        FakeDriveServer.FakeFile folder = server.addFolder("docs", "root");
+        server.addFile("a.txt", "text/plain", bytes("alpha"), "root");
+        server.addFile("b.txt", "text/plain", bytes("beta"), folder.id);
+        server.addFile("notes", "application/vnd.google-apps.document", new byte[0], folder.id);
+
+        FolderSync.Result first = sync.sync("root", local);
+        assertTrue(first.isSuccessful());
+        assertEquals(2, first.downloaded.get());
+        assertEquals(1, first.skipped.get());
+        assertEquals("alpha", Files.readString(local.resolve("a.txt")));
+        assertEquals("beta", Files.readString(local.resolve("docs/b.txt")));
+
+        FolderSync.Result second = sync.sync("root", local);
+        assertEquals(0, second.downloaded.get());
+        assertEquals(0, second.uploaded.get());
+        assertEquals(2, second.unchanged.get());
+    }
+
+    @Test
+    void testLocalTreeIsUploadedIntoMatchingFolders() throws Exception {
+        Files.createDirectories(local.resolve("photos/2024"));
+        Files.writeString(local.resolve("photos/2024/c.txt"), "gamma");
+        Files.writeString(local.resolve("d.txt"), "delta");
+
+        FolderSync.Result first = sync.sync("root", local);
+        assertTrue(first.isSuccessful());
+        assertEquals(2, first.uploaded.get());
+        FakeDriveServer.FakeFile photos = server.child("root", "photos");
+        FakeDriveServer.FakeFile year = server.child(photos.id, "2024");
+        assertArrayEquals(bytes("gamma"), server.child(year.id, "c.txt").content);
+        assertArrayEquals(bytes("delta"), server.child("root", "d.txt").content);
+
+        FolderSync.Result second = sync.sync("root", local);
+        assertEquals(0, second.uploaded.get());
+        assertEquals(0, second.downloaded.get());
+        assertEquals(2, second.unchanged.get());
+    }
+
+    @Test
+    void testDeduplicatedUploadsLandInTheSyncedFolder() throws Exception {
+        DriveClient client = new DriveClient(DriveClient.newPooledTransport(8), null, server.rootUrl(),
+                tempDir.resolve("uploads").toFile());
+        client.setDeduplication(DriveClient.DuplicateUploads.SKIP,
+                ContentHashes.load(tempDir.resolve("hashes").toFile()),
+                ChecksumIndex.load(tempDir.resolve("checksums").toFile()));
+        sync = new FolderSync(client, 4);
+        FakeDriveServer.FakeFile archive = server.addFolder("archive", "root");
+        server.addFile("old-e.txt", "text/plain", bytes("epsilon"), archive.id);
+        FakeDriveServer.FakeFile target = server.addFolder("target", "root");
+        Files.createDirectories(local);
+        Files.writeString(local.resolve("e.txt"), "epsilon");
+
+        FolderSync.Result first = sync.sync(target.id, local);
+        assertTrue(first.isSuccessful());
+        assertEquals(1, first.uploaded.get());
+        assertEquals(1, server.copies.get());
+        assertArrayEquals(bytes("epsilon"), server.child(target.id, "e.txt").content);
+
+        FolderSync.Result second = sync.sync(target.id, local);
+        assertEquals(0, second.uploaded.get());
+        assertEquals(1, second.unchanged.get());
+        assertEquals(1, server.copies.get());
+    }
+
+    @Test
+    void testNewerSideWins() throws Exception {
+        FakeDriveServer.FakeFile stale = server.addFile("stale.txt", "text/plain", bytes("old remote"), "root");
+        server.addFile("fresh.txt", "text/plain", bytes("new remote"), "root");
+        Files.createDirectories(local);
+        Files.writeString(local.resolve("stale.txt"), "new local");
+        Files.writeString(local.resolve("fresh.txt"), "old local");
+        Files.setLastModifiedTime(local.resolve("fresh.txt"), FileTime.fromMillis(0));
+
+        FolderSync.Result result = sync.sync("root", local);
+        assertTrue(result.isSuccessful());
+        assertEquals(1, result.uploaded.get());
+        assertEquals(1, result.downloaded.get());
+        assertArrayEquals(bytes("new local"), server.file(stale.id).content);
+        assertEquals("new remote", Files.readString(local.resolve("fresh.txt")));
+    }
+
+    @Test
+    void testFailedDownloadKeepsTheLocalCopy() throws Exception {
+        server.addFile("notes.txt", "text/plain", bytes("new remote content"), "root");
+        Files.createDirectories(local);
+        Files.writeString(local.resolve("notes.txt"), "old local");
+        Files.setLastModifiedTime(local.resolve("notes.txt"), FileTime.fromMillis(0));
+        server.failDownloads(100, 3);
+
+        FolderSync.Result result = sync.sync("root", local);
+        assertEquals(1, result.failed.size());
+        assertEquals("old local", Files.readString(local.resolve("notes.txt")));
+        try (var entries = Files.list(local)) {
+            assertEquals(1, entries.count());   // no partial download left behind
+        }
+    }
+
+    @Test
+    void testSymbolicLinksAreNotFollowed() throws Exception {
+        Files.createDirectories(local.resolve("docs"));
+        Files.writeString(local.resolve("docs/a.txt"), "a");
+        Files.createSymbolicLink(local.resolve("docs/loop"), local);
+
+        FolderSync.Result result = sync.sync("root", local);
+        assertEquals(1, result.uploaded.get());
+        assertEquals(1, result.links.size());
+        assertNull(server.child(server.child("root", "docs").id, "loop"));
+    }
+
+    @Test
+    void testNamesLeadingOutOfTheDirectoryAreReported() throws Exception {
+        FakeDriveServer.FakeFile docs = server.addFolder("docs", "root");
+        server.addFile("../escaped.txt", "text/plain", bytes("out"), docs.id);
+        server.addFile("..", "text/plain", bytes("up"), docs.id);
+        server.addFolder("a/b", docs.id);
+        server.addFile("kept.txt", "text/plain", bytes("in"), docs.id);
+
+        FolderSync.Result result = sync.sync(docs.id, local);
+        assertFalse(result.isSuccessful());
+        assertEquals(3, result.unsafeNames.size());
+        assertEquals(1, result.downloaded.get());
+        assertEquals("in", Files.readString(local.resolve("kept.txt")));
+        assertFalse(Files.exists(tempDir.resolve("escaped.txt")));
+        assertFalse(Files.exists(local.resolve("a")));
+        assertFalse(FolderSync.isSafeFileName("."));
+        assertFalse(FolderSync.isSafeFileName("a\\b"));
+        assertTrue(FolderSync.isSafeFileName("..."));
+    }
+}
@@ -0,0 +1,95 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ListingPrefetcherTest {
+    /**
+     * Listing of 5 pages whose requests complete only when the test says so
+     */
+    private static class FakeListing implements ListingPrefetcher.PageSource {
+        final List<String> requestedTokens = new ArrayList<>();
+        final List<Integer> requestedSizes = new ArrayList<>();
+        final List<CompletableFuture<ListingPrefetcher.Page>> requests = new ArrayList<>();
+
+        @Override
+        public CompletableFuture<ListingPrefetcher.Page> fetch(String pageToken, int pageSize) {
+            requestedTokens.add(pageToken);
+            requestedSizes.add(pageSize);
+            CompletableFuture<ListingPrefetcher.Page> request = new CompletableFuture<>();
+            requests.add(request);
+            return request;
+        }
+
+        void complete(int request) {
+            int page = pageNumber(requestedTokens.get(request));
+            List<DriveFile> files = List.of(new DriveFile("id" + page, "file" + page));
+            requests.get(request).complete(new ListingPrefetcher.Page(files, page < 5 ? "token" + (page + 1) : null));
+        }
+
+        private static int pageNumber(String token) {
+            return token == null ? 1 : Integer.parseInt(token.substring(5));
+        }
+    }
+
+    @Test
+    void testReadsAheadToDepth() {
+        FakeListing listing = new FakeListing();
+        ListingPrefetcher prefetcher = new ListingPrefetcher(listing, 2, 20);
+        prefetcher.restart(null, false);
+        assertEquals(1, listing.requests.size());
+
+        listing.complete(0);
+        assertEquals(List.of("token2"), listing.requestedTokens.subList(1, 2));
+
+        CompletableFuture<ListingPrefetcher.Page> first = prefetcher.next();
+        assertEquals("id1", first.join().files.get(0).getId());
+        listing.complete(1);
+        // handing out page 1 keeps two pages in flight: page 2 and page 3
+        assertEquals(Arrays.asList(null, "token2", "token3"), listing.requestedTokens);
+    }
+
+    @Test
+    void testListingEndsWithNull() {
+        FakeListing listing = new FakeListing();
+        ListingPrefetcher prefetcher = new ListingPrefetcher(listing, 3, 20);
+        prefetcher.restart("token5", false);
+        listing.complete(0);
+
+        assertNotNull(prefetcher.next().join());
+        assertNull(prefetcher.next().join());
+        assertEquals(1, listing.requests.size());
+    }
+
+    @Test
+    void testRestartCancelsPendingPages() {
+        FakeListing listing = new FakeListing();
+        ListingPrefetcher prefetcher = new ListingPrefetcher(listing, 2, 20);
+        prefetcher.restart(null, false);
+        CompletableFuture<ListingPrefetcher.Page> page = prefetcher.next();
+
+        prefetcher.restart("token3", false);
+        listing.complete(0);
+
+        assertThrows(CancellationException.class, page::join);
+        assertEquals(Arrays.asList(null, "token3"), listing.requestedTokens);
+    }
+
+    @Test
+    void testPageSizeFollowsScrollSpeed() throws InterruptedException {
+        ListingPrefetcher prefetcher = new ListingPrefetcher(new FakeListing(), 2, 20);
+        assertEquals(20, prefetcher.nextPageSize());
+
+        prefetcher.recordScroll(0);
+        Thread.sleep(10);
+        prefetcher.recordScroll(5000);
+        int size = prefetcher.nextPageSize();
+        assertTrue(size > 20);
+        assertTrue(size <= ListingPrefetcher.MAX_PAGE_SIZE);
+    }
+}
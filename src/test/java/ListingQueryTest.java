@@ -0,0 +1,42 @@
+import com.google.api.client.util.DateTime;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ListingQueryTest {
+    @Test
+    void testFiltersAreCombined() {
+        assertNull(ListingQuery.ALL.getQ());
+        ListingQuery query = ListingQuery.ALL
+                .withMimeType("application/pdf")
+                .inFolder("root")
+                .withModifiedAfter(new DateTime(false, 1704067200000L, 0))
+                .withModifiedBefore(new DateTime(false, 1735689600000L, 0))
+                .withTrashed(false)
+                .withNameContaining("report");
+        assertEquals("mimeType = 'application/pdf' and 'root' in parents"
+                + " and modifiedTime > '2024-01-01T00:00:00.000Z' and modifiedTime < '2025-01-01T00:00:00.000Z'"
+                + " and trashed = false and name contains 'report'", query.getQ());
+        assertNull(query.withMimeType(null).inFolder(null).withModifiedAfter(null).withModifiedBefore(null)
+                .withTrashed(null).withNameContaining(null).getQ());
+    }
+
+    @Test
+    void testLiteralsAreEscaped() {
+        assertEquals("name contains 'Bob\\'s \\\\ notes'", ListingQuery.ALL.withNameContaining("Bob's \\ notes").getQ());
+    }
+
+    @Test
+    void testOrderAndFields() {
+        assertNull(ListingQuery.ALL.getOrderBy());
+        assertEquals("nextPageToken, files(modifiedTime,id,name,mimeType,thumbnailLink)",
+                ListingQuery.ALL.getFields());
+
+        ListingQuery query = ListingQuery.ALL.orderBy("folder", false).orderBy("name", true).withFields("name", "id");
+        assertEquals("folder,name desc", query.getOrderBy());
+        assertEquals("nextPageToken, files(id,name)", query.getFields());
+        assertEquals(query, ListingQuery.ALL.orderBy("folder", false).orderBy("name", true).withFields("name"));
+        assertNotEquals(query, ListingQuery.ALL.orderBy("folder", false).withFields("name"));
+        assertThrows(IllegalArgumentException.class, () -> ListingQuery.ALL.orderBy("mimeType", false));
+    }
+}
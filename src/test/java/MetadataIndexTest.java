@@ -0,0 +1,124 @@
+import com.google.api.client.util.DateTime;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetadataIndexTest {
+    @TempDir
+    Path tempDir;
+
+    private static DriveFile file(String id, String name) {
+        return new DriveFile(id, name, "text/plain", new DateTime(false, 1700000000000L, 0));
+    }
+
+    @Test
+    void testListingPagesArePersisted() throws IOException {
+        MetadataIndex index = MetadataIndex.load(tempDir.resolve("index").toFile());
+        index.setStartPageToken("100");
+        index.addListingPage(Arrays.asList(file("a", "A"), file("b", "B")), "page-2");
+        index.close();
+
+        MetadataIndex reloaded = MetadataIndex.load(tempDir.resolve("index").toFile());
+        assertEquals(2, reloaded.size());
+        assertEquals("page-2", reloaded.getListingPageToken());
+        assertEquals("100", reloaded.getStartPageToken());
+        assertFalse(reloaded.isListingComplete());
+        assertEquals("B", reloaded.get("b").getName());
+        assertEquals(1700000000000L, reloaded.get("b").getLastModifiedDate().getValue());
+    }
+
+    @Test
+    void testChangesAreAppliedAsDelta() throws IOException {
+        MetadataIndex index = MetadataIndex.load(tempDir.resolve("index").toFile());
+        index.setStartPageToken("100");
+        index.addListingPage(Arrays.asList(file("a", "A"), file("b", "B"), file("c", "C")), null);
+
+        Map<String, DriveFile> changes = new LinkedHashMap<>();
+        changes.put("b", null);
+        changes.put("a", file("a", "Renamed"));
+        changes.put("d", file("d", "D"));
+        MetadataIndex.Delta delta = index.applyChanges(changes, "105");
+        index.close();
+
+        assertEquals(Arrays.asList("b"), List.copyOf(delta.removed));
+        assertEquals(2, delta.updated.size());
+
+        MetadataIndex reloaded = MetadataIndex.load(tempDir.resolve("index").toFile());
+        assertTrue(reloaded.isListingComplete());
+        assertEquals("105", reloaded.getStartPageToken());
+        List<DriveFile> files = reloaded.files();
+        assertEquals(3, files.size());
+        assertEquals("Renamed", files.get(0).getName());
+        assertEquals("c", files.get(1).getId());
+        assertEquals("d", files.get(2).getId());
+    }
+
+    @Test
+    void testLocalChangesKeepTheStartPageToken() throws IOException {
+        MetadataIndex index = MetadataIndex.load(tempDir.resolve("index").toFile());
+        index.setStartPageToken("100");
+        index.applyChanges(Map.of("a", file("a", "A")), "105");
+        index.applyChanges(Map.of("a", file("a", "Renamed")));
+        index.close();
+
+        MetadataIndex reloaded = MetadataIndex.load(tempDir.resolve("index").toFile());
+        assertEquals("105", reloaded.getStartPageToken());
+        assertEquals("Renamed", reloaded.files().get(0).getName());
+    }
+
+    @Test
+    void testListingSkipsFilesKnownFromChanges() throws IOException {
+        MetadataIndex index = MetadataIndex.load(tempDir.resolve("index").toFile());
+        index.applyChanges(Map.of("a", file("a", "A")), "101");
+        List<DriveFile> added = index.addListingPage(Arrays.asList(file("a", "A"), file("b", "B")), "page-2");
+
+        assertEquals(1, added.size());
+        assertEquals("b", added.get(0).getId());
+    }
+
+    @Test
+    void testCompactionAndTruncatedJournal() throws IOException {
+        MetadataIndex index = MetadataIndex.load(tempDir.resolve("index").toFile());
+        index.addListingPage(Arrays.asList(file("a", "A"), file("b", "B")), "page-2");
+        index.compact();
+        index.addListingPage(Arrays.asList(file("c", "C")), null);
+        index.close();
+
+        // simulate a crash in the middle of writing the last record
+        try (RandomAccessFile journal = new RandomAccessFile(tempDir.resolve("index.journal").toFile(), "rw")) {
+            journal.setLength(journal.length() - 3);
+        }
+
+        MetadataIndex reloaded = MetadataIndex.load(tempDir.resolve("index").toFile());
+        assertEquals(2, reloaded.size());
+        assertFalse(reloaded.isListingComplete());
+        assertEquals("page-2", reloaded.getListingPageToken());
+    }
+
+    @Test
+    void testFirstRowsAreStoredForStartup() throws IOException {
+        java.io.File head = tempDir.resolve("head").toFile();
+        assertTrue(MetadataIndex.loadHead(head).isEmpty());
+
+        MetadataIndex.saveHead(head, Arrays.asList(file("a", "A"), new DriveFile("b", "B", null, null)));
+        List<DriveFile> rows = MetadataIndex.loadHead(head);
+        assertEquals(2, rows.size());
+        assertEquals("A", rows.get(0).getName());
+        assertEquals(1700000000000L, rows.get(0).getLastModifiedDate().getValue());
+        assertNull(rows.get(1).getLastModifiedDate());
+
+        try (RandomAccessFile file = new RandomAccessFile(head, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        assertEquals(1, MetadataIndex.loadHead(head).size());
+    }
+}
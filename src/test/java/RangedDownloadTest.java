@@ -0,0 +1,79 @@
+import com.google.api.client.http.javanet.NetHttpTransport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RangedDownloadTest {
+    @TempDir
+    Path tempDir;
+
+    private FakeDriveServer server;
+    private FakeDriveServer.FakeFile file;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new FakeDriveServer();
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new Random(7).nextBytes(content);
+        file = server.addFile("large", "application/octet-stream", content);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    private RangedDownload newDownload(Path destination, String md5Checksum) {
+        return new RangedDownload(new NetHttpTransport().createRequestFactory(), server.mediaUrl(file.id),
+                file.content.length, md5Checksum, destination.toFile(), 4)
+                .setRetryDelayMillis(1);
+    }
+
+    @Test
+    void testDownloadInParallelRanges() throws IOException {
+        Path destination = tempDir.resolve("large.bin");
+        newDownload(destination, FakeDriveServer.md5(file.content)).download();
+
+        assertArrayEquals(file.content, Files.readAllBytes(destination));
+        assertEquals(4, server.mediaRequests.get());
+    }
+
+    @Test
+    void testFailedRangesAreRetriedOnTheirOwn() throws IOException {
+        server.failDownloads(2, 1000);
+        Path destination = tempDir.resolve("large.bin");
+        newDownload(destination, FakeDriveServer.md5(file.content)).download();
+
+        assertArrayEquals(file.content, Files.readAllBytes(destination));
+        assertEquals(6, server.mediaRequests.get());
+    }
+
+    @Test
+    void testBothLocalIoPathsWriteTheSameContent() throws IOException {
+        server.failDownloads(1, 1000);
+        Path streamed = tempDir.resolve("streamed.bin");
+        Path synced = tempDir.resolve("synced.bin");
+        newDownload(streamed, FakeDriveServer.md5(file.content)).setChannelIo(false).download();
+        newDownload(synced, FakeDriveServer.md5(file.content))
+                .setSyncPolicy(FileChannelMedia.SyncPolicy.PERIODIC)
+                .download();
+
+        assertArrayEquals(file.content, Files.readAllBytes(streamed));
+        assertArrayEquals(file.content, Files.readAllBytes(synced));
+    }
+
+    @Test
+    void testChecksumMismatchDeletesFile() {
+        Path destination = tempDir.resolve("large.bin");
+        assertThrows(IOException.class, () -> newDownload(destination, "00000000000000000000000000000000").download());
+        assertFalse(Files.exists(destination));
+    }
+}
@@ -0,0 +1,139 @@
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpResponseException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestSchedulerTest {
+    @TempDir
+    Path tempDir;
+
+    private FakeDriveServer server;
+    private RateLimiter limiter;
+    private DriveClient client;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new FakeDriveServer();
+        server.addFile("a.txt", "text/plain", new byte[1]);
+        limiter = new RateLimiter(1000, 100, 8, 16);
+        RequestScheduler scheduler = new RequestScheduler(null, limiter).setBaseDelayMillis(1);
+        client = new DriveClient(DriveClient.newPooledTransport(16), scheduler, server.rootUrl(), tempDir.toFile());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void testRateLimitedRequestsAreRetried() throws IOException {
+        server.throttle(2, 403, null);
+        assertEquals(1, client.list(ListingCursor.first(10)).files.size());
+        assertEquals(3, server.requests.get());
+        assertEquals(4, limiter.getConcurrencyLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void testRetryAfterIsHonored() throws IOException {
+        server.throttle(1, 429, "1");
+        long start = System.nanoTime();
+        client.list(ListingCursor.first(10));
+        assertTrue(System.nanoTime() - start >= 1_000_000_000L);
+        assertEquals(2, server.requests.get());
+    }
+
+    @Test
+    void testRetriesGiveUpEventually() {
+        server.throttle(100, 429, null);
+        HttpResponseException e = assertThrows(HttpResponseException.class, () -> client.list(ListingCursor.first(10)));
+        assertEquals(429, e.getStatusCode());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void testRetryAfterFormats() {
+        assertEquals(-1, RequestScheduler.retryAfterMillis(null));
+        assertEquals(3000, RequestScheduler.retryAfterMillis("3"));
+        assertEquals(0, RequestScheduler.retryAfterMillis("Wed, 21 Oct 2015 07:28:00 GMT"));
+        assertEquals(-1, RequestScheduler.retryAfterMillis("soon"));
+    }
+
+    @Test
+    void testInteractiveRequestsOvertakeBulkRequests() throws Exception {
+        RateLimiter single = new RateLimiter(1000, 100, 1, 1);
+        single.acquire(RateLimiter.Priority.BULK);   // occupies the only slot while the others queue up
+        List<RateLimiter.Priority> admitted = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (RateLimiter.Priority priority : new RateLimiter.Priority[] {RateLimiter.Priority.BULK,
+                RateLimiter.Priority.INTERACTIVE}) {
+            Thread thread = new Thread(() -> {
+                try {
+                    single.acquire(priority);
+                    admitted.add(priority);
+                    single.release();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+            Thread.sleep(100);   // the bulk request queues first
+        }
+        single.release();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(List.of(RateLimiter.Priority.INTERACTIVE, RateLimiter.Priority.BULK), admitted);
+    }
+
+    @Test
+    void testConcurrencyLimitGrowsWithSuccesses() {
+        RateLimiter growing = new RateLimiter(1000, 100, 2, 3);
+        for (int i = 0; i < 10; i++) {
+            growing.onSuccess();
+        }
+        assertEquals(3, growing.getConcurrencyLimit());
+    }
+
+    @Test
+    void testPermissionErrorInBatchFailsOnlyItsFile() throws IOException {
+        List<DriveFile> files = new ArrayList<>();
+        for (String name : new String[] {"b.txt", "c.txt", "d.txt"}) {
+            FakeDriveServer.FakeFile file = server.addFile(name, "text/plain", new byte[1]);
+            files.add(new DriveFile(file.id, file.name));
+        }
+        server.denyAccess(files.get(1).getId());
+
+        BatchResult result = client.deleteFiles(files);   // answered 204, 403, 204
+
+        assertEquals(List.of(files.get(0), files.get(2)), result.succeeded);
+        assertEquals(List.of(files.get(1)), new ArrayList<>(result.failed.keySet()));
+        assertTrue(result.failed.get(files.get(1)).contains("sufficient permissions"));
+        assertNotNull(server.file(files.get(1).getId()));
+        assertNull(server.file(files.get(2).getId()));
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void testPermissionErrorKeepsItsDetails() {
+        String id = server.fileIds().get(0);
+        server.denyAccess(id);
+
+        GoogleJsonResponseException e = assertThrows(GoogleJsonResponseException.class,
+                () -> client.getService().files().get(id).execute());
+        assertEquals(403, e.getStatusCode());
+        assertEquals("insufficientFilePermissions", e.getDetails().getErrors().get(0).getReason());
+        assertEquals(1, server.requests.get());   // not retried
+    }
+}
@@ -0,0 +1,117 @@
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.drive.model.File;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResumableUploadTest {
+    private static final int CHUNK_SIZE = ResumableUpload.CHUNK_GRANULARITY;
+
+    @TempDir
+    Path tempDir;
+
+    private FakeDriveServer server;
+    private Path source;
+    private byte[] content;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new FakeDriveServer();
+        content = new byte[4 * CHUNK_SIZE + 1000];
+        new Random(42).nextBytes(content);
+        source = tempDir.resolve("upload.bin");
+        Files.write(source, content);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    private ResumableUpload newUpload() {
+        return newUpload("upload");
+    }
+
+    private ResumableUpload newUpload(String name) {
+        File metadata = new File();
+        metadata.setName(name);
+        return new ResumableUpload(new NetHttpTransport().createRequestFactory(), GsonFactory.getDefaultInstance(),
+                server.uploadUrl(), source.toFile(), metadata, "application/octet-stream", CHUNK_SIZE,
+                tempDir.resolve("sessions").toFile())
+                .setRetryDelayMillis(1);
+    }
+
+    @Test
+    void testUploadInChunksReportsProgress() throws IOException {
+        List<Long> progress = new ArrayList<>();
+        File file = newUpload().setProgressListener((uploaded, total, rate) -> progress.add(uploaded)).upload();
+
+        assertArrayEquals(content, server.file(file.getId()).content);
+        assertEquals(5, server.chunksReceived.get());
+        assertEquals(5, progress.size());
+        assertEquals(content.length, (long) progress.get(progress.size() - 1));
+    }
+
+    @Test
+    void testHeapBufferPathUploadsTheSameContent() throws IOException {
+        server.failChunk(2, 1000);
+        File file = newUpload().setChannelIo(false).upload();
+
+        assertArrayEquals(content, server.file(file.getId()).content);
+        assertEquals(content.length, server.bytesReceived.get());
+    }
+
+    @Test
+    void testRetryAfterMidTransferFailureResumesFromServerOffset() throws IOException {
+        server.failChunk(2, 1000);
+        File file = newUpload().upload();
+
+        assertArrayEquals(content, server.file(file.getId()).content);
+        assertEquals(1, server.sessionsStarted.get());
+        assertEquals(content.length, server.bytesReceived.get());
+    }
+
+    @Test
+    void testUploadContinuesAfterRestart() throws IOException {
+        server.failChunk(3, 500);
+        assertThrows(IOException.class, () -> newUpload().setMaxRetries(0).upload());
+        assertTrue(Files.list(tempDir.resolve("sessions")).findAny().isPresent());
+
+        File file = newUpload().upload();
+
+        assertArrayEquals(content, server.file(file.getId()).content);
+        assertEquals(1, server.sessionsStarted.get());
+        assertEquals(content.length, server.bytesReceived.get());
+        assertFalse(Files.list(tempDir.resolve("sessions")).findAny().isPresent());
+    }
+
+    @Test
+    void testSessionIsNotResumedUnderAnotherName() throws IOException {
+        server.failChunk(3, 500);
+        assertThrows(IOException.class, () -> newUpload().setMaxRetries(0).upload());
+
+        File file = newUpload("renamed").upload();
+
+        assertEquals("renamed", server.file(file.getId()).name);
+        assertArrayEquals(content, server.file(file.getId()).content);
+        assertEquals(2, server.sessionsStarted.get());
+        assertTrue(Files.list(tempDir.resolve("sessions")).findAny().isPresent());   // the first one is kept
+    }
+
+    @Test
+    void testChunkSizeMustBeMultipleOfGranularity() {
+        assertThrows(IllegalArgumentException.class, () -> new ResumableUpload(null, null, null, source.toFile(),
+                new File(), null, CHUNK_SIZE + 1, tempDir.toFile()));
+    }
+}
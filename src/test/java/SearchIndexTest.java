@@ -0,0 +1,118 @@
+import com.google.api.client.util.DateTime;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchIndexTest {
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final long JAN_1_2024 = 1704067200000L;
+
+    private static DriveFile file(String id, String name, String type, long modified) {
+        return new DriveFile(id, name, type, new DateTime(false, modified, 0));
+    }
+
+    private static List<String> ids(List<DriveFile> files) {
+        List<String> ids = new ArrayList<>();
+        for (DriveFile file : files) {
+            ids.add(file.getId());
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private static SearchIndex index() {
+        return index(new SearchIndex());
+    }
+
+    private static SearchIndex index(SearchIndex index) {
+        index.putAll(Arrays.asList(
+                file("1", "Quarterly Report 2023.pdf", "application/pdf", JAN_1_2024 - DAY),
+                file("2", "report-draft.docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document", JAN_1_2024),
+                file("3", "Holiday photos", "application/vnd.google-apps.folder", JAN_1_2024 + DAY),
+                file("4", "photo_0001.JPG", "image/jpeg", JAN_1_2024 + 2 * DAY),
+                file("5", "Budget", "application/vnd.google-apps.spreadsheet", JAN_1_2024 + 3 * DAY)));
+        return index;
+    }
+
+    @Test
+    void testWordsMatchByPrefix() {
+        SearchIndex index = index();
+        assertEquals(List.of("1", "2"), ids(index.search(new SearchIndex.Query("rep"))));
+        assertEquals(List.of("3", "4"), ids(index.search(new SearchIndex.Query("PHOTO"))));
+        assertEquals(List.of("1"), ids(index.search(new SearchIndex.Query("report 2023"))));
+        assertEquals(List.of("4"), ids(index.search(new SearchIndex.Query("jpg"))));
+        assertEquals(List.of(), ids(index.search(new SearchIndex.Query("report photo"))));
+        assertEquals(List.of(), ids(index.search(new SearchIndex.Query("eport"))));
+        assertEquals(5, index.search(new SearchIndex.Query("")).size());
+    }
+
+    @Test
+    void testFilters() {
+        SearchIndex index = index();
+        assertEquals(List.of("1"), ids(index.search(SearchIndex.Query.parse("type:pdf"))));
+        assertEquals(List.of("3", "5"), ids(index.search(SearchIndex.Query.parse("type:google-apps"))));
+        assertEquals(List.of("2", "3", "4", "5"), ids(index.search(SearchIndex.Query.parse("after:2024-01-01"))));
+        assertEquals(List.of("3"), ids(index.search(SearchIndex.Query.parse("after:2024-01-02 before:2024-01-03"))));
+        assertEquals(List.of("4"), ids(index.search(SearchIndex.Query.parse("photo type:image/ after:2024-01-01"))));
+        // a date still being typed is ignored instead of filtering everything out
+        assertEquals(List.of("1", "2"), ids(index.search(SearchIndex.Query.parse("report after:2024-0"))));
+        assertTrue(SearchIndex.Query.parse("  ").isEmpty());
+    }
+
+    @Test
+    void testUpdatesAndRemovals() {
+        for (int mergeThreshold : new int[] {1, 3, 1000}) {   // merged right away, in between and not at all
+            SearchIndex index = index(new SearchIndex(mergeThreshold));
+            assertUpdatesAndRemovals(index);
+        }
+    }
+
+    private static void assertUpdatesAndRemovals(SearchIndex index) {
+        index.remove("1");
+        index.put(file("2", "Minutes", "text/plain", JAN_1_2024));
+        index.put(file("6", "Annual report", "application/pdf", JAN_1_2024));
+        assertEquals(5, index.size());
+        assertEquals(List.of("6"), ids(index.search(new SearchIndex.Query("report"))));
+        assertEquals(List.of("2"), ids(index.search(new SearchIndex.Query("min"))));
+        assertEquals(List.of("6"), ids(index.search(SearchIndex.Query.parse("type:pdf"))));
+        assertEquals(List.of(), ids(index.search(new SearchIndex.Query("quarterly"))));
+        index.remove("6");
+        index.remove("missing");
+        assertEquals(List.of("2", "3", "4", "5"), ids(index.search(new SearchIndex.Query(""))));
+    }
+
+    @Test
+    void testManyFiles() {
+        SearchIndex index = new SearchIndex(100);
+        List<DriveFile> files = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            files.add(file("id-" + i, "file " + i, i % 2 == 0 ? "text/plain" : "image/png", JAN_1_2024 + i));
+        }
+        index.putAll(files);
+        for (int i = 0; i < 5000; i += 3) {
+            index.remove("id-" + i);
+        }
+        assertEquals(3333, index.size());
+        assertEquals(List.of("id-4999"), ids(index.search(new SearchIndex.Query("4999"))));
+        assertEquals(List.of(), ids(index.search(new SearchIndex.Query("4998"))));
+        List<DriveFile> all = index.search(new SearchIndex.Query("file"));
+        assertEquals(3333, all.size());
+        assertEquals("id-1", all.get(0).getId());   // in the order the files were added
+        assertEquals(1667, index.search(SearchIndex.Query.parse("file type:png")).size());
+    }
+
+    @Test
+    void testMimeTypesAreInterned() {
+        SearchIndex index = new SearchIndex();
+        DriveFile first = file("a", "a", new String("text/plain"), 0);
+        DriveFile second = file("b", "b", new String("text/plain"), 0);
+        index.put(first);
+        index.put(second);
+        assertSame(first.getType(), second.getType());
+    }
+}
@@ -0,0 +1,122 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ThumbnailCacheTest {
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Thumbnails holding the id of their file and the requested size, recording every fetch
+     */
+    private static class FakeThumbnails implements ThumbnailCache.Fetcher {
+        final List<String> fetched = new ArrayList<>();
+        final List<String> links = new ArrayList<>();
+
+        @Override
+        public byte[] fetch(String fileId, String thumbnailLink, int size) {
+            fetched.add(fileId);
+            links.add(thumbnailLink);
+            return fileId.startsWith("none") ? null : (fileId + "@" + size).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static ThumbnailCache<String> cache(FakeThumbnails fetcher, long budgetBytes, DownloadCache disk) {
+        return new ThumbnailCache<>(fetcher, (content, size) -> new String(content, StandardCharsets.UTF_8),
+                String::length, budgetBytes, disk, Runnable::run);
+    }
+
+    @Test
+    void testSecondLoadIsServedFromMemory() {
+        FakeThumbnails fetcher = new FakeThumbnails();
+        ThumbnailCache<String> cache = cache(fetcher, 1024, null);
+
+        assertEquals("a@32", cache.load("a", "1", 32).join());
+        CompletableFuture<String> again = cache.load("a", "1", 32);
+        assertTrue(again.isDone());
+        assertEquals("a@32", again.join());
+        assertEquals(List.of("a"), fetcher.fetched);
+        assertEquals(1, cache.getMemoryHits());
+
+        assertNull(cache.load("none", "1", 32).join());
+        assertNull(cache.load("none", "1", 32).join());   // remembered as missing
+        assertEquals(List.of("a", "none"), fetcher.fetched);
+    }
+
+    @Test
+    void testMissesAreAskedAgainOnceExpired() {
+        FakeThumbnails fetcher = new FakeThumbnails();
+        ThumbnailCache<String> cache = cache(fetcher, 1024, null).setMissingTtl(0);
+
+        assertNull(cache.load("none", "1", 32).join());
+        assertNull(cache.load("none", "1", 32).join());
+        assertEquals(List.of("none", "none"), fetcher.fetched);
+    }
+
+    @Test
+    void testListedLinkIsHandedToTheFetcher() {
+        FakeThumbnails fetcher = new FakeThumbnails();
+        DriveFile file = new DriveFile("a", "a.png", "image/png", null);
+        file.ThumbnailLink = "https://lh3.example/a=s220";
+
+        assertEquals("a@32", cache(fetcher, 1024, null).load(file, 32).join());
+        assertEquals(List.of("https://lh3.example/a=s220"), fetcher.links);
+    }
+
+    @Test
+    void testDiskTierOutlivesMemory() throws IOException {
+        FakeThumbnails fetcher = new FakeThumbnails();
+        DownloadCache disk = new DownloadCache(tempDir.resolve("thumbnails"), 1024);
+        cache(fetcher, 1024, disk).load("a", "1", 32).join();
+
+        ThumbnailCache<String> restarted = cache(fetcher, 1024, new DownloadCache(tempDir.resolve("thumbnails"), 1024));
+        assertEquals("a@32", restarted.load("a", "1", 32).join());
+        assertEquals(List.of("a"), fetcher.fetched);
+        assertEquals(1, restarted.getDiskHits());
+
+        assertEquals("a@32", restarted.load("a", "2", 32).join());   // the file changed
+        assertEquals("a@240", restarted.load("a", "2", 240).join());
+        assertEquals(List.of("a", "a", "a"), fetcher.fetched);
+    }
+
+    @Test
+    void testMemoryBudgetEvictsLeastRecentlyUsed() {
+        FakeThumbnails fetcher = new FakeThumbnails();
+        ThumbnailCache<String> cache = cache(fetcher, 10, null);   // two thumbnails of 4 bytes fit
+
+        cache.load("a", "1", 32).join();
+        cache.load("b", "1", 32).join();
+        cache.load("a", "1", 32).join();   // b is now the least recently used
+        cache.load("c", "1", 32).join();
+        assertEquals(8, cache.getTotalBytes());
+
+        cache.load("a", "1", 32).join();
+        cache.load("b", "1", 32).join();
+        assertEquals(List.of("a", "b", "c", "b"), fetcher.fetched);
+    }
+
+    @Test
+    void testCancelledLoadIsNotFetched() {
+        FakeThumbnails fetcher = new FakeThumbnails();
+        List<Runnable> queued = new ArrayList<>();
+        ThumbnailCache<String> cache = new ThumbnailCache<>(fetcher,
+                (content, size) -> new String(content, StandardCharsets.UTF_8), String::length, 1024, null,
+                queued::add);
+
+        CompletableFuture<String> scrolledAway = cache.load("a", "1", 32);
+        CompletableFuture<String> visible = cache.load("b", "1", 32);
+        scrolledAway.cancel(false);
+        queued.forEach(Runnable::run);
+
+        assertEquals("b@32", visible.join());
+        assertEquals(List.of("b"), fetcher.fetched);
+    }
+}
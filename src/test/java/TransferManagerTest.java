@@ -0,0 +1,181 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransferManagerTest {
+    @TempDir
+    Path tempDir;
+
+    private FakeDriveServer server;
+    private DriveClient client;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new FakeDriveServer();
+        client = new DriveClient(DriveClient.newPooledTransport(8), null, server.rootUrl(),
+                tempDir.resolve("uploads").toFile());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    /**
+     * A transfer reporting progress in the given number of steps, 10ms apart
+     */
+    private static TransferManager.Transfer steps(int steps, Runnable onStart, Runnable onEnd) {
+        return job -> {
+            onStart.run();
+            try {
+                for (int i = 1; i <= steps; i++) {
+                    job.progress(i, steps);
+                    Thread.sleep(10);
+                }
+            } finally {
+                onEnd.run();
+            }
+            return null;
+        };
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void testConcurrencyLimitsAreRespected() throws Exception {
+        TransferManager manager = new TransferManager(client, 3, 1, 2);
+        AtomicInteger uploads = new AtomicInteger();
+        AtomicInteger downloads = new AtomicInteger();
+        AtomicInteger maxUploads = new AtomicInteger();
+        AtomicInteger maxDownloads = new AtomicInteger();
+        AtomicInteger maxTotal = new AtomicInteger();
+        List<TransferManager.Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            boolean upload = i % 2 == 0;
+            AtomicInteger counter = upload ? uploads : downloads;
+            AtomicInteger max = upload ? maxUploads : maxDownloads;
+            jobs.add(manager.submit(upload ? TransferManager.Direction.UPLOAD : TransferManager.Direction.DOWNLOAD,
+                    "job " + i, RateLimiter.Priority.BULK, steps(5, () -> {
+                        max.accumulateAndGet(counter.incrementAndGet(), Math::max);
+                        maxTotal.accumulateAndGet(uploads.get() + downloads.get(), Math::max);
+                    }, counter::decrementAndGet), null));
+        }
+        for (TransferManager.Job job : jobs) {
+            job.getResult().get(10, TimeUnit.SECONDS);
+            assertEquals(TransferManager.State.COMPLETED, job.getState());
+        }
+        assertEquals(1, maxUploads.get());
+        assertEquals(2, maxDownloads.get());
+        assertTrue(maxTotal.get() <= 3);
+        assertEquals(0, manager.getRunning(TransferManager.Direction.UPLOAD));
+    }
+
+    @Test
+    void testInteractiveJobsStartFirst() throws Exception {
+        TransferManager manager = new TransferManager(client, 1, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        manager.submit(TransferManager.Direction.UPLOAD, "blocker", RateLimiter.Priority.BULK, job -> {
+            release.await();
+            return null;
+        }, null);
+        List<String> started = Collections.synchronizedList(new ArrayList<>());
+        List<TransferManager.Job> jobs = new ArrayList<>();
+        for (String name : new String[] {"bulk 1", "interactive", "bulk 2"}) {
+            RateLimiter.Priority priority = name.startsWith("bulk")
+                    ? RateLimiter.Priority.BULK : RateLimiter.Priority.INTERACTIVE;
+            jobs.add(manager.submit(TransferManager.Direction.UPLOAD, name, priority,
+                    steps(1, () -> started.add(name), () -> { }), null));
+        }
+        release.countDown();
+        for (TransferManager.Job job : jobs) {
+            job.getResult().get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(List.of("interactive", "bulk 1", "bulk 2"), started);
+    }
+
+    @Test
+    void testPausedJobRunsAgainWhenResumed() throws Exception {
+        TransferManager manager = new TransferManager(client, 2, 2, 2);
+        AtomicInteger runs = new AtomicInteger();
+        TransferManager.Job job = manager.submit(TransferManager.Direction.DOWNLOAD, "slow",
+                RateLimiter.Priority.INTERACTIVE, steps(50, runs::incrementAndGet, () -> { }), null);
+        await(() -> job.getBytesTransferred() > 0);
+        manager.pause(job);
+        await(() -> job.getState() == TransferManager.State.PAUSED);
+        assertFalse(job.getResult().isDone());
+        assertEquals(0, manager.getRunning(TransferManager.Direction.DOWNLOAD));
+
+        manager.resume(job);
+        job.getResult().get(10, TimeUnit.SECONDS);
+        assertEquals(TransferManager.State.COMPLETED, job.getState());
+        assertEquals(2, runs.get());
+        assertEquals(1.0, job.getFraction());
+    }
+
+    @Test
+    void testCancelStopsRunningAndQueuedJobs() throws Exception {
+        TransferManager manager = new TransferManager(client, 1, 1, 1);
+        AtomicInteger cleanups = new AtomicInteger();
+        TransferManager.Job running = manager.submit(TransferManager.Direction.UPLOAD, "running",
+                RateLimiter.Priority.BULK, steps(500, () -> { }, () -> { }), cleanups::incrementAndGet);
+        TransferManager.Job queued = manager.submit(TransferManager.Direction.UPLOAD, "queued",
+                RateLimiter.Priority.BULK, steps(1, () -> fail("Cancelled job started"), () -> { }),
+                cleanups::incrementAndGet);
+        await(() -> running.getBytesTransferred() > 0);
+
+        manager.cancel(queued);
+        assertEquals(TransferManager.State.CANCELLED, queued.getState());
+        manager.cancel(running);
+        await(() -> running.getState() == TransferManager.State.CANCELLED);
+        assertTrue(running.getResult().isCancelled());
+        assertTrue(queued.getResult().isCancelled());
+        assertEquals(2, cleanups.get());
+
+        manager.removeFinished();
+        assertTrue(manager.getJobs().isEmpty());
+    }
+
+    @Test
+    void testUploadAndDownloadThroughDrive() throws Exception {
+        TransferManager manager = new TransferManager(client, 2, 1, 1);
+        byte[] content = new byte[3 * ResumableUpload.CHUNK_GRANULARITY / 2];
+        new Random(1).nextBytes(content);
+        Path source = Files.write(tempDir.resolve("data.txt"), content);
+
+        TransferManager.Job upload = manager.upload(source.toString(), RateLimiter.Priority.INTERACTIVE);
+        DriveFile uploaded = upload.getResult().get(10, TimeUnit.SECONDS);
+        assertEquals(content.length, upload.getBytesTransferred());
+        assertEquals(content.length, upload.getTotalBytes());
+
+        Path directory = Files.createDirectory(tempDir.resolve("downloads"));
+        TransferManager.Job download = manager.download(uploaded, directory.toString(), RateLimiter.Priority.BULK);
+        download.getResult().get(10, TimeUnit.SECONDS);
+        assertEquals(TransferManager.State.COMPLETED, download.getState());
+        assertEquals(content.length, download.getBytesTransferred());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertArrayEquals(content, Files.readAllBytes(files.findFirst().orElseThrow()));
+        }
+    }
+}
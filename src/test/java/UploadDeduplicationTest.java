@@ -0,0 +1,170 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UploadDeduplicationTest {
+    @TempDir
+    Path tempDir;
+
+    private FakeDriveServer server;
+    private DriveClient client;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new FakeDriveServer();
+        client = new DriveClient(DriveClient.newPooledTransport(4), null, server.rootUrl(),
+                tempDir.resolve("uploads").toFile());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    private byte[] content(int length, int seed) {
+        byte[] content = new byte[length];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    private ChecksumIndex deduplicate(DriveClient.DuplicateUploads mode) throws IOException {
+        ChecksumIndex checksums = ChecksumIndex.load(tempDir.resolve("checksums").toFile());
+        client.setDeduplication(mode, ContentHashes.load(tempDir.resolve("hashes").toFile()), checksums);
+        return checksums;
+    }
+
+    @Test
+    void testContentOnDriveIsNotUploadedAgain() throws Exception {
+        byte[] content = content(300_000, 1);
+        FakeDriveServer.FakeFile existing = server.addFile("backup", "text/plain", content);
+        Path source = Files.write(tempDir.resolve("backup.txt"), content);
+        deduplicate(DriveClient.DuplicateUploads.SKIP);
+
+        DriveFile uploaded = client.uploadFileResumable(source.toString(), ResumableUpload.DEFAULT_CHUNK_SIZE, null);
+
+        assertEquals(existing.id, uploaded.getId());
+        assertEquals(0, server.sessionsStarted.get());
+        assertEquals(0, server.copies.get());
+        assertEquals(content.length, client.getDeduplicatedBytes());
+    }
+
+    @Test
+    void testSkipModeCopiesContentFoundElsewhere() throws Exception {
+        byte[] content = content(300_000, 7);
+        FakeDriveServer.FakeFile folder = server.addFolder("archive", "root");
+        FakeDriveServer.FakeFile existing = server.addFile("backup", "text/plain", content, folder.id);
+        Path source = Files.write(tempDir.resolve("backup.txt"), content);
+        deduplicate(DriveClient.DuplicateUploads.SKIP);
+
+        DriveFile uploaded = client.uploadFileResumable(source.toString(), ResumableUpload.DEFAULT_CHUNK_SIZE, null);
+
+        assertNotEquals(existing.id, uploaded.getId());
+        assertEquals(1, server.copies.get());
+        assertEquals(0, server.sessionsStarted.get());
+        FakeDriveServer.FakeFile copy = server.file(uploaded.getId());
+        assertEquals("backup", copy.name);
+        assertEquals("root", copy.parent);
+    }
+
+    @Test
+    void testCopyModeCopiesOnTheServer() throws Exception {
+        byte[] content = content(300_000, 2);
+        FakeDriveServer.FakeFile folder = server.addFolder("archive", "root");
+        server.addFile("original", "text/plain", content, folder.id);
+        Path source = Files.write(tempDir.resolve("backup.txt"), content);
+        deduplicate(DriveClient.DuplicateUploads.COPY);
+
+        DriveFile uploaded = client.uploadFileResumable(source.toString(), ResumableUpload.DEFAULT_CHUNK_SIZE, null);
+
+        assertEquals(1, server.copies.get());
+        assertEquals(0, server.bytesReceived.get());
+        FakeDriveServer.FakeFile copy = server.file(uploaded.getId());
+        assertEquals("backup", copy.name);
+        assertEquals("root", copy.parent);
+        assertArrayEquals(content, copy.content);
+    }
+
+    @Test
+    void testNewContentIsUploadedAndIndexed() throws Exception {
+        deduplicate(DriveClient.DuplicateUploads.SKIP);
+        byte[] content = content(100_000, 3);
+        Path first = Files.write(tempDir.resolve("first.txt"), content);
+        Path second = Files.write(tempDir.resolve("second.txt"), content);
+
+        DriveFile uploaded = client.uploadFileResumable(first.toString(), ResumableUpload.DEFAULT_CHUNK_SIZE, null);
+        DriveFile duplicate = client.uploadFileResumable(second.toString(), ResumableUpload.DEFAULT_CHUNK_SIZE, null);
+
+        assertEquals(1, server.sessionsStarted.get());
+        assertEquals(1, server.copies.get());   // same content under another name
+        assertNotEquals(uploaded.getId(), duplicate.getId());
+        assertEquals("second", server.file(duplicate.getId()).name);
+    }
+
+    @Test
+    void testUploadFallsBackWhenIndexedFileIsGone() throws Exception {
+        byte[] content = content(100_000, 4);
+        FakeDriveServer.FakeFile existing = server.addFile("original", "text/plain", content);
+        Path source = Files.write(tempDir.resolve("backup.txt"), content);
+        ChecksumIndex checksums = deduplicate(DriveClient.DuplicateUploads.SKIP);
+        client.buildChecksumIndex(checksums);
+        server.removeFile(existing.id);
+
+        DriveFile uploaded = client.uploadFileResumable(source.toString(), ResumableUpload.DEFAULT_CHUNK_SIZE, null);
+
+        assertNotEquals(existing.id, uploaded.getId());
+        assertEquals(1, server.sessionsStarted.get());
+        assertEquals(uploaded.getId(), checksums.get(FakeDriveServer.md5(content)));
+        assertArrayEquals(content, server.file(uploaded.getId()).content);
+    }
+
+    @Test
+    void testHashesMatchDriveAndAreCachedUntilTheFileChanges() throws Exception {
+        byte[] small = content(10_000, 5);
+        byte[] large = content(3 * 1024 * 1024 + 17, 6);
+        Path smallFile = Files.write(tempDir.resolve("small.bin"), small);
+        Path largeFile = Files.write(tempDir.resolve("large.bin"), large);
+        java.io.File cache = tempDir.resolve("hashes").toFile();
+
+        ContentHashes hashes = ContentHashes.load(cache);
+        assertEquals(FakeDriveServer.md5(small), hashes.md5(smallFile));
+        assertEquals(FakeDriveServer.md5(large), hashes.md5(largeFile));
+        hashes.close();
+
+        Files.write(largeFile, small);   // changes size and modified time, so the cached checksum is stale
+        Files.setLastModifiedTime(largeFile, FileTime.fromMillis(1_000_000));
+        ContentHashes reloaded = ContentHashes.load(cache);
+        assertEquals(2, reloaded.size());
+        assertEquals(FakeDriveServer.md5(small), reloaded.md5(largeFile));
+        assertEquals(FakeDriveServer.md5(small), reloaded.md5(smallFile));
+        reloaded.close();
+    }
+
+    @Test
+    void testChecksumIndexIsStored() throws Exception {
+        java.io.File file = tempDir.resolve("checksums").toFile();
+        ChecksumIndex index = ChecksumIndex.load(file);
+        index.putAll(Map.of("a", "ABC", "b", "def"));
+        index.put("0123", "c");
+        index.remove("b");
+        index.markComplete();
+        index.close();
+
+        ChecksumIndex reloaded = ChecksumIndex.load(file);
+        assertTrue(reloaded.isComplete());
+        assertEquals(2, reloaded.size());
+        assertEquals("a", reloaded.get("abc"));
+        assertEquals("c", reloaded.get("0123"));
+        assertNull(reloaded.get("def"));
+        reloaded.close();
+    }
+}